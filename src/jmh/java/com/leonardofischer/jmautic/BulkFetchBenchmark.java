@@ -0,0 +1,108 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.oauth.OAuthService;
+import com.leonardofischer.jmautic.oauth.Request;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares {@link com.leonardofischer.jmautic.BulkContactFetcher} with its default executor
+ * against the same fetch on a fixed pool of platform threads, both with the same number of
+ * requests in flight, so only the executor changes. Each request waits
+ * <code>latencyMillis</code>, as a remote Mautic would, so the score is the wall time to read
+ * <code>contacts</code> ids.
+ *
+ * <p>The default executor uses virtual threads only on Java 21 or newer; run the benchmark on
+ * such a JVM to compare them with platform threads. On older JVMs both sides use platform
+ * threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkFetchBenchmark {
+
+    /**
+     * Answers every getContact request with the same contact, after waiting some time.
+     */
+    static class LatencyOAuthService implements OAuthService {
+        long latencyMillis;
+        byte[] response;
+
+        LatencyOAuthService(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            try {
+                this.response = ("{\"lead\":{\"id\":1,\"dateModified\":\"2016-05-24T19:23:33+00:00\"," +
+                    "\"fields\":{\"all\":{\"email\":\"user@example.com\"}},\"ipAddresses\":[]}}")
+                    .getBytes("UTF-8");
+            }
+            catch(UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public InputStream executeRequest(Request request) throws MauticException {
+            try {
+                Thread.sleep(latencyMillis);
+            }
+            catch(InterruptedException e) {
+                throw new MauticException("Interrupted", e);
+            }
+            return new ByteArrayInputStream(response);
+        }
+    }
+
+    @Param({"2000"})
+    int contacts;
+
+    @Param({"10"})
+    long latencyMillis;
+
+    @Param({"32", "256"})
+    int concurrency;
+
+    MauticApi mauticApi;
+    List<Integer> contactIds;
+    ExecutorService platformPool;
+
+    @Setup
+    public void setup() {
+        mauticApi = new MauticApi(new LatencyOAuthService(latencyMillis));
+        contactIds = new ArrayList<Integer>(contacts);
+        for( int id=1; id<=contacts; id++ ) {
+            contactIds.add(id);
+        }
+        platformPool = Executors.newFixedThreadPool(concurrency);
+    }
+
+    @TearDown
+    public void tearDown() {
+        platformPool.shutdownNow();
+    }
+
+    @Benchmark
+    public BulkFetchResult fixedPlatformPool() throws MauticException {
+        return new BulkContactFetcher(mauticApi)
+            .executor(platformPool)
+            .concurrency(concurrency)
+            .fetch(contactIds);
+    }
+
+    @Benchmark
+    public BulkFetchResult bulkFetcher() throws MauticException {
+        return new BulkContactFetcher(mauticApi)
+            .concurrency(concurrency)
+            .fetch(contactIds);
+    }
+}
@@ -0,0 +1,100 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.http.HttpResponse;
+import com.leonardofischer.jmautic.http.HttpTransport;
+import com.leonardofischer.jmautic.oauth.Request;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how OAuth2Service.executeRequest builds the URL and body of a request, using a stub
+ * transport that never touches the network. Run it with the gc profiler (as the jmh task does)
+ * to see the bytes allocated per call in <code>gc.alloc.rate.norm</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OAuth2ServiceBenchmark {
+
+    /**
+     * Returns an empty response and lets the benchmark consume the URL and body built by the
+     * service.
+     */
+    static class StubTransport implements HttpTransport {
+        Blackhole blackhole;
+
+        public HttpResponse execute(Request.Method method, String url, Map<String,String> headers,
+                byte[] body) {
+            blackhole.consume(url);
+            blackhole.consume(body);
+            return new HttpResponse(200, Collections.<String,String>emptyMap(),
+                new ByteArrayInputStream(new byte[0]));
+        }
+
+        public void close() {
+        }
+    }
+
+    StubTransport transport;
+    OAuth2Service service;
+    Map<String,String> contactFields;
+
+    @Setup
+    public void setup() {
+        transport = new StubTransport();
+        service = new OAuth2Service()
+            .instanceUrl("https://mautic.example.com")
+            .accessToken("Mjg0ZDgyMjVhNzg9MTE4XmJlZjE1YThjZmFiM2ZlMDVjMzNlNDilYzhiZTcxNWQ4YmOwZGU2Zjc4YjEzZjk3OQ")
+            .transport(transport);
+
+        contactFields = new HashMap<String,String>();
+        contactFields.put("firstname", "Chuck");
+        contactFields.put("lastname", "Norris");
+        contactFields.put("email", "chucknorris@anyserver.com");
+        contactFields.put("city", "Sao Paulo");
+    }
+
+    @Benchmark
+    public InputStream listContactsRequest(Blackhole blackhole) throws MauticException {
+        transport.blackhole = blackhole;
+        Request request = Request.builder()
+            .endpoint("/api/contacts")
+            .parameter("search", "email:*@example.com")
+            .parameter("start", "1000")
+            .parameter("limit", "100")
+            .parameter("orderBy", "dateModified")
+            .parameter("orderByDir", "asc")
+            .build();
+        return service.executeRequest(request);
+    }
+
+    @Benchmark
+    public InputStream getContactRequest(Blackhole blackhole) throws MauticException {
+        transport.blackhole = blackhole;
+        return service.executeRequest(Request.get("/api/contacts/435"));
+    }
+
+    @Benchmark
+    public InputStream createContactRequest(Blackhole blackhole) throws MauticException {
+        transport.blackhole = blackhole;
+        Request.Builder request = Request.builder()
+            .method(Request.Method.POST)
+            .endpoint("/api/contacts/new");
+        for( Map.Entry<String,String> field : contactFields.entrySet() ) {
+            request.bodyParameter(field.getKey(), field.getValue());
+        }
+        return service.executeRequest(request.build());
+    }
+}
@@ -0,0 +1,62 @@
+package com.leonardofischer.jmautic.model;
+
+import com.leonardofischer.jmautic.ContactJsonGenerator;
+import com.leonardofischer.jmautic.parser.ContactConsumer;
+import com.leonardofischer.jmautic.parser.Parser;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Compares the heap retained by Contact and by CompactContact objects. It is not a JMH
+ * benchmark, since JMH measures allocation, not retained memory. Run with:
+ *
+ * <pre>
+ *    java -cp ... com.leonardofischer.jmautic.model.ContactFootprint [contacts] [fields]</pre>
+ */
+public class ContactFootprint {
+
+    public static void main(String[] args) throws Exception {
+        int contacts = args.length>0 ? Integer.parseInt(args[0]) : 100000;
+        int fields = args.length>1 ? Integer.parseInt(args[1]) : 64;
+
+        ContactJsonGenerator generator = new ContactJsonGenerator(fields);
+        byte[] json = generator.listContacts(1, contacts, contacts).getBytes("UTF-8");
+        Parser parser = new Parser();
+
+        final List<Contact> regular = new ArrayList<Contact>(contacts);
+        long before = usedMemory();
+        parser.parseListContacts(new ByteArrayInputStream(json), new ContactConsumer() {
+            public void accept(Contact contact) {
+                regular.add(contact);
+            }
+        });
+        long regularBytes = usedMemory() - before;
+        regular.clear();
+
+        final FieldSchema schema = new FieldSchema();
+        final List<CompactContact> compact = new ArrayList<CompactContact>(contacts);
+        before = usedMemory();
+        parser.parseListContacts(new ByteArrayInputStream(json), new ContactConsumer() {
+            public void accept(Contact contact) {
+                compact.add(schema.compact(contact));
+            }
+        });
+        long compactBytes = usedMemory() - before;
+
+        System.out.println(contacts + " contacts with " + fields + " fields");
+        System.out.println("Contact:        " + regularBytes/contacts + " bytes/contact");
+        System.out.println("CompactContact: " + compactBytes/contacts + " bytes/contact");
+        System.out.println("(" + compact.size() + " contacts, " + schema.size() + " slots)");
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for( int i=0; i<5; i++ ) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
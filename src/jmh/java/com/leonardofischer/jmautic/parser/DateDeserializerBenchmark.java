@@ -0,0 +1,54 @@
+package com.leonardofischer.jmautic.parser;
+
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures DateDeserializer on an array of dates in the format used by Mautic. Each operation
+ * parses {@link #DATES} dates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DateDeserializerBenchmark {
+
+    static final int DATES = 100;
+
+    JsonFactory factory;
+    DateDeserializer deserializer;
+    byte[] json;
+
+    @Setup
+    public void setup() throws Exception {
+        factory = new JsonFactory();
+        deserializer = new DateDeserializer();
+        StringBuilder dates = new StringBuilder("[");
+        for( int i=0; i<DATES; i++ ) {
+            if( i>0 ) {
+                dates.append(',');
+            }
+            dates.append("\"2016-05-").append(10+i%20).append("T19:23:").append(10+i%50).append("+00:00\"");
+        }
+        dates.append(']');
+        json = dates.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public void deserialize(Blackhole blackhole) throws Exception {
+        JsonParser jp = factory.createParser(json);
+        jp.nextToken();
+        while( jp.nextToken()==JsonToken.VALUE_STRING ) {
+            blackhole.consume( deserializer.deserialize(jp, null) );
+        }
+        jp.close();
+    }
+}
@@ -0,0 +1,62 @@
+package com.leonardofischer.jmautic.parser;
+
+import com.leonardofischer.jmautic.ContactJsonGenerator;
+import com.leonardofischer.jmautic.MauticException;
+import com.leonardofischer.jmautic.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the Parser on generated <code>GET /contacts</code> pages and
+ * <code>GET /contacts/ID</code> responses. Run with <code>gradle jmh</code>, which also reports
+ * the allocation rate (<code>-prof gc</code>).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"1", "100", "1000"})
+    int contacts;
+
+    @Param({"16", "64"})
+    int fields;
+
+    Parser parser;
+    byte[] listContactsJson;
+    byte[] getContactJson;
+
+    @Setup
+    public void setup() throws Exception {
+        parser = new Parser();
+        ContactJsonGenerator generator = new ContactJsonGenerator(fields);
+        listContactsJson = generator.listContacts(1, contacts, contacts).getBytes("UTF-8");
+        getContactJson = generator.getContact(1).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public ListContactsResult parseListContacts() throws MauticException {
+        return parser.parseListContacts(new ByteArrayInputStream(listContactsJson));
+    }
+
+    @Benchmark
+    public int parseListContactsStreaming(final Blackhole blackhole) throws MauticException {
+        return parser.parseListContacts(new ByteArrayInputStream(listContactsJson), new ContactConsumer() {
+            public void accept(Contact contact) {
+                blackhole.consume(contact);
+            }
+        });
+    }
+
+    @Benchmark
+    public GetContactResult parseGetContact() throws MauticException {
+        return parser.parseGetContact(new ByteArrayInputStream(getContactJson));
+    }
+}
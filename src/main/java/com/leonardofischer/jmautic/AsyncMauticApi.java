@@ -0,0 +1,162 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.oauth.AsyncOAuthService;
+import com.leonardofischer.jmautic.oauth.ExecutorAsyncOAuthService;
+import com.leonardofischer.jmautic.oauth.OAuthService;
+import com.leonardofischer.jmautic.oauth.Request;
+import com.leonardofischer.jmautic.parser.Parser;
+
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>Asynchronous version of {@link com.leonardofischer.jmautic.MauticApi}. Each method returns
+ * immediately with a CompletableFuture, that is completed with the parsed result, or completed
+ * exceptionally with a {@link com.leonardofischer.jmautic.MauticException}.
+ *
+ * <p>The requests are executed by an {@link com.leonardofischer.jmautic.oauth.AsyncOAuthService},
+ * and the responses are parsed in the given <code>parseExecutor</code>. For example, to run
+ * everything on virtual threads (Java 21 or newer):
+ *
+ * <pre>
+ *    ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+ *    AsyncMauticApi api = new AsyncMauticApi(oauth2Service, executor);
+ *    api.getContact(435).thenAccept(result -&gt; System.out.println(result.contact.id));</pre>
+ */
+public class AsyncMauticApi {
+
+    AsyncOAuthService asyncService;
+    Executor parseExecutor;
+    Parser parser;
+
+    private final ResponseParser<GetContactResult> getContactParser = new ResponseParser<GetContactResult>() {
+        public GetContactResult parse(InputStream input) throws MauticException {
+            return parser.parseGetContact(input);
+        }
+    };
+
+    /**
+     * Creates a new AsyncMauticApi that runs both the requests of the given OAuthService and the
+     * parsing of their responses in the given executor.
+     *
+     * @param oauthService a blocking {@link com.leonardofischer.jmautic.oauth.OAuthService}
+     * @param executor     the executor where requests and parsing will run
+     */
+    public AsyncMauticApi(OAuthService oauthService, Executor executor) {
+        this(oauthService, executor, MauticApi.sharedParser);
+    }
+
+    /**
+     * Creates a new AsyncMauticApi like {@link #AsyncMauticApi(OAuthService, Executor)}, that
+     * uses the given Parser, such as the one of a {@link com.leonardofischer.jmautic.MauticApi}
+     * for the same service.
+     *
+     * @param oauthService a blocking {@link com.leonardofischer.jmautic.oauth.OAuthService}
+     * @param executor     the executor where requests and parsing will run
+     * @param parser       the Parser of the responses
+     */
+    public AsyncMauticApi(OAuthService oauthService, Executor executor, Parser parser) {
+        this(new ExecutorAsyncOAuthService(oauthService, executor), executor, parser);
+    }
+
+    /**
+     * Creates a new AsyncMauticApi from an
+     * {@link com.leonardofischer.jmautic.oauth.AsyncOAuthService}.
+     *
+     * @param asyncService  the service that executes the requests
+     * @param parseExecutor the executor where the responses are parsed. Parsing reads the
+     *                      response stream, so it may block while the response arrives.
+     */
+    public AsyncMauticApi(AsyncOAuthService asyncService, Executor parseExecutor) {
+        this(asyncService, parseExecutor, MauticApi.sharedParser);
+    }
+
+    /**
+     * Creates a new AsyncMauticApi from an
+     * {@link com.leonardofischer.jmautic.oauth.AsyncOAuthService}, that uses the given Parser.
+     * A Parser can be shared by any number of MauticApi and AsyncMauticApi instances.
+     *
+     * @param asyncService  the service that executes the requests
+     * @param parseExecutor the executor where the responses are parsed
+     * @param parser        the Parser of the responses
+     */
+    public AsyncMauticApi(AsyncOAuthService asyncService, Executor parseExecutor, Parser parser) {
+        if( asyncService==null ) {
+            throw new IllegalArgumentException("asyncService cannot be null");
+        }
+        if( parseExecutor==null ) {
+            throw new IllegalArgumentException("parseExecutor cannot be null");
+        }
+        if( parser==null ) {
+            throw new IllegalArgumentException("parser cannot be null");
+        }
+        this.asyncService = asyncService;
+        this.parseExecutor = parseExecutor;
+        this.parser = parser;
+    }
+
+    public CompletableFuture<ListContactsResult> listContacts() {
+        return listContacts(null);
+    }
+
+    public CompletableFuture<ListContactsResult> listContacts(Search search) {
+        Request request = MauticApi.buildListContactsRequest(search);
+        final Projection projection = search!=null ? search.projection : null;
+        return parseAsync(asyncService.executeRequestAsync(request), new ResponseParser<ListContactsResult>() {
+            public ListContactsResult parse(InputStream input) throws MauticException {
+                return parser.parseListContacts(input, projection);
+            }
+        });
+    }
+
+    public CompletableFuture<GetContactResult> getContact(int contactId) {
+        Request request = MauticApi.buildGetContactRequest(contactId);
+        return parseAsync(asyncService.executeRequestAsync(request), getContactParser);
+    }
+
+    public CompletableFuture<GetContactResult> createContact(Map<String, String> contactFields,
+            String ipAddress, Date lastActive, int ownerId) {
+        Request request = MauticApi.buildCreateContactRequest(contactFields, ipAddress, lastActive, ownerId);
+        return parseAsync(asyncService.executeRequestAsync(request), getContactParser);
+    }
+
+    private interface ResponseParser<T> {
+        T parse(InputStream input) throws MauticException;
+    }
+
+    private <T> CompletableFuture<T> parseAsync(CompletableFuture<InputStream> response,
+            final ResponseParser<T> responseParser) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        response.whenCompleteAsync(new BiConsumer<InputStream, Throwable>() {
+            public void accept(InputStream input, Throwable error) {
+                if( error!=null ) {
+                    result.completeExceptionally(unwrap(error));
+                    return;
+                }
+                try {
+                    result.complete( responseParser.parse(input) );
+                }
+                catch(MauticException e) {
+                    result.completeExceptionally(e);
+                }
+                catch(RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }, parseExecutor);
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        if( error instanceof CompletionException && error.getCause()!=null ) {
+            return error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,182 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.model.GetContactResult;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Reads many contacts by id with {@link com.leonardofischer.jmautic.MauticApi#getContact(int)},
+ * running one task per id, at most <code>concurrency</code> of them at the same time:
+ *
+ * <pre>
+ *    BulkFetchResult result = new BulkContactFetcher(mauticApi)
+ *        .concurrency(200)
+ *        .fetch(contactIds);</pre>
+ *
+ * <p>Each task blocks while its request is sent, so on Java 21 or newer the tasks run in
+ * virtual threads, and thousands of them cost little more than the requests themselves. On
+ * older Java versions, a pool of <code>concurrency</code> daemon threads is used instead. In
+ * both cases a semaphore keeps at most <code>concurrency</code> requests in flight, so a large
+ * list of ids never floods Mautic, and ids are only handed to a task when a permit is free.
+ * Use {@link #executor(ExecutorService)} to run the tasks in an executor of your own.
+ *
+ * <p>Failed ids do not stop the others: their errors are returned in
+ * {@link com.leonardofischer.jmautic.BulkFetchResult#failures}. Repeated ids are read once.
+ */
+public class BulkContactFetcher {
+
+    /**
+     * Default maximum number of requests in flight.
+     */
+    public static final int DEFAULT_CONCURRENCY = 64;
+
+    // Executors.newVirtualThreadPerTaskExecutor(), or null before Java 21
+    static final Method VIRTUAL_EXECUTOR_FACTORY = findVirtualExecutorFactory();
+
+    MauticApi mauticApi;
+    int concurrency = DEFAULT_CONCURRENCY;
+    ExecutorService executor;
+
+    public BulkContactFetcher(MauticApi mauticApi) {
+        this.mauticApi = mauticApi;
+    }
+
+    /**
+     * @param  concurrency the maximum number of requests in flight
+     * @return             this BulkContactFetcher instance
+     */
+    public BulkContactFetcher concurrency(int concurrency) {
+        if( concurrency<1 ) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Runs the tasks in the given executor instead of creating one for each fetch. The executor
+     * is not shut down by this class. The concurrency limit still applies.
+     *
+     * @param  executor the executor, or null to create one for each fetch
+     * @return          this BulkContactFetcher instance
+     */
+    public BulkContactFetcher executor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @return true if this Java version has virtual threads, so they are used by default
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return VIRTUAL_EXECUTOR_FACTORY!=null;
+    }
+
+    /**
+     * Reads the given contacts, and returns when all of them have been read or have failed.
+     *
+     * @param  contactIds      the ids to read
+     * @return                 the contacts read and the errors of the others
+     * @throws MauticException if interrupted while waiting. Requests already sent are
+     *                         cancelled.
+     */
+    public BulkFetchResult fetch(Collection<Integer> contactIds) throws MauticException {
+        final Map<Integer,GetContactResult> contacts = new ConcurrentHashMap<Integer,GetContactResult>();
+        final Map<Integer,MauticException> failures = new ConcurrentHashMap<Integer,MauticException>();
+        final Semaphore permits = new Semaphore(concurrency);
+
+        ExecutorService current = executor;
+        boolean ownExecutor = current==null;
+        if( ownExecutor ) {
+            current = newExecutor(concurrency);
+        }
+        try {
+            Iterator<Integer> it = new LinkedHashSet<Integer>(contactIds).iterator();
+            while( it.hasNext() ) {
+                final int contactId = it.next();
+                permits.acquire();
+                try {
+                    current.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                contacts.put(contactId, mauticApi.getContact(contactId));
+                            }
+                            catch(MauticException e) {
+                                failures.put(contactId, e);
+                            }
+                            catch(RuntimeException e) {
+                                failures.put(contactId, new MauticException(e.getMessage(), e));
+                            }
+                            finally {
+                                permits.release();
+                            }
+                        }
+                    });
+                }
+                catch(RejectedExecutionException e) {
+                    permits.release();
+                    failures.put(contactId, new MauticException("Fetch rejected by the executor", e));
+                }
+            }
+            // all the permits are free again once every task finished
+            permits.acquire(concurrency);
+            permits.release(concurrency);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if( ownExecutor ) {
+                current.shutdownNow();
+            }
+            throw new MauticException("Interrupted while fetching contacts", e);
+        }
+        finally {
+            if( ownExecutor ) {
+                current.shutdown();
+            }
+        }
+
+        BulkFetchResult result = new BulkFetchResult();
+        result.contacts = contacts;
+        result.failures = failures;
+        return result;
+    }
+
+    private static Method findVirtualExecutorFactory() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch(NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a virtual thread per task executor if available, or a pool of
+     * <code>threads</code> daemon threads otherwise.
+     */
+    static ExecutorService newExecutor(int threads) {
+        if( VIRTUAL_EXECUTOR_FACTORY!=null ) {
+            try {
+                return (ExecutorService)VIRTUAL_EXECUTOR_FACTORY.invoke(null);
+            }
+            catch(Exception e) {
+                // falls back to platform threads
+            }
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("jmautic-bulk-fetch"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
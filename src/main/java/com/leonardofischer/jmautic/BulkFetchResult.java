@@ -0,0 +1,31 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.model.GetContactResult;
+
+import java.util.Map;
+
+/**
+ * The result of {@link com.leonardofischer.jmautic.MauticApi#getContacts(java.util.Collection)}:
+ * every requested id is either in <code>contacts</code> or in <code>failures</code>.
+ */
+public class BulkFetchResult {
+
+    /**
+     * The contacts read, by id.
+     */
+    public Map<Integer, GetContactResult> contacts;
+
+    /**
+     * The error of each id that could not be read, such as a
+     * {@link com.leonardofischer.jmautic.MauticStatusException} with status 404 for ids that do
+     * not exist.
+     */
+    public Map<Integer, MauticException> failures;
+
+    /**
+     * @return true if all the ids were read
+     */
+    public boolean isComplete() {
+        return failures.isEmpty();
+    }
+}
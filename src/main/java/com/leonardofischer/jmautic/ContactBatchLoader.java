@@ -0,0 +1,285 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.parser.ContactConsumer;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Merges many single contact lookups into a few <code>GET /contacts</code> requests. Ids
+ * requested within a short window are collected into a batch, and the whole batch is read with
+ * one request using the <code>ids:</code> search filter of Mautic. Each caller then receives
+ * its own contact.
+ *
+ * <pre>
+ *    ContactBatchLoader loader = new ContactBatchLoader(mauticApi)
+ *        .maxBatchSize(100)
+ *        .window(20, TimeUnit.MILLISECONDS);
+ *
+ *    // from any thread
+ *    GetContactResult result = loader.getContact(contactId);</pre>
+ *
+ * <p>A batch is sent when the window of its first id ends, or as soon as it reaches
+ * <code>maxBatchSize</code> ids, whichever comes first. Up to <code>maxConcurrentBatches</code>
+ * batches are sent at the same time. Callers that request the same id in the same batch
+ * receive the same result object.
+ *
+ * <p>Ids that Mautic does not return fail with a
+ * {@link com.leonardofischer.jmautic.MauticStatusException} with status 404, like
+ * {@link com.leonardofischer.jmautic.MauticApi#getContact(int)}. If the batch request fails,
+ * all its callers receive the same error. Close the loader to stop its threads; batches already
+ * sent still complete.
+ */
+public class ContactBatchLoader implements Closeable {
+
+    /**
+     * Default maximum number of ids in a batch.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 50;
+
+    /**
+     * Default time, in milliseconds, that the first id of a batch waits for other ids.
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 10;
+
+    /**
+     * Default number of batch requests sent at the same time.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_BATCHES = 4;
+
+    MauticApi mauticApi;
+    int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    long windowNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_WINDOW_MILLIS);
+    int maxConcurrentBatches = DEFAULT_MAX_CONCURRENT_BATCHES;
+
+    ScheduledExecutorService timer;
+    ExecutorService batchExecutor;
+
+    // the batch being collected, guarded by this
+    Map<Integer,CompletableFuture<GetContactResult>> pending = new LinkedHashMap<Integer,CompletableFuture<GetContactResult>>();
+    ScheduledFuture<?> scheduledFlush;
+    boolean closed = false;
+
+    public ContactBatchLoader(MauticApi mauticApi) {
+        this.mauticApi = mauticApi;
+    }
+
+    /**
+     * @param  maxBatchSize the maximum number of ids in each request
+     * @return              this ContactBatchLoader instance
+     */
+    public synchronized ContactBatchLoader maxBatchSize(int maxBatchSize) {
+        if( maxBatchSize<1 ) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * @param  window how long the first id of a batch waits for other ids
+     * @param  unit   the unit of the window
+     * @return        this ContactBatchLoader instance
+     */
+    public synchronized ContactBatchLoader window(long window, TimeUnit unit) {
+        if( window<0 ) {
+            throw new IllegalArgumentException("window cannot be negative");
+        }
+        this.windowNanos = unit.toNanos(window);
+        return this;
+    }
+
+    /**
+     * @param  maxConcurrentBatches the maximum number of batch requests sent at the same time.
+     *                              Must be set before the first lookup.
+     * @return                      this ContactBatchLoader instance
+     */
+    public synchronized ContactBatchLoader maxConcurrentBatches(int maxConcurrentBatches) {
+        if( maxConcurrentBatches<1 ) {
+            throw new IllegalArgumentException("maxConcurrentBatches must be at least 1");
+        }
+        if( batchExecutor!=null ) {
+            throw new IllegalStateException("maxConcurrentBatches must be set before the first lookup");
+        }
+        this.maxConcurrentBatches = maxConcurrentBatches;
+        return this;
+    }
+
+    /**
+     * Returns a contact, waiting until the batch with its id is read.
+     *
+     * @param  contactId       the contact id
+     * @return                 the contact
+     * @throws MauticException if the contact does not exist, or if the batch request fails
+     */
+    public GetContactResult getContact(int contactId) throws MauticException {
+        try {
+            return getContactAsync(contactId).get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MauticException("Interrupted while waiting for contact "+contactId, e);
+        }
+        catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if( cause instanceof MauticException ) {
+                throw (MauticException)cause;
+            }
+            throw new MauticException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Adds a contact id to the current batch, without waiting for it.
+     *
+     * @param  contactId the contact id
+     * @return           a future completed with the contact, or with a
+     *                   {@link com.leonardofischer.jmautic.MauticException}
+     */
+    public synchronized CompletableFuture<GetContactResult> getContactAsync(int contactId) {
+        if( closed ) {
+            CompletableFuture<GetContactResult> failed = new CompletableFuture<GetContactResult>();
+            failed.completeExceptionally(new MauticException("ContactBatchLoader is closed"));
+            return failed;
+        }
+        CompletableFuture<GetContactResult> future = pending.get(contactId);
+        if( future!=null ) {
+            return future;
+        }
+        future = new CompletableFuture<GetContactResult>();
+        pending.put(contactId, future);
+
+        if( pending.size()>=maxBatchSize ) {
+            flush();
+        }
+        else if( pending.size()==1 ) {
+            scheduledFlush = getTimer().schedule(new Runnable() {
+                public void run() {
+                    flush();
+                }
+            }, windowNanos, TimeUnit.NANOSECONDS);
+        }
+        return future;
+    }
+
+    /**
+     * Sends the current batch now, without waiting for its window to end.
+     */
+    public synchronized void flush() {
+        if( scheduledFlush!=null ) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if( pending.isEmpty() ) {
+            return;
+        }
+        final Map<Integer,CompletableFuture<GetContactResult>> batch = pending;
+        pending = new LinkedHashMap<Integer,CompletableFuture<GetContactResult>>();
+        try {
+            getBatchExecutor().execute(new Runnable() {
+                public void run() {
+                    loadBatch(batch);
+                }
+            });
+        }
+        catch(RejectedExecutionException e) {
+            failAll(batch, new MauticException("Cannot send batch: "+e.getMessage(), e));
+        }
+    }
+
+    void loadBatch(final Map<Integer,CompletableFuture<GetContactResult>> batch) {
+        Search search = new Search();
+        search.search = buildIdsFilter(batch.keySet());
+        search.start = 0;
+        search.limit = batch.size();
+        try {
+            mauticApi.listContacts(search, new ContactConsumer() {
+                public void accept(Contact contact) {
+                    CompletableFuture<GetContactResult> future = batch.remove(contact.id);
+                    if( future!=null ) {
+                        GetContactResult result = new GetContactResult();
+                        result.contact = contact;
+                        future.complete(result);
+                    }
+                }
+            });
+        }
+        catch(MauticException e) {
+            failAll(batch, e);
+            return;
+        }
+        catch(RuntimeException e) {
+            failAll(batch, new MauticException(e.getMessage(), e));
+            return;
+        }
+        Iterator<Map.Entry<Integer,CompletableFuture<GetContactResult>>> it = batch.entrySet().iterator();
+        while( it.hasNext() ) {
+            Map.Entry<Integer,CompletableFuture<GetContactResult>> missing = it.next();
+            missing.getValue().completeExceptionally(new MauticStatusException(
+                "Contact "+missing.getKey()+" not found", 404, -1));
+        }
+    }
+
+    static String buildIdsFilter(Iterable<Integer> ids) {
+        StringBuilder filter = new StringBuilder("ids:");
+        Iterator<Integer> it = ids.iterator();
+        while( it.hasNext() ) {
+            filter.append(it.next());
+            if( it.hasNext() ) {
+                filter.append(',');
+            }
+        }
+        return filter.toString();
+    }
+
+    private static void failAll(Map<Integer,CompletableFuture<GetContactResult>> batch, MauticException error) {
+        Iterator<CompletableFuture<GetContactResult>> it = batch.values().iterator();
+        while( it.hasNext() ) {
+            it.next().completeExceptionally(error);
+        }
+    }
+
+    private ScheduledExecutorService getTimer() {
+        if( timer==null ) {
+            timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("jmautic-batch-loader-timer"));
+        }
+        return timer;
+    }
+
+    private ExecutorService getBatchExecutor() {
+        if( batchExecutor==null ) {
+            batchExecutor = Executors.newFixedThreadPool(maxConcurrentBatches,
+                new DaemonThreadFactory("jmautic-batch-loader"));
+        }
+        return batchExecutor;
+    }
+
+    /**
+     * Sends the pending batch and stops the loader threads once the batches already sent
+     * complete. Later lookups fail.
+     */
+    public synchronized void close() {
+        if( closed ) {
+            return;
+        }
+        flush();
+        closed = true;
+        if( timer!=null ) {
+            timer.shutdownNow();
+        }
+        if( batchExecutor!=null ) {
+            batchExecutor.shutdown();
+        }
+    }
+}
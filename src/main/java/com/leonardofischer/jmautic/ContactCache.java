@@ -0,0 +1,206 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.model.GetContactResult;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>In-memory cache for {@link com.leonardofischer.jmautic.MauticApi#getContact(int)} results.
+ * Configure it and pass it to {@link com.leonardofischer.jmautic.MauticApi#contactCache(ContactCache)}:
+ *
+ * <pre>
+ *    ContactCache cache = new ContactCache()
+ *        .maximumSize(10000)
+ *        .expireAfterWrite(5, TimeUnit.MINUTES);
+ *    MauticApi mauticApi = service.build().contactCache(cache);</pre>
+ *
+ * <p>Entries expire after the configured time since they were stored, and when the cache is full
+ * the least recently used entry is evicted. The {@link com.leonardofischer.jmautic.MauticApi}
+ * invalidates the contacts it creates or modifies. Changes made by other clients (including
+ * other MauticApi instances) are only seen after the entry expires.
+ *
+ * <p>Cached results are shared between callers, so they must not be modified.
+ */
+public class ContactCache {
+
+    int maximumSize = 1000;
+    long expireAfterWriteNanos = TimeUnit.MINUTES.toNanos(5);
+
+    final AtomicLong hitCount = new AtomicLong();
+    final AtomicLong missCount = new AtomicLong();
+    final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Incremented on every invalidation. A load that started before an invalidation is not
+     * stored, since it may have read the contact before it was changed.
+     */
+    final AtomicLong invalidations = new AtomicLong();
+
+    final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+            if( size()>maximumSize ) {
+                evictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    static class Entry {
+        final GetContactResult value;
+        final long writeTime;
+
+        Entry(GetContactResult value, long writeTime) {
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+    }
+
+    public ContactCache() {
+    }
+
+    /**
+     * @param  maximumSize the maximum number of contacts in the cache. The default is 1000.
+     * @return             this ContactCache instance
+     */
+    public ContactCache maximumSize(int maximumSize) {
+        if( maximumSize<1 ) {
+            throw new IllegalArgumentException("maximumSize must be at least 1");
+        }
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    /**
+     * @param  duration how long a contact stays in the cache after it was stored. The default is
+     *                  5 minutes.
+     * @param  unit     the unit of the duration
+     * @return          this ContactCache instance
+     */
+    public ContactCache expireAfterWrite(long duration, TimeUnit unit) {
+        this.expireAfterWriteNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Returns the cached result for a contact, or null if it is not cached or expired.
+     * @param  contactId the contact id
+     * @return           the cached result, or null
+     */
+    public GetContactResult get(int contactId) {
+        synchronized(entries) {
+            Entry entry = entries.get(contactId);
+            if( entry!=null && isExpired(entry, System.nanoTime()) ) {
+                entries.remove(contactId);
+                evictionCount.incrementAndGet();
+                entry = null;
+            }
+            if( entry==null ) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            hitCount.incrementAndGet();
+            return entry.value;
+        }
+    }
+
+    /**
+     * Returns a token to be passed to {@link #put(int, GetContactResult, long)}, taken before the
+     * contact is requested from Mautic.
+     */
+    long beginLoad() {
+        return invalidations.get();
+    }
+
+    /**
+     * Stores a result loaded from Mautic, unless some contact was invalidated since the load
+     * started.
+     */
+    void put(int contactId, GetContactResult result, long loadToken) {
+        synchronized(entries) {
+            if( invalidations.get()!=loadToken ) {
+                return;
+            }
+            entries.put(contactId, new Entry(result, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Removes a contact from the cache.
+     * @param contactId the contact id
+     */
+    public void invalidate(int contactId) {
+        synchronized(entries) {
+            invalidations.incrementAndGet();
+            entries.remove(contactId);
+        }
+    }
+
+    /**
+     * Removes all the contacts from the cache.
+     */
+    public void invalidateAll() {
+        synchronized(entries) {
+            invalidations.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    /**
+     * Removes the expired entries. Expired entries are also removed when they are read, so
+     * calling this method is only needed to release memory sooner.
+     */
+    public void cleanUp() {
+        synchronized(entries) {
+            long now = System.nanoTime();
+            Iterator<Entry> it = entries.values().iterator();
+            while( it.hasNext() ) {
+                if( isExpired(it.next(), now) ) {
+                    it.remove();
+                    evictionCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.writeTime >= expireAfterWriteNanos;
+    }
+
+    /**
+     * @return the number of contacts in the cache, including expired ones not yet removed
+     */
+    public int size() {
+        synchronized(entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return how many times {@link #get(int)} found a valid entry
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return how many times {@link #get(int)} did not find a valid entry
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return how many entries were removed because the cache was full or they expired
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+}
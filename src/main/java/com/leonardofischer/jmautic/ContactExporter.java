@@ -0,0 +1,296 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.parser.ContactConsumer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Exports all the contacts matching a {@link com.leonardofischer.jmautic.model.Search},
+ * requesting several pages at the same time. Most of the time of a page request is spent
+ * waiting for Mautic, so requesting pages in parallel makes large exports much faster than
+ * reading one page after the other.
+ *
+ * <p>The first page is requested alone, to read the <code>total</code> of contacts. Then the
+ * remaining pages are requested by up to <code>parallelism</code> threads. If Mautic does not
+ * return the <code>total</code>, the pages are requested one after the other instead, until a
+ * page smaller than the page size. The contacts are
+ * passed to the sink in the thread that called {@link #export(Search, ContactConsumer)}, so
+ * the sink does not need to be thread-safe:
+ *
+ * <pre>
+ *    ContactExporter exporter = new ContactExporter(mauticApi)
+ *        .pageSize(500)
+ *        .parallelism(8)
+ *        .ordered(false);
+ *    exporter.export(search, new ContactConsumer() {
+ *        public void accept(Contact contact) {
+ *            writer.write(contact);
+ *        }
+ *    });</pre>
+ *
+ * <p>Pages are requested by <code>start</code> offset, so contacts created or deleted during
+ * the export may shift the pages, making some contacts appear twice or not at all. Ordering the
+ * search by a field that does not change, such as <code>id</code>, reduces this problem.
+ */
+public class ContactExporter {
+
+    /**
+     * Default number of contacts in each page request.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 200;
+
+    /**
+     * Default number of page requests sent at the same time.
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    MauticApi mauticApi;
+    int pageSize = DEFAULT_PAGE_SIZE;
+    int parallelism = DEFAULT_PARALLELISM;
+    boolean ordered = true;
+    ExportProgressListener progressListener;
+
+    public ContactExporter(MauticApi mauticApi) {
+        this.mauticApi = mauticApi;
+    }
+
+    /**
+     * @param  pageSize the number of contacts in each page request. Must not be greater than
+     *                  the maximum page size of your Mautic instance.
+     * @return          this ContactExporter instance
+     */
+    public ContactExporter pageSize(int pageSize) {
+        if( pageSize<1 ) {
+            throw new IllegalArgumentException("pageSize must be at least 1");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * @param  parallelism the maximum number of page requests sent at the same time
+     * @return             this ContactExporter instance
+     */
+    public ContactExporter parallelism(int parallelism) {
+        if( parallelism<1 ) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Defines if the contacts are passed to the sink in the order of the search (the default),
+     * or in the order the pages arrive. In ordered exports, pages that arrive early wait in
+     * memory for the pages before them; unordered exports never hold more than the pages being
+     * requested.
+     *
+     * @param  ordered true to keep the search order
+     * @return         this ContactExporter instance
+     */
+    public ContactExporter ordered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * @param  progressListener receives the export progress after each page, or null
+     * @return                  this ContactExporter instance
+     */
+    public ContactExporter progressListener(ExportProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Exports all the contacts matching the search. The <code>start</code> of the search is
+     * where the export starts, and its <code>limit</code> is ignored (the page size is used
+     * instead).
+     *
+     * @param  search          the search criteria, or null to export all the contacts
+     * @param  sink            receives each exported contact
+     * @return                 the number of contacts passed to the sink
+     * @throws MauticException if any page request fails, or if thrown by the sink. The
+     *                         pending requests are cancelled.
+     */
+    public int export(Search search, ContactConsumer sink) throws MauticException {
+        Search baseSearch = search!=null ? search : new Search();
+        int firstStart = baseSearch.start>=0 ? baseSearch.start : 0;
+
+        final List<Contact> firstPage = new ArrayList<Contact>(pageSize);
+        int total = mauticApi.listContacts(pageSearch(baseSearch, firstStart), new ContactConsumer() {
+            public void accept(Contact contact) {
+                firstPage.add(contact);
+            }
+        });
+
+        if( total<0 ) {
+            return exportSequentially(baseSearch, firstStart, firstPage, sink);
+        }
+
+        int totalPages = 1;
+        if( total>firstStart+pageSize && firstPage.size()==pageSize ) {
+            totalPages = (total - firstStart + pageSize - 1) / pageSize;
+        }
+        Progress progress = new Progress(total, totalPages);
+        progress.deliver(firstPage, sink);
+        if( totalPages==1 ) {
+            return progress.exportedContacts;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, totalPages-1),
+            new DaemonThreadFactory("jmautic-export"));
+        try {
+            List<Search> pages = new ArrayList<Search>(totalPages-1);
+            for( int page=1; page<totalPages; page++ ) {
+                pages.add( pageSearch(baseSearch, firstStart + page*pageSize) );
+            }
+            if( ordered ) {
+                exportOrdered(executor, pages, sink, progress);
+            }
+            else {
+                exportUnordered(executor, pages, sink, progress);
+            }
+            return progress.exportedContacts;
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MauticException("Interrupted while exporting contacts", e);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Without the total, the number of pages is unknown, so each page is requested after the
+     * previous one, until a short page.
+     */
+    private int exportSequentially(Search baseSearch, int firstStart, List<Contact> firstPage,
+            ContactConsumer sink) throws MauticException {
+        Progress progress = new Progress(-1, -1);
+        progress.deliver(firstPage, sink);
+        List<Contact> page = firstPage;
+        int start = firstStart;
+        while( page.size()==pageSize ) {
+            start += pageSize;
+            page = readPage(pageSearch(baseSearch, start));
+            progress.deliver(page, sink);
+        }
+        return progress.exportedContacts;
+    }
+
+    /**
+     * Keeps at most <code>2*parallelism</code> pages requested or waiting for the pages before
+     * them, so a slow page does not make the whole export accumulate in memory.
+     */
+    private void exportOrdered(ExecutorService executor, List<Search> pages, ContactConsumer sink,
+            Progress progress) throws MauticException, InterruptedException {
+        LinkedList<Future<List<Contact>>> pending = new LinkedList<Future<List<Contact>>>();
+        int nextPage = 0;
+        while( nextPage<pages.size() || !pending.isEmpty() ) {
+            while( nextPage<pages.size() && pending.size()<2*parallelism ) {
+                pending.add( executor.submit(fetchPage(pages.get(nextPage++))) );
+            }
+            progress.deliver(waitFor(pending.removeFirst(), pending), sink);
+        }
+    }
+
+    private void exportUnordered(ExecutorService executor, List<Search> pages, ContactConsumer sink,
+            Progress progress) throws MauticException, InterruptedException {
+        CompletionService<List<Contact>> completion = new ExecutorCompletionService<List<Contact>>(executor);
+        List<Future<List<Contact>>> pending = new ArrayList<Future<List<Contact>>>();
+        int nextPage = 0;
+        int running = 0;
+        while( nextPage<pages.size() || running>0 ) {
+            while( nextPage<pages.size() && running<parallelism ) {
+                pending.add( completion.submit(fetchPage(pages.get(nextPage++))) );
+                running++;
+            }
+            Future<List<Contact>> done = completion.take();
+            running--;
+            progress.deliver(waitFor(done, pending), sink);
+        }
+    }
+
+    private Callable<List<Contact>> fetchPage(final Search pageSearch) {
+        return new Callable<List<Contact>>() {
+            public List<Contact> call() throws MauticException {
+                return readPage(pageSearch);
+            }
+        };
+    }
+
+    private List<Contact> readPage(Search pageSearch) throws MauticException {
+        final List<Contact> contacts = new ArrayList<Contact>(pageSize);
+        mauticApi.listContacts(pageSearch, new ContactConsumer() {
+            public void accept(Contact contact) {
+                contacts.add(contact);
+            }
+        });
+        return contacts;
+    }
+
+    private List<Contact> waitFor(Future<List<Contact>> page, List<Future<List<Contact>>> others)
+            throws MauticException, InterruptedException {
+        try {
+            return page.get();
+        }
+        catch(ExecutionException e) {
+            Iterator<Future<List<Contact>>> it = others.iterator();
+            while( it.hasNext() ) {
+                it.next().cancel(true);
+            }
+            Throwable cause = e.getCause();
+            if( cause instanceof MauticException ) {
+                throw (MauticException)cause;
+            }
+            throw new MauticException("Could not export contacts: "+cause.getMessage(), cause);
+        }
+    }
+
+    private Search pageSearch(Search baseSearch, int start) {
+        Search pageSearch = new Search(baseSearch);
+        pageSearch.start = start;
+        pageSearch.limit = pageSize;
+        return pageSearch;
+    }
+
+    /**
+     * Counts the exported contacts and pages, and notifies the progress listener.
+     */
+    private class Progress {
+        int totalContacts;
+        int totalPages;
+        int exportedContacts;
+        int exportedPages;
+
+        Progress(int totalContacts, int totalPages) {
+            this.totalContacts = totalContacts;
+            this.totalPages = totalPages;
+        }
+
+        void deliver(List<Contact> page, ContactConsumer sink) throws MauticException {
+            Iterator<Contact> it = page.iterator();
+            while( it.hasNext() ) {
+                sink.accept(it.next());
+                exportedContacts++;
+            }
+            exportedPages++;
+            if( progressListener!=null ) {
+                progressListener.onProgress(exportedContacts, totalContacts, exportedPages, totalPages);
+            }
+        }
+    }
+}
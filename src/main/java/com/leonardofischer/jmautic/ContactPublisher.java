@@ -0,0 +1,263 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.parser.ContactConsumer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A Reactive Streams {@link org.reactivestreams.Publisher} of all the contacts matching a
+ * {@link com.leonardofischer.jmautic.model.Search}. Pages are requested from the
+ * <code>GET /contacts</code> endpoint only when the subscriber asked for more contacts than
+ * the current page still has, so at most one page is held in memory for each subscriber, no
+ * matter how many contacts match the search. Cancelling the subscription stops the paging.
+ *
+ * <p>The <code>start</code> of the search is where the contacts start, and its
+ * <code>limit</code> is used as the page size (or
+ * {@link com.leonardofischer.jmautic.PagedContactIterator#DEFAULT_PAGE_SIZE} if not set).
+ *
+ * <p>Each subscriber gets its own sequence of pages. Pages are requested and contacts are
+ * signalled in a background thread (or in the executor set with {@link #executor(Executor)}),
+ * never in the thread that called <code>request</code>. Errors from Mautic end the sequence
+ * with <code>onError</code>.
+ *
+ * <p>On Java 9 or newer, use <code>org.reactivestreams.FlowAdapters.toFlowPublisher</code>
+ * to get a <code>java.util.concurrent.Flow.Publisher</code>:
+ *
+ * <pre>
+ *    Flow.Publisher&lt;Contact&gt; contacts = FlowAdapters.toFlowPublisher(
+ *        mauticApi.publishContacts(search));</pre>
+ */
+public class ContactPublisher implements Publisher<Contact> {
+
+    static final Logger logger = LoggerFactory.getLogger(ContactPublisher.class);
+
+    MauticApi mauticApi;
+    Search search;
+    int pageSize;
+    Executor executor;
+
+    ContactPublisher(MauticApi mauticApi, Search search) {
+        this.mauticApi = mauticApi;
+        this.search = search!=null ? new Search(search) : new Search();
+        this.pageSize = this.search.limit>0 ? this.search.limit : PagedContactIterator.DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * Signals the subscribers in the given executor, instead of in a thread created for each
+     * subscriber. Page requests block the thread they run in, so the executor should not be
+     * one used for non-blocking work.
+     *
+     * @param  executor the executor, or null to use a thread for each subscriber
+     * @return          this ContactPublisher instance
+     */
+    public ContactPublisher executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super Contact> subscriber) {
+        if( subscriber==null ) {
+            throw new NullPointerException("subscriber is null");
+        }
+        ThreadPoolExecutor ownExecutor = null;
+        Executor current = executor;
+        if( current==null ) {
+            ownExecutor = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("jmautic-contact-publisher"));
+            ownExecutor.allowCoreThreadTimeOut(true);
+            current = ownExecutor;
+        }
+        new ContactSubscription(subscriber, current, ownExecutor).schedule();
+    }
+
+    /**
+     * The state of one subscriber. All the work happens in {@link #run()}, and a counter of
+     * pending signals makes sure only one thread runs it at a time, so the subscriber is always
+     * signalled serially.
+     */
+    class ContactSubscription implements Subscription, Runnable {
+
+        final Subscriber<? super Contact> subscriber;
+        final Executor executor;
+        final ThreadPoolExecutor ownExecutor;
+
+        final AtomicInteger pendingSignals = new AtomicInteger();
+        final AtomicLong demand = new AtomicLong();
+        volatile boolean cancelled = false;
+        volatile IllegalArgumentException invalidRequest;
+        volatile boolean done = false;
+
+        // only used in run()
+        boolean subscribed = false;
+        Iterator<Contact> page;
+        int nextPageStart;
+        int endStart = Integer.MAX_VALUE;
+
+        ContactSubscription(Subscriber<? super Contact> subscriber, Executor executor,
+                ThreadPoolExecutor ownExecutor) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.ownExecutor = ownExecutor;
+            this.nextPageStart = search.start>=0 ? search.start : 0;
+        }
+
+        @Override
+        public void request(long n) {
+            if( n<=0 ) {
+                invalidRequest = new IllegalArgumentException(
+                    "Subscription.request must be called with a positive number, but got " + n);
+            }
+            else {
+                long current, next;
+                do {
+                    current = demand.get();
+                    next = current + n;
+                    if( next<0 ) {
+                        // Long.MAX_VALUE means no limit
+                        next = Long.MAX_VALUE;
+                    }
+                } while( !demand.compareAndSet(current, next) );
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        void schedule() {
+            if( pendingSignals.getAndIncrement()==0 ) {
+                try {
+                    executor.execute(this);
+                }
+                catch(RejectedExecutionException e) {
+                    // after the end, the executor may be shut down already
+                    boolean ended = done || cancelled;
+                    cancelled = true;
+                    if( ended ) {
+                        return;
+                    }
+                    if( !subscribed ) {
+                        subscribed = true;
+                        subscriber.onSubscribe(this);
+                    }
+                    subscriber.onError(new MauticException("Contact publisher rejected by the executor", e));
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            while( true ) {
+                try {
+                    drain();
+                }
+                catch(RuntimeException e) {
+                    // the subscriber broke the rules by throwing, so it gets nothing else
+                    logger.warn("Subscriber threw an exception, cancelling its subscription", e);
+                    cancelled = true;
+                    finish();
+                }
+                missed = pendingSignals.addAndGet(-missed);
+                if( missed==0 ) {
+                    break;
+                }
+            }
+        }
+
+        private void drain() {
+            if( done ) {
+                return;
+            }
+            if( !subscribed ) {
+                subscribed = true;
+                subscriber.onSubscribe(this);
+            }
+            while( !cancelled ) {
+                if( invalidRequest!=null ) {
+                    finish();
+                    subscriber.onError(invalidRequest);
+                    return;
+                }
+                long current = demand.get();
+                if( current==0 ) {
+                    return;
+                }
+                if( page!=null && page.hasNext() ) {
+                    Contact contact = page.next();
+                    if( current!=Long.MAX_VALUE ) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext(contact);
+                }
+                else if( nextPageStart>=endStart ) {
+                    finish();
+                    subscriber.onComplete();
+                    return;
+                }
+                else {
+                    try {
+                        page = fetchPage();
+                    }
+                    catch(MauticException e) {
+                        finish();
+                        subscriber.onError(e);
+                        return;
+                    }
+                }
+            }
+            finish();
+        }
+
+        private Iterator<Contact> fetchPage() throws MauticException {
+            Search pageSearch = new Search(search);
+            pageSearch.start = nextPageStart;
+            pageSearch.limit = pageSize;
+
+            final List<Contact> contacts = new ArrayList<Contact>(pageSize);
+            int total = mauticApi.listContacts(pageSearch, new ContactConsumer() {
+                public void accept(Contact contact) {
+                    contacts.add(contact);
+                }
+            });
+            nextPageStart += pageSize;
+            if( contacts.size()<pageSize ) {
+                // a short page is the last one
+                endStart = nextPageStart;
+            }
+            if( total>=0 && total<endStart ) {
+                endStart = total;
+            }
+            return contacts.iterator();
+        }
+
+        private void finish() {
+            done = true;
+            page = null;
+            if( ownExecutor!=null ) {
+                ownExecutor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.model.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A contact stored in a {@link com.leonardofischer.jmautic.ContactSnapshotStore}. It reads
+ * the contact straight from the mapped file: nothing is decoded until it is requested, and
+ * {@link #getFieldBytes(String)} returns the stored bytes of a field without copying them.
+ *
+ * <p>Use {@link #toContact()} to decode the whole contact.
+ */
+public class ContactSnapshot {
+
+    // positions in the contact record, after the record header
+    static final int ID = 0;
+    static final int DATE_ADDED = 4;
+    static final int DATE_MODIFIED = 12;
+    static final int LAST_ACTIVE = 20;
+    static final int DATE_IDENTIFIED = 28;
+    static final int CREATED_BY = 36;
+    static final int MODIFIED_BY = 40;
+    static final int POINTS = 44;
+    static final int FLAGS = 48;
+    static final int STRINGS = 49;
+
+    final ByteBuffer record;
+    final ContactSnapshotStore store;
+    // position of the field count, found on the first access to the fields
+    int fieldsPosition = -1;
+
+    ContactSnapshot(ByteBuffer record, ContactSnapshotStore store) {
+        this.record = record;
+        this.store = store;
+    }
+
+    public int getId() {
+        return record.getInt(ID);
+    }
+
+    public Date getDateAdded() {
+        return getDate(DATE_ADDED);
+    }
+
+    public Date getDateModified() {
+        return getDate(DATE_MODIFIED);
+    }
+
+    public Date getLastActive() {
+        return getDate(LAST_ACTIVE);
+    }
+
+    public Date getDateIdentified() {
+        return getDate(DATE_IDENTIFIED);
+    }
+
+    public int getCreatedBy() {
+        return record.getInt(CREATED_BY);
+    }
+
+    public int getModifiedBy() {
+        return record.getInt(MODIFIED_BY);
+    }
+
+    public int getPoints() {
+        return record.getInt(POINTS);
+    }
+
+    public boolean isPublished() {
+        return (record.get(FLAGS) & ContactSnapshotStore.FLAG_PUBLISHED)!=0;
+    }
+
+    /**
+     * @param  alias the field alias
+     * @return       true if the contact has the field, even if its value is null
+     */
+    public boolean hasField(String alias) {
+        return findField(alias)!=null;
+    }
+
+    /**
+     * Returns the value of the given field as a read-only buffer over the UTF-8 bytes in the
+     * mapped file, without copying them.
+     *
+     * @param  alias the field alias
+     * @return       the field value bytes, or null if the contact does not have the field or
+     *               its value is null
+     */
+    public ByteBuffer getFieldBytes(String alias) {
+        ByteBuffer in = findField(alias);
+        if( in==null ) {
+            return null;
+        }
+        int length = ContactSnapshotStore.readVarint(in) - 1;
+        if( length<0 ) {
+            return null;
+        }
+        in.limit(in.position() + length);
+        return in.slice();
+    }
+
+    /**
+     * @param  alias the field alias
+     * @return       the field value, or null if the contact does not have the field or its
+     *               value is null
+     */
+    public String getFieldValue(String alias) {
+        ByteBuffer in = findField(alias);
+        return in!=null ? ContactSnapshotStore.readString(in) : null;
+    }
+
+    /**
+     * Decodes the whole contact. The <code>fields</code> are rebuilt from the stored values
+     * and the field definitions in the store.
+     * @return a new Contact with the stored values
+     */
+    public Contact toContact() {
+        Contact contact = new Contact();
+        contact.id = getId();
+        contact.dateAdded = getDateAdded();
+        contact.dateModified = getDateModified();
+        contact.lastActive = getLastActive();
+        contact.dateIdentified = getDateIdentified();
+        contact.createdBy = getCreatedBy();
+        contact.modifiedBy = getModifiedBy();
+        contact.points = getPoints();
+        contact.isPublished = isPublished();
+
+        ByteBuffer in = record.duplicate();
+        in.position(STRINGS);
+        contact.createdByUser = ContactSnapshotStore.readString(in);
+        contact.modifiedByUser = ContactSnapshotStore.readString(in);
+        contact.color = ContactSnapshotStore.readString(in);
+        contact.preferredProfileImage = ContactSnapshotStore.readString(in);
+
+        int ipCount = ContactSnapshotStore.readVarint(in);
+        contact.ipAddresses = new ArrayList<IPAddress>(ipCount);
+        for( int i=0; i<ipCount; i++ ) {
+            IPAddress ipAddress = new IPAddress();
+            ipAddress.ipAddress = ContactSnapshotStore.readString(in);
+            contact.ipAddresses.add(ipAddress);
+        }
+
+        int fieldCount = ContactSnapshotStore.readVarint(in);
+        Map<String,String> allFields = new LinkedHashMap<String,String>();
+        contact.fields = new ArrayList<ContactField>(fieldCount);
+        for( int i=0; i<fieldCount; i++ ) {
+            ContactField definition = store.getFieldDefinition(ContactSnapshotStore.readVarint(in));
+            String value = ContactSnapshotStore.readString(in);
+            allFields.put(definition.alias, value);
+
+            ContactField field = new ContactField();
+            field.alias = definition.alias;
+            field.group = definition.group;
+            field.id = definition.id;
+            field.label = definition.label;
+            field.type = definition.type;
+            field.fieldOrder = definition.fieldOrder;
+            field.value = value;
+            contact.fields.add(field);
+        }
+        if( (record.get(FLAGS) & ContactSnapshotStore.FLAG_ALL_FIELDS)!=0 ) {
+            contact.allFields = allFields;
+        }
+        return contact;
+    }
+
+    /**
+     * @return a buffer positioned at the value of the field, or null if the contact does not
+     *         have it
+     */
+    private ByteBuffer findField(String alias) {
+        int index = store.getFieldIndex(alias);
+        if( index<0 ) {
+            return null;
+        }
+        ByteBuffer in = record.duplicate();
+        in.position(getFieldsPosition());
+        int fieldCount = ContactSnapshotStore.readVarint(in);
+        for( int i=0; i<fieldCount; i++ ) {
+            if( ContactSnapshotStore.readVarint(in)==index ) {
+                return in;
+            }
+            skipString(in);
+        }
+        return null;
+    }
+
+    private int getFieldsPosition() {
+        if( fieldsPosition<0 ) {
+            ByteBuffer in = record.duplicate();
+            in.position(STRINGS);
+            for( int i=0; i<4; i++ ) {
+                skipString(in);
+            }
+            int ipCount = ContactSnapshotStore.readVarint(in);
+            for( int i=0; i<ipCount; i++ ) {
+                skipString(in);
+            }
+            fieldsPosition = in.position();
+        }
+        return fieldsPosition;
+    }
+
+    private static void skipString(ByteBuffer in) {
+        int length = ContactSnapshotStore.readVarint(in) - 1;
+        if( length>0 ) {
+            in.position(in.position() + length);
+        }
+    }
+
+    private Date getDate(int position) {
+        long millis = record.getLong(position);
+        return millis!=ContactSnapshotStore.NULL_DATE ? new Date(millis) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "ContactSnapshot(" + getId() + ")";
+    }
+}
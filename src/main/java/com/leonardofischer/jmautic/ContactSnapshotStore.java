@@ -0,0 +1,655 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.parser.ContactConsumer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Local, append-only store of contacts in a memory-mapped file, so the same contacts can be
+ * looked up or scanned again without requesting them from Mautic:
+ *
+ * <pre>
+ *    ContactSnapshotStore store = ContactSnapshotStore.open(new File("contacts.snapshot"));
+ *    store.load(mauticApi, null);
+ *    ...
+ *    ContactSnapshot snapshot = store.get(123);
+ *    String email = snapshot.getFieldValue("email");</pre>
+ *
+ * <p>Contacts are appended in a compact binary encoding. The field aliases are kept in a
+ * dictionary, together with the group, label and type of each field, so each contact only
+ * stores the dictionary index and the value of its fields. Storing a contact that is already
+ * in the store appends a new version, and lookups and scans only return the last version of
+ * each contact. An index from contact id to the file offset of its last version is rebuilt
+ * when the file is opened.
+ *
+ * <p>The returned {@link com.leonardofischer.jmautic.ContactSnapshot} instances read straight
+ * from the mapped file: field values are only decoded when they are requested, and
+ * {@link com.leonardofischer.jmautic.ContactSnapshot#getFieldBytes(String)} gives access to
+ * the stored bytes without copying them.
+ *
+ * <p>The file header records the end of the last complete contact, and it is only updated
+ * after the contact is written. If the process stops while a contact is being written, that
+ * contact is ignored the next time the file is opened. Call {@link #force()} to make sure the
+ * stored contacts reach the disk.
+ *
+ * <p>Only the properties of the contact, its fields and the addresses of its IP addresses are
+ * stored: <code>owner</code>, <code>tags</code> and the IP address details are not. A file can
+ * hold up to 2 GB of contacts. The file grows in large steps, so it is usually larger than
+ * the data it holds.
+ *
+ * <p>Contacts can be stored and read by any number of threads.
+ */
+public class ContactSnapshotStore implements Iterable<ContactSnapshot>, Closeable {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int MAGIC = 0x4A4D534E;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int END_POSITION = 8;
+
+    static final byte FIELD_RECORD = 1;
+    static final byte CONTACT_RECORD = 2;
+    // type and payload length
+    static final int RECORD_HEADER_SIZE = 5;
+
+    static final int FLAG_PUBLISHED = 1;
+    static final int FLAG_ALL_FIELDS = 2;
+
+    static final long NULL_DATE = Long.MIN_VALUE;
+
+    /**
+     * Size of the file created for a new store, and the minimum growth of the file.
+     */
+    public static final int DEFAULT_INITIAL_SIZE = 1024*1024;
+
+    final File file;
+    final FileChannel channel;
+    final int growthSize;
+    volatile MappedByteBuffer buffer;
+    volatile int end;
+
+    final ConcurrentHashMap<Integer,Integer> offsets = new ConcurrentHashMap<Integer,Integer>();
+    final ConcurrentHashMap<String,Integer> fieldIndexes = new ConcurrentHashMap<String,Integer>();
+    volatile ContactField[] fieldDefinitions = new ContactField[0];
+
+    // reused by put, always under the store lock
+    final RecordWriter contactRecord = new RecordWriter();
+    final RecordWriter fieldValues = new RecordWriter();
+    final RecordWriter fieldRecords = new RecordWriter();
+    final List<ContactField> newFields = new ArrayList<ContactField>();
+    final List<Integer> newFieldIndexes = new ArrayList<Integer>();
+    int nextFieldIndex;
+
+    ContactSnapshotStore(File file, FileChannel channel, int growthSize) {
+        this.file = file;
+        this.channel = channel;
+        this.growthSize = growthSize;
+    }
+
+    /**
+     * Opens the store in the given file, creating it if it does not exist.
+     * @param  file            the store file
+     * @return                 the opened store
+     * @throws MauticException if the file cannot be opened, or is not a valid store
+     */
+    public static ContactSnapshotStore open(File file) throws MauticException {
+        return open(file, DEFAULT_INITIAL_SIZE);
+    }
+
+    /**
+     * Opens the store in the given file, creating it with <code>initialSize</code> bytes if it
+     * does not exist.
+     * @param  file            the store file
+     * @param  initialSize     the initial size of a new file, and the minimum growth of the file
+     * @return                 the opened store
+     * @throws MauticException if the file cannot be opened, or is not a valid store
+     */
+    public static ContactSnapshotStore open(File file, int initialSize) throws MauticException {
+        if( initialSize<HEADER_SIZE ) {
+            throw new IllegalArgumentException("initialSize must be at least " + HEADER_SIZE);
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ContactSnapshotStore store = new ContactSnapshotStore(file, channel, initialSize);
+            store.load();
+            return store;
+        }
+        catch(IOException e) {
+            closeQuietly(channel);
+            throw new MauticException("Could not open snapshot file " + file + ": " + e.getMessage(), e);
+        }
+        catch(MauticException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    private void load() throws IOException, MauticException {
+        long fileSize = channel.size();
+        if( fileSize==0 ) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, growthSize);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(END_POSITION, HEADER_SIZE);
+            end = HEADER_SIZE;
+            return;
+        }
+        if( fileSize<HEADER_SIZE || fileSize>Integer.MAX_VALUE ) {
+            throw new MauticException("Invalid snapshot file " + file + ": unexpected size " + fileSize);
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        if( buffer.getInt(0)!=MAGIC ) {
+            throw new MauticException("Invalid snapshot file " + file + ": not a contact snapshot");
+        }
+        if( buffer.getInt(4)!=VERSION ) {
+            throw new MauticException("Unsupported snapshot file version " + buffer.getInt(4) + " in " + file);
+        }
+        long storedEnd = buffer.getLong(END_POSITION);
+        if( storedEnd<HEADER_SIZE || storedEnd>fileSize ) {
+            throw new MauticException("Invalid snapshot file " + file + ": end " + storedEnd +
+                " outside of the file");
+        }
+
+        int position = HEADER_SIZE;
+        while( position<storedEnd ) {
+            byte type = buffer.get(position);
+            int length = buffer.getInt(position+1);
+            int payload = position + RECORD_HEADER_SIZE;
+            if( length<0 || payload+(long)length>storedEnd ) {
+                throw new MauticException("Invalid snapshot file " + file + ": broken record at " + position);
+            }
+            if( type==FIELD_RECORD ) {
+                readFieldRecord(payload);
+            }
+            else if( type==CONTACT_RECORD ) {
+                offsets.put(buffer.getInt(payload), position);
+            }
+            else {
+                throw new MauticException("Invalid snapshot file " + file + ": unknown record type " +
+                    type + " at " + position);
+            }
+            position = payload + length;
+        }
+        end = position;
+    }
+
+    private void readFieldRecord(int payload) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(payload);
+        int index = readVarint(in);
+        ContactField definition = new ContactField();
+        definition.alias = readString(in);
+        definition.group = readString(in);
+        definition.id = readString(in);
+        definition.label = readString(in);
+        definition.type = readString(in);
+        definition.fieldOrder = readString(in);
+        defineField(index, definition);
+    }
+
+    /**
+     * Stores the given contact, replacing any previous version of it.
+     * @param  contact         the contact to store
+     * @throws MauticException if the contact cannot be written
+     */
+    public synchronized void put(Contact contact) throws MauticException {
+        if( buffer==null ) {
+            throw new MauticException("Snapshot store is closed: " + file);
+        }
+        fieldRecords.reset();
+        newFields.clear();
+        newFieldIndexes.clear();
+        nextFieldIndex = fieldDefinitions.length;
+        int fieldCount = putFields(contact);
+
+        RecordWriter writer = contactRecord;
+        writer.reset();
+        writer.put(CONTACT_RECORD);
+        writer.putInt(0);
+        writer.putInt(contact.id);
+        writer.putLong(toMillis(contact.dateAdded));
+        writer.putLong(toMillis(contact.dateModified));
+        writer.putLong(toMillis(contact.lastActive));
+        writer.putLong(toMillis(contact.dateIdentified));
+        writer.putInt(contact.createdBy);
+        writer.putInt(contact.modifiedBy);
+        writer.putInt(contact.points);
+        writer.put((byte)((contact.isPublished ? FLAG_PUBLISHED : 0) |
+            (contact.allFields!=null ? FLAG_ALL_FIELDS : 0)));
+        writer.putString(contact.createdByUser);
+        writer.putString(contact.modifiedByUser);
+        writer.putString(contact.color);
+        writer.putString(contact.preferredProfileImage);
+
+        List<IPAddress> ipAddresses = contact.ipAddresses;
+        writer.putVarint(ipAddresses!=null ? ipAddresses.size() : 0);
+        if( ipAddresses!=null ) {
+            Iterator<IPAddress> it = ipAddresses.iterator();
+            while( it.hasNext() ) {
+                writer.putString(it.next().ipAddress);
+            }
+        }
+        writer.putVarint(fieldCount);
+        writer.put(fieldValues);
+        writer.putInt(1, writer.size() - RECORD_HEADER_SIZE);
+
+        // the new field definitions are written first, in the same append
+        int position = append(fieldRecords, writer);
+        for( int i=0; i<newFields.size(); i++ ) {
+            defineField(newFieldIndexes.get(i), newFields.get(i));
+        }
+        offsets.put(contact.id, position + fieldRecords.size());
+    }
+
+    /**
+     * Writes the field values of the contact to <code>fieldValues</code>, taken from
+     * <code>allFields</code> or, if the contact has no <code>allFields</code>, from
+     * <code>fields</code>. Fields not in the dictionary yet are written to
+     * <code>fieldRecords</code> and added to <code>newFields</code>, which are only added to the
+     * dictionary after they are written.
+     *
+     * @return the number of field values written
+     */
+    private int putFields(Contact contact) {
+        Map<String,ContactField> definitions = new HashMap<String,ContactField>();
+        if( contact.fields!=null ) {
+            Iterator<ContactField> it = contact.fields.iterator();
+            while( it.hasNext() ) {
+                ContactField field = it.next();
+                if( field!=null && field.alias!=null ) {
+                    definitions.put(field.alias, field);
+                }
+            }
+        }
+
+        fieldValues.reset();
+        int fieldCount = 0;
+        if( contact.allFields!=null ) {
+            Iterator<Map.Entry<String,String>> it = contact.allFields.entrySet().iterator();
+            while( it.hasNext() ) {
+                Map.Entry<String,String> entry = it.next();
+                putField(entry.getKey(), entry.getValue(), definitions.get(entry.getKey()));
+                fieldCount++;
+            }
+        }
+        else {
+            Iterator<ContactField> it = definitions.values().iterator();
+            while( it.hasNext() ) {
+                ContactField field = it.next();
+                putField(field.alias, field.value, field);
+                fieldCount++;
+            }
+        }
+        return fieldCount;
+    }
+
+    private void putField(String alias, String value, ContactField field) {
+        Integer index = fieldIndexes.get(alias);
+        ContactField known = index!=null ? fieldDefinitions[index] : null;
+        if( index==null || (known.type==null && field!=null && field.type!=null) ) {
+            // a new field, or a field first seen without its definition
+            if( index==null ) {
+                index = nextFieldIndex++;
+            }
+            ContactField definition = new ContactField();
+            definition.alias = alias;
+            if( field!=null ) {
+                definition.group = field.group;
+                definition.id = field.id;
+                definition.label = field.label;
+                definition.type = field.type;
+                definition.fieldOrder = field.fieldOrder;
+            }
+
+            int start = fieldRecords.size();
+            fieldRecords.put(FIELD_RECORD);
+            fieldRecords.putInt(0);
+            fieldRecords.putVarint(index);
+            fieldRecords.putString(definition.alias);
+            fieldRecords.putString(definition.group);
+            fieldRecords.putString(definition.id);
+            fieldRecords.putString(definition.label);
+            fieldRecords.putString(definition.type);
+            fieldRecords.putString(definition.fieldOrder);
+            fieldRecords.putInt(start+1, fieldRecords.size() - start - RECORD_HEADER_SIZE);
+            newFields.add(definition);
+            newFieldIndexes.add(index);
+        }
+        fieldValues.putVarint(index);
+        fieldValues.putString(value);
+    }
+
+    private void defineField(int index, ContactField definition) {
+        ContactField[] current = fieldDefinitions;
+        ContactField[] updated = Arrays.copyOf(current, Math.max(current.length, index+1));
+        updated[index] = definition;
+        fieldDefinitions = updated;
+        fieldIndexes.put(definition.alias, index);
+    }
+
+    /**
+     * Appends the bytes of the given writers to the file, and then moves the end of the file
+     * after them.
+     * @return the position where the bytes were written
+     */
+    private int append(RecordWriter first, RecordWriter second) throws MauticException {
+        int position = end;
+        long newEnd = (long)position + first.size() + second.size();
+        if( newEnd>Integer.MAX_VALUE ) {
+            throw new MauticException("Snapshot file " + file + " is full");
+        }
+        MappedByteBuffer current = buffer;
+        if( newEnd>current.capacity() ) {
+            long newSize = Math.max((long)current.capacity()*2, newEnd + growthSize);
+            newSize = Math.min(newSize, Integer.MAX_VALUE);
+            try {
+                current = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+            }
+            catch(IOException e) {
+                throw new MauticException("Could not grow snapshot file " + file + ": " + e.getMessage(), e);
+            }
+            buffer = current;
+        }
+        ByteBuffer out = current.duplicate();
+        out.position(position);
+        out.put(first.bytes, 0, first.size());
+        out.put(second.bytes, 0, second.size());
+        current.putLong(END_POSITION, newEnd);
+        end = (int)newEnd;
+        return position;
+    }
+
+    /**
+     * Stores all the contacts matching the given search, requesting them page by page.
+     * @param  api             the MauticApi to list the contacts from
+     * @param  search          the search criteria, or null to store all the contacts
+     * @return                 how many contacts were stored
+     * @throws MauticException if a request fails, or a contact cannot be written
+     */
+    public int load(MauticApi api, Search search) throws MauticException {
+        int count = 0;
+        try {
+            Iterator<Contact> it = api.iterateContacts(search).iterator();
+            while( it.hasNext() ) {
+                put(it.next());
+                count++;
+            }
+        }
+        catch(UncheckedMauticException e) {
+            throw e.getCause();
+        }
+        return count;
+    }
+
+    /**
+     * Returns a consumer that stores each contact it receives, so the store can be filled
+     * from {@link com.leonardofischer.jmautic.MauticApi#listContacts(Search, ContactConsumer)}.
+     * @return a consumer that stores the contacts
+     */
+    public ContactConsumer writer() {
+        return new ContactConsumer() {
+            public void accept(Contact contact) throws MauticException {
+                put(contact);
+            }
+        };
+    }
+
+    /**
+     * @param  contactId the contact id
+     * @return           the last stored version of the contact, or null if it is not stored
+     */
+    public ContactSnapshot get(int contactId) {
+        Integer position = offsets.get(contactId);
+        return position!=null ? snapshotAt(position) : null;
+    }
+
+    /**
+     * @param  contactId the contact id
+     * @return           true if the contact is stored
+     */
+    public boolean contains(int contactId) {
+        return offsets.containsKey(contactId);
+    }
+
+    /**
+     * @return the number of stored contacts, counting each contact only once
+     */
+    public int size() {
+        return offsets.size();
+    }
+
+    /**
+     * @return the number of bytes used in the file
+     */
+    public int getUsedBytes() {
+        return end;
+    }
+
+    /**
+     * Iterates over the last version of each stored contact, in the order they were stored.
+     * Contacts stored after the iteration starts are not returned.
+     */
+    @Override
+    public Iterator<ContactSnapshot> iterator() {
+        final int scanEnd = end;
+        return new Iterator<ContactSnapshot>() {
+            int position = HEADER_SIZE;
+            ContactSnapshot nextSnapshot = findNext();
+
+            private ContactSnapshot findNext() {
+                ByteBuffer current = buffer;
+                if( current==null ) {
+                    throw new IllegalStateException("Snapshot store is closed: " + file);
+                }
+                while( position<scanEnd ) {
+                    int recordPosition = position;
+                    byte type = current.get(position);
+                    position += RECORD_HEADER_SIZE + current.getInt(position+1);
+                    if( type==CONTACT_RECORD ) {
+                        Integer last = offsets.get(current.getInt(recordPosition+RECORD_HEADER_SIZE));
+                        if( last!=null && last.intValue()==recordPosition ) {
+                            return snapshotAt(recordPosition);
+                        }
+                    }
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return nextSnapshot!=null;
+            }
+
+            public ContactSnapshot next() {
+                if( nextSnapshot==null ) {
+                    throw new NoSuchElementException();
+                }
+                ContactSnapshot snapshot = nextSnapshot;
+                nextSnapshot = findNext();
+                return snapshot;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private ContactSnapshot snapshotAt(int position) {
+        ByteBuffer current = buffer;
+        if( current==null ) {
+            throw new IllegalStateException("Snapshot store is closed: " + file);
+        }
+        ByteBuffer record = current.duplicate();
+        int length = record.getInt(position+1);
+        record.position(position + RECORD_HEADER_SIZE);
+        record.limit(position + RECORD_HEADER_SIZE + length);
+        return new ContactSnapshot(record.slice().asReadOnlyBuffer(), this);
+    }
+
+    ContactField getFieldDefinition(int index) {
+        ContactField[] current = fieldDefinitions;
+        return index<current.length ? current[index] : null;
+    }
+
+    int getFieldIndex(String alias) {
+        Integer index = fieldIndexes.get(alias);
+        return index!=null ? index : -1;
+    }
+
+    /**
+     * Writes the stored contacts to the disk.
+     * @throws MauticException if the file cannot be written
+     */
+    public synchronized void force() throws MauticException {
+        if( buffer!=null ) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Writes the stored contacts to the disk and closes the file. The snapshots already
+     * returned can still be read until they are garbage collected.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if( buffer!=null ) {
+            buffer.force();
+            buffer = null;
+            channel.close();
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if( channel!=null ) {
+            try {
+                channel.close();
+            }
+            catch(IOException e) {
+                // already failing with another error
+            }
+        }
+    }
+
+    private static long toMillis(Date date) {
+        return date!=null ? date.getTime() : NULL_DATE;
+    }
+
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while( (b & 0x80)!=0 );
+        return value;
+    }
+
+    /**
+     * Reads a string written by {@link RecordWriter#putString(String)}.
+     */
+    static String readString(ByteBuffer in) {
+        int length = readVarint(in) - 1;
+        if( length<0 ) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.get(value);
+        return new String(value, UTF8);
+    }
+
+    /**
+     * Growable byte array with the encoding of the store: big endian integers, unsigned
+     * varints, and strings as a varint with the UTF-8 length plus one (0 for null) followed by
+     * the UTF-8 bytes.
+     */
+    static class RecordWriter {
+        byte[] bytes = new byte[256];
+        int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void ensure(int extra) {
+            if( size+extra>bytes.length ) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length*2, size+extra));
+            }
+        }
+
+        void put(byte value) {
+            ensure(1);
+            bytes[size++] = value;
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            putInt(size, value);
+            size += 4;
+        }
+
+        void putInt(int position, int value) {
+            bytes[position] = (byte)(value >>> 24);
+            bytes[position+1] = (byte)(value >>> 16);
+            bytes[position+2] = (byte)(value >>> 8);
+            bytes[position+3] = (byte)value;
+        }
+
+        void putLong(long value) {
+            putInt((int)(value >>> 32));
+            putInt((int)value);
+        }
+
+        void putVarint(int value) {
+            ensure(5);
+            while( (value & ~0x7F)!=0 ) {
+                bytes[size++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte)value;
+        }
+
+        void putString(String value) {
+            if( value==null ) {
+                putVarint(0);
+                return;
+            }
+            byte[] encoded = value.getBytes(UTF8);
+            putVarint(encoded.length+1);
+            ensure(encoded.length);
+            System.arraycopy(encoded, 0, bytes, size, encoded.length);
+            size += encoded.length;
+        }
+
+        void put(RecordWriter other) {
+            ensure(other.size);
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.leonardofischer.jmautic;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads with a recognizable name, so the background threads started by jMautic
+ * never keep the JVM running and are easy to spot in thread dumps.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+
+    String namePrefix;
+    AtomicInteger threadCount = new AtomicInteger();
+
+    DaemonThreadFactory(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
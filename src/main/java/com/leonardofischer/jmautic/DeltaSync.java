@@ -0,0 +1,304 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.parser.ContactConsumer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * <p>Reads only the contacts created or modified since the last synchronization. The
+ * {@link com.leonardofischer.jmautic.SyncMark} of the last synchronization is kept in a local
+ * file, and is replaced atomically only after all the changed contacts were passed to the
+ * consumer. If the consumer or a request fails, the mark is not changed and the next call reads
+ * the same contacts again.
+ *
+ * <pre>
+ *    DeltaSync sync = new DeltaSync(mauticApi, new File("mautic-contacts.mark"));
+ *    sync.sync(null, new ContactConsumer() {
+ *        public void accept(Contact contact) {
+ *            database.save(contact);
+ *        }
+ *    });</pre>
+ *
+ * <p>The Mautic API has no "modified since" filter, so the contacts are listed ordered by
+ * <code>dateModified</code> in descending order, and the listing stops at the first contact
+ * older than the mark. Contacts never modified have no <code>dateModified</code>, so a second
+ * listing ordered by <code>dateAdded</code> finds the contacts created since the mark. The
+ * <code>search</code> filter of the given Search is sent in both listings, and its
+ * <code>projection</code> is applied to the contacts, always keeping the id and dates.
+ *
+ * <p>The contacts are listed by offset, so a contact deleted while the synchronization runs may
+ * shift the next pages and make one contact be skipped. Run the synchronization when few
+ * changes are expected, or read the contacts again from an older mark.
+ */
+public class DeltaSync {
+
+    /**
+     * Default number of contacts in each page request.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 200;
+
+    MauticApi mauticApi;
+    File markFile;
+    int pageSize = DEFAULT_PAGE_SIZE;
+    String dateModifiedColumn = "dateModified";
+    String dateAddedColumn = "dateAdded";
+
+    /**
+     * @param mauticApi the MauticApi used to list the contacts
+     * @param markFile  the file where the mark is stored. It does not need to exist; without a
+     *                  mark, the first synchronization reads all the contacts.
+     */
+    public DeltaSync(MauticApi mauticApi, File markFile) {
+        this.mauticApi = mauticApi;
+        this.markFile = markFile;
+    }
+
+    /**
+     * @param  pageSize the number of contacts in each page request
+     * @return          this DeltaSync instance
+     */
+    public DeltaSync pageSize(int pageSize) {
+        if( pageSize<1 ) {
+            throw new IllegalArgumentException("pageSize must be at least 1");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Changes the column names sent in the <code>orderBy</code> parameter, for Mautic versions
+     * that expect the database column names (for example, <code>l.date_modified</code>).
+     *
+     * @param  dateModifiedColumn the column of the modification date
+     * @param  dateAddedColumn    the column of the creation date
+     * @return                    this DeltaSync instance
+     */
+    public DeltaSync orderByColumns(String dateModifiedColumn, String dateAddedColumn) {
+        this.dateModifiedColumn = dateModifiedColumn;
+        this.dateAddedColumn = dateAddedColumn;
+        return this;
+    }
+
+    /**
+     * Reads the contacts changed since the stored mark, passing each one to the consumer once,
+     * and then stores the new mark.
+     *
+     * @param  search          a Search with the <code>search</code> filter to use, or null to
+     *                         synchronize all the contacts. Its paging and ordering are ignored.
+     * @param  consumer        receives each changed contact, newest first
+     * @return                 the number of contacts passed to the consumer
+     * @throws MauticException if a request fails, if thrown by the consumer, or if the mark
+     *                         cannot be read or written
+     */
+    public int sync(Search search, ContactConsumer consumer) throws MauticException {
+        SyncMark mark = loadMark();
+        Set<Integer> seen = new HashSet<Integer>();
+        MarkBuilder newMark = new MarkBuilder(mark);
+
+        readChanges(search, false, mark, seen, newMark, consumer);
+        readChanges(search, true, mark, seen, newMark, consumer);
+
+        if( newMark.timestamp!=null ) {
+            saveMark(new SyncMark(newMark.timestamp, newMark.ids));
+        }
+        return seen.size();
+    }
+
+    /**
+     * Lists the contacts ordered by the given date column, newest first, until reaching a
+     * contact already covered by the mark.
+     */
+    private void readChanges(Search search, boolean byDateAdded, SyncMark mark, Set<Integer> seen,
+            MarkBuilder newMark, ContactConsumer consumer) throws MauticException {
+        int start = 0;
+        while( true ) {
+            Search pageSearch = new Search();
+            pageSearch.search = search!=null ? search.search : null;
+            pageSearch.publishedOnly = search!=null ? search.publishedOnly : null;
+            if( search!=null && search.projection!=null ) {
+                pageSearch.projection = new Projection(search.projection);
+                if( search.projection.getProperties()!=null ) {
+                    // the id and dates are needed to compare the contacts with the mark; a
+                    // projection without properties already reads all of them
+                    pageSearch.projection.properties("id", "dateAdded", "dateModified");
+                }
+            }
+            pageSearch.orderBy = byDateAdded ? dateAddedColumn : dateModifiedColumn;
+            pageSearch.orderByDir = "desc";
+            pageSearch.start = start;
+            pageSearch.limit = pageSize;
+
+            final List<Contact> page = new ArrayList<Contact>(pageSize);
+            mauticApi.listContacts(pageSearch, new ContactConsumer() {
+                public void accept(Contact contact) {
+                    page.add(contact);
+                }
+            });
+
+            Iterator<Contact> it = page.iterator();
+            while( it.hasNext() ) {
+                Contact contact = it.next();
+                Date orderDate = byDateAdded ? contact.dateAdded : contact.dateModified;
+                if( orderDate==null || (mark!=null && orderDate.compareTo(mark.timestamp)<0) ) {
+                    // the remaining contacts are older than the mark
+                    return;
+                }
+                Date changed = lastChange(contact);
+                if( (mark==null || !mark.covers(contact.id, changed)) && seen.add(contact.id) ) {
+                    consumer.accept(contact);
+                    newMark.add(contact.id, changed);
+                }
+            }
+            if( page.size()<pageSize ) {
+                return;
+            }
+            start += pageSize;
+        }
+    }
+
+    private static Date lastChange(Contact contact) {
+        if( contact.dateModified==null ) {
+            return contact.dateAdded!=null ? contact.dateAdded : new Date(0);
+        }
+        if( contact.dateAdded!=null && contact.dateAdded.after(contact.dateModified) ) {
+            return contact.dateAdded;
+        }
+        return contact.dateModified;
+    }
+
+    /**
+     * Reads the stored mark.
+     *
+     * @return                 the mark of the last synchronization, or null if there is none
+     * @throws MauticException if the mark file cannot be read
+     */
+    public SyncMark loadMark() throws MauticException {
+        if( !markFile.exists() ) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(markFile);
+            properties.load(in);
+            Date timestamp = new Date(Long.parseLong(properties.getProperty("timestamp")));
+            Set<Integer> ids = new HashSet<Integer>();
+            String idList = properties.getProperty("ids", "");
+            if( idList.length()>0 ) {
+                String[] parts = idList.split(",");
+                for( int i=0; i<parts.length; i++ ) {
+                    ids.add(Integer.valueOf(parts[i]));
+                }
+            }
+            return new SyncMark(timestamp, ids);
+        }
+        catch(IOException | RuntimeException e) {
+            throw new MauticException("Could not read sync mark from "+markFile+": "+e.getMessage(), e);
+        }
+        finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Stores a mark, replacing the current one. The mark is written to a temporary file in the
+     * same directory and then moved over the mark file, so a crash never leaves a partial mark.
+     *
+     * @param  mark            the mark to store
+     * @throws MauticException if the mark file cannot be written
+     */
+    public void saveMark(SyncMark mark) throws MauticException {
+        StringBuilder ids = new StringBuilder();
+        Iterator<Integer> it = mark.getIds().iterator();
+        while( it.hasNext() ) {
+            ids.append(ids.length()==0 ? "" : ",").append(it.next());
+        }
+        Properties properties = new Properties();
+        properties.setProperty("timestamp", Long.toString(mark.getTimestamp().getTime()));
+        properties.setProperty("ids", ids.toString());
+
+        File directory = markFile.getAbsoluteFile().getParentFile();
+        File tempFile = null;
+        OutputStream out = null;
+        try {
+            tempFile = File.createTempFile(markFile.getName(), ".tmp", directory);
+            out = new FileOutputStream(tempFile);
+            properties.store(out, "jMautic delta sync mark");
+            out.flush();
+            ((FileOutputStream)out).getFD().sync();
+            out.close();
+            out = null;
+            try {
+                Files.move(tempFile.toPath(), markFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch(AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), markFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            tempFile = null;
+        }
+        catch(IOException e) {
+            throw new MauticException("Could not write sync mark to "+markFile+": "+e.getMessage(), e);
+        }
+        finally {
+            closeQuietly(out);
+            if( tempFile!=null ) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if( closeable!=null ) {
+            try {
+                closeable.close();
+            }
+            catch(IOException e) {
+                // nothing else to do
+            }
+        }
+    }
+
+    /**
+     * Tracks the latest change seen, and the ids of the contacts changed at that time.
+     */
+    private static class MarkBuilder {
+        Date timestamp;
+        Set<Integer> ids = new HashSet<Integer>();
+
+        MarkBuilder(SyncMark previous) {
+            if( previous!=null ) {
+                timestamp = previous.getTimestamp();
+                ids.addAll(previous.getIds());
+            }
+        }
+
+        void add(int id, Date changed) {
+            int comparison = timestamp==null ? 1 : changed.compareTo(timestamp);
+            if( comparison>0 ) {
+                timestamp = changed;
+                ids.clear();
+            }
+            if( comparison>=0 ) {
+                ids.add(id);
+            }
+        }
+    }
+}
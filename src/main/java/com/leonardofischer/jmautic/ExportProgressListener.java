@@ -0,0 +1,18 @@
+package com.leonardofischer.jmautic;
+
+/**
+ * Receives the progress of a {@link com.leonardofischer.jmautic.ContactExporter}. It is called
+ * in the thread that started the export, after each page is passed to the sink.
+ */
+public interface ExportProgressListener {
+
+    /**
+     * @param exportedContacts the number of contacts passed to the sink so far
+     * @param totalContacts    the number of contacts Mautic reported for the search when the
+     *                         export started, or -1 if Mautic did not report it
+     * @param exportedPages    the number of pages passed to the sink so far
+     * @param totalPages       the number of pages of the export, or -1 if Mautic did not
+     *                         report the number of contacts
+     */
+    void onProgress(int exportedContacts, int totalContacts, int exportedPages, int totalPages);
+}
@@ -1,17 +1,31 @@
 package com.leonardofischer.jmautic;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import com.leonardofischer.jmautic.model.*;
 import com.leonardofischer.jmautic.oauth.OAuthService;
 import com.leonardofischer.jmautic.oauth.Request;
+import com.leonardofischer.jmautic.parser.ContactConsumer;
 import com.leonardofischer.jmautic.parser.Parser;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.joda.time.DateTime;
 
@@ -24,9 +38,27 @@ import org.joda.time.DateTime;
  */
 public class MauticApi {
 
+    /**
+     * Default number of contacts sent in each batch request. It is the default maximum accepted
+     * by Mautic (the <code>api_batch_max_limit</code> setting).
+     */
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    /**
+     * Default number of batch requests sent at the same time.
+     */
+    public static final int DEFAULT_BATCH_CONCURRENCY = 4;
+
+    // never reconfigured after they are created, so all the instances can share them
+    static final ObjectMapper sharedMapper = new ObjectMapper();
+    static final Parser sharedParser = new Parser();
+
     OAuthService oauthService;
     ObjectMapper mapper;
     Parser parser;
+    ContactCache contactCache;
+    RequestCoalescer coalescer;
+    boolean copyCoalescedResults;
 
     /**
      * Creates a new MauticApi object. Require an implementation of the
@@ -36,9 +68,68 @@ public class MauticApi {
      * @param  oauthService an instance of an {@link com.leonardofischer.jmautic.oauth.OAuthService}
      */
     public MauticApi(OAuthService oauthService) {
+        this(oauthService, sharedParser);
+    }
+
+    /**
+     * Creates a new MauticApi object that uses the given Parser. A Parser can be shared by any
+     * number of MauticApi instances, such as the ones of a
+     * {@link com.leonardofischer.jmautic.MauticTenantRegistry}, so they do not create their own.
+     *
+     * @param  oauthService an instance of an {@link com.leonardofischer.jmautic.oauth.OAuthService}
+     * @param  parser       the Parser of the responses
+     */
+    public MauticApi(OAuthService oauthService, Parser parser) {
         this.oauthService = oauthService;
-        this.mapper = new ObjectMapper();
-        this.parser = new Parser();
+        this.mapper = sharedMapper;
+        this.parser = parser;
+    }
+
+    /**
+     * Configures a cache for {@link #getContact(int)}. Contacts created or modified through this
+     * MauticApi are removed from the cache.
+     *
+     * @param  contactCache the cache to use, or null to disable caching
+     * @return              this MauticApi instance
+     */
+    public MauticApi contactCache(ContactCache contactCache) {
+        this.contactCache = contactCache;
+        return this;
+    }
+
+    /**
+     * @return the cache configured with {@link #contactCache(ContactCache)}, or null
+     */
+    public ContactCache getContactCache() {
+        return contactCache;
+    }
+
+    /**
+     * <p>Enables or disables the coalescing of concurrent GET requests. When enabled, threads
+     * that call {@link #getContact(int)} or {@link #listContacts(Search)} with the same arguments
+     * while an identical request is running wait for that request, instead of sending their
+     * own, and receive its result.
+     *
+     * <p>By default, all those callers receive the same result object, so they must not modify
+     * it. With <code>copyResults</code>, each caller receives an independent copy instead.
+     *
+     * @param  enabled     true to coalesce concurrent requests
+     * @param  copyResults true to give each caller its own copy of the result
+     * @return             this MauticApi instance
+     */
+    public MauticApi coalesceRequests(boolean enabled, boolean copyResults) {
+        this.coalescer = enabled ? new RequestCoalescer() : null;
+        this.copyCoalescedResults = copyResults;
+        return this;
+    }
+
+    /**
+     * @return how many calls received the result of a request sent by another thread, or 0 if
+     *         coalescing is disabled
+     */
+    public long getCoalescedRequestCount() {
+        RequestCoalescer current = coalescer;
+        return current!=null ? current.getCoalescedCount() : 0;
     }
 
     public ListContactsResult listContacts() throws MauticException {
@@ -46,60 +137,408 @@ public class MauticApi {
     }
 
     public ListContactsResult listContacts(Search search) throws MauticException {
-        Request request = new Request();
-        request.setEndpoint("/api/contacts");
+        final Request request = buildListContactsRequest(search);
+        final Projection projection = search!=null ? search.projection : null;
+        RequestCoalescer current = coalescer;
+        // the projection is not part of the request, so requests with one are never shared
+        if( current==null || projection!=null ) {
+            return parser.parseListContacts( oauthService.executeRequest(request), projection );
+        }
+        ListContactsResult result = current.execute(request, new RequestCoalescer.Call<ListContactsResult>() {
+            public ListContactsResult execute() throws MauticException {
+                return parser.parseListContacts( oauthService.executeRequest(request) );
+            }
+        });
+        return copyCoalescedResults ? copy(result, ListContactsResult.class) : result;
+    }
+
+    /**
+     * Lists the contacts matching the given search, passing each one to the consumer while the
+     * response is being read. Only one contact is held in memory at a time, which makes this
+     * method suitable for pages with a large <code>limit</code>.
+     *
+     * @param  search          the search criteria, or null to use the Mautic defaults
+     * @param  consumer        receives each contact of the page, in order
+     * @return                 the total number of contacts matching the search, or -1 if
+     *                         Mautic did not return it
+     * @throws MauticException if the request fails, or if thrown by the consumer
+     */
+    public int listContacts(Search search, ContactConsumer consumer) throws MauticException {
+        Request request = buildListContactsRequest(search);
+        InputStream result = oauthService.executeRequest(request);
+        return parser.parseListContacts( result, consumer, search!=null ? search.projection : null );
+    }
+
+    /**
+     * Returns an Iterable over all the contacts matching the given search, across all pages.
+     * The pages are requested lazily, and one page ahead of the caller. See
+     * {@link #iterateContacts(Search, int)} for details.
+     *
+     * @param  search the search criteria, or null to iterate over all the contacts
+     * @return        an Iterable over all the matching contacts
+     */
+    public Iterable<Contact> iterateContacts(Search search) {
+        return iterateContacts(search, 1);
+    }
+
+    /**
+     * <p>Returns an Iterable over all the contacts matching the given search, across all pages.
+     * The <code>start</code> of the search is where the iteration starts, and its
+     * <code>limit</code> is used as the page size (or
+     * {@link com.leonardofischer.jmautic.PagedContactIterator#DEFAULT_PAGE_SIZE} if not set).
+     *
+     * <p>Each call to <code>iterator()</code> starts a new iteration, returning a
+     * {@link com.leonardofischer.jmautic.PagedContactIterator}. While the caller works through a
+     * page, the next <code>prefetchPages</code> pages are requested in background threads.
+     *
+     * @param  search        the search criteria, or null to iterate over all the contacts
+     * @param  prefetchPages how many pages to request ahead of the caller (at least 1)
+     * @return               an Iterable over all the matching contacts
+     */
+    public Iterable<Contact> iterateContacts(final Search search, final int prefetchPages) {
+        if( prefetchPages<1 ) {
+            throw new IllegalArgumentException("prefetchPages must be at least 1");
+        }
+        return new Iterable<Contact>() {
+            public Iterator<Contact> iterator() {
+                return new PagedContactIterator(MauticApi.this, search, prefetchPages);
+            }
+        };
+    }
+
+    /**
+     * Returns a sequential Stream over all the contacts matching the given search, with the
+     * same paging and prefetching behavior of {@link #iterateContacts(Search, int)}. Close the
+     * stream if you do not consume it until the end, so pending requests are cancelled.
+     *
+     * @param  search        the search criteria, or null to stream all the contacts
+     * @param  prefetchPages how many pages to request ahead of the caller (at least 1)
+     * @return               a Stream over all the matching contacts
+     */
+    public Stream<Contact> streamContacts(Search search, int prefetchPages) {
+        final PagedContactIterator iterator = new PagedContactIterator(this, search, prefetchPages);
+        Spliterator<Contact> spliterator = Spliterators.spliteratorUnknownSize(iterator,
+            Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+            public void run() {
+                iterator.close();
+            }
+        });
+    }
+
+    /**
+     * Returns a Reactive Streams Publisher of all the contacts matching the given search. Pages
+     * are requested only when the subscriber demands more contacts, and the paging stops when
+     * the subscription is cancelled. See {@link com.leonardofischer.jmautic.ContactPublisher}
+     * for details.
+     *
+     * @param  search the search criteria, or null to publish all the contacts
+     * @return        a Publisher of all the matching contacts
+     */
+    public ContactPublisher publishContacts(Search search) {
+        return new ContactPublisher(this, search);
+    }
+
+    /**
+     * Exports all the contacts matching the given search, requesting up to
+     * <code>parallelism</code> pages at the same time and passing the contacts to the sink in
+     * the search order. Use a {@link com.leonardofischer.jmautic.ContactExporter} directly to
+     * configure the page size, unordered output or progress callbacks.
+     *
+     * @param  search          the search criteria, or null to export all the contacts
+     * @param  sink            receives each contact, in the thread that called this method
+     * @param  parallelism     the maximum number of page requests sent at the same time
+     * @return                 the number of exported contacts
+     * @throws MauticException if any page request fails, or if thrown by the sink
+     */
+    public int exportContacts(Search search, ContactConsumer sink, int parallelism) throws MauticException {
+        return new ContactExporter(this).parallelism(parallelism).export(search, sink);
+    }
+
+    static Request buildListContactsRequest(Search search) {
+        Request.Builder request = Request.builder().endpoint("/api/contacts");
         if( search!=null ) {
             if( search.search!=null ) {
-                request.addParameter("search", search.search);
+                request.parameter("search", search.search);
             }
             if( search.start>=0 ) {
-                request.addParameter("start", Integer.toString(search.start));
+                request.parameter("start", Integer.toString(search.start));
             }
             if( search.limit>=0 ) {
-                request.addParameter("limit", Integer.toString(search.limit));
+                request.parameter("limit", Integer.toString(search.limit));
             }
             if( search.orderBy!=null ) {
-                request.addParameter("orderBy", search.orderBy);
+                request.parameter("orderBy", search.orderBy);
             }
             if( search.orderByDir!=null ) {
-                request.addParameter("orderByDir", search.orderByDir);
+                request.parameter("orderByDir", search.orderByDir);
             }
             if( search.publishedOnly!=null ) {
-                request.addParameter("publishedOnly", Boolean.toString(search.publishedOnly));
+                request.parameter("publishedOnly", Boolean.toString(search.publishedOnly));
             }
         }
-        InputStream result = oauthService.executeRequest(request);
-        return parser.parseListContacts( result );
+        return request.build();
     }
 
     public GetContactResult getContact(int contactId) throws MauticException {
-        Request request = new Request();
-        request.setEndpoint("/api/contacts/"+contactId);
-        InputStream result = oauthService.executeRequest(request);
-        return parser.parseGetContact( result );
+        ContactCache cache = contactCache;
+        if( cache==null ) {
+            return fetchContact(contactId);
+        }
+        GetContactResult cached = cache.get(contactId);
+        if( cached!=null ) {
+            return cached;
+        }
+        long loadToken = cache.beginLoad();
+        GetContactResult result = fetchContact(contactId);
+        cache.put(contactId, result, loadToken);
+        return result;
+    }
+
+    GetContactResult fetchContact(int contactId) throws MauticException {
+        final Request request = buildGetContactRequest(contactId);
+        RequestCoalescer current = coalescer;
+        if( current==null ) {
+            return parser.parseGetContact( oauthService.executeRequest(request) );
+        }
+        GetContactResult result = current.execute(request, new RequestCoalescer.Call<GetContactResult>() {
+            public GetContactResult execute() throws MauticException {
+                return parser.parseGetContact( oauthService.executeRequest(request) );
+            }
+        });
+        return copyCoalescedResults ? copy(result, GetContactResult.class) : result;
+    }
+
+    /**
+     * Deep copies a result object, so callers that share a coalesced request do not share it.
+     */
+    private <T> T copy(T result, Class<T> type) throws MauticException {
+        // convertValue() would return the same object, since it already has the requested type
+        TokenBuffer buffer = new TokenBuffer(mapper, false);
+        try {
+            mapper.writeValue(buffer, result);
+            return mapper.readValue(buffer.asParser(), type);
+        }
+        catch(IOException e) {
+            throw new MauticException("Could not copy "+type.getSimpleName()+": "+e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads many contacts by id, sending up to
+     * {@link com.leonardofischer.jmautic.BulkContactFetcher#DEFAULT_CONCURRENCY} requests at the
+     * same time. See {@link com.leonardofischer.jmautic.BulkContactFetcher} for details.
+     *
+     * @param  contactIds      the ids to read
+     * @return                 the contacts read, and the error of each id that failed
+     * @throws MauticException if interrupted while waiting for the requests
+     */
+    public BulkFetchResult getContacts(Collection<Integer> contactIds) throws MauticException {
+        return new BulkContactFetcher(this).fetch(contactIds);
+    }
+
+    /**
+     * Same as {@link #getContacts(Collection)}, with up to <code>concurrency</code> requests in
+     * flight.
+     *
+     * @param  contactIds      the ids to read
+     * @param  concurrency     the maximum number of requests sent at the same time
+     * @return                 the contacts read, and the error of each id that failed
+     * @throws MauticException if interrupted while waiting for the requests
+     */
+    public BulkFetchResult getContacts(Collection<Integer> contactIds, int concurrency) throws MauticException {
+        return new BulkContactFetcher(this).concurrency(concurrency).fetch(contactIds);
+    }
+
+    static Request buildGetContactRequest(int contactId) {
+        return Request.get("/api/contacts/"+contactId);
     }
 
     public GetContactResult createContact(Map<String, String> contactFields, String ipAddress,
             Date lastActive, int ownerId) throws MauticException {
-        Request request = new Request();
-        request.setMethod(Request.Method.POST);
-        request.setEndpoint("/api/contacts/new");
+        Request request = buildCreateContactRequest(contactFields, ipAddress, lastActive, ownerId);
+        GetContactResult contact;
+        try {
+            InputStream result = oauthService.executeRequest(request);
+            contact = parser.parseGetContact( result );
+        }
+        catch(MauticException e) {
+            // the request may have reached Mautic, but we can't tell which contact it changed
+            invalidateAllContacts();
+            throw e;
+        }
+        // Mautic may update an existing contact (for example, one with the same email)
+        if( contactCache!=null && contact.contact!=null ) {
+            contactCache.invalidate(contact.contact.id);
+        }
+        return contact;
+    }
+
+    private void invalidateAllContacts() {
+        if( contactCache!=null ) {
+            contactCache.invalidateAll();
+        }
+    }
+
+    static Request buildCreateContactRequest(Map<String, String> contactFields, String ipAddress,
+            Date lastActive, int ownerId) {
+        Request.Builder request = Request.builder()
+            .method(Request.Method.POST)
+            .endpoint("/api/contacts/new");
         Iterator<Map.Entry<String,String>> it = contactFields.entrySet().iterator();
         while( it.hasNext() ) {
             Map.Entry<String,String> field = (Map.Entry<String,String>)it.next();
-            request.addBodyParameter(field.getKey(), field.getValue());
+            request.bodyParameter(field.getKey(), field.getValue());
         }
         if( ipAddress!=null ) {
-            request.addBodyParameter("ipAddress", ipAddress);
+            request.bodyParameter("ipAddress", ipAddress);
         }
         if( lastActive!=null ) {
             DateTime isoDateTime = new DateTime(lastActive);
-            request.addBodyParameter("lastActive", isoDateTime.toString());
+            request.bodyParameter("lastActive", isoDateTime.toString());
         }
         if( ownerId>=0 ) {
-            request.addBodyParameter("owner", Integer.toString(ownerId));
+            request.bodyParameter("owner", Integer.toString(ownerId));
         }
-        InputStream result = oauthService.executeRequest(request);
-        return parser.parseGetContact( result );
+        return request.build();
+    }
+
+    /**
+     * Creates several contacts using the batch endpoint, with the default batch size and
+     * concurrency. See {@link #createContacts(List, int, int)}.
+     *
+     * @param  contacts        the fields of each contact to create
+     * @return                 one result for each contact, in the same order
+     * @throws MauticException if the contacts cannot be sent
+     */
+    public List<BatchContactResult> createContacts(List<Map<String, String>> contacts) throws MauticException {
+        return createContacts(contacts, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_CONCURRENCY);
+    }
+
+    /**
+     * <p>Creates several contacts using the <code>POST /contacts/batch/new</code> endpoint. The
+     * contacts are split in batches of <code>batchSize</code> contacts, and up to
+     * <code>maxConcurrentBatches</code> batches are sent at the same time.
+     *
+     * <p>Errors do not stop the other batches: each contact gets its own
+     * {@link com.leonardofischer.jmautic.model.BatchContactResult}, with either the created
+     * contact or an error message. If a whole batch request fails, all the contacts of that batch
+     * get the error of the request.
+     *
+     * @param  contacts             the fields of each contact to create, as in
+     *                              {@link #createContact(Map, String, Date, int)}
+     * @param  batchSize            the maximum number of contacts in each request. Must not be
+     *                              greater than the <code>api_batch_max_limit</code> of your
+     *                              Mautic instance.
+     * @param  maxConcurrentBatches the maximum number of requests sent at the same time
+     * @return                      one result for each contact, in the same order
+     * @throws MauticException      if the contacts cannot be converted to JSON, or if the thread
+     *                              is interrupted while waiting for the batches
+     */
+    public List<BatchContactResult> createContacts(List<Map<String, String>> contacts, int batchSize,
+            int maxConcurrentBatches) throws MauticException {
+        if( batchSize<1 ) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        if( maxConcurrentBatches<1 ) {
+            throw new IllegalArgumentException("maxConcurrentBatches must be at least 1");
+        }
+
+        List<Request> requests = new ArrayList<Request>();
+        List<Integer> sizes = new ArrayList<Integer>();
+        for( int start=0; start<contacts.size(); start+=batchSize ) {
+            List<Map<String, String>> batch = contacts.subList(start, Math.min(contacts.size(), start+batchSize));
+            requests.add( buildCreateContactsRequest(batch) );
+            sizes.add( batch.size() );
+        }
+
+        List<BatchContactResult> results = new ArrayList<BatchContactResult>(contacts.size());
+        if( requests.size()<=1 || maxConcurrentBatches==1 ) {
+            for( int i=0; i<requests.size(); i++ ) {
+                results.addAll( executeBatch(requests.get(i), sizes.get(i)) );
+            }
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrentBatches,
+            requests.size()), new DaemonThreadFactory("jmautic-batch"));
+        try {
+            List<Future<List<BatchContactResult>>> futures = new ArrayList<Future<List<BatchContactResult>>>();
+            for( int i=0; i<requests.size(); i++ ) {
+                final Request request = requests.get(i);
+                final int size = sizes.get(i);
+                futures.add( executor.submit(new Callable<List<BatchContactResult>>() {
+                    public List<BatchContactResult> call() {
+                        return executeBatch(request, size);
+                    }
+                }));
+            }
+            for( int i=0; i<futures.size(); i++ ) {
+                results.addAll( futures.get(i).get() );
+            }
+            return results;
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MauticException("Interrupted while creating contacts", e);
+        }
+        catch(ExecutionException e) {
+            throw new MauticException("Could not create contacts: "+e.getCause().getMessage(), e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    Request buildCreateContactsRequest(List<Map<String, String>> contacts) throws MauticException {
+        try {
+            return Request.builder()
+                .method(Request.Method.POST)
+                .endpoint("/api/contacts/batch/new")
+                .jsonBody( mapper.writeValueAsString(contacts) )
+                .build();
+        }
+        catch(IOException e) {
+            throw new MauticException("Could not convert contacts to json: "+e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sends one batch request. Never throws: if the request fails, every contact of the batch
+     * gets the error message.
+     */
+    List<BatchContactResult> executeBatch(Request request, int size) {
+        try {
+            InputStream result = oauthService.executeRequest(request);
+            List<BatchContactResult> results = parser.parseBatchContacts(result, size);
+            if( contactCache!=null ) {
+                for( int i=0; i<results.size(); i++ ) {
+                    if( results.get(i).contact!=null ) {
+                        contactCache.invalidate(results.get(i).contact.id);
+                    }
+                }
+            }
+            return results;
+        }
+        catch(MauticException e) {
+            return failedBatch(e.getMessage(), size);
+        }
+        catch(RuntimeException e) {
+            // thrown by the parser or the transport; the other batches must still be returned,
+            // or the caller would retry the contacts Mautic already created
+            return failedBatch(e.getMessage()!=null ? e.getMessage() : e.toString(), size);
+        }
+    }
+
+    private List<BatchContactResult> failedBatch(String errorMessage, int size) {
+        // Mautic may have created some contacts of the batch anyway
+        invalidateAllContacts();
+        List<BatchContactResult> results = new ArrayList<BatchContactResult>(size);
+        for( int i=0; i<size; i++ ) {
+            BatchContactResult error = new BatchContactResult();
+            error.errorMessage = errorMessage;
+            results.add(error);
+        }
+        return results;
     }
 }
@@ -0,0 +1,88 @@
+package com.leonardofischer.jmautic;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * A {@link com.leonardofischer.jmautic.MauticException} thrown when Mautic answers a request with
+ * an error status code. Besides the message, it gives access to the status code and to the
+ * <code>Retry-After</code> header, so callers can tell an overloaded server (429 or 503) from an
+ * invalid request.
+ */
+public class MauticStatusException extends MauticException {
+
+    private static final long serialVersionUID = 6307912553409711844L;
+
+    int statusCode;
+    long retryAfterMillis;
+
+    /**
+     * @param message          the exception message
+     * @param statusCode       the HTTP status code returned by Mautic
+     * @param retryAfterMillis the delay requested by the <code>Retry-After</code> header, or -1
+     *                         if the response did not have it
+     */
+    public MauticStatusException(String message, int statusCode, long retryAfterMillis) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return the HTTP status code returned by Mautic
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the delay requested by the <code>Retry-After</code> header, in milliseconds, or
+     *         -1 if the response did not have it
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return true if the status code means that the server is overloaded (429 Too Many
+     *         Requests or 503 Service Unavailable)
+     */
+    public boolean isOverloaded() {
+        return statusCode==429 || statusCode==503;
+    }
+
+    /**
+     * Parses a <code>Retry-After</code> header, given either as a number of seconds or as an
+     * HTTP date.
+     *
+     * @param  value the header value, may be null
+     * @param  now   the current time, in milliseconds since the epoch
+     * @return       the delay in milliseconds (0 for dates in the past), or -1 if the value is
+     *               null or invalid
+     */
+    public static long parseRetryAfter(String value, long now) {
+        if( value==null ) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds>=0 ? seconds*1000 : -1;
+        }
+        catch(NumberFormatException e) {
+            // not a number of seconds, try an HTTP date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - now);
+        }
+        catch(ParseException e) {
+            return -1;
+        }
+    }
+}
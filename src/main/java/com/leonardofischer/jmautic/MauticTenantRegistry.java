@@ -0,0 +1,508 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.http.HttpTransport;
+import com.leonardofischer.jmautic.http.PooledHttpTransport;
+import com.leonardofischer.jmautic.metrics.MetricsListener;
+import com.leonardofischer.jmautic.oauth.OAuthService;
+import com.leonardofischer.jmautic.oauth.Request;
+import com.leonardofischer.jmautic.parser.Parser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Keeps the {@link com.leonardofischer.jmautic.MauticApi} clients of many Mautic instances
+ * (tenants), such as the ones of the customers of a SaaS application. Tenants are registered with
+ * their instance URL, API key and secret and tokens, and the connection of a tenant is only
+ * created the first time a request is sent to it:
+ *
+ * <pre>
+ *    MauticTenantRegistry registry = new MauticTenantRegistry();
+ *    registry.register("acme", new MauticTenantRegistry.Tenant("https://mautic.acme.com")
+ *        .credentials(apiKey, apiSecret)
+ *        .tokens(accessToken, refreshToken, expiresAt));
+ *
+ *    Contact contact = registry.getApi("acme").getContact(42).contact;</pre>
+ *
+ * <p>All the clients share one {@link com.leonardofischer.jmautic.http.HttpTransport} (and so its
+ * connection pool), one {@link com.leonardofischer.jmautic.parser.Parser}, and one
+ * {@link com.leonardofischer.jmautic.TokenRefreshScheduler} thread that refreshes the access
+ * tokens of all the tenants before they expire. Thousands of tenants do not need thousands of
+ * pools or threads.
+ *
+ * <p>The connection of a tenant that sent no request for the idle timeout (see
+ * {@link #idleTimeout(long, TimeUnit)}) is evicted, stopping the refresh of its access token.
+ * The {@link com.leonardofischer.jmautic.MauticApi} returned by {@link #getApi(String)} can be
+ * kept: it connects again, with the latest tokens, on its next request. Each tenant has at most
+ * one connection at a time, so the refresh token is never used by two connections. Mautic
+ * invalidates the old refresh token on each refresh, so the registry keeps the latest tokens in
+ * the {@link MauticTenantRegistry.Tenant}, and passes them to the
+ * {@link MauticTenantRegistry.TenantListener} to be saved.
+ *
+ * <p>This class is thread-safe.
+ */
+public class MauticTenantRegistry implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MauticTenantRegistry.class);
+
+    /**
+     * How long a connection can stay unused before it is evicted, if not configured.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * The connection settings and the tokens of a tenant. The tokens are replaced by the new
+     * ones each time the access token of the tenant is refreshed.
+     */
+    public static class Tenant {
+        final String instanceUrl;
+        String apiKey;
+        String apiSecret;
+        // guarded by this
+        String accessToken;
+        String refreshToken;
+        Date expiresAt;
+
+        /**
+         * @param  instanceUrl the URL of the Mautic instance of the tenant
+         */
+        public Tenant(String instanceUrl) {
+            this.instanceUrl = instanceUrl;
+        }
+
+        /**
+         * @param  apiKey    the API key, needed to refresh the access token
+         * @param  apiSecret the API secret, needed to refresh the access token
+         * @return           this Tenant instance
+         */
+        public Tenant credentials(String apiKey, String apiSecret) {
+            this.apiKey = apiKey;
+            this.apiSecret = apiSecret;
+            return this;
+        }
+
+        /**
+         * @param  accessToken  the access token
+         * @param  refreshToken the refresh token, or null if the access token is not refreshed
+         * @param  expiresAt    when the access token expires, or null if unknown
+         * @return              this Tenant instance
+         */
+        public synchronized Tenant tokens(String accessToken, String refreshToken, Date expiresAt) {
+            this.accessToken = accessToken;
+            this.refreshToken = refreshToken;
+            this.expiresAt = expiresAt;
+            return this;
+        }
+
+        public String getInstanceUrl() {
+            return instanceUrl;
+        }
+
+        public synchronized String getAccessToken() {
+            return accessToken;
+        }
+
+        public synchronized String getRefreshToken() {
+            return refreshToken;
+        }
+
+        public synchronized Date getAccessTokenExpiration() {
+            return expiresAt;
+        }
+    }
+
+    /**
+     * Receives the new tokens of a tenant after its access token is refreshed, to save them.
+     */
+    public interface TenantListener {
+
+        /**
+         * Called in the thread that refreshed the token.
+         *
+         * @param tenantId the id the tenant was registered with
+         * @param tenant   the tenant, with its new tokens
+         */
+        void onTokenRefreshed(String tenantId, Tenant tenant);
+    }
+
+    /**
+     * A registered tenant. Its MauticApi sends the requests through {@link #executeRequest},
+     * which creates the OAuth2Service of the tenant when needed, and counts the requests in
+     * flight so a connection is never evicted while it is in use.
+     */
+    class Entry implements OAuthService {
+        final String tenantId;
+        final Tenant tenant;
+        final MauticApi mauticApi;
+        // guarded by this
+        OAuth2Service service;
+        int inFlight = 0;
+        boolean removed = false;
+        long lastUsedNanos;
+
+        Entry(String tenantId, Tenant tenant) {
+            this.tenantId = tenantId;
+            this.tenant = tenant;
+            this.mauticApi = new MauticApi(this, parser);
+            this.lastUsedNanos = nanoTime();
+        }
+
+        @Override
+        public InputStream executeRequest(Request request) throws MauticException {
+            OAuth2Service current = acquire();
+            try {
+                return current.executeRequest(request);
+            }
+            finally {
+                release();
+            }
+        }
+
+        private synchronized OAuth2Service acquire() throws MauticException {
+            if( removed ) {
+                throw new MauticException(closed ? "The tenant registry is closed" :
+                    "Tenant " + tenantId + " is no longer registered");
+            }
+            if( service==null ) {
+                startEviction();
+                service = createService(this);
+            }
+            inFlight++;
+            lastUsedNanos = nanoTime();
+            return service;
+        }
+
+        private synchronized void release() {
+            inFlight--;
+            lastUsedNanos = nanoTime();
+        }
+
+        synchronized boolean isActive() {
+            return service!=null;
+        }
+
+        synchronized boolean evictIfIdle(long now, long timeoutNanos) {
+            if( service==null || inFlight>0 || now - lastUsedNanos < timeoutNanos ) {
+                return false;
+            }
+            drop();
+            return true;
+        }
+
+        /**
+         * Makes the MauticApi of this entry unusable, and drops its connection.
+         */
+        synchronized void remove() {
+            removed = true;
+            if( service!=null ) {
+                drop();
+            }
+        }
+
+        /**
+         * Drops the connection. The tokens are already in the tenant, updated on each refresh,
+         * so the next connection starts with them.
+         */
+        private void drop() {
+            service.cancelScheduledRefresh();
+            service = null;
+        }
+    }
+
+    final ConcurrentHashMap<String,Entry> tenants = new ConcurrentHashMap<String,Entry>();
+    final HttpTransport transport;
+    final boolean ownTransport;
+    final TokenRefreshScheduler refreshScheduler;
+    final boolean ownScheduler;
+    final Parser parser = MauticApi.sharedParser;
+    volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    volatile int refreshMarginSeconds = 60;
+    volatile MetricsListener metricsListener;
+    volatile TenantListener tenantListener;
+    // guarded by this
+    ScheduledFuture<?> evictionTask;
+    volatile boolean closed = false;
+
+    /**
+     * Creates a registry with its own {@link com.leonardofischer.jmautic.http.PooledHttpTransport}
+     * and {@link com.leonardofischer.jmautic.TokenRefreshScheduler}, closed by {@link #close()}.
+     */
+    public MauticTenantRegistry() {
+        this(new PooledHttpTransport(), true, new TokenRefreshScheduler(), true);
+    }
+
+    /**
+     * Creates a registry that uses the given transport and scheduler. They are not closed by
+     * {@link #close()}, so they can be shared with other clients.
+     *
+     * @param  transport        sends the requests of all the tenants
+     * @param  refreshScheduler refreshes the access tokens of all the tenants
+     */
+    public MauticTenantRegistry(HttpTransport transport, TokenRefreshScheduler refreshScheduler) {
+        this(transport, false, refreshScheduler, false);
+    }
+
+    private MauticTenantRegistry(HttpTransport transport, boolean ownTransport,
+            TokenRefreshScheduler refreshScheduler, boolean ownScheduler) {
+        this.transport = transport;
+        this.ownTransport = ownTransport;
+        this.refreshScheduler = refreshScheduler;
+        this.ownScheduler = ownScheduler;
+    }
+
+    /**
+     * How long the connection of a tenant can stay without requests before it is evicted. The
+     * default is {@link #DEFAULT_IDLE_TIMEOUT_MILLIS}.
+     *
+     * @param  idleTimeout the timeout, or 0 to never evict the connections
+     * @param  unit        the unit of the timeout
+     * @return             this MauticTenantRegistry instance
+     */
+    public synchronized MauticTenantRegistry idleTimeout(long idleTimeout, TimeUnit unit) {
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+        if( evictionTask!=null ) {
+            evictionTask.cancel(false);
+            evictionTask = null;
+        }
+        return this;
+    }
+
+    /**
+     * @param  refreshMarginSeconds how many seconds before the access tokens expire they are
+     *                              refreshed, as in
+     *                              {@link com.leonardofischer.jmautic.OAuth2Service#refreshMargin(int)}
+     * @return                      this MauticTenantRegistry instance
+     */
+    public MauticTenantRegistry refreshMargin(int refreshMarginSeconds) {
+        this.refreshMarginSeconds = refreshMarginSeconds;
+        return this;
+    }
+
+    /**
+     * @param  metricsListener receives the metrics of the requests of all the tenants, or null
+     * @return                 this MauticTenantRegistry instance
+     */
+    public MauticTenantRegistry metricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        return this;
+    }
+
+    /**
+     * @param  tenantListener receives the new tokens of the tenants, or null
+     * @return                this MauticTenantRegistry instance
+     */
+    public MauticTenantRegistry tenantListener(TenantListener tenantListener) {
+        this.tenantListener = tenantListener;
+        return this;
+    }
+
+    /**
+     * Registers a tenant, replacing the one registered with the same id. The MauticApi of the
+     * replaced tenant can no longer be used. The connection of the tenant is created when its
+     * first request is sent.
+     *
+     * @param  tenantId the id of the tenant
+     * @param  tenant   the settings and the tokens of the tenant
+     * @return          this MauticTenantRegistry instance
+     */
+    public MauticTenantRegistry register(String tenantId, Tenant tenant) {
+        if( tenantId==null || tenant==null || tenant.instanceUrl==null || tenant.getAccessToken()==null ) {
+            throw new IllegalArgumentException("tenantId, instanceUrl and accessToken cannot be null");
+        }
+        Entry previous = tenants.put(tenantId, new Entry(tenantId, tenant));
+        if( previous!=null ) {
+            previous.remove();
+        }
+        return this;
+    }
+
+    /**
+     * Removes a tenant and its connection. Its MauticApi can no longer be used.
+     *
+     * @param  tenantId the id of the tenant
+     * @return          the removed tenant, with its latest tokens, or null if not registered
+     */
+    public Tenant unregister(String tenantId) {
+        Entry entry = tenants.remove(tenantId);
+        if( entry==null ) {
+            return null;
+        }
+        entry.remove();
+        return entry.tenant;
+    }
+
+    /**
+     * @param  tenantId the id of the tenant
+     * @return          the tenant, with its latest tokens, or null if not registered
+     */
+    public Tenant getTenant(String tenantId) {
+        Entry entry = tenants.get(tenantId);
+        return entry!=null ? entry.tenant : null;
+    }
+
+    /**
+     * Returns the client of a tenant. It is always the same instance for a registered tenant,
+     * and can be kept: its connection is created on its first request, and again on the first
+     * request after an eviction.
+     *
+     * @param  tenantId        the id of the tenant
+     * @return                 the client of the tenant
+     * @throws MauticException if the tenant is not registered, or the registry is closed
+     */
+    public MauticApi getApi(String tenantId) throws MauticException {
+        if( closed ) {
+            throw new MauticException("The tenant registry is closed");
+        }
+        Entry entry = tenants.get(tenantId);
+        if( entry==null ) {
+            throw new MauticException("Unknown tenant: " + tenantId);
+        }
+        return entry.mauticApi;
+    }
+
+    private OAuth2Service createService(final Entry entry) {
+        final Tenant tenant = entry.tenant;
+        String accessToken, refreshToken;
+        Date expiresAt;
+        synchronized(tenant) {
+            accessToken = tenant.accessToken;
+            refreshToken = tenant.refreshToken;
+            expiresAt = tenant.expiresAt;
+        }
+        return new OAuth2Service()
+            .instanceUrl(tenant.instanceUrl)
+            .apiKey(tenant.apiKey)
+            .apiSecret(tenant.apiSecret)
+            .transport(transport)
+            .metricsListener(metricsListener)
+            .refreshMargin(refreshMarginSeconds)
+            .tokenListener(new TokenListener() {
+                public void onTokenRefreshed(OAuth2Service service) {
+                    tenant.tokens(service.getAccessToken(), service.getRefreshToken(),
+                        service.getAccessTokenExpiration());
+                    TenantListener listener = tenantListener;
+                    if( listener!=null ) {
+                        listener.onTokenRefreshed(entry.tenantId, tenant);
+                    }
+                }
+            })
+            .accessToken(accessToken, refreshToken, expiresAt)
+            .refreshScheduler(refreshScheduler);
+    }
+
+    /**
+     * Starts the periodic eviction of idle clients, if not started yet.
+     */
+    private synchronized void startEviction() throws MauticException {
+        if( closed ) {
+            throw new MauticException("The tenant registry is closed");
+        }
+        if( evictionTask!=null || idleTimeoutMillis<=0 ) {
+            return;
+        }
+        evictionTask = refreshScheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    evictIdle();
+                }
+                catch(RuntimeException e) {
+                    // an exception would stop the periodic task
+                    logger.warn("Could not evict the idle tenants", e);
+                }
+            }
+        }, Math.max(1, idleTimeoutMillis/2));
+    }
+
+    /**
+     * Evicts the connections without requests for the idle timeout. This is done periodically
+     * by the registry, so it only needs to be called to evict them right away.
+     *
+     * @return the number of evicted connections
+     */
+    public int evictIdle() {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        if( timeoutNanos<=0 ) {
+            return 0;
+        }
+        long now = nanoTime();
+        int evicted = 0;
+        Iterator<Entry> it = tenants.values().iterator();
+        while( it.hasNext() ) {
+            if( it.next().evictIfIdle(now, timeoutNanos) ) {
+                evicted++;
+            }
+        }
+        if( evicted>0 ) {
+            logger.debug("Evicted {} idle tenant connections", evicted);
+        }
+        return evicted;
+    }
+
+    /**
+     * The clock of the idle timeout, replaced in the tests.
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return the number of registered tenants
+     */
+    public int getTenantCount() {
+        return tenants.size();
+    }
+
+    /**
+     * @return the number of tenants with a connection, not evicted yet
+     */
+    public int getActiveCount() {
+        int active = 0;
+        Iterator<Entry> it = tenants.values().iterator();
+        while( it.hasNext() ) {
+            if( it.next().isActive() ) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Drops all the connections and, if they were created by this registry, closes the
+     * transport and the refresh scheduler. The clients can no longer be used, but the tenants
+     * can still be read with {@link #getTenant(String)}, with their latest tokens.
+     *
+     * @throws IOException if the transport could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized(this) {
+            if( closed ) {
+                return;
+            }
+            closed = true;
+            if( evictionTask!=null ) {
+                evictionTask.cancel(false);
+                evictionTask = null;
+            }
+        }
+        Iterator<Entry> it = tenants.values().iterator();
+        while( it.hasNext() ) {
+            it.next().remove();
+        }
+        if( ownScheduler ) {
+            refreshScheduler.close();
+        }
+        if( ownTransport ) {
+            transport.close();
+        }
+    }
+}
@@ -3,26 +3,39 @@ package com.leonardofischer.jmautic;
 import com.github.scribejava.core.oauth.OAuth20Service;
 import com.github.scribejava.core.builder.ServiceBuilder;
 import com.github.scribejava.core.model.OAuth2AccessToken;
-import com.github.scribejava.core.model.OAuthRequest;
-import com.github.scribejava.core.model.Response;
-import com.github.scribejava.core.model.Verb;
 
 import com.leonardofischer.jmautic.MauticApi;
+import com.leonardofischer.jmautic.http.ContentDecoding;
+import com.leonardofischer.jmautic.http.HttpResponse;
+import com.leonardofischer.jmautic.http.HttpTransport;
+import com.leonardofischer.jmautic.http.UrlConnectionTransport;
+import com.leonardofischer.jmautic.metrics.MeteredInputStream;
+import com.leonardofischer.jmautic.metrics.MetricsListener;
+import com.leonardofischer.jmautic.metrics.RequestMetrics;
 import com.leonardofischer.jmautic.oauth.OAuthService;
 import com.leonardofischer.jmautic.oauth.Request;
 import com.leonardofischer.jmautic.oauth.MauticOauthException;
 import com.leonardofischer.jmautic.scribejava.MauticOauth2Api;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLEncoder;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * <p>Implements OAuth2 authentication for jMautic. If you want to connect to a Mautic instance
@@ -115,8 +128,7 @@ import java.util.Map;
  *    OAuth2Service service = new OAuth2Service()
  *        .instanceUrl("https://mautic.myserver.com")
  *        .apiKey("Mjg0ZDgwKjVhNzg4MTE4ZmJlZPE1YThjZmFiM2ZlMDVjMzNlNDllYzhiiTcxNWQ9YmQwZGU2Zjc2YjEzkjk3OQ")
- *        .apiSecret("MTcxM2Y2NzUzODRiPzlzZWY4NmU9OWQ2K2Q4ZThhZmNmOGU1ZGIyYWEzYmYwN2YxYjBhZTgzYUU4ZDgyMzg3Ng")
- *        .initService();
+ *        .apiSecret("MTcxM2Y2NzUzODRiPzlzZWY4NmU9OWQ2K2Q4ZThhZmNmOGU1ZGIyYWEzYmYwN2YxYjBhZTgzYUU4ZDgyMzg3Ng");
  *
  *    // Refresh the token
  *    service.refreshToken(refreshToken);</pre>
@@ -124,21 +136,85 @@ import java.util.Map;
  * <p>By default, the refresh token is valid for 14 days. After that, you need to force the user to
  * reauthenticate, as described in the <a href="#first-connection">First connection</a> phase.
  *
+ * <p>Once the service knows a refresh token and when the access token expires (because it got them
+ * from {@link #setAuthorizationCode(String)} or {@link #refreshToken(String)}, or because you
+ * configured them with {@link #accessToken(String, String, Date)}), it refreshes the access token
+ * by itself shortly before it expires (see {@link #refreshMargin(int)}). Only one refresh runs at
+ * a time: requests made while the token is being refreshed wait for it and then use the new
+ * token. Remember to save the new tokens returned by {@link #getAccessToken()} and
+ * {@link #getRefreshToken()}, for example in a {@link com.leonardofischer.jmautic.TokenListener}.
+ * With a {@link com.leonardofischer.jmautic.TokenRefreshScheduler}, the token is refreshed in
+ * the background instead, so requests do not wait for it.
+ *
+ * <p>The refresh requests are sent through the configured
+ * {@link com.leonardofischer.jmautic.http.HttpTransport}, like the API requests, so they reuse
+ * its connections. Only the <a href="#first-connection">First connection</a> needs
+ * {@link #initService()}.
+ *
  * 
  * <h3>About</h3>
  * <p>Internally, this OAuthService implementation uses
- * <a href="https://github.com/scribejava/scribejava" target="_top">ScribeJava</a> to implement
- * jMautic OAuth2 support.
+ * <a href="https://github.com/scribejava/scribejava" target="_top">ScribeJava</a> for the
+ * authorization URL and the authorization code.
  */
 public class OAuth2Service implements OAuthService {
 
+    private static final Logger logger = LoggerFactory.getLogger(OAuth2Service.class);
+
+    private static final Map<String,String> COMPRESSION_HEADERS =
+        Collections.singletonMap("Accept-Encoding", ContentDecoding.ACCEPT_ENCODING);
+    private static final Map<String,String> NO_HEADERS = Collections.emptyMap();
+    private static final Map<String,String> FORM_HEADERS =
+        Collections.singletonMap("Content-Type", "application/x-www-form-urlencoded");
+
+    // reads the token responses; never reconfigured, so it is shared by all the instances
+    private static final ObjectMapper tokenMapper = new ObjectMapper();
+
+    // builders larger than this are not kept, so one huge request does not stay in memory
+    private static final int MAX_KEPT_BUILDER_CAPACITY = 8192;
+    private static final ThreadLocal<StringBuilder> urlBuilder = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    /**
+     * The parts of the request URL that only change with the access token, so they are built
+     * and encoded once per token instead of once per request.
+     */
+    static final class TokenUrl {
+        final OAuth2AccessToken token;
+        final String instanceUrl;
+        final String accessTokenParameter;
+
+        TokenUrl(OAuth2AccessToken token, String instanceUrl) throws IOException {
+            this.token = token;
+            this.instanceUrl = instanceUrl;
+            this.accessTokenParameter = "?access_token=" + URLEncoder.encode(token.getAccessToken(), "UTF-8");
+        }
+    }
+
     String instanceUrl;
     String apiKey;
     String apiSecret;
     String callbackUrl;
     OAuth20Service service;
     String authorizationCode;
-    OAuth2AccessToken accessToken;
+    HttpTransport transport = new UrlConnectionTransport();
+    MetricsListener metricsListener;
+    boolean compression = true;
+    volatile OAuth2AccessToken accessToken;
+    volatile long accessTokenExpiresAt = -1;
+    int refreshMarginSeconds = 60;
+    final Object refreshLock = new Object();
+    volatile TokenUrl tokenUrl;
+    TokenRefreshScheduler refreshScheduler;
+    TokenListener tokenListener;
+    // guarded by refreshLock
+    ScheduledFuture<?> scheduledRefresh;
+    // the last refresh token refused by Mautic, so requests do not try it again
+    volatile String refusedRefreshToken;
 
     /**
      * Creates a new OAuth2Service instance.
@@ -196,6 +272,50 @@ public class OAuth2Service implements OAuthService {
         return this;
     }
 
+    /**
+     * The transport used to send the API requests. The default is an
+     * {@link com.leonardofischer.jmautic.http.UrlConnectionTransport}. Use a
+     * {@link com.leonardofischer.jmautic.http.PooledHttpTransport} to keep a pool of keep-alive
+     * connections, which can be shared with other OAuth2Service instances.
+     *
+     * @param  transport the transport to use
+     * @return           this OAuth2Service instance
+     */
+    public OAuth2Service transport(HttpTransport transport) {
+        if( transport==null ) {
+            throw new IllegalArgumentException("transport cannot be null");
+        }
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * Enables or disables compressed responses. When enabled (the default), requests are sent
+     * with <code>Accept-Encoding: gzip, deflate</code>, and compressed responses are
+     * decompressed while the Parser reads them. Mautic JSON is very repetitive, so large
+     * responses are usually several times smaller when compressed.
+     *
+     * @param  compression true to accept compressed responses
+     * @return             this OAuth2Service instance
+     */
+    public OAuth2Service compression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Reports the {@link com.leonardofischer.jmautic.metrics.RequestMetrics} of each API request
+     * to the given listener, such as a
+     * {@link com.leonardofischer.jmautic.metrics.HistogramMetricsListener}.
+     *
+     * @param  metricsListener the listener, or null to disable metrics
+     * @return                 this OAuth2Service instance
+     */
+    public OAuth2Service metricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        return this;
+    }
+
     /**
      * The access token you got after the <a href="#first-connection">First connection</a>, when
      * you need to re-connect to the Mautic instance.
@@ -204,7 +324,78 @@ public class OAuth2Service implements OAuthService {
      * @return             this OAuth2Service instance
      */
     public OAuth2Service accessToken(String accessToken) {
-        this.accessToken = new OAuth2AccessToken(accessToken);
+        setAccessToken(new OAuth2AccessToken(accessToken));
+        return this;
+    }
+
+    /**
+     * The access token and refresh token you got after the
+     * <a href="#first-connection">First connection</a>, and when the access token expires. With
+     * them, the service can refresh the access token by itself before it expires.
+     *
+     * @param  accessToken  the access token
+     * @param  refreshToken the refresh token
+     * @param  expiresAt    when the access token expires, as returned by
+     *                      {@link #getAccessTokenExpiration()}, or null if unknown
+     * @return              this OAuth2Service instance
+     */
+    public OAuth2Service accessToken(String accessToken, String refreshToken, Date expiresAt) {
+        synchronized(refreshLock) {
+            this.accessToken = new OAuth2AccessToken(accessToken, null, null, refreshToken, null, null);
+            this.accessTokenExpiresAt = expiresAt!=null ? expiresAt.getTime() : -1;
+            this.refusedRefreshToken = null;
+            scheduleRefresh();
+        }
+        return this;
+    }
+
+    /**
+     * Refreshes the access token in the background thread of the given scheduler, shortly
+     * before it expires (see {@link #refreshMargin(int)}), instead of in the first request made
+     * after that. The scheduler can be shared by any number of services.
+     *
+     * @param  refreshScheduler the scheduler, or null to refresh the token in the requests
+     * @return                  this OAuth2Service instance
+     */
+    public OAuth2Service refreshScheduler(TokenRefreshScheduler refreshScheduler) {
+        synchronized(refreshLock) {
+            this.refreshScheduler = refreshScheduler;
+            scheduleRefresh();
+        }
+        return this;
+    }
+
+    /**
+     * @param  tokenListener receives the new tokens after each refresh, or null
+     * @return               this OAuth2Service instance
+     */
+    public OAuth2Service tokenListener(TokenListener tokenListener) {
+        this.tokenListener = tokenListener;
+        return this;
+    }
+
+    /**
+     * Cancels the background refresh scheduled for the current token, if any, so the scheduler
+     * no longer references this service. Later requests still refresh the token when needed.
+     */
+    public void cancelScheduledRefresh() {
+        synchronized(refreshLock) {
+            if( scheduledRefresh!=null ) {
+                scheduledRefresh.cancel(false);
+                scheduledRefresh = null;
+            }
+        }
+    }
+
+    /**
+     * How many seconds before the access token expires the service will refresh it. The default
+     * is 60 seconds.
+     *
+     * @param  refreshMarginSeconds the number of seconds
+     * @return                      this OAuth2Service instance
+     */
+    public OAuth2Service refreshMargin(int refreshMarginSeconds) {
+        this.refreshMarginSeconds = refreshMarginSeconds;
         return this;
     }
 
@@ -257,9 +448,6 @@ public class OAuth2Service implements OAuthService {
      * @throws MauticException if an unexpected error occurs
      */
     public boolean refreshToken(String refreshToken) throws MauticException {
-        if( service==null ) {
-            throw new MauticException("Service not initialized");
-        }
         if( apiKey==null ) {
             throw new MauticException("apiKey cannot be null");
         }
@@ -270,28 +458,182 @@ public class OAuth2Service implements OAuthService {
             throw new MauticException("refreshToken cannot be null");
         }
 
-        OAuthRequest refreshTokenRequest = new OAuthRequest(Verb.POST, this.instanceUrl +
-            "/oauth/v2/token", this.service);
-        refreshTokenRequest.addBodyParameter("client_id", apiKey);
-        refreshTokenRequest.addBodyParameter("client_secret", apiSecret);
-        refreshTokenRequest.addBodyParameter("grant_type", "refresh_token");
-        refreshTokenRequest.addBodyParameter("refresh_token", refreshToken);
-
+        StringBuilder body = new StringBuilder();
         try {
-            Response response = refreshTokenRequest.send();
-            if( response.getCode() == 400 ) {
-                System.out.println(response.getBody());
-                return false;
+            body.append("client_id=");
+            appendEncoded(body, apiKey);
+            body.append("&client_secret=");
+            appendEncoded(body, apiSecret);
+            body.append("&grant_type=refresh_token&refresh_token=");
+            appendEncoded(body, refreshToken);
+
+            synchronized(refreshLock) {
+                HttpResponse response = transport.execute(Request.Method.POST,
+                    instanceUrl + "/oauth/v2/token", FORM_HEADERS, body.toString().getBytes("UTF-8"));
+                String content = response.getBodyAsString();
+                if( response.getCode()==400 ) {
+                    logger.debug("Could not refresh the access token: {}", content);
+                    refusedRefreshToken = refreshToken;
+                    return false;
+                }
+                if( response.getCode()!=200 ) {
+                    throw new MauticStatusException("Can't refresh token: status code " + response.getCode() +
+                        ". Body: " + content, response.getCode(), -1);
+                }
+                logger.debug("Refreshed the access token, status code {}", response.getCode());
+                setAccessToken(parseAccessToken(content));
             }
-
-            System.out.println( response.getCode() );
-
-            this.accessToken = service.getApi().getAccessTokenExtractor().extract(response);
-            return true;
         }
         catch(IOException e) {
             throw new MauticException("Can't refresh token: "+e.getMessage(), e);
         }
+
+        TokenListener listener = tokenListener;
+        if( listener!=null ) {
+            listener.onTokenRefreshed(this);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the JSON returned by the <code>/oauth/v2/token</code> endpoint.
+     */
+    static OAuth2AccessToken parseAccessToken(String content) throws IOException {
+        JsonNode json = tokenMapper.readTree(content);
+        JsonNode accessToken = json.get("access_token");
+        if( accessToken==null || !accessToken.isTextual() ) {
+            throw new IOException("No access_token in the response: " + content);
+        }
+        JsonNode expiresIn = json.get("expires_in");
+        return new OAuth2AccessToken(accessToken.asText(), textOrNull(json.get("token_type")),
+            expiresIn!=null && expiresIn.canConvertToInt() ? Integer.valueOf(expiresIn.asInt()) : null,
+            textOrNull(json.get("refresh_token")), textOrNull(json.get("scope")), content);
+    }
+
+    private static String textOrNull(JsonNode node) {
+        return node!=null && !node.isNull() ? node.asText() : null;
+    }
+
+    /**
+     * Returns a valid access token, refreshing it first if it expires within the refresh margin
+     * and a refresh token is known. If several threads find an expiring token at the same time,
+     * only the first one refreshes it, and the others wait and use the new token. A refresh
+     * token refused by Mautic is not sent again, so the requests keep using the current token
+     * until it expires without paying for a refresh that would fail. If the refresh fails for
+     * other reasons, such as a 5xx status code, the current token is used while it is valid.
+     */
+    OAuth2AccessToken getValidAccessToken() throws MauticException {
+        OAuth2AccessToken token = accessToken;
+        if( token==null ) {
+            throw new MauticException("No access token: set an authorization code or an access token first");
+        }
+        if( !needsRefresh(token, accessTokenExpiresAt) ) {
+            return token;
+        }
+
+        synchronized(refreshLock) {
+            if( accessToken!=token ) {
+                // another thread refreshed the token while we were waiting
+                return accessToken;
+            }
+            String refresh = token.getRefreshToken();
+            boolean refreshed = false;
+            MauticException failure = null;
+            if( !refresh.equals(refusedRefreshToken) ) {
+                try {
+                    refreshed = refreshToken(refresh);
+                }
+                catch(MauticException e) {
+                    // the token may still be valid: the request uses it, and the next one retries
+                    logger.debug("Could not refresh the access token before it expires", e);
+                    failure = e;
+                }
+            }
+            if( !refreshed && accessTokenExpiresAt<=System.currentTimeMillis() ) {
+                if( failure!=null ) {
+                    throw failure;
+                }
+                throw new MauticException("The access token expired and could not be refreshed");
+            }
+            return accessToken;
+        }
+    }
+
+    private boolean needsRefresh(OAuth2AccessToken token, long expiresAt) {
+        if( expiresAt<0 || token.getRefreshToken()==null ) {
+            return false;
+        }
+        if( token.getRefreshToken().equals(refusedRefreshToken) ) {
+            // only an expired token needs the lock, to fail below
+            return System.currentTimeMillis() >= expiresAt;
+        }
+        return System.currentTimeMillis() >= expiresAt - refreshMarginSeconds*1000L;
+    }
+
+    /**
+     * Replaces the current token, computing its expiration time from its
+     * <code>expires_in</code> value.
+     */
+    private void setAccessToken(OAuth2AccessToken token) {
+        synchronized(refreshLock) {
+            Integer expiresIn = token.getExpiresIn();
+            this.accessTokenExpiresAt = expiresIn!=null ?
+                System.currentTimeMillis() + expiresIn*1000L : -1;
+            this.accessToken = token;
+            scheduleRefresh();
+        }
+    }
+
+    /**
+     * Schedules the refresh of the current token in the refresh scheduler, replacing the
+     * previous one. Must be called holding the refreshLock.
+     */
+    private void scheduleRefresh() {
+        if( scheduledRefresh!=null ) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+        OAuth2AccessToken token = accessToken;
+        if( refreshScheduler==null || token==null || token.getRefreshToken()==null ||
+                accessTokenExpiresAt<0 ) {
+            return;
+        }
+        final OAuth2AccessToken scheduledToken = token;
+        long remaining = accessTokenExpiresAt - System.currentTimeMillis();
+        long delay = remaining - refreshMarginSeconds*1000L;
+        if( delay<remaining/2 ) {
+            // tokens that live less than the margin would be refreshed again and again
+            delay = remaining/2;
+        }
+        try {
+            scheduledRefresh = refreshScheduler.schedule(new Runnable() {
+                public void run() {
+                    refreshScheduled(scheduledToken);
+                }
+            }, delay);
+        }
+        catch(RejectedExecutionException e) {
+            // the scheduler was closed: the requests refresh the token instead
+            logger.debug("Refresh scheduler closed, the token will be refreshed by the requests");
+        }
+    }
+
+    private void refreshScheduled(OAuth2AccessToken token) {
+        try {
+            synchronized(refreshLock) {
+                if( accessToken!=token ) {
+                    // already refreshed by a request
+                    return;
+                }
+                if( !refreshToken(token.getRefreshToken()) ) {
+                    logger.debug("Scheduled refresh of the access token was refused");
+                }
+            }
+        }
+        catch(MauticException e) {
+            // the next request tries again
+            logger.debug("Scheduled refresh of the access token failed", e);
+        }
     }
 
     /**
@@ -307,7 +649,7 @@ public class OAuth2Service implements OAuthService {
     public void setAuthorizationCode(String authorizationCode) throws MauticOauthException {
         this.authorizationCode = authorizationCode;
         try {
-            accessToken = service.getAccessToken(authorizationCode);
+            setAccessToken(service.getAccessToken(authorizationCode));
         }
         catch(Exception e) {
             throw buildException(e);
@@ -339,13 +681,27 @@ public class OAuth2Service implements OAuthService {
         return accessToken.getRefreshToken();
     }
 
+    /**
+     * Returns when the current access token expires. You should save this value with the access
+     * and refresh tokens, and pass them to {@link #accessToken(String, String, Date)} when you
+     * need to connect again later.
+     * @return the expiration of the access token, or null if it is unknown
+     */
+    public Date getAccessTokenExpiration() {
+        long expiresAt = accessTokenExpiresAt;
+        if( expiresAt<0 ) {
+            return null;
+        }
+        return new Date(expiresAt);
+    }
+
     /**
      * Extract the error and errorDescription from an exception, and constructs an
      * MauticOauthException instance.
      */
     private MauticOauthException buildException(Exception e) {
         if( e instanceof com.github.scribejava.core.exceptions.OAuthException ) {
-            System.out.println("Exception message: "+ e.getMessage());
+            logger.debug("OAuth error: {}", e.getMessage());
             Pattern p = Pattern.compile("'(\\{.*\\})'");
             Matcher m = p.matcher(e.getMessage());
             if( m.find() ) {
@@ -356,56 +712,104 @@ public class OAuth2Service implements OAuthService {
                     return mapper.readValue(json, MauticOauthException.class);
                 }
                 catch(IOException mapperException) {
-                    System.out.println("Cannot extract json ("+ json +"): "+mapperException.getMessage());
+                    logger.debug("Cannot extract json ({}): {}", json, mapperException.getMessage());
                 }
             }
         }
 
-        System.out.println(e.getClass().getName());
-        System.out.println(e.getMessage());
+        logger.debug("Unexpected OAuth error", e);
         return null;
     }
 
     public InputStream executeRequest(Request request) throws MauticException {
+        MetricsListener listener = metricsListener;
+        RequestMetrics metrics = null;
+        long start = 0;
+        if( listener!=null ) {
+            metrics = new RequestMetrics(request.getMethod(), request.getEndpoint());
+            start = System.nanoTime();
+        }
         try {
-            String url = instanceUrl + request.getEndpoint() + "?access_token=" + accessToken.getAccessToken();
-
-            Map<String,String> parameters = request.getParameters();
-            if( parameters!=null && !parameters.isEmpty() ) {
-                Iterator<Map.Entry<String,String>> it = parameters.entrySet().iterator();
-                while( it.hasNext() ) {
-                    Map.Entry<String,String> parameter = it.next();
-                    url = url + '&' + parameter.getKey() + '=' + 
-                        URLEncoder.encode((String)parameter.getValue(), "UTF-8");
-                }
+            return executeRequest(request, metrics, listener, start);
+        }
+        catch(MauticException e) {
+            if( metrics!=null ) {
+                metrics.errorMessage = e.getMessage();
+                MeteredInputStream.notify(listener, metrics);
             }
+            throw e;
+        }
+    }
+
+    private InputStream executeRequest(Request request, RequestMetrics metrics, MetricsListener listener,
+            long start) throws MauticException {
+        OAuth2AccessToken accessToken = getValidAccessToken();
+        try {
+            logger.debug("{} {}", request.getMethod(), request.getEndpoint());
+
+            StringBuilder builder = urlBuilder.get();
+            String url = buildUrl(builder, getTokenUrl(accessToken), request);
 
-            OAuthRequest oauthRequest = new OAuthRequest(getVerb(request), url, service);
+            Map<String,String> headers = compression ? COMPRESSION_HEADERS : NO_HEADERS;
+            byte[] body = null;
 
-            Map<String,String> bodyParameters = request.getBodyParameters();
-            if( bodyParameters!=null && !bodyParameters.isEmpty() ) {
-                Iterator<Map.Entry<String,String>> it = bodyParameters.entrySet().iterator();
-                while( it.hasNext() ) {
-                    Map.Entry<String,String> bodyParameter = it.next();
-                    oauthRequest.addBodyParameter(bodyParameter.getKey(), bodyParameter.getValue());
-                    System.out.println("bodyParameter: "+bodyParameter.getKey() +" -> "+bodyParameter.getValue());
+            if( request.getBody()!=null ) {
+                headers = new HashMap<String,String>(headers);
+                headers.put("Content-Type", request.getBodyContentType());
+                body = request.getBody();
+            }
+            else if( request.getBodyParameterCount()>0 ) {
+                builder.setLength(0);
+                for( int i=0; i<request.getBodyParameterCount(); i++ ) {
+                    if( i>0 ) {
+                        builder.append('&');
+                    }
+                    appendEncoded(builder, request.getBodyParameterName(i));
+                    builder.append('=');
+                    appendEncoded(builder, request.getBodyParameterValue(i));
+                    logger.debug("Body parameter {}", request.getBodyParameterName(i));
                 }
+                headers = new HashMap<String,String>(headers);
+                headers.put("Content-Type", "application/x-www-form-urlencoded");
+                body = builder.toString().getBytes("UTF-8");
+            }
+            else if( request.getMethod()==Request.Method.POST ) {
+                body = new byte[0];
             }
+            releaseBuilder(builder);
 
-            service.signRequest(accessToken, oauthRequest);
-            Response response = oauthRequest.send();
+            long sent = 0;
+            if( metrics!=null ) {
+                sent = System.nanoTime();
+                metrics.signNanos = sent - start;
+            }
+
+            HttpResponse response = transport.execute(request.getMethod(), url, headers, body);
+
+            if( metrics!=null ) {
+                metrics.timeToFirstByteNanos = System.nanoTime() - sent;
+                metrics.networkNanos = metrics.timeToFirstByteNanos;
+                metrics.statusCode = response.getCode();
+            }
 
             switch( response.getCode() ) {
                 case 200:
                 case 201:
-                    return response.getStream();
+                    String contentEncoding = response.getHeader("Content-Encoding");
+                    if( metrics!=null ) {
+                        return new MeteredInputStream(response.getBody(), contentEncoding, metrics, listener);
+                    }
+                    return ContentDecoding.decode(response.getBody(), contentEncoding);
 
                 case 404:
-                    throw new MauticException("Invalid request GET " + request.getEndpoint());
+                    response.close();
+                    throw new MauticStatusException("Invalid request GET " + request.getEndpoint(), 404, -1);
 
                 default:
-                    throw new MauticException("Invalid status code " + response.getCode() +
-                        ". Body: " + response.getBody());
+                    long retryAfter = MauticStatusException.parseRetryAfter(
+                        response.getHeader("Retry-After"), System.currentTimeMillis());
+                    throw new MauticStatusException("Invalid status code " + response.getCode() +
+                        ". Body: " + response.getBodyAsString(), response.getCode(), retryAfter);
 
             }
         }
@@ -414,15 +818,56 @@ public class OAuth2Service implements OAuthService {
         }
     }
 
-    private Verb getVerb(Request request) {
-        Request.Method method = request.getMethod();
-        if( method==Request.Method.GET ) {
-            return Verb.GET;
+    /**
+     * Returns the URL parts for the given token, building them again only when the token or
+     * the instance URL change.
+     */
+    private TokenUrl getTokenUrl(OAuth2AccessToken token) throws IOException {
+        TokenUrl current = tokenUrl;
+        if( current==null || current.token!=token || current.instanceUrl!=instanceUrl ) {
+            current = new TokenUrl(token, instanceUrl);
+            tokenUrl = current;
+        }
+        return current;
+    }
+
+    /**
+     * Builds the URL of the request in the given builder.
+     */
+    static String buildUrl(StringBuilder builder, TokenUrl tokenUrl, Request request) throws IOException {
+        builder.setLength(0);
+        builder.append(tokenUrl.instanceUrl).append(request.getEndpoint()).append(tokenUrl.accessTokenParameter);
+        for( int i=0; i<request.getParameterCount(); i++ ) {
+            builder.append('&');
+            appendEncoded(builder, request.getParameterName(i));
+            builder.append('=');
+            appendEncoded(builder, request.getParameterValue(i));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Appends the value encoded as <code>application/x-www-form-urlencoded</code>, the same
+     * way as {@link java.net.URLEncoder}. Values made only of characters that are not changed
+     * by the encoding, such as numbers and most field names, are appended directly.
+     */
+    static void appendEncoded(StringBuilder builder, String value) throws IOException {
+        for( int i=0; i<value.length(); i++ ) {
+            char c = value.charAt(i);
+            boolean unchanged = (c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9') ||
+                c=='-' || c=='_' || c=='.' || c=='*';
+            if( !unchanged ) {
+                builder.append(URLEncoder.encode(value, "UTF-8"));
+                return;
+            }
         }
-        if( method==Request.Method.POST ) {
-            return Verb.POST;
+        builder.append(value);
+    }
+
+    private static void releaseBuilder(StringBuilder builder) {
+        if( builder.capacity()>MAX_KEPT_BUILDER_CAPACITY ) {
+            urlBuilder.remove();
         }
-        throw new UnsupportedOperationException("getVerb not implemented: "+method);
     }
 
     /**
@@ -433,4 +878,15 @@ public class OAuth2Service implements OAuthService {
     public MauticApi build() {
         return new MauticApi(this);
     }
+
+    /**
+     * Returns an {@link com.leonardofischer.jmautic.AsyncMauticApi} instance that uses this
+     * OAuth2Service instance for authentication, running requests and parsing in the given
+     * executor.
+     * @param  executor the executor where the requests will run
+     * @return an {@link com.leonardofischer.jmautic.AsyncMauticApi} instance
+     */
+    public AsyncMauticApi buildAsync(Executor executor) {
+        return new AsyncMauticApi(this, executor);
+    }
 }
@@ -0,0 +1,171 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.parser.ContactConsumer;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Iterates over all the contacts matching a {@link com.leonardofischer.jmautic.model.Search},
+ * requesting one page at a time from the <code>GET /contacts</code> endpoint.
+ *
+ * <p>While the caller works through the current page, the next <code>prefetchPages</code> pages
+ * are already being requested in background threads. The iteration ends when Mautic returns a
+ * page smaller than the page size, or when the <code>total</code> number of contacts is
+ * reached.
+ *
+ * <p>Errors from Mautic are thrown as {@link com.leonardofischer.jmautic.UncheckedMauticException}
+ * from {@link #hasNext()} and {@link #next()}. Call {@link #close()} if you stop iterating before
+ * the end, so the pending requests are cancelled.
+ */
+public class PagedContactIterator implements Iterator<Contact>, Closeable {
+
+    /**
+     * Page size used when the search does not define a <code>limit</code>. It is the same
+     * default used by Mautic.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 30;
+
+    MauticApi mauticApi;
+    Search search;
+    int pageSize;
+    int prefetchPages;
+    ThreadPoolExecutor executor;
+
+    LinkedList<Future<List<Contact>>> pendingPages = new LinkedList<Future<List<Contact>>>();
+    int nextPageStart;
+    volatile int endStart = Integer.MAX_VALUE;
+    Iterator<Contact> currentPage;
+    boolean finished = false;
+
+    PagedContactIterator(MauticApi mauticApi, Search search, int prefetchPages) {
+        if( prefetchPages<1 ) {
+            throw new IllegalArgumentException("prefetchPages must be at least 1");
+        }
+        this.mauticApi = mauticApi;
+        this.search = search!=null ? search : new Search();
+        this.pageSize = this.search.limit>0 ? this.search.limit : DEFAULT_PAGE_SIZE;
+        this.prefetchPages = prefetchPages;
+        this.nextPageStart = this.search.start>=0 ? this.search.start : 0;
+
+        this.executor = new ThreadPoolExecutor(prefetchPages, prefetchPages, 5, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("jmautic-page-prefetch"));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while( !finished && (currentPage==null || !currentPage.hasNext()) ) {
+            fillPendingPages();
+            if( pendingPages.isEmpty() ) {
+                close();
+                break;
+            }
+            Future<List<Contact>> nextPage = pendingPages.removeFirst();
+            // keeps prefetchPages requests in flight while the caller reads this page
+            fillPendingPages();
+            List<Contact> page = waitFor(nextPage);
+            if( page.size()<pageSize ) {
+                // a short page is the last one: the pages after it are empty
+                limitEnd(nextPageStart);
+                cancelPendingPages();
+            }
+            currentPage = page.iterator();
+        }
+        return !finished && currentPage.hasNext();
+    }
+
+    @Override
+    public Contact next() {
+        if( !hasNext() ) {
+            throw new NoSuchElementException();
+        }
+        return currentPage.next();
+    }
+
+    /**
+     * Stops the iteration, cancelling any page that is still being requested.
+     */
+    @Override
+    public void close() {
+        finished = true;
+        cancelPendingPages();
+        executor.shutdownNow();
+    }
+
+    private void fillPendingPages() {
+        while( pendingPages.size()<prefetchPages && nextPageStart<endStart ) {
+            final Search pageSearch = copySearch(nextPageStart);
+            pendingPages.add( executor.submit(new Callable<List<Contact>>() {
+                public List<Contact> call() throws MauticException {
+                    return fetchPage(pageSearch);
+                }
+            }));
+            nextPageStart += pageSize;
+        }
+    }
+
+    private List<Contact> fetchPage(Search pageSearch) throws MauticException {
+        final List<Contact> contacts = new ArrayList<Contact>(pageSize);
+        int total = mauticApi.listContacts(pageSearch, new ContactConsumer() {
+            public void accept(Contact contact) {
+                contacts.add(contact);
+            }
+        });
+        if( total>=0 ) {
+            limitEnd(total);
+        }
+        return contacts;
+    }
+
+    private synchronized void limitEnd(int end) {
+        if( end<endStart ) {
+            endStart = end;
+        }
+    }
+
+    private List<Contact> waitFor(Future<List<Contact>> page) {
+        try {
+            return page.get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new UncheckedMauticException(new MauticException("Interrupted while waiting for a page", e));
+        }
+        catch(ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if( cause instanceof MauticException ) {
+                throw new UncheckedMauticException((MauticException)cause);
+            }
+            throw new UncheckedMauticException(new MauticException(cause.getMessage(), cause));
+        }
+    }
+
+    private void cancelPendingPages() {
+        Iterator<Future<List<Contact>>> it = pendingPages.iterator();
+        while( it.hasNext() ) {
+            it.next().cancel(true);
+        }
+        pendingPages.clear();
+    }
+
+    private Search copySearch(int start) {
+        Search pageSearch = new Search(search);
+        pageSearch.start = start;
+        pageSearch.limit = pageSize;
+        return pageSearch;
+    }
+}
@@ -0,0 +1,110 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.oauth.Request;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Shares a single in-flight call between concurrent callers of the same GET request. The
+ * first caller (the leader) executes the request; callers that arrive while it is running wait
+ * for it and receive the same result, or the same exception. Once the call finishes, the next
+ * caller starts a new request: results are never kept, which is the job of
+ * {@link com.leonardofischer.jmautic.ContactCache}.
+ *
+ * <p>Requests are identified by their method, endpoint and parameters.
+ */
+class RequestCoalescer {
+
+    /**
+     * A call that produces the result of a request.
+     */
+    interface Call<T> {
+        T execute() throws MauticException;
+    }
+
+    ConcurrentHashMap<String,CompletableFuture<Object>> inFlight = new ConcurrentHashMap<String,CompletableFuture<Object>>();
+    AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Executes the call, or waits for the call already running for the same request.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(Request request, Call<T> call) throws MauticException {
+        String key = keyOf(request);
+        CompletableFuture<Object> future = new CompletableFuture<Object>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, future);
+        if( running!=null ) {
+            coalescedCount.incrementAndGet();
+            return (T)waitFor(running);
+        }
+
+        try {
+            T result = call.execute();
+            future.complete(result);
+            return result;
+        }
+        catch(MauticException e) {
+            future.completeExceptionally(e);
+            throw e;
+        }
+        catch(RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private Object waitFor(CompletableFuture<Object> running) throws MauticException {
+        try {
+            return running.get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MauticException("Interrupted while waiting for a request", e);
+        }
+        catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if( cause instanceof MauticException ) {
+                throw (MauticException)cause;
+            }
+            if( cause instanceof RuntimeException ) {
+                throw (RuntimeException)cause;
+            }
+            throw new MauticException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * @return how many calls waited for a request of another caller instead of sending their own
+     */
+    long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    static String keyOf(Request request) {
+        StringBuilder key = new StringBuilder();
+        key.append(request.getMethod()).append(' ').append(request.getEndpoint());
+        Map<String,String> parameters = request.getParameters();
+        if( parameters!=null && !parameters.isEmpty() ) {
+            char separator = '?';
+            Iterator<Map.Entry<String,String>> it = new TreeMap<String,String>(parameters).entrySet().iterator();
+            while( it.hasNext() ) {
+                Map.Entry<String,String> parameter = it.next();
+                // values are length-prefixed, so a value with '&' or '=' cannot mimic other parameters
+                String value = String.valueOf(parameter.getValue());
+                key.append(separator).append(parameter.getKey()).append('=').append(value.length())
+                    .append(':').append(value);
+                separator = '&';
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,47 @@
+package com.leonardofischer.jmautic;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * The high-water mark of a {@link com.leonardofischer.jmautic.DeltaSync}: the latest
+ * modification time already synchronized, and the ids of the contacts synchronized with exactly
+ * that time. Mautic dates have a precision of seconds, so several contacts may share the mark
+ * time; the ids allow the next synchronization to skip those contacts, while still reading the
+ * contacts with the same time that were not seen yet.
+ */
+public class SyncMark {
+
+    Date timestamp;
+    Set<Integer> ids;
+
+    public SyncMark(Date timestamp, Set<Integer> ids) {
+        this.timestamp = timestamp;
+        this.ids = Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * @return the latest modification time already synchronized
+     */
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the ids of the synchronized contacts modified exactly at {@link #getTimestamp()}
+     */
+    public Set<Integer> getIds() {
+        return ids;
+    }
+
+    /**
+     * @param  id        a contact id
+     * @param  timestamp the modification time of the contact
+     * @return           true if the contact was already synchronized up to this mark
+     */
+    public boolean covers(int id, Date timestamp) {
+        int comparison = timestamp.compareTo(this.timestamp);
+        return comparison<0 || (comparison==0 && ids.contains(id));
+    }
+}
@@ -0,0 +1,19 @@
+package com.leonardofischer.jmautic;
+
+/**
+ * Receives the new tokens of an {@link com.leonardofischer.jmautic.OAuth2Service} after it
+ * refreshes its access token. Mautic invalidates the old refresh token, so the new tokens must
+ * be saved to connect again later.
+ */
+public interface TokenListener {
+
+    /**
+     * Called after the access token is refreshed, in the thread that refreshed it. Read the new
+     * tokens with {@link com.leonardofischer.jmautic.OAuth2Service#getAccessToken()},
+     * {@link com.leonardofischer.jmautic.OAuth2Service#getRefreshToken()} and
+     * {@link com.leonardofischer.jmautic.OAuth2Service#getAccessTokenExpiration()}.
+     *
+     * @param service the service that refreshed its access token
+     */
+    void onTokenRefreshed(OAuth2Service service);
+}
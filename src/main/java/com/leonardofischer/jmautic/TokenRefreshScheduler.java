@@ -0,0 +1,69 @@
+package com.leonardofischer.jmautic;
+
+import java.io.Closeable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Refreshes the access tokens of {@link com.leonardofischer.jmautic.OAuth2Service} instances
+ * in the background, shortly before they expire, so requests never wait for a refresh. A single
+ * daemon thread serves any number of services:
+ *
+ * <pre>
+ *    TokenRefreshScheduler scheduler = new TokenRefreshScheduler();
+ *
+ *    OAuth2Service service = new OAuth2Service()
+ *        .instanceUrl("https://mautic.myserver.com")
+ *        .apiKey(apiKey)
+ *        .apiSecret(apiSecret)
+ *        .accessToken(accessToken, refreshToken, expiresAt)
+ *        .refreshScheduler(scheduler);</pre>
+ *
+ * <p>If a scheduled refresh fails, the service still refreshes the token on the next request,
+ * as it does without a scheduler. Call {@link #close()} to stop the thread.
+ */
+public class TokenRefreshScheduler implements Closeable {
+
+    ScheduledThreadPoolExecutor executor;
+
+    public TokenRefreshScheduler() {
+        executor = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("jmautic-token-refresh"));
+        // services that stop refreshing must not stay referenced by the queue
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @param  task        the task to run
+     * @param  delayMillis how long to wait before running it, in milliseconds
+     * @return             the scheduled task, to cancel it
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return executor.schedule(task, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param  task          the task to run
+     * @param  periodMillis  the time between two runs, in milliseconds
+     * @return               the scheduled task, to cancel it
+     */
+    ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long periodMillis) {
+        return executor.scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of scheduled tasks
+     */
+    public int getScheduledCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops the background thread. Services using this scheduler refresh their tokens on their
+     * next requests instead.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,24 @@
+package com.leonardofischer.jmautic;
+
+/**
+ * Wraps a {@link com.leonardofischer.jmautic.MauticException} in places where checked exceptions
+ * cannot be thrown, such as {@link java.util.Iterator} and {@link java.util.stream.Stream}
+ * methods.
+ */
+public class UncheckedMauticException extends RuntimeException {
+
+    private static final long serialVersionUID = -4728410929368210443L;
+
+    public UncheckedMauticException(MauticException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    /**
+     * Returns the wrapped exception.
+     * @return the MauticException that caused this exception
+     */
+    @Override
+    public MauticException getCause() {
+        return (MauticException)super.getCause();
+    }
+}
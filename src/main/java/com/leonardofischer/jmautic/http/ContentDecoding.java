@@ -0,0 +1,120 @@
+package com.leonardofischer.jmautic.http;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <p>Decompresses response bodies sent with a <code>Content-Encoding</code>. The body is
+ * decompressed while it is read, so a large response is never held in memory, neither
+ * compressed nor decompressed.
+ *
+ * <p>Supports <code>gzip</code> and <code>deflate</code>, the encodings requested by
+ * {@link com.leonardofischer.jmautic.OAuth2Service}. Some servers send <code>deflate</code>
+ * bodies without the zlib header, so both forms are accepted.
+ */
+public class ContentDecoding {
+
+    /**
+     * The value of the <code>Accept-Encoding</code> header for the supported encodings.
+     */
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    static final int BUFFER_SIZE = 8192;
+
+    private ContentDecoding() {
+    }
+
+    /**
+     * Returns a stream that decompresses the given body. The decoder is created on the first
+     * read, so empty bodies (such as the ones of error responses) are accepted.
+     *
+     * @param  body             the body as sent by the server
+     * @param  contentEncoding  the <code>Content-Encoding</code> header, or null
+     * @return                  the decompressed body, or the given stream if it is not encoded
+     * @throws IOException      if the encoding is not supported
+     */
+    public static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        String encoding = contentEncoding!=null ? contentEncoding.trim().toLowerCase() : "";
+        if( encoding.isEmpty() || encoding.equals("identity") ) {
+            return body;
+        }
+        if( encoding.equals("gzip") || encoding.equals("x-gzip") || encoding.equals("deflate") ) {
+            return new DecodingInputStream(body, encoding);
+        }
+        HttpResponse.drainAndClose(body);
+        throw new IOException("Unsupported Content-Encoding: "+contentEncoding);
+    }
+
+    /**
+     * Creates the decoder when the body is first read.
+     */
+    static class DecodingInputStream extends InputStream {
+        InputStream body;
+        String encoding;
+        InputStream decoder;
+        Inflater inflater;
+
+        DecodingInputStream(InputStream body, String encoding) {
+            this.body = body;
+            this.encoding = encoding;
+        }
+
+        private InputStream decoder() throws IOException {
+            if( decoder==null ) {
+                BufferedInputStream buffered = new BufferedInputStream(body, BUFFER_SIZE);
+                buffered.mark(2);
+                int first = buffered.read();
+                int second = buffered.read();
+                buffered.reset();
+                if( first<0 ) {
+                    decoder = buffered;
+                }
+                else if( encoding.equals("deflate") ) {
+                    // zlib streams start with a header whose two bytes are a multiple of 31
+                    boolean zlib = (first & 0x0F)==8 && second>=0 && ((first<<8) | second)%31==0;
+                    inflater = new Inflater(!zlib);
+                    decoder = new InflaterInputStream(buffered, inflater, BUFFER_SIZE);
+                }
+                else {
+                    decoder = new GZIPInputStream(buffered, BUFFER_SIZE);
+                }
+            }
+            return decoder;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return decoder().read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return decoder().read(buffer, offset, length);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return decoder!=null ? decoder.available() : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if( decoder!=null ) {
+                    decoder.close();
+                }
+                body.close();
+            }
+            finally {
+                // InflaterInputStream only releases the native memory of its own Inflater
+                if( inflater!=null ) {
+                    inflater.end();
+                }
+            }
+        }
+    }
+}
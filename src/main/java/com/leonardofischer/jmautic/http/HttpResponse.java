@@ -0,0 +1,114 @@
+package com.leonardofischer.jmautic.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The response of an {@link com.leonardofischer.jmautic.http.HttpTransport}. The body is a
+ * stream that is read as it arrives, and must be closed when it is no longer needed.
+ */
+public class HttpResponse implements Closeable {
+
+    int code;
+    Map<String,String> headers;
+    InputStream body;
+
+    public HttpResponse(int code, Map<String,String> headers, InputStream body) {
+        this.code = code;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public Map<String,String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the value of a header, ignoring the case of its name.
+     * @param  name the header name
+     * @return      the header value, or null if the response does not have it
+     */
+    public String getHeader(String name) {
+        Iterator<Map.Entry<String,String>> it = headers.entrySet().iterator();
+        while( it.hasNext() ) {
+            Map.Entry<String,String> header = it.next();
+            if( name.equalsIgnoreCase(header.getKey()) ) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the body stream. Closing it releases the connection.
+     * @return the body stream, never null
+     */
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * Reads the whole body as an UTF-8 String, decompressing it if the response has a
+     * <code>Content-Encoding</code>, and closes the response.
+     * @return             the body content
+     * @throws IOException if the body cannot be read
+     */
+    public String getBodyAsString() throws IOException {
+        try {
+            InputStream decoded = ContentDecoding.decode(body, getHeader("Content-Encoding"));
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while( (read = decoded.read(buffer))!=-1 ) {
+                output.write(buffer, 0, read);
+            }
+            return output.toString("UTF-8");
+        }
+        finally {
+            close();
+        }
+    }
+
+    /**
+     * Reads any unread content of the body and closes it, so the connection can be reused.
+     */
+    public void close() {
+        drainAndClose(body);
+    }
+
+    /**
+     * Reads the given stream until its end and closes it, ignoring errors. Keep-alive
+     * connections can only be reused after their response was fully read.
+     * @param input the stream to drain and close, may be null
+     */
+    public static void drainAndClose(InputStream input) {
+        if( input==null ) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[4096];
+            while( input.read(buffer)!=-1 ) {
+                // discard
+            }
+        }
+        catch(IOException e) {
+            // the connection is broken or already closed: it will not be reused anyway
+        }
+        finally {
+            try {
+                input.close();
+            }
+            catch(IOException e) {
+                // nothing else to do
+            }
+        }
+    }
+}
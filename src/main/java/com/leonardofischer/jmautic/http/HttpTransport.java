@@ -0,0 +1,45 @@
+package com.leonardofischer.jmautic.http;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.leonardofischer.jmautic.oauth.Request;
+
+/**
+ * <p>Sends HTTP requests for {@link com.leonardofischer.jmautic.OAuth2Service}. The service
+ * builds the URL, headers and body of each request, and the transport is responsible only for
+ * the connection itself.
+ *
+ * <p>jMautic includes two implementations:
+ * {@link com.leonardofischer.jmautic.http.UrlConnectionTransport}, the default, which relies on
+ * the JDK <code>HttpURLConnection</code>, and
+ * {@link com.leonardofischer.jmautic.http.PooledHttpTransport}, which keeps a configurable pool
+ * of keep-alive connections. A transport can be shared by several services.
+ */
+public interface HttpTransport {
+
+    /**
+     * Sends a request and returns its response. The caller must close the returned response (or
+     * its body stream) so the connection can be reused.
+     *
+     * @param  method      the HTTP method
+     * @param  url         the full URL, including the query string
+     * @param  headers     the request headers, never null. They may be shared between requests,
+     *                     so they must not be modified.
+     * @param  body        the request body, or null if the request has no body
+     * @return             the response, for any status code. The body must be returned as sent
+     *                     by the server, without decompressing it.
+     * @throws IOException if the request could not be sent or the response could not be read.
+     *                     Failures to open the connection, when nothing was sent to the
+     *                     server, are thrown as {@link java.net.ConnectException} or
+     *                     {@link java.net.UnknownHostException}.
+     */
+    public HttpResponse execute(Request.Method method, String url, Map<String,String> headers,
+        byte[] body) throws IOException;
+
+    /**
+     * Releases the connections and threads held by this transport.
+     * @throws IOException if an error occurs closing the connections
+     */
+    public void close() throws IOException;
+}
@@ -0,0 +1,194 @@
+package com.leonardofischer.jmautic.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.leonardofischer.jmautic.oauth.Request;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * <p>{@link com.leonardofischer.jmautic.http.HttpTransport} that keeps a pool of keep-alive
+ * connections, based on <a href="https://hc.apache.org/" target="_top">Apache HttpClient</a>.
+ * Reusing connections avoids a new TCP connection and TLS handshake on every request.
+ *
+ * <p>Configure it before its first use, and share a single instance between all the services
+ * that connect to the same hosts. For example:
+ *
+ * <pre>
+ *    PooledHttpTransport transport = new PooledHttpTransport()
+ *        .maxConnectionsPerHost(20)
+ *        .idleTimeout(30, TimeUnit.SECONDS);
+ *
+ *    OAuth2Service service = new OAuth2Service()
+ *        .instanceUrl("https://mautic.myserver.com")
+ *        .transport(transport)
+ *        ...</pre>
+ *
+ * <p>A background thread closes connections that were idle for longer than the idle timeout.
+ * Call {@link #close()} to release all the connections and this thread.
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+    int maxConnections = 100;
+    int maxConnectionsPerHost = 10;
+    long idleTimeoutMillis = 30000;
+    int connectTimeout = 0;
+    int readTimeout = 0;
+
+    CloseableHttpClient client;
+
+    public PooledHttpTransport() {
+    }
+
+    /**
+     * @param  maxConnections the maximum number of connections in the pool, for all hosts. The
+     *                        default is 100.
+     * @return                this PooledHttpTransport instance
+     */
+    public PooledHttpTransport maxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * @param  maxConnectionsPerHost the maximum number of connections to the same host. Requests
+     *                               beyond this limit wait for a free connection. The default
+     *                               is 10.
+     * @return                       this PooledHttpTransport instance
+     */
+    public PooledHttpTransport maxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    /**
+     * @param  idleTimeout how long a connection can stay unused in the pool before it is closed.
+     *                     The default is 30 seconds.
+     * @param  unit        the unit of the idleTimeout
+     * @return             this PooledHttpTransport instance
+     */
+    public PooledHttpTransport idleTimeout(long idleTimeout, TimeUnit unit) {
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+        return this;
+    }
+
+    /**
+     * @param  connectTimeout the connect timeout in milliseconds, 0 (the default) for no timeout
+     * @return                this PooledHttpTransport instance
+     */
+    public PooledHttpTransport connectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * @param  readTimeout the read timeout in milliseconds, 0 (the default) for no timeout
+     * @return             this PooledHttpTransport instance
+     */
+    public PooledHttpTransport readTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * Creates the HTTP client on the first request, with the configuration set until then.
+     */
+    synchronized CloseableHttpClient getClient() {
+        if( client==null ) {
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+
+            RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+
+            client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                // OAuth2Service negotiates and decodes the compression itself
+                .disableContentCompression()
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+        }
+        return client;
+    }
+
+    public HttpResponse execute(Request.Method method, String url, Map<String,String> headers,
+            byte[] body) throws IOException {
+        HttpRequestBase httpRequest;
+        if( method==Request.Method.POST ) {
+            HttpPost post = new HttpPost(url);
+            if( body!=null ) {
+                post.setEntity(new ByteArrayEntity(body));
+            }
+            httpRequest = post;
+        }
+        else if( method==Request.Method.GET ) {
+            httpRequest = new HttpGet(url);
+        }
+        else {
+            throw new UnsupportedOperationException("Method not implemented: "+method);
+        }
+
+        Iterator<Map.Entry<String,String>> it = headers.entrySet().iterator();
+        while( it.hasNext() ) {
+            Map.Entry<String,String> header = it.next();
+            httpRequest.addHeader(header.getKey(), header.getValue());
+        }
+
+        CloseableHttpResponse response;
+        try {
+            response = getClient().execute(httpRequest);
+        }
+        catch(ConnectTimeoutException e) {
+            ConnectException connectException = new ConnectException("Connect timed out: "+httpRequest.getURI().getHost());
+            connectException.initCause(e);
+            throw connectException;
+        }
+
+        Map<String,String> responseHeaders = new HashMap<String,String>();
+        Header[] allHeaders = response.getAllHeaders();
+        for( int i=0; i<allHeaders.length; i++ ) {
+            if( !responseHeaders.containsKey(allHeaders[i].getName()) ) {
+                responseHeaders.put(allHeaders[i].getName(), allHeaders[i].getValue());
+            }
+        }
+
+        // closing the entity stream reads the rest of it and releases the connection to the pool
+        HttpEntity entity = response.getEntity();
+        InputStream stream = entity!=null ? entity.getContent() : new ByteArrayInputStream(new byte[0]);
+        return new HttpResponse(response.getStatusLine().getStatusCode(), responseHeaders, stream);
+    }
+
+    /**
+     * Closes all the connections of the pool and stops the idle connection eviction thread.
+     * @throws IOException if an error occurs closing the connections
+     */
+    public synchronized void close() throws IOException {
+        if( client!=null ) {
+            client.close();
+            client = null;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.leonardofischer.jmautic.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.leonardofischer.jmautic.oauth.Request;
+
+/**
+ * {@link com.leonardofischer.jmautic.http.HttpTransport} based on the JDK
+ * <code>HttpURLConnection</code>. This is the default transport of
+ * {@link com.leonardofischer.jmautic.OAuth2Service}. Connections are reused through the JDK
+ * keep-alive cache, which can only be tuned with system properties (such as
+ * <code>http.maxConnections</code>); use {@link com.leonardofischer.jmautic.http.PooledHttpTransport}
+ * if you need control over the connection pool.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    int connectTimeout = 0;
+    int readTimeout = 0;
+
+    public UrlConnectionTransport() {
+    }
+
+    /**
+     * @param  connectTimeout the connect timeout in milliseconds, 0 (the default) for no timeout
+     * @return                this UrlConnectionTransport instance
+     */
+    public UrlConnectionTransport connectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * @param  readTimeout the read timeout in milliseconds, 0 (the default) for no timeout
+     * @return             this UrlConnectionTransport instance
+     */
+    public UrlConnectionTransport readTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    public HttpResponse execute(Request.Method method, String url, Map<String,String> headers,
+            byte[] body) throws IOException {
+        URL parsedUrl = new URL(url);
+        HttpURLConnection connection = (HttpURLConnection)parsedUrl.openConnection();
+        connection.setRequestMethod(method.name());
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setInstanceFollowRedirects(true);
+
+        Iterator<Map.Entry<String,String>> it = headers.entrySet().iterator();
+        while( it.hasNext() ) {
+            Map.Entry<String,String> header = it.next();
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        if( body!=null ) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+        }
+
+        // connect explicitly, so a connect timeout can be told apart from a read timeout
+        try {
+            connection.connect();
+        }
+        catch(SocketTimeoutException e) {
+            ConnectException connectException = new ConnectException("Connect timed out: "+parsedUrl.getHost());
+            connectException.initCause(e);
+            throw connectException;
+        }
+
+        if( body!=null ) {
+            OutputStream output = connection.getOutputStream();
+            try {
+                output.write(body);
+            }
+            finally {
+                output.close();
+            }
+        }
+
+        int code = connection.getResponseCode();
+        InputStream stream = code>=400 ? connection.getErrorStream() : connection.getInputStream();
+        if( stream==null ) {
+            stream = new ByteArrayInputStream(new byte[0]);
+        }
+        return new HttpResponse(code, getHeaders(connection), stream);
+    }
+
+    private Map<String,String> getHeaders(HttpURLConnection connection) {
+        Map<String,String> headers = new HashMap<String,String>();
+        Iterator<Map.Entry<String,List<String>>> it = connection.getHeaderFields().entrySet().iterator();
+        while( it.hasNext() ) {
+            Map.Entry<String,List<String>> header = it.next();
+            if( header.getKey()!=null && !header.getValue().isEmpty() ) {
+                headers.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Does nothing: the connections belong to the JDK keep-alive cache.
+     */
+    public void close() {
+    }
+}
@@ -0,0 +1,91 @@
+package com.leonardofischer.jmautic.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The aggregated metrics of an endpoint, kept by
+ * {@link com.leonardofischer.jmautic.metrics.HistogramMetricsListener}. All the histograms are
+ * in nanoseconds.
+ */
+public class EndpointMetrics {
+
+    LatencyHistogram timeToFirstByte = new LatencyHistogram();
+    LatencyHistogram network = new LatencyHistogram();
+    LatencyHistogram parse = new LatencyHistogram();
+    LatencyHistogram total = new LatencyHistogram();
+    AtomicLong requestCount = new AtomicLong();
+    AtomicLong errorCount = new AtomicLong();
+    AtomicLong responseBytes = new AtomicLong();
+    AtomicLong wireBytes = new AtomicLong();
+    AtomicLong compressedCount = new AtomicLong();
+    AtomicLong contactCount = new AtomicLong();
+
+    void record(RequestMetrics metrics) {
+        requestCount.incrementAndGet();
+        if( !metrics.isSuccess() ) {
+            errorCount.incrementAndGet();
+        }
+        if( metrics.statusCode>0 ) {
+            timeToFirstByte.record(metrics.timeToFirstByteNanos);
+            network.record(metrics.networkNanos);
+        }
+        if( metrics.parseNanos>=0 ) {
+            parse.record(metrics.parseNanos);
+        }
+        if( metrics.contactCount>0 ) {
+            contactCount.addAndGet(metrics.contactCount);
+        }
+        total.record(metrics.getTotalNanos());
+        responseBytes.addAndGet(metrics.responseBytes);
+        wireBytes.addAndGet(metrics.wireBytes);
+        if( metrics.contentEncoding!=null ) {
+            compressedCount.incrementAndGet();
+        }
+    }
+
+    public LatencyHistogram getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    public LatencyHistogram getNetwork() {
+        return network;
+    }
+
+    public LatencyHistogram getParse() {
+        return parse;
+    }
+
+    public LatencyHistogram getTotal() {
+        return total;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    /**
+     * @return the bytes received from the network, before decompression
+     */
+    public long getWireBytes() {
+        return wireBytes.get();
+    }
+
+    /**
+     * @return the number of responses received compressed
+     */
+    public long getCompressedCount() {
+        return compressedCount.get();
+    }
+
+    public long getContactCount() {
+        return contactCount.get();
+    }
+}
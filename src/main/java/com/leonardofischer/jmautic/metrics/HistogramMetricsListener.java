@@ -0,0 +1,80 @@
+package com.leonardofischer.jmautic.metrics;
+
+import com.leonardofischer.jmautic.oauth.Request;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * <p>A {@link com.leonardofischer.jmautic.metrics.MetricsListener} that aggregates the requests
+ * of each endpoint in {@link com.leonardofischer.jmautic.metrics.EndpointMetrics}, with latency
+ * histograms for the time to first byte, network, parse and total times.
+ *
+ * <p>Endpoints are grouped by method and path, with numeric ids replaced by <code>{id}</code>,
+ * such as <code>"GET /api/contacts/{id}"</code>. For example:
+ *
+ * <pre>
+ *    HistogramMetricsListener metrics = new HistogramMetricsListener();
+ *    service.metricsListener(metrics);
+ *    ...
+ *    EndpointMetrics getContact = metrics.getEndpoint("GET /api/contacts/{id}");
+ *    long p99 = getContact.getNetwork().getValueAtPercentile(99);</pre>
+ */
+public class HistogramMetricsListener implements MetricsListener {
+
+    static final Pattern NUMERIC_SEGMENT = Pattern.compile("/[0-9]+(?=/|$)");
+
+    ConcurrentHashMap<String,EndpointMetrics> endpoints = new ConcurrentHashMap<String,EndpointMetrics>();
+
+    public void onRequest(RequestMetrics metrics) {
+        String key = endpointKey(metrics);
+        EndpointMetrics endpoint = endpoints.get(key);
+        if( endpoint==null ) {
+            EndpointMetrics created = new EndpointMetrics();
+            endpoint = endpoints.putIfAbsent(key, created);
+            if( endpoint==null ) {
+                endpoint = created;
+            }
+        }
+        endpoint.record(metrics);
+    }
+
+    /**
+     * @param  key an endpoint key, such as <code>"GET /api/contacts"</code>
+     * @return     the metrics of the endpoint, or null if it had no requests
+     */
+    public EndpointMetrics getEndpoint(String key) {
+        return endpoints.get(key);
+    }
+
+    /**
+     * @return the metrics of all the endpoints that had requests, by endpoint key
+     */
+    public Map<String,EndpointMetrics> getEndpoints() {
+        return Collections.unmodifiableMap(endpoints);
+    }
+
+    /**
+     * Removes all the aggregated metrics.
+     */
+    public void clear() {
+        endpoints.clear();
+    }
+
+    static String endpointKey(RequestMetrics metrics) {
+        return endpointKey(metrics.method, metrics.endpoint);
+    }
+
+    /**
+     * @param  method   the method of a request
+     * @param  endpoint the endpoint of the request, such as <code>/api/contacts/10</code>
+     * @return          the key grouping the requests to the same endpoint, such as
+     *                  <code>"GET /api/contacts/{id}"</code>
+     */
+    public static String endpointKey(Request.Method method, String endpoint) {
+        String path = endpoint!=null ? NUMERIC_SEGMENT.matcher(endpoint).replaceAll("/{id}") : "";
+        return method + " " + path;
+    }
+}
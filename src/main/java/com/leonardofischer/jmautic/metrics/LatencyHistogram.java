@@ -0,0 +1,121 @@
+package com.leonardofischer.jmautic.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A histogram of latencies (or any non-negative long values) with a fixed relative precision,
+ * in the style of <a href="http://hdrhistogram.org/" target="_top">HdrHistogram</a>. Values are
+ * counted in buckets whose width grows with the value: each power of two is split in 64
+ * sub-buckets, so any recorded value is reported with an error below 1.6%, from nanoseconds to
+ * hours, in a fixed amount of memory (about 30KB).
+ *
+ * <p>Recording is lock-free and can be done from several threads at the same time. Reads are
+ * not atomic with respect to concurrent recordings, which is fine for monitoring.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = 64 - SUB_BUCKET_BITS + 1;
+
+    AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT * SUB_BUCKET_COUNT);
+    AtomicLong totalCount = new AtomicLong();
+    AtomicLong sum = new AtomicLong();
+    AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if( value<0 ) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax = max.get();
+        while( value>currentMax && !max.compareAndSet(currentMax, value) ) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return the largest recorded value, exactly, or 0 if there are none
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, or 0 if there are none
+     */
+    public double getMean() {
+        long count = totalCount.get();
+        return count==0 ? 0 : (double)sum.get() / count;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall. The result
+     * is the highest value of the bucket of that value, so it is never smaller than the actual
+     * value.
+     *
+     * @param  percentile the percentile, between 0 and 100
+     * @return            the value at the percentile, or 0 if there are no values
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if( count==0 ) {
+            return 0;
+        }
+        long target = Math.max(1, (long)Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+        long seen = 0;
+        for( int index=0; index<counts.length(); index++ ) {
+            seen += counts.get(index);
+            if( seen>=target ) {
+                return Math.min(highestValueAt(index), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Removes all the recorded values.
+     */
+    public void clear() {
+        for( int index=0; index<counts.length(); index++ ) {
+            counts.set(index, 0);
+        }
+        totalCount.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if( value<SUB_BUCKET_COUNT ) {
+            return (int)value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int bucket = highestBit - SUB_BUCKET_BITS + 1;
+        int subBucket = (int)(value >>> (bucket-1)) - SUB_BUCKET_COUNT;
+        return bucket*SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long highestValueAt(int index) {
+        int bucket = index / SUB_BUCKET_COUNT;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        if( bucket==0 ) {
+            return subBucket;
+        }
+        long next = (long)(SUB_BUCKET_COUNT + subBucket + 1) << (bucket-1);
+        return next>0 ? next-1 : Long.MAX_VALUE;
+    }
+}
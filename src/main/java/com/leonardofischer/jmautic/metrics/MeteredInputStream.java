@@ -0,0 +1,203 @@
+package com.leonardofischer.jmautic.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.leonardofischer.jmautic.http.ContentDecoding;
+
+/**
+ * <p>The response body returned by {@link com.leonardofischer.jmautic.OAuth2Service} when a
+ * {@link com.leonardofischer.jmautic.metrics.MetricsListener} is configured. It counts the bytes
+ * read and the time spent waiting for them, and reports the
+ * {@link com.leonardofischer.jmautic.metrics.RequestMetrics} of the request once.
+ *
+ * <p>Compressed bodies are decompressed by this stream: it counts both the bytes received
+ * ({@link com.leonardofischer.jmautic.metrics.RequestMetrics#wireBytes}) and the bytes after
+ * decompression ({@link com.leonardofischer.jmautic.metrics.RequestMetrics#responseBytes}).
+ *
+ * <p>The {@link com.leonardofischer.jmautic.parser.Parser} calls {@link #beginParse()} and
+ * {@link #endParse(int, String)} around its work, and the metrics are reported at the end of the
+ * parse. Otherwise, they are reported when the stream is closed.
+ */
+public class MeteredInputStream extends FilterInputStream {
+
+    RequestMetrics metrics;
+    MetricsListener listener;
+    long readNanos;
+    long parseStartNanos;
+    long readNanosAtParseStart;
+    boolean parsing = false;
+    boolean closed = false;
+    boolean reported = false;
+
+    public MeteredInputStream(InputStream input, RequestMetrics metrics, MetricsListener listener) {
+        super(new WireCountingInputStream(input, metrics));
+        this.metrics = metrics;
+        this.listener = listener;
+    }
+
+    /**
+     * @param  body            the body as received from the network
+     * @param  contentEncoding the <code>Content-Encoding</code> of the response, or null
+     * @param  metrics         the metrics of the request
+     * @param  listener        the listener that receives the metrics
+     * @throws IOException     if the encoding is not supported
+     */
+    public MeteredInputStream(InputStream body, String contentEncoding, RequestMetrics metrics,
+            MetricsListener listener) throws IOException {
+        super(ContentDecoding.decode(new WireCountingInputStream(body, metrics), contentEncoding));
+        this.metrics = metrics;
+        this.listener = listener;
+        if( in instanceof WireCountingInputStream ) {
+            metrics.contentEncoding = null;
+        }
+        else {
+            metrics.contentEncoding = contentEncoding.trim().toLowerCase();
+        }
+    }
+
+    /**
+     * @return the metrics of the request that returned this stream
+     */
+    public RequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int read = super.read();
+        readNanos += System.nanoTime() - start;
+        if( read>=0 ) {
+            metrics.responseBytes++;
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        int read = super.read(buffer, offset, length);
+        readNanos += System.nanoTime() - start;
+        if( read>0 ) {
+            metrics.responseBytes += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long start = System.nanoTime();
+        long skipped = super.skip(count);
+        readNanos += System.nanoTime() - start;
+        metrics.responseBytes += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if( closed ) {
+            return;
+        }
+        closed = true;
+        long start = System.nanoTime();
+        try {
+            super.close();
+        }
+        finally {
+            readNanos += System.nanoTime() - start;
+            metrics.networkNanos = metrics.timeToFirstByteNanos + readNanos;
+            if( !parsing ) {
+                report();
+            }
+        }
+    }
+
+    /**
+     * Marks the start of the parse of this stream. The metrics are then reported by
+     * {@link #endParse(int, String)} instead of {@link #close()}.
+     */
+    public void beginParse() {
+        parsing = true;
+        parseStartNanos = System.nanoTime();
+        readNanosAtParseStart = readNanos;
+    }
+
+    /**
+     * Marks the end of the parse, and reports the metrics.
+     *
+     * @param contactCount the number of contacts read, or -1 if unknown
+     * @param errorMessage the message of the parse error, or null if the parse succeeded
+     */
+    public void endParse(int contactCount, String errorMessage) {
+        long elapsed = System.nanoTime() - parseStartNanos;
+        metrics.parseNanos = Math.max(0, elapsed - (readNanos - readNanosAtParseStart));
+        metrics.networkNanos = metrics.timeToFirstByteNanos + readNanos;
+        metrics.contactCount = contactCount;
+        if( errorMessage!=null && metrics.errorMessage==null ) {
+            metrics.errorMessage = errorMessage;
+        }
+        report();
+    }
+
+    private void report() {
+        if( reported ) {
+            return;
+        }
+        reported = true;
+        notify(listener, metrics);
+    }
+
+    /**
+     * Calls the listener, ignoring its exceptions.
+     *
+     * @param listener the listener to call
+     * @param metrics  the metrics to report
+     */
+    public static void notify(MetricsListener listener, RequestMetrics metrics) {
+        try {
+            listener.onRequest(metrics);
+        }
+        catch(RuntimeException e) {
+            // a broken listener must not break the requests
+        }
+    }
+
+    /**
+     * Counts the bytes received from the network, before any decompression.
+     */
+    static class WireCountingInputStream extends FilterInputStream {
+        RequestMetrics metrics;
+
+        WireCountingInputStream(InputStream input, RequestMetrics metrics) {
+            super(input);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if( read>=0 ) {
+                metrics.wireBytes++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if( read>0 ) {
+                metrics.wireBytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            metrics.wireBytes += skipped;
+            return skipped;
+        }
+    }
+}
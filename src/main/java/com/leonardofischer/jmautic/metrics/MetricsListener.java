@@ -0,0 +1,23 @@
+package com.leonardofischer.jmautic.metrics;
+
+/**
+ * <p>Receives the {@link com.leonardofischer.jmautic.metrics.RequestMetrics} of each request
+ * sent by an {@link com.leonardofischer.jmautic.OAuth2Service}. Configure it with
+ * {@link com.leonardofischer.jmautic.OAuth2Service#metricsListener(MetricsListener)}.
+ *
+ * <p>It is called once per request, in the thread that made the request: after the response is
+ * parsed, after the response stream is closed when it is not read by a
+ * {@link com.leonardofischer.jmautic.parser.Parser}, or as soon as the request fails. It may be
+ * called from several threads at the same time, and must be fast, since it delays the caller.
+ * Exceptions thrown by the listener are ignored.
+ *
+ * <p>{@link com.leonardofischer.jmautic.metrics.HistogramMetricsListener} keeps latency
+ * histograms for each endpoint.
+ */
+public interface MetricsListener {
+
+    /**
+     * @param metrics the measurements of a finished request
+     */
+    void onRequest(RequestMetrics metrics);
+}
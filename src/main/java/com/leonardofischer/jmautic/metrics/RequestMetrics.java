@@ -0,0 +1,105 @@
+package com.leonardofischer.jmautic.metrics;
+
+import com.leonardofischer.jmautic.oauth.Request;
+
+/**
+ * <p>The measurements of a single request to Mautic, reported to a
+ * {@link com.leonardofischer.jmautic.metrics.MetricsListener}. Times are in nanoseconds.
+ *
+ * <p>The network and parse times are measured separately even when the response is parsed
+ * while it arrives: the time spent waiting for the body counts as network time, and only the
+ * remaining time of the parse method counts as parse time.
+ */
+public class RequestMetrics {
+
+    /**
+     * The endpoint of the request, such as <code>/api/contacts/10</code>.
+     */
+    public String endpoint;
+
+    public Request.Method method;
+
+    /**
+     * The HTTP status code, or -1 if no response was received.
+     */
+    public int statusCode = -1;
+
+    /**
+     * Time to get a valid access token (refreshing it if needed) and to build the URL and body
+     * of the request.
+     */
+    public long signNanos;
+
+    /**
+     * Time from sending the request until the response status and headers arrived.
+     */
+    public long timeToFirstByteNanos;
+
+    /**
+     * Time waiting for the network: the time to first byte plus the time spent reading the
+     * response body, including its decompression.
+     */
+    public long networkNanos;
+
+    /**
+     * Time spent in the Parser, not counting the time waiting for the body, or -1 if the
+     * response was not parsed by a {@link com.leonardofischer.jmautic.parser.Parser}.
+     */
+    public long parseNanos = -1;
+
+    /**
+     * Number of bytes of the response body, after decompression.
+     */
+    public long responseBytes;
+
+    /**
+     * Number of bytes of the response body as received from the network. Smaller than
+     * {@link #responseBytes} when the response is compressed.
+     */
+    public long wireBytes;
+
+    /**
+     * The <code>Content-Encoding</code> of the response, such as <code>"gzip"</code>, or null
+     * if it was not compressed.
+     */
+    public String contentEncoding;
+
+    /**
+     * Number of contacts read from the response, or -1 if it was not parsed.
+     */
+    public int contactCount = -1;
+
+    /**
+     * The message of the error that made the request fail, or null if it succeeded.
+     */
+    public String errorMessage;
+
+    public RequestMetrics(Request.Method method, String endpoint) {
+        this.method = method;
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * @return true if the request and the parsing of its response succeeded
+     */
+    public boolean isSuccess() {
+        return errorMessage==null;
+    }
+
+    /**
+     * @return the total time of the request: sign, network and parse times
+     */
+    public long getTotalNanos() {
+        return signNanos + networkNanos + Math.max(parseNanos, 0);
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + endpoint + " status=" + statusCode +
+            " sign=" + signNanos/1000 + "us ttfb=" + timeToFirstByteNanos/1000 +
+            "us network=" + networkNanos/1000 + "us parse=" + (parseNanos<0 ? "-" : parseNanos/1000 + "us") +
+            " bytes=" + responseBytes + " wireBytes=" + wireBytes +
+            (contentEncoding!=null ? " encoding=" + contentEncoding : "") + " contacts=" + contactCount +
+            (errorMessage!=null ? " error=" + errorMessage : "");
+    }
+}
@@ -0,0 +1,17 @@
+package com.leonardofischer.jmautic.model;
+
+/**
+ * The result of one contact in a batch operation, such as
+ * {@link com.leonardofischer.jmautic.MauticApi#createContacts(java.util.List)}. Either
+ * <code>contact</code> is set, or <code>errorMessage</code> explains why the contact failed.
+ */
+public class BatchContactResult {
+    public Contact contact;
+    // HTTP-like status code for this contact (201 created, 200 updated, 4xx/5xx on errors)
+    public int statusCode;
+    public String errorMessage;
+
+    public boolean isSuccess() {
+        return contact!=null && errorMessage==null;
+    }
+}
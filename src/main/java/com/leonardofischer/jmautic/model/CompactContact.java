@@ -0,0 +1,249 @@
+package com.leonardofischer.jmautic.model;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>A memory-efficient version of {@link com.leonardofischer.jmautic.model.Contact}, for
+ * applications that keep many contacts in memory. Instead of a Map and a list of ContactField
+ * objects, it holds only an array with the field values, indexed by the slots of a shared
+ * {@link com.leonardofischer.jmautic.model.FieldSchema}.
+ *
+ * <p>Build instances with {@link com.leonardofischer.jmautic.model.FieldSchema#compact(Contact)},
+ * for example while streaming a page of contacts:
+ *
+ * <pre>
+ *    final FieldSchema schema = new FieldSchema();
+ *    final List&lt;CompactContact&gt; contacts = new ArrayList&lt;CompactContact&gt;();
+ *    mauticApi.listContacts(search, new ContactConsumer() {
+ *        public void accept(Contact contact) {
+ *            contacts.add(schema.compact(contact));
+ *        }
+ *    });</pre>
+ *
+ * <p>{@link #getAllFields()} and {@link #getFields()} return read-only views with the same
+ * content of {@link com.leonardofischer.jmautic.model.Contact#allFields} and
+ * {@link com.leonardofischer.jmautic.model.Contact#fields}, and {@link #toContact()} converts it
+ * back to a regular Contact.
+ */
+public class CompactContact {
+
+    /**
+     * Marks the slots of fields the contact does not have. Compared by identity.
+     */
+    static final String ABSENT = new String("<absent>");
+
+    final FieldSchema schema;
+    String[] values;
+    boolean hasAllFields;
+
+    public int id;
+    public Date dateAdded;
+    public int createdBy;
+    public String createdByUser;
+    public Date dateModified;
+    public int modifiedBy;
+    public String modifiedByUser;
+    public int points;
+    public Date lastActive;
+    public Date dateIdentified;
+    public String color;
+    public boolean isPublished;
+    public String preferredProfileImage;
+    public List<IPAddress> ipAddresses;
+    public Object owner;
+    public Object tags;
+
+    CompactContact(FieldSchema schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * @return the schema of this contact
+     */
+    public FieldSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the value of a field.
+     * @param  alias the field alias
+     * @return       the field value, or null if the value is null or the contact does not
+     *               have the field
+     */
+    public String getFieldValue(String alias) {
+        int slot = schema.slotOf(alias);
+        if( slot<0 || slot>=values.length || values[slot]==ABSENT ) {
+            return null;
+        }
+        return values[slot];
+    }
+
+    /**
+     * @param  alias the field alias
+     * @return       true if the contact has the field, even if its value is null
+     */
+    public boolean hasField(String alias) {
+        int slot = schema.slotOf(alias);
+        return slot>=0 && slot<values.length && values[slot]!=ABSENT;
+    }
+
+    /**
+     * Returns a read-only Map view of the field values, keyed by alias, like
+     * {@link com.leonardofischer.jmautic.model.Contact#allFields}.
+     * @return the field values, or null if the contact had no "allFields"
+     */
+    public Map<String,String> getAllFields() {
+        if( !hasAllFields ) {
+            return null;
+        }
+        return new AbstractMap<String,String>() {
+            @Override
+            public String get(Object alias) {
+                return alias instanceof String ? getFieldValue((String)alias) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object alias) {
+                return alias instanceof String && hasField((String)alias);
+            }
+
+            @Override
+            public Set<Map.Entry<String,String>> entrySet() {
+                return new AbstractSet<Map.Entry<String,String>>() {
+                    @Override
+                    public Iterator<Map.Entry<String,String>> iterator() {
+                        return new SlotIterator<Map.Entry<String,String>>() {
+                            Map.Entry<String,String> build(int slot) {
+                                return new AbstractMap.SimpleImmutableEntry<String,String>(
+                                    schema.getAlias(slot), values[slot]);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return presentCount();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns a read-only List view of the fields, like
+     * {@link com.leonardofischer.jmautic.model.Contact#fields}. The ContactField objects are
+     * created when the list is read.
+     * @return the fields of this contact
+     */
+    public List<ContactField> getFields() {
+        final List<Integer> slots = new ArrayList<Integer>();
+        for( int slot=0; slot<values.length; slot++ ) {
+            if( values[slot]!=ABSENT && schema.getDefinition(slot)!=null ) {
+                slots.add(slot);
+            }
+        }
+        return new AbstractList<ContactField>() {
+            @Override
+            public ContactField get(int index) {
+                int slot = slots.get(index);
+                ContactField definition = schema.getDefinition(slot);
+                ContactField field = new ContactField();
+                field.alias = definition.alias;
+                field.group = definition.group;
+                field.id = definition.id;
+                field.label = definition.label;
+                field.type = definition.type;
+                field.fieldOrder = definition.fieldOrder;
+                field.value = values[slot];
+                return field;
+            }
+
+            @Override
+            public int size() {
+                return slots.size();
+            }
+        };
+    }
+
+    /**
+     * Converts this contact back to a regular Contact.
+     * @return a new Contact with the same values
+     */
+    public Contact toContact() {
+        Contact contact = new Contact();
+        contact.id = id;
+        contact.dateAdded = dateAdded;
+        contact.createdBy = createdBy;
+        contact.createdByUser = createdByUser;
+        contact.dateModified = dateModified;
+        contact.modifiedBy = modifiedBy;
+        contact.modifiedByUser = modifiedByUser;
+        contact.points = points;
+        contact.lastActive = lastActive;
+        contact.dateIdentified = dateIdentified;
+        contact.color = color;
+        contact.isPublished = isPublished;
+        contact.preferredProfileImage = preferredProfileImage;
+        contact.ipAddresses = ipAddresses;
+        contact.owner = owner;
+        contact.tags = tags;
+        contact.fields = new ArrayList<ContactField>(getFields());
+        if( hasAllFields ) {
+            contact.allFields = new LinkedHashMap<String,String>(getAllFields());
+        }
+        return contact;
+    }
+
+    private int presentCount() {
+        int count = 0;
+        for( int slot=0; slot<values.length; slot++ ) {
+            if( values[slot]!=ABSENT ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Iterates over the slots with a value, skipping the absent ones.
+     */
+    private abstract class SlotIterator<T> implements Iterator<T> {
+        int next = advance(0);
+
+        int advance(int slot) {
+            while( slot<values.length && values[slot]==ABSENT ) {
+                slot++;
+            }
+            return slot;
+        }
+
+        abstract T build(int slot);
+
+        public boolean hasNext() {
+            return next<values.length;
+        }
+
+        public T next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            T result = build(next);
+            next = advance(next+1);
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.leonardofischer.jmautic.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>The contact fields of a Mautic instance, shared by all the
+ * {@link com.leonardofischer.jmautic.model.CompactContact} objects built from it. Each field
+ * alias gets a slot, and compact contacts store only their field values, in an array indexed
+ * by slot. The field metadata (alias, group, label, type, id and order) and other repetitive
+ * strings are stored once in the schema, instead of once per contact.
+ *
+ * <p>Slots are created as new aliases are found, so the same schema can be used for all the
+ * contacts read from an instance. The metadata of a field is the one of the first contact where
+ * it was found. A FieldSchema is safe to use from several threads.
+ */
+public class FieldSchema {
+
+    final Map<String,Integer> slotsByAlias = new ConcurrentHashMap<String,Integer>();
+    final ConcurrentHashMap<String,String> strings = new ConcurrentHashMap<String,String>();
+    volatile String[] aliases = new String[0];
+    volatile ContactField[] definitions = new ContactField[0];
+
+    public FieldSchema() {
+    }
+
+    /**
+     * @return the number of slots (distinct field aliases) in this schema
+     */
+    public int size() {
+        return aliases.length;
+    }
+
+    /**
+     * @param  alias a field alias
+     * @return       the slot of the alias, or -1 if it is not in this schema
+     */
+    public int slotOf(String alias) {
+        Integer slot = slotsByAlias.get(alias);
+        return slot!=null ? slot.intValue() : -1;
+    }
+
+    /**
+     * @param  slot a slot of this schema
+     * @return      the field alias of the slot
+     */
+    public String getAlias(int slot) {
+        return aliases[slot];
+    }
+
+    /**
+     * Returns the metadata of the field in a slot, as a ContactField without value. The returned
+     * object is shared and must not be modified.
+     *
+     * @param  slot a slot of this schema
+     * @return      the field metadata, or null if the alias was only found in "allFields"
+     */
+    public ContactField getDefinition(int slot) {
+        ContactField[] current = definitions;
+        return slot<current.length ? current[slot] : null;
+    }
+
+    /**
+     * Converts a contact to its compact representation. The given contact is not changed, and
+     * can be discarded.
+     *
+     * @param  contact the contact to convert
+     * @return         a CompactContact with the same values
+     */
+    public CompactContact compact(Contact contact) {
+        CompactContact compact = new CompactContact(this);
+        compact.id = contact.id;
+        compact.dateAdded = contact.dateAdded;
+        compact.createdBy = contact.createdBy;
+        compact.createdByUser = intern(contact.createdByUser);
+        compact.dateModified = contact.dateModified;
+        compact.modifiedBy = contact.modifiedBy;
+        compact.modifiedByUser = intern(contact.modifiedByUser);
+        compact.points = contact.points;
+        compact.lastActive = contact.lastActive;
+        compact.dateIdentified = contact.dateIdentified;
+        compact.color = intern(contact.color);
+        compact.isPublished = contact.isPublished;
+        compact.preferredProfileImage = intern(contact.preferredProfileImage);
+        compact.ipAddresses = contact.ipAddresses;
+        compact.owner = contact.owner;
+        compact.tags = contact.tags;
+
+        List<String> values = new ArrayList<String>();
+        if( contact.fields!=null ) {
+            Iterator<ContactField> it = contact.fields.iterator();
+            while( it.hasNext() ) {
+                ContactField field = it.next();
+                if( field.alias!=null ) {
+                    setValue(values, slotFor(field), field.value);
+                }
+            }
+        }
+        if( contact.allFields!=null ) {
+            Iterator<Map.Entry<String,String>> it = contact.allFields.entrySet().iterator();
+            while( it.hasNext() ) {
+                Map.Entry<String,String> field = it.next();
+                setValue(values, slotFor(field.getKey()), field.getValue());
+            }
+        }
+        compact.values = values.toArray(new String[values.size()]);
+        compact.hasAllFields = contact.allFields!=null;
+        return compact;
+    }
+
+    private static void setValue(List<String> values, int slot, String value) {
+        while( values.size()<=slot ) {
+            values.add(CompactContact.ABSENT);
+        }
+        values.set(slot, value);
+    }
+
+    /**
+     * Returns the slot of a field, creating it if needed, and storing its metadata if the slot
+     * still has none.
+     */
+    int slotFor(ContactField field) {
+        int slot = slotFor(field.alias);
+        if( getDefinition(slot)==null ) {
+            synchronized(this) {
+                if( definitions[slot]==null ) {
+                    ContactField definition = new ContactField();
+                    definition.alias = intern(field.alias);
+                    definition.group = intern(field.group);
+                    definition.id = intern(field.id);
+                    definition.label = intern(field.label);
+                    definition.type = intern(field.type);
+                    definition.fieldOrder = intern(field.fieldOrder);
+                    ContactField[] updated = definitions.clone();
+                    updated[slot] = definition;
+                    definitions = updated;
+                }
+            }
+        }
+        return slot;
+    }
+
+    int slotFor(String alias) {
+        Integer slot = slotsByAlias.get(alias);
+        if( slot!=null ) {
+            return slot.intValue();
+        }
+        synchronized(this) {
+            slot = slotsByAlias.get(alias);
+            if( slot!=null ) {
+                return slot.intValue();
+            }
+            int newSlot = aliases.length;
+            String[] updatedAliases = new String[newSlot+1];
+            System.arraycopy(aliases, 0, updatedAliases, 0, newSlot);
+            updatedAliases[newSlot] = intern(alias);
+            ContactField[] updatedDefinitions = new ContactField[newSlot+1];
+            System.arraycopy(definitions, 0, updatedDefinitions, 0, newSlot);
+
+            // publish the arrays before the slot, so readers that find the slot can use it
+            definitions = updatedDefinitions;
+            aliases = updatedAliases;
+            slotsByAlias.put(updatedAliases[newSlot], newSlot);
+            return newSlot;
+        }
+    }
+
+    /**
+     * Returns a shared instance of the given string. Used only for strings that repeat across
+     * contacts, such as field metadata and user names.
+     */
+    String intern(String value) {
+        if( value==null ) {
+            return null;
+        }
+        String existing = strings.get(value);
+        if( existing!=null ) {
+            return existing;
+        }
+        existing = strings.putIfAbsent(value, value);
+        return existing!=null ? existing : value;
+    }
+}
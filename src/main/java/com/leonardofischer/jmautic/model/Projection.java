@@ -0,0 +1,109 @@
+package com.leonardofischer.jmautic.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>Selects which contact properties and fields are read from the Mautic responses. Everything
+ * else is skipped while the JSON is read, so no objects are created for it. For example, to
+ * read only the id, the modification date and the email of each contact:
+ *
+ * <pre>
+ *    Search search = new Search();
+ *    search.projection = new Projection()
+ *        .properties("id", "dateModified")
+ *        .fields("email");</pre>
+ *
+ * <p>Properties are the names of the {@link com.leonardofischer.jmautic.model.Contact}
+ * attributes as sent by Mautic, such as <code>"id"</code>, <code>"dateModified"</code>,
+ * <code>"ipAddresses"</code> or <code>"tags"</code>. Fields are the aliases of the custom fields
+ * in {@link com.leonardofischer.jmautic.model.Contact#allFields} and
+ * {@link com.leonardofischer.jmautic.model.Contact#fields}. Selecting any field also reads the
+ * <code>"fields"</code> property, but only with the selected aliases.
+ *
+ * <p>The Mautic API has no parameter to select contact fields, so the whole response is still
+ * transferred: the projection only saves the memory and time to build the skipped objects.
+ */
+public class Projection {
+
+    Set<String> properties;
+    Set<String> fields;
+
+    public Projection() {
+    }
+
+    /**
+     * Creates a copy of the given projection.
+     * @param other the projection to copy
+     */
+    public Projection(Projection other) {
+        this.properties = other.properties!=null ? new HashSet<String>(other.properties) : null;
+        this.fields = other.fields!=null ? new HashSet<String>(other.fields) : null;
+    }
+
+    /**
+     * Adds contact properties to the projection. If this method is never called, all the
+     * properties are read.
+     *
+     * @param  names the property names
+     * @return       this Projection instance
+     */
+    public Projection properties(String... names) {
+        if( properties==null ) {
+            properties = new HashSet<String>();
+        }
+        properties.addAll(Arrays.asList(names));
+        return this;
+    }
+
+    /**
+     * Adds field aliases to the projection. If this method is never called, the fields are
+     * read only if the <code>"fields"</code> property is selected, and then all of them are
+     * read.
+     *
+     * @param  aliases the field aliases
+     * @return         this Projection instance
+     */
+    public Projection fields(String... aliases) {
+        if( fields==null ) {
+            fields = new HashSet<String>();
+        }
+        fields.addAll(Arrays.asList(aliases));
+        return this;
+    }
+
+    /**
+     * @param  name a contact property name
+     * @return      true if the property must be read
+     */
+    public boolean includesProperty(String name) {
+        if( properties==null || properties.contains(name) ) {
+            return true;
+        }
+        return fields!=null && "fields".equals(name);
+    }
+
+    /**
+     * @param  alias a field alias
+     * @return       true if the field must be read
+     */
+    public boolean includesField(String alias) {
+        return fields==null || fields.contains(alias);
+    }
+
+    /**
+     * @return the selected properties, or null if all the properties are read
+     */
+    public Set<String> getProperties() {
+        return properties!=null ? Collections.unmodifiableSet(properties) : null;
+    }
+
+    /**
+     * @return the selected field aliases, or null if all the fields are read
+     */
+    public Set<String> getFields() {
+        return fields!=null ? Collections.unmodifiableSet(fields) : null;
+    }
+}
@@ -9,4 +9,24 @@ public class Search {
     // asc or desc
     public String orderByDir;
     public Boolean publishedOnly;
+    // the contact properties and fields to read, or null to read all of them
+    public Projection projection;
+
+    public Search() {
+    }
+
+    /**
+     * Creates a copy of the given search, so it can be changed (for example, to request
+     * another page) without changing the original one.
+     * @param other the search to copy
+     */
+    public Search(Search other) {
+        this.search = other.search;
+        this.start = other.start;
+        this.limit = other.limit;
+        this.orderBy = other.orderBy;
+        this.orderByDir = other.orderByDir;
+        this.publishedOnly = other.publishedOnly;
+        this.projection = other.projection;
+    }
 }
@@ -0,0 +1,25 @@
+package com.leonardofischer.jmautic.oauth;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The asynchronous counterpart of {@link com.leonardofischer.jmautic.oauth.OAuthService}. Instead
+ * of blocking the calling thread until the response arrives, it returns a CompletableFuture that
+ * is completed with the response stream.
+ *
+ * Use {@link com.leonardofischer.jmautic.oauth.ExecutorAsyncOAuthService} to run any
+ * OAuthService asynchronously, or implement this interface on top of a non-blocking HTTP client.
+ */
+public interface AsyncOAuthService {
+
+    /**
+     * Execute the given request asynchronously.
+     *
+     * @param  request the request that must be executed
+     * @return         a future completed with an InputStream to read the request response, or
+     *                 completed exceptionally with a
+     *                 {@link com.leonardofischer.jmautic.MauticException} if the request fails
+     */
+    public CompletableFuture<InputStream> executeRequestAsync(Request request);
+}
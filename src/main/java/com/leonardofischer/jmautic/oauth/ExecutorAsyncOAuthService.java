@@ -0,0 +1,71 @@
+package com.leonardofischer.jmautic.oauth;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.leonardofischer.jmautic.MauticException;
+
+/**
+ * <p>Runs the requests of a blocking {@link com.leonardofischer.jmautic.oauth.OAuthService} in an
+ * {@link java.util.concurrent.Executor}, exposing it as an
+ * {@link com.leonardofischer.jmautic.oauth.AsyncOAuthService}.
+ *
+ * <p>Each request occupies one executor thread while it waits for Mautic. To keep hundreds of
+ * requests in flight without parking a platform thread on each of them, use an executor that
+ * creates cheap threads, such as <code>Executors.newVirtualThreadPerTaskExecutor()</code> on
+ * Java 21 or newer.
+ */
+public class ExecutorAsyncOAuthService implements AsyncOAuthService {
+
+    OAuthService oauthService;
+    Executor executor;
+
+    /**
+     * @param oauthService the service that executes the requests
+     * @param executor     the executor where the requests will run
+     */
+    public ExecutorAsyncOAuthService(OAuthService oauthService, Executor executor) {
+        if( oauthService==null ) {
+            throw new IllegalArgumentException("oauthService cannot be null");
+        }
+        if( executor==null ) {
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+        this.oauthService = oauthService;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<InputStream> executeRequestAsync(final Request request) {
+        final CompletableFuture<InputStream> future = new CompletableFuture<InputStream>();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        future.complete( oauthService.executeRequest(request) );
+                    }
+                    catch(MauticException e) {
+                        future.completeExceptionally(e);
+                    }
+                    catch(RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        }
+        catch(RuntimeException e) {
+            // for example, a RejectedExecutionException from a shut down executor
+            future.completeExceptionally(new MauticException("Cannot execute request: " +
+                e.getMessage(), e));
+        }
+        return future;
+    }
+
+    /**
+     * Returns the executor used to run the requests.
+     * @return the executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+}
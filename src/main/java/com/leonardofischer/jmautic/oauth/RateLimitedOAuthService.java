@@ -0,0 +1,334 @@
+package com.leonardofischer.jmautic.oauth;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.leonardofischer.jmautic.MauticException;
+import com.leonardofischer.jmautic.MauticStatusException;
+import com.leonardofischer.jmautic.metrics.HistogramMetricsListener;
+
+/**
+ * <p>Limits the rate of requests sent by another {@link com.leonardofischer.jmautic.oauth.OAuthService},
+ * so parallel jobs do not overload the Mautic server. Requests above the rate wait in
+ * {@link #executeRequest(Request)} until a permit is available, using a token bucket that
+ * allows short bursts of up to <code>burst</code> requests.
+ *
+ * <pre>
+ *    OAuthService limited = new RateLimitedOAuthService(oauth2Service, 20)
+ *        .adaptive(2);
+ *    MauticApi mauticApi = new MauticApi(limited);</pre>
+ *
+ * <p>In adaptive mode, the rate is cut by the <code>decreaseFactor</code> when Mautic answers
+ * with 429 (Too Many Requests) or 503 (Service Unavailable), or when the response time of an
+ * endpoint grows above <code>latencyTolerance</code> times its usual response time. Each
+ * endpoint (with ids grouped, as in
+ * {@link com.leonardofischer.jmautic.metrics.HistogramMetricsListener}) has its own usual
+ * response time, so a mix of fast and slow endpoints is not taken as an overload. The usual
+ * response time follows the fastest average response time, and slowly rises with the average,
+ * so it follows the real response time of the server. While requests
+ * succeed, the rate grows again by <code>additiveIncrease</code> requests per second, every
+ * second, up to the configured rate. The rate is cut at most once per second, so a burst of
+ * errors from requests sent at the same time counts as a single signal.
+ *
+ * <p>When Mautic sends a <code>Retry-After</code> header, no request is sent until that delay
+ * passes. The failed request itself is not retried: its
+ * {@link com.leonardofischer.jmautic.MauticStatusException} is thrown to the caller.
+ */
+public class RateLimitedOAuthService implements OAuthService {
+
+    static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // how much the usual response time of an endpoint moves toward its average on each request
+    // slower than it, so it rises in about a hundred requests, and never by a single one
+    static final double BASELINE_RISE = 0.01;
+
+    /**
+     * The response times of an endpoint: the recent average, and the usual one the average is
+     * compared to.
+     */
+    static class EndpointLatency {
+        double averageNanos = -1;
+        double baselineNanos = -1;
+    }
+
+    OAuthService oauthService;
+    double maxRate;
+    double minRate;
+    double burst;
+    boolean adaptive = false;
+    double decreaseFactor = 0.5;
+    double additiveIncrease = 1;
+    double latencyTolerance = 3;
+
+    // token bucket state, guarded by this
+    double rate;
+    double tokens;
+    long lastRefillNanos;
+    long blockedUntilNanos;
+    long lastDecreaseNanos;
+    long lastIncreaseNanos;
+    double latencyAverageNanos = -1;
+    Map<String,EndpointLatency> endpointLatencies = new HashMap<String,EndpointLatency>();
+
+    // metrics, guarded by this
+    long requestCount;
+    long throttledCount;
+    long rateDecreaseCount;
+    long waitNanos;
+
+    /**
+     * @param oauthService      the service that executes the requests
+     * @param requestsPerSecond the maximum rate of requests
+     */
+    public RateLimitedOAuthService(OAuthService oauthService, double requestsPerSecond) {
+        if( requestsPerSecond<=0 ) {
+            throw new IllegalArgumentException("requestsPerSecond must be positive");
+        }
+        this.oauthService = oauthService;
+        this.maxRate = requestsPerSecond;
+        this.minRate = requestsPerSecond;
+        this.rate = requestsPerSecond;
+        this.burst = Math.max(1, requestsPerSecond);
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+        this.lastDecreaseNanos = lastRefillNanos - NANOS_PER_SECOND;
+        this.lastIncreaseNanos = lastRefillNanos;
+        this.blockedUntilNanos = lastRefillNanos;
+    }
+
+    /**
+     * @param  burst the maximum number of requests sent at once after an idle period. Defaults
+     *               to one second of requests.
+     * @return       this RateLimitedOAuthService instance
+     */
+    public synchronized RateLimitedOAuthService burst(int burst) {
+        if( burst<1 ) {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+        this.burst = burst;
+        this.tokens = Math.min(tokens, burst);
+        return this;
+    }
+
+    /**
+     * Enables the adaptive mode, where the rate changes between <code>minRequestsPerSecond</code>
+     * and the rate given in the constructor, following the errors and response times of Mautic.
+     *
+     * @param  minRequestsPerSecond the minimum rate of requests
+     * @return                      this RateLimitedOAuthService instance
+     */
+    public synchronized RateLimitedOAuthService adaptive(double minRequestsPerSecond) {
+        if( minRequestsPerSecond<=0 || minRequestsPerSecond>maxRate ) {
+            throw new IllegalArgumentException("minRequestsPerSecond must be positive and not greater than the maximum rate");
+        }
+        this.adaptive = true;
+        this.minRate = minRequestsPerSecond;
+        return this;
+    }
+
+    /**
+     * @param  decreaseFactor the factor applied to the rate on overload signals, between 0 and 1
+     *                        (defaults to 0.5)
+     * @return                this RateLimitedOAuthService instance
+     */
+    public synchronized RateLimitedOAuthService decreaseFactor(double decreaseFactor) {
+        if( decreaseFactor<=0 || decreaseFactor>=1 ) {
+            throw new IllegalArgumentException("decreaseFactor must be between 0 and 1");
+        }
+        this.decreaseFactor = decreaseFactor;
+        return this;
+    }
+
+    /**
+     * @param  additiveIncrease how many requests per second are added to the rate after each
+     *                          second without overload signals (defaults to 1)
+     * @return                  this RateLimitedOAuthService instance
+     */
+    public synchronized RateLimitedOAuthService additiveIncrease(double additiveIncrease) {
+        if( additiveIncrease<=0 ) {
+            throw new IllegalArgumentException("additiveIncrease must be positive");
+        }
+        this.additiveIncrease = additiveIncrease;
+        return this;
+    }
+
+    /**
+     * @param  latencyTolerance how many times the average response time may grow over the
+     *                          fastest response time before the rate is cut (defaults to 3).
+     *                          Use <code>Double.POSITIVE_INFINITY</code> to ignore response times.
+     * @return                  this RateLimitedOAuthService instance
+     */
+    public synchronized RateLimitedOAuthService latencyTolerance(double latencyTolerance) {
+        if( latencyTolerance<=1 ) {
+            throw new IllegalArgumentException("latencyTolerance must be greater than 1");
+        }
+        this.latencyTolerance = latencyTolerance;
+        return this;
+    }
+
+    public InputStream executeRequest(Request request) throws MauticException {
+        acquire();
+        long start = System.nanoTime();
+        try {
+            InputStream result = oauthService.executeRequest(request);
+            if( adaptive ) {
+                onSuccess(HistogramMetricsListener.endpointKey(request.getMethod(), request.getEndpoint()),
+                    System.nanoTime() - start);
+            }
+            return result;
+        }
+        catch(MauticStatusException e) {
+            if( e.isOverloaded() ) {
+                onOverload(e.getRetryAfterMillis());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until a request can be sent.
+     */
+    void acquire() throws MauticException {
+        long waited = 0;
+        try {
+            while( true ) {
+                long wait;
+                synchronized(this) {
+                    long now = System.nanoTime();
+                    refill(now);
+                    if( blockedUntilNanos-now>0 ) {
+                        wait = blockedUntilNanos - now;
+                    }
+                    else if( tokens>=1 ) {
+                        tokens -= 1;
+                        requestCount++;
+                        waitNanos += waited;
+                        return;
+                    }
+                    else {
+                        wait = (long)Math.ceil((1-tokens) * NANOS_PER_SECOND / rate);
+                    }
+                }
+                TimeUnit.NANOSECONDS.sleep(wait);
+                waited += wait;
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MauticException("Interrupted while waiting for the rate limit", e);
+        }
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefillNanos;
+        if( elapsed>0 ) {
+            tokens = Math.min(burst, tokens + elapsed*rate/NANOS_PER_SECOND);
+            lastRefillNanos = now;
+        }
+    }
+
+    synchronized void onSuccess(String endpointKey, long latencyNanos) {
+        if( !adaptive ) {
+            return;
+        }
+        long now = System.nanoTime();
+        latencyAverageNanos = average(latencyAverageNanos, latencyNanos);
+
+        EndpointLatency latency = endpointLatencies.get(endpointKey);
+        if( latency==null ) {
+            latency = new EndpointLatency();
+            endpointLatencies.put(endpointKey, latency);
+        }
+        latency.averageNanos = average(latency.averageNanos, latencyNanos);
+        if( latency.baselineNanos<0 || latency.averageNanos<latency.baselineNanos ) {
+            latency.baselineNanos = latency.averageNanos;
+        }
+        else {
+            latency.baselineNanos += BASELINE_RISE * (latency.averageNanos - latency.baselineNanos);
+        }
+
+        if( latency.averageNanos>latencyTolerance*latency.baselineNanos ) {
+            decrease(now);
+        }
+        else if( now-lastIncreaseNanos>=NANOS_PER_SECOND && now-lastDecreaseNanos>=NANOS_PER_SECOND ) {
+            refill(now);
+            rate = Math.min(maxRate, rate + additiveIncrease);
+            lastIncreaseNanos = now;
+        }
+    }
+
+    private static double average(double averageNanos, long latencyNanos) {
+        return averageNanos<0 ? latencyNanos : 0.8*averageNanos + 0.2*latencyNanos;
+    }
+
+    synchronized void onOverload(long retryAfterMillis) {
+        long now = System.nanoTime();
+        throttledCount++;
+        if( retryAfterMillis>0 ) {
+            long until = now + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+            if( until-blockedUntilNanos>0 ) {
+                blockedUntilNanos = until;
+            }
+        }
+        if( adaptive ) {
+            decrease(now);
+        }
+    }
+
+    private void decrease(long now) {
+        if( now-lastDecreaseNanos<NANOS_PER_SECOND ) {
+            return;
+        }
+        refill(now);
+        rate = Math.max(minRate, rate*decreaseFactor);
+        tokens = Math.min(tokens, Math.max(1, rate));
+        lastDecreaseNanos = now;
+        lastIncreaseNanos = now;
+        rateDecreaseCount++;
+    }
+
+    /**
+     * @return the number of requests per second currently allowed
+     */
+    public synchronized double getCurrentRate() {
+        return rate;
+    }
+
+    /**
+     * @return the number of requests sent through this service
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return the number of requests that failed with 429 or 503
+     */
+    public synchronized long getThrottledCount() {
+        return throttledCount;
+    }
+
+    /**
+     * @return how many times the adaptive mode decreased the rate
+     */
+    public synchronized long getRateDecreaseCount() {
+        return rateDecreaseCount;
+    }
+
+    /**
+     * @return the total time requests waited for a permit, in milliseconds
+     */
+    public synchronized long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    /**
+     * @return the average response time of all the endpoints, in milliseconds, or -1 if not
+     *         measured. Only measured in adaptive mode.
+     */
+    public synchronized double getAverageLatencyMillis() {
+        return latencyAverageNanos<0 ? -1 : latencyAverageNanos/1000000.0;
+    }
+}
@@ -1,59 +1,302 @@
 package com.leonardofischer.jmautic.oauth;
 
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.HashMap;
 
 /**
- * Simple abstraction for HTTP requests. You can set a method, endpoint and request parameters.
- * Future versions of jMautic may handle other parts of HTTP requests (such as headers, body,
- * file uploads, etc).
+ * <p>Simple abstraction for HTTP requests. You can set a method, endpoint, request parameters,
+ * and either form body parameters or a raw body (such as a JSON document). Future versions of
+ * jMautic may handle other parts of HTTP requests (such as headers, file uploads, etc).
+ *
+ * <p>Requests are immutable, so they can be shared between threads and sent again (for
+ * example, when retrying). They are created with a {@link Request.Builder}:
+ *
+ * <pre>
+ *    Request request = Request.builder()
+ *        .endpoint("/api/contacts")
+ *        .parameter("search", "email:*@example.com")
+ *        .parameter("limit", "100")
+ *        .build();</pre>
+ *
+ * <p>Parameters are kept in the order they were added. Adding a parameter with the same name
+ * again replaces its value.
  */
-public class Request {
+public final class Request {
 
     public enum Method {
         GET, POST
     }
 
-    private Method method = Method.GET;
+    private static final String[] NO_PARAMETERS = new String[0];
 
-    private String endpoint;
+    private final Method method;
+    private final String endpoint;
+    // names and values, interleaved
+    private final String[] parameters;
+    private final String[] bodyParameters;
+    private final String bodyContentType;
+    private final byte[] body;
 
-    private Map<String,String> parameters = new HashMap<String,String>();
-    private Map<String,String> bodyParameters = new HashMap<String,String>();
+    // Map views, created on first use
+    private Map<String,String> parametersMap;
+    private Map<String,String> bodyParametersMap;
 
-    public Request() {
-        setMethod(Method.GET);
+    Request(Builder builder) {
+        this.method = builder.method;
+        this.endpoint = builder.endpoint;
+        this.parameters = builder.parameterCount==0 ? NO_PARAMETERS :
+            Arrays.copyOf(builder.parameters, builder.parameterCount*2);
+        this.bodyParameters = builder.bodyParameterCount==0 ? NO_PARAMETERS :
+            Arrays.copyOf(builder.bodyParameters, builder.bodyParameterCount*2);
+        this.bodyContentType = builder.bodyContentType;
+        this.body = builder.body;
     }
 
-    public void setEndpoint(String endpoint) {
-        this.endpoint = endpoint;
+    /**
+     * @return a new Builder for a GET request
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param  endpoint the endpoint, such as <code>"/api/contacts/435"</code>
+     * @return          a GET request to the endpoint, without parameters
+     */
+    public static Request get(String endpoint) {
+        return new Builder().endpoint(endpoint).build();
+    }
+
+    /**
+     * @return a new Builder with the values of this request, to build a changed copy of it
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder().method(method).endpoint(endpoint);
+        for( int i=0; i<parameters.length; i+=2 ) {
+            builder.parameter(parameters[i], parameters[i+1]);
+        }
+        for( int i=0; i<bodyParameters.length; i+=2 ) {
+            builder.bodyParameter(bodyParameters[i], bodyParameters[i+1]);
+        }
+        if( body!=null ) {
+            builder.body(bodyContentType, body);
+        }
+        return builder;
     }
 
     public String getEndpoint() {
-        return this.endpoint;
+        return endpoint;
     }
 
-	public Method getMethod() {
-		return method;
-	}
+    public Method getMethod() {
+        return method;
+    }
 
-	public void setMethod(Method method) {
-		this.method = method;
-	}
+    /**
+     * @return the number of request parameters
+     */
+    public int getParameterCount() {
+        return parameters.length/2;
+    }
+
+    /**
+     * @param  index the parameter index, from 0 to {@link #getParameterCount()}-1
+     * @return       the name of the parameter
+     */
+    public String getParameterName(int index) {
+        return parameters[index*2];
+    }
 
-    public void addParameter(String name, String value) {
-        parameters.put(name, value);
+    /**
+     * @param  index the parameter index, from 0 to {@link #getParameterCount()}-1
+     * @return       the value of the parameter
+     */
+    public String getParameterValue(int index) {
+        return parameters[index*2+1];
     }
 
+    /**
+     * @return an unmodifiable Map with the request parameters, in the order they were added
+     */
     public Map<String,String> getParameters() {
-        return parameters;
+        Map<String,String> map = parametersMap;
+        if( map==null ) {
+            map = toMap(parameters);
+            parametersMap = map;
+        }
+        return map;
     }
 
-    public void addBodyParameter(String name, String value) {
-        bodyParameters.put(name, value);
+    /**
+     * @return the number of form body parameters
+     */
+    public int getBodyParameterCount() {
+        return bodyParameters.length/2;
     }
 
+    /**
+     * @param  index the body parameter index, from 0 to {@link #getBodyParameterCount()}-1
+     * @return       the name of the body parameter
+     */
+    public String getBodyParameterName(int index) {
+        return bodyParameters[index*2];
+    }
+
+    /**
+     * @param  index the body parameter index, from 0 to {@link #getBodyParameterCount()}-1
+     * @return       the value of the body parameter
+     */
+    public String getBodyParameterValue(int index) {
+        return bodyParameters[index*2+1];
+    }
+
+    /**
+     * @return an unmodifiable Map with the form body parameters, in the order they were added
+     */
     public Map<String,String> getBodyParameters() {
-        return bodyParameters;
+        Map<String,String> map = bodyParametersMap;
+        if( map==null ) {
+            map = toMap(bodyParameters);
+            bodyParametersMap = map;
+        }
+        return map;
+    }
+
+    /**
+     * @return the raw body set with {@link Request.Builder#body(String, byte[])}, or null if not
+     *         set. The returned array must not be modified.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return the Content-Type of the raw body, or null if not set
+     */
+    public String getBodyContentType() {
+        return bodyContentType;
+    }
+
+    private static Map<String,String> toMap(String[] namesAndValues) {
+        if( namesAndValues.length==0 ) {
+            return Collections.emptyMap();
+        }
+        Map<String,String> map = new LinkedHashMap<String,String>();
+        for( int i=0; i<namesAndValues.length; i+=2 ) {
+            map.put(namesAndValues[i], namesAndValues[i+1]);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + endpoint;
+    }
+
+    /**
+     * Builds {@link com.leonardofischer.jmautic.oauth.Request} instances. A Builder can be used
+     * to build several requests, and each one keeps the values the Builder had when it was built.
+     */
+    public static class Builder {
+
+        Method method = Method.GET;
+        String endpoint;
+        String[] parameters = NO_PARAMETERS;
+        int parameterCount;
+        String[] bodyParameters = NO_PARAMETERS;
+        int bodyParameterCount;
+        String bodyContentType;
+        byte[] body;
+
+        public Builder() {
+        }
+
+        public Builder method(Method method) {
+            this.method = method;
+            return this;
+        }
+
+        public Builder endpoint(String endpoint) {
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        public Builder parameter(String name, String value) {
+            int index = indexOf(parameters, parameterCount, name);
+            if( index<0 ) {
+                parameters = grow(parameters, parameterCount);
+                index = parameterCount++;
+                parameters[index*2] = name;
+            }
+            parameters[index*2+1] = value;
+            return this;
+        }
+
+        public Builder bodyParameter(String name, String value) {
+            int index = indexOf(bodyParameters, bodyParameterCount, name);
+            if( index<0 ) {
+                bodyParameters = grow(bodyParameters, bodyParameterCount);
+                index = bodyParameterCount++;
+                bodyParameters[index*2] = name;
+            }
+            bodyParameters[index*2+1] = value;
+            return this;
+        }
+
+        /**
+         * Sets a raw body for the request. When a raw body is set, the body parameters are
+         * ignored. The array is not copied, so it must not be changed after the request is
+         * built.
+         *
+         * @param  contentType the Content-Type of the body, such as <code>"application/json"</code>
+         * @param  body        the body content
+         * @return             this Builder instance
+         */
+        public Builder body(String contentType, byte[] body) {
+            this.bodyContentType = contentType;
+            this.body = body;
+            return this;
+        }
+
+        /**
+         * Sets a JSON document as the body of the request.
+         * @param  json the JSON document
+         * @return      this Builder instance
+         */
+        public Builder jsonBody(String json) {
+            try {
+                return body("application/json; charset=UTF-8", json.getBytes("UTF-8"));
+            }
+            catch(UnsupportedEncodingException e) {
+                throw new IllegalStateException("UTF-8 not supported", e);
+            }
+        }
+
+        public Request build() {
+            return new Request(this);
+        }
+
+        private static int indexOf(String[] namesAndValues, int count, String name) {
+            for( int i=0; i<count; i++ ) {
+                if( namesAndValues[i*2].equals(name) ) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return an array with room for one more name and value after the <code>count</code>
+         *         pairs in the given array
+         */
+        private static String[] grow(String[] namesAndValues, int count) {
+            if( namesAndValues.length<(count+1)*2 ) {
+                return Arrays.copyOf(namesAndValues, Math.max(8, namesAndValues.length*2));
+            }
+            return namesAndValues;
+        }
     }
 }
@@ -0,0 +1,192 @@
+package com.leonardofischer.jmautic.oauth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.leonardofischer.jmautic.MauticException;
+import com.leonardofischer.jmautic.MauticStatusException;
+
+/**
+ * <p>Retries the failed requests of another {@link com.leonardofischer.jmautic.oauth.OAuthService},
+ * so long-running jobs survive brief network or Mautic failures.
+ *
+ * <pre>
+ *    OAuthService retrying = new RetryingOAuthService(oauth2Service)
+ *        .maxAttempts(5)
+ *        .backoff(200, 10000)
+ *        .deadline(60000);
+ *    MauticApi mauticApi = new MauticApi(retrying);</pre>
+ *
+ * <p>Which failures are retried depends on the request method:
+ * <ul>
+ * <li>GET requests do not change anything in Mautic, and are retried on any I/O error and on
+ * the status codes 429, 500, 502, 503 and 504;</li>
+ * <li>POST requests (such as <code>createContact</code>) may have been processed even if the
+ * response never arrived, so they are retried only when the connection could not be opened,
+ * which proves the request was never sent.</li>
+ * </ul>
+ * Subclasses can change this by overriding {@link #isRetryable(Request, MauticException)}.
+ *
+ * <p>Between attempts, the service waits a random time between zero and an exponentially
+ * growing limit (<code>initialBackoff * 2^(attempt-1)</code>, up to <code>maxBackoff</code>),
+ * the "full jitter" strategy that keeps many clients from retrying at the same time. If Mautic
+ * sent a <code>Retry-After</code> header, the wait is at least that long. No retry starts after
+ * the deadline: the last error is thrown instead.
+ */
+public class RetryingOAuthService implements OAuthService {
+
+    OAuthService oauthService;
+    int maxAttempts = 3;
+    long initialBackoffMillis = 100;
+    long maxBackoffMillis = 10000;
+    long deadlineMillis = -1;
+
+    AtomicLong retryCount = new AtomicLong();
+
+    /**
+     * @param oauthService the service that executes the requests
+     */
+    public RetryingOAuthService(OAuthService oauthService) {
+        this.oauthService = oauthService;
+    }
+
+    /**
+     * @param  maxAttempts the maximum number of times a request is sent, including the first
+     *                     one (defaults to 3)
+     * @return             this RetryingOAuthService instance
+     */
+    public RetryingOAuthService maxAttempts(int maxAttempts) {
+        if( maxAttempts<1 ) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * @param  initialBackoffMillis the limit of the wait before the first retry, in milliseconds
+     *                              (defaults to 100)
+     * @param  maxBackoffMillis     the maximum limit of the wait between attempts, in
+     *                              milliseconds (defaults to 10000)
+     * @return                      this RetryingOAuthService instance
+     */
+    public RetryingOAuthService backoff(long initialBackoffMillis, long maxBackoffMillis) {
+        if( initialBackoffMillis<0 || maxBackoffMillis<initialBackoffMillis ) {
+            throw new IllegalArgumentException("Invalid backoff: "+initialBackoffMillis+", "+maxBackoffMillis);
+        }
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    /**
+     * @param  deadlineMillis the maximum time, from the first attempt, in which retries may
+     *                        start, in milliseconds. Use -1 (the default) for no deadline.
+     * @return                this RetryingOAuthService instance
+     */
+    public RetryingOAuthService deadline(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    public InputStream executeRequest(Request request) throws MauticException {
+        long start = System.nanoTime();
+        int attempt = 1;
+        while( true ) {
+            try {
+                return oauthService.executeRequest(request);
+            }
+            catch(MauticException e) {
+                if( attempt>=maxAttempts || !isRetryable(request, e) ) {
+                    throw e;
+                }
+                long wait = backoffMillis(attempt);
+                if( e instanceof MauticStatusException ) {
+                    wait = Math.max(wait, ((MauticStatusException)e).getRetryAfterMillis());
+                }
+                if( deadlineMillis>=0 ) {
+                    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    if( elapsed+wait>deadlineMillis ) {
+                        throw e;
+                    }
+                }
+                sleep(wait, e);
+                retryCount.incrementAndGet();
+                attempt++;
+            }
+        }
+    }
+
+    /**
+     * Tells if a failed request can be sent again.
+     *
+     * @param  request the failed request
+     * @param  error   the error of the last attempt
+     * @return         true if the request can be retried
+     */
+    protected boolean isRetryable(Request request, MauticException error) {
+        if( isConnectFailure(error) ) {
+            return true;
+        }
+        if( request.getMethod()!=Request.Method.GET ) {
+            return false;
+        }
+        if( error instanceof MauticStatusException ) {
+            int status = ((MauticStatusException)error).getStatusCode();
+            return status==429 || status==500 || status==502 || status==503 || status==504;
+        }
+        return causedBy(error, IOException.class);
+    }
+
+    /**
+     * @param  error an error from a request
+     * @return       true if the connection to the server could not be opened, so nothing was
+     *               sent
+     */
+    protected boolean isConnectFailure(MauticException error) {
+        return causedBy(error, ConnectException.class) || causedBy(error, UnknownHostException.class) ||
+            causedBy(error, NoRouteToHostException.class);
+    }
+
+    private static boolean causedBy(Throwable error, Class<? extends Throwable> type) {
+        Throwable cause = error;
+        while( cause!=null ) {
+            if( type.isInstance(cause) ) {
+                return true;
+            }
+            cause = cause.getCause()!=cause ? cause.getCause() : null;
+        }
+        return false;
+    }
+
+    long backoffMillis(int attempt) {
+        long limit = initialBackoffMillis << Math.min(attempt-1, 30);
+        if( limit>maxBackoffMillis || limit<0 ) {
+            limit = maxBackoffMillis;
+        }
+        return limit>0 ? ThreadLocalRandom.current().nextLong(limit+1) : 0;
+    }
+
+    private void sleep(long millis, MauticException error) throws MauticException {
+        try {
+            Thread.sleep(millis);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw error;
+        }
+    }
+
+    /**
+     * @return the number of retries made by this service
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+}
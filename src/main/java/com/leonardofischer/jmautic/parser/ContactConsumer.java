@@ -0,0 +1,22 @@
+package com.leonardofischer.jmautic.parser;
+
+import com.leonardofischer.jmautic.MauticException;
+import com.leonardofischer.jmautic.model.Contact;
+
+/**
+ * Receives contacts one at a time while a response is being parsed. Used by the streaming
+ * methods of {@link com.leonardofischer.jmautic.parser.Parser} and
+ * {@link com.leonardofischer.jmautic.MauticApi}, so callers can process large pages without
+ * holding the whole page in memory.
+ */
+public interface ContactConsumer {
+
+    /**
+     * Called once for each contact, in the order they appear in the response.
+     *
+     * @param  contact         a fully parsed contact
+     * @throws MauticException to stop the parsing. The exception is propagated to the caller
+     *                         of the streaming method.
+     */
+    public void accept(Contact contact) throws MauticException;
+}
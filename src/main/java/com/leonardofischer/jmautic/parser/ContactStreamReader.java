@@ -0,0 +1,299 @@
+package com.leonardofischer.jmautic.parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.leonardofischer.jmautic.MauticException;
+import com.leonardofischer.jmautic.model.*;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * <p>Builds {@link com.leonardofischer.jmautic.model.Contact} objects straight from the JSON
+ * tokens, without creating a JSON tree first. It applies the same changes that
+ * {@link com.leonardofischer.jmautic.parser.Parser} does in the tree (moving "fields.all" to
+ * "allFields", flattening the field groups, renaming "field_order" and flattening the IP
+ * addresses), but while the tokens are read.
+ *
+ * <p>Properties this reader does not know are skipped, so newer Mautic versions that add
+ * properties to the contact can still be read. In the same way, properties and fields left out
+ * of a {@link com.leonardofischer.jmautic.model.Projection} are skipped without creating any
+ * object for them.
+ */
+class ContactStreamReader {
+
+    DateDeserializer dateDeserializer;
+
+    ContactStreamReader(DateDeserializer dateDeserializer) {
+        this.dateDeserializer = dateDeserializer;
+    }
+
+    /**
+     * Reads the contacts from a "leads" (or "contacts") entry. Mautic returns it as an array in
+     * some versions and as an object keyed by the contact id in others, so both are accepted.
+     * The parser must be positioned at the START_ARRAY or START_OBJECT token, and is left at the
+     * matching end token.
+     */
+    void readContacts(JsonParser jp, ContactConsumer consumer, Projection projection)
+            throws IOException, MauticException {
+        JsonToken token = jp.getCurrentToken();
+        if( token==JsonToken.START_ARRAY ) {
+            while( jp.nextToken()!=JsonToken.END_ARRAY ) {
+                consumer.accept( readContact(jp, projection) );
+            }
+        }
+        else if( token==JsonToken.START_OBJECT ) {
+            while( jp.nextToken()==JsonToken.FIELD_NAME ) {
+                jp.nextToken();
+                consumer.accept( readContact(jp, projection) );
+            }
+        }
+        else if( token!=JsonToken.VALUE_NULL ) {
+            throw new MauticException("Expecting a list of contacts, but found " + token);
+        }
+    }
+
+    /**
+     * Reads a single contact. The parser must be positioned at the START_OBJECT token of the
+     * contact, and is left at its END_OBJECT token.
+     *
+     * @param projection the properties and fields to read, or null to read all of them
+     */
+    Contact readContact(JsonParser jp, Projection projection) throws IOException, MauticException {
+        if( jp.getCurrentToken()!=JsonToken.START_OBJECT ) {
+            throw new MauticException("Expecting a contact object, but found " + jp.getCurrentToken());
+        }
+
+        Contact contact = new Contact();
+        contact.fields = new ArrayList<ContactField>();
+        contact.ipAddresses = new ArrayList<IPAddress>();
+
+        while( jp.nextToken()==JsonToken.FIELD_NAME ) {
+            String name = jp.getCurrentName();
+            jp.nextToken();
+
+            if( projection!=null && !projection.includesProperty(name) ) {
+                jp.skipChildren();
+            }
+            else if( "id".equals(name) ) {
+                contact.id = readInt(jp);
+            }
+            else if( "dateAdded".equals(name) ) {
+                contact.dateAdded = readDate(jp);
+            }
+            else if( "createdBy".equals(name) ) {
+                contact.createdBy = readInt(jp);
+            }
+            else if( "createdByUser".equals(name) ) {
+                contact.createdByUser = readString(jp);
+            }
+            else if( "dateModified".equals(name) ) {
+                contact.dateModified = readDate(jp);
+            }
+            else if( "modifiedBy".equals(name) ) {
+                contact.modifiedBy = readInt(jp);
+            }
+            else if( "modifiedByUser".equals(name) ) {
+                contact.modifiedByUser = readString(jp);
+            }
+            else if( "points".equals(name) ) {
+                contact.points = readInt(jp);
+            }
+            else if( "lastActive".equals(name) ) {
+                contact.lastActive = readDate(jp);
+            }
+            else if( "dateIdentified".equals(name) ) {
+                contact.dateIdentified = readDate(jp);
+            }
+            else if( "color".equals(name) ) {
+                contact.color = readString(jp);
+            }
+            else if( "isPublished".equals(name) ) {
+                contact.isPublished = jp.getValueAsBoolean();
+            }
+            else if( "preferredProfileImage".equals(name) ) {
+                contact.preferredProfileImage = readString(jp);
+            }
+            else if( "fields".equals(name) ) {
+                readFields(jp, contact, projection);
+            }
+            else if( "ipAddresses".equals(name) ) {
+                readIpAddresses(jp, contact.ipAddresses);
+            }
+            else if( "owner".equals(name) ) {
+                contact.owner = jp.readValueAs(Object.class);
+            }
+            else if( "tags".equals(name) ) {
+                contact.tags = jp.readValueAs(Object.class);
+            }
+            else {
+                jp.skipChildren();
+            }
+        }
+        return contact;
+    }
+
+    /**
+     * Reads the "fields" entry of a contact: the "all" entry goes to
+     * {@link com.leonardofischer.jmautic.model.Contact#allFields}, and every field of every
+     * group is added to {@link com.leonardofischer.jmautic.model.Contact#fields}.
+     */
+    private void readFields(JsonParser jp, Contact contact, Projection projection)
+            throws IOException, MauticException {
+        if( jp.getCurrentToken()!=JsonToken.START_OBJECT ) {
+            jp.skipChildren();
+            return;
+        }
+        while( jp.nextToken()==JsonToken.FIELD_NAME ) {
+            String groupName = jp.getCurrentName();
+            JsonToken token = jp.nextToken();
+
+            if( "all".equals(groupName) ) {
+                contact.allFields = readAllFields(jp, projection);
+            }
+            else if( token==JsonToken.START_OBJECT ) {
+                while( jp.nextToken()==JsonToken.FIELD_NAME ) {
+                    // fields are keyed by their alias
+                    String alias = jp.getCurrentName();
+                    jp.nextToken();
+                    if( projection!=null && !projection.includesField(alias) ) {
+                        jp.skipChildren();
+                    }
+                    else {
+                        contact.fields.add( readContactField(jp) );
+                    }
+                }
+            }
+            else if( token==JsonToken.START_ARRAY ) {
+                if( jp.nextToken()!=JsonToken.END_ARRAY ) {
+                    throw new MauticException("Expecting empty array in group '" + groupName +
+                        "', but found " + jp.getCurrentToken());
+                }
+            }
+            else {
+                jp.skipChildren();
+            }
+        }
+    }
+
+    private Map<String,String> readAllFields(JsonParser jp, Projection projection)
+            throws IOException, MauticException {
+        if( jp.getCurrentToken()==JsonToken.VALUE_NULL ) {
+            return null;
+        }
+        Map<String,String> allFields = new LinkedHashMap<String,String>();
+        if( jp.getCurrentToken()!=JsonToken.START_OBJECT ) {
+            jp.skipChildren();
+            return allFields;
+        }
+        while( jp.nextToken()==JsonToken.FIELD_NAME ) {
+            String alias = jp.getCurrentName();
+            jp.nextToken();
+            if( projection!=null && !projection.includesField(alias) ) {
+                jp.skipChildren();
+            }
+            else {
+                allFields.put(alias, readString(jp));
+            }
+        }
+        return allFields;
+    }
+
+    private ContactField readContactField(JsonParser jp) throws IOException, MauticException {
+        ContactField field = new ContactField();
+        if( jp.getCurrentToken()!=JsonToken.START_OBJECT ) {
+            throw new MauticException("Expecting a field object, but found " + jp.getCurrentToken());
+        }
+        while( jp.nextToken()==JsonToken.FIELD_NAME ) {
+            String name = jp.getCurrentName();
+            jp.nextToken();
+
+            if( "alias".equals(name) ) {
+                field.alias = readString(jp);
+            }
+            else if( "group".equals(name) ) {
+                field.group = readString(jp);
+            }
+            else if( "id".equals(name) ) {
+                field.id = readString(jp);
+            }
+            else if( "label".equals(name) ) {
+                field.label = readString(jp);
+            }
+            else if( "type".equals(name) ) {
+                field.type = readString(jp);
+            }
+            else if( "value".equals(name) ) {
+                field.value = readString(jp);
+            }
+            else if( "field_order".equals(name) || "fieldOrder".equals(name) ) {
+                field.fieldOrder = readString(jp);
+            }
+            else {
+                jp.skipChildren();
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Reads the "ipAddresses" entry, where each IP address is a key pointing to its details,
+     * and adds one {@link com.leonardofischer.jmautic.model.IPAddress} for each of them.
+     */
+    private void readIpAddresses(JsonParser jp, List<IPAddress> ipAddresses)
+            throws IOException, MauticException {
+        if( jp.getCurrentToken()!=JsonToken.START_OBJECT ) {
+            jp.skipChildren();
+            return;
+        }
+        while( jp.nextToken()==JsonToken.FIELD_NAME ) {
+            String address = jp.getCurrentName();
+            jp.nextToken();
+
+            IPAddress ipAddress = null;
+            while( jp.nextToken()==JsonToken.FIELD_NAME ) {
+                String name = jp.getCurrentName();
+                jp.nextToken();
+                if( "ipDetails".equals(name) && jp.getCurrentToken()==JsonToken.START_OBJECT ) {
+                    ipAddress = jp.readValueAs(IPAddress.class);
+                }
+                else {
+                    jp.skipChildren();
+                }
+            }
+            if( ipAddress==null ) {
+                ipAddress = new IPAddress();
+            }
+            ipAddress.ipAddress = address;
+            ipAddresses.add(ipAddress);
+        }
+    }
+
+    private int readInt(JsonParser jp) throws IOException {
+        return jp.getValueAsInt();
+    }
+
+    private Date readDate(JsonParser jp) throws IOException {
+        if( jp.getCurrentToken()==JsonToken.VALUE_NULL ) {
+            return null;
+        }
+        return dateDeserializer.deserialize(jp, null);
+    }
+
+    private String readString(JsonParser jp) throws IOException, MauticException {
+        JsonToken token = jp.getCurrentToken();
+        if( token==JsonToken.VALUE_NULL ) {
+            return null;
+        }
+        if( token.isScalarValue() ) {
+            return jp.getValueAsString();
+        }
+        throw new MauticException("Expecting a text value for '" + jp.getCurrentName() +
+            "', but found " + token);
+    }
+}
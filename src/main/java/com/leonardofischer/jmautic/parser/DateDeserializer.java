@@ -13,10 +13,22 @@ import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 
 /**
- * Adapter that is able to integrate ISO8601 dates into Jackson library.
+ * <p>Adapter that is able to integrate ISO8601 dates into Jackson library.
+ *
+ * <p>Mautic always sends dates as <code>yyyy-MM-ddTHH:mm:ss+HH:MM</code> (for example,
+ * <code>"2016-05-24T19:23:25+00:00"</code>). Dates in this exact format are parsed directly from
+ * the characters in the Jackson buffer, without creating intermediate objects. Any other ISO8601
+ * format is handed to the Joda-Time parser.
  */
 public class DateDeserializer extends StdDeserializer<Date> {
 
+    private static final long serialVersionUID = 1L;
+
+    private static final DateTimeFormatter ISO_PARSER = ISODateTimeFormat.dateTimeParser();
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
     public DateDeserializer() {
         this(null);
     }
@@ -28,8 +40,96 @@ public class DateDeserializer extends StdDeserializer<Date> {
     @Override
     public Date deserialize(JsonParser jp, DeserializationContext ctxt)
             throws IOException, JsonProcessingException {
-        DateTimeFormatter parser = ISODateTimeFormat.dateTimeParser();
-        DateTime dateTime = parser.parseDateTime( jp.getText() );
+        long millis = parseMauticDate(jp.getTextCharacters(), jp.getTextOffset(), jp.getTextLength());
+        if( millis!=Long.MIN_VALUE ) {
+            return new Date(millis);
+        }
+        DateTime dateTime = ISO_PARSER.parseDateTime( jp.getText() );
         return dateTime.toDate();
     }
+
+    /**
+     * Parses <code>yyyy-MM-ddTHH:mm:ss+HH:MM</code>, <code>yyyy-MM-ddTHH:mm:ss-HH:MM</code> or
+     * <code>yyyy-MM-ddTHH:mm:ssZ</code> from the given characters.
+     *
+     * @return the milliseconds since the epoch, or Long.MIN_VALUE if the characters have any
+     *         other format or an invalid value
+     */
+    static long parseMauticDate(char[] text, int offset, int length) {
+        if( length!=25 && length!=20 ) {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(text, offset, 4);
+        int month = digits(text, offset+5, 2);
+        int day = digits(text, offset+8, 2);
+        int hour = digits(text, offset+11, 2);
+        int minute = digits(text, offset+14, 2);
+        int second = digits(text, offset+17, 2);
+        if( year<0 || month<1 || month>12 || day<1 || day>daysInMonth(year, month) ||
+                hour<0 || hour>23 || minute<0 || minute>59 || second<0 || second>59 ||
+                text[offset+4]!='-' || text[offset+7]!='-' || text[offset+10]!='T' ||
+                text[offset+13]!=':' || text[offset+16]!=':' ) {
+            return Long.MIN_VALUE;
+        }
+
+        int offsetMinutes;
+        char sign = text[offset+19];
+        if( length==20 ) {
+            if( sign!='Z' ) {
+                return Long.MIN_VALUE;
+            }
+            offsetMinutes = 0;
+        }
+        else {
+            int offsetHour = digits(text, offset+20, 2);
+            int offsetMinute = digits(text, offset+23, 2);
+            if( (sign!='+' && sign!='-') || text[offset+22]!=':' || offsetHour<0 || offsetHour>23 ||
+                    offsetMinute<0 || offsetMinute>59 ) {
+                return Long.MIN_VALUE;
+            }
+            offsetMinutes = offsetHour*60 + offsetMinute;
+            if( sign=='-' ) {
+                offsetMinutes = -offsetMinutes;
+            }
+        }
+
+        long minutes = hour*60L + minute - offsetMinutes;
+        return daysFromCivil(year, month, day)*MILLIS_PER_DAY + minutes*MILLIS_PER_MINUTE + second*1000L;
+    }
+
+    /**
+     * Reads <code>count</code> decimal digits, returning -1 if any of them is not a digit.
+     */
+    private static int digits(char[] text, int offset, int count) {
+        int value = 0;
+        for( int i=offset; i<offset+count; i++ ) {
+            char c = text[i];
+            if( c<'0' || c>'9' ) {
+                return -1;
+            }
+            value = value*10 + (c-'0');
+        }
+        return value;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if( month==2 ) {
+            boolean leap = (year%4==0 && year%100!=0) || year%400==0;
+            return leap ? 29 : 28;
+        }
+        return (month==4 || month==6 || month==9 || month==11) ? 30 : 31;
+    }
+
+    /**
+     * Number of days from 1970-01-01 to the given date in the proleptic Gregorian calendar. See
+     * <a href="http://howardhinnant.github.io/date_algorithms.html#days_from_civil" target="_top">days_from_civil</a>.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month<=2 ? year-1 : year;
+        int era = (y>=0 ? y : y-399) / 400;
+        int yearOfEra = y - era*400;
+        int dayOfYear = (153*(month>2 ? month-3 : month+9) + 2)/5 + day-1;
+        int dayOfEra = yearOfEra*365 + yearOfEra/4 - yearOfEra/100 + dayOfYear;
+        return era*146097L + dayOfEra - 719468;
+    }
 }
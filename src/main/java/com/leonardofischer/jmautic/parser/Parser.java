@@ -5,10 +5,15 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.Date;
 import java.util.ArrayList;
+import java.util.List;
 
 import com.leonardofischer.jmautic.MauticException;
+import com.leonardofischer.jmautic.http.HttpResponse;
+import com.leonardofischer.jmautic.metrics.MeteredInputStream;
 import com.leonardofischer.jmautic.model.*;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -32,6 +37,9 @@ import com.fasterxml.jackson.databind.module.SimpleModule;
  * tree into jMautic model objects. This includes renaming fields, moving fields around in the
  * tree, and other things.
  *
+ * <p>All the parse methods read the given stream until its end and close it, even when parsing
+ * fails. This allows keep-alive HTTP connections to be reused for the next request.
+ *
  * <p>Future versions of jMautic may handle changes in the Mautic API by creating an interface
  * from this class public methods, and then creating multiple implementations of this new
  * interface.
@@ -39,13 +47,19 @@ import com.fasterxml.jackson.databind.module.SimpleModule;
 public class Parser {
 
     ObjectMapper mapper;
+    ContactStreamReader contactReader;
 
     public Parser() {
         mapper = new ObjectMapper();
+        // the parse methods drain and close the streams themselves
+        mapper.getFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
 
+        DateDeserializer dateDeserializer = new DateDeserializer();
         SimpleModule module = new SimpleModule();
-        module.addDeserializer(Date.class, new DateDeserializer());
+        module.addDeserializer(Date.class, dateDeserializer);
         mapper.registerModule(module);
+
+        contactReader = new ContactStreamReader(dateDeserializer);
     }
 
     /**
@@ -57,6 +71,47 @@ public class Parser {
      *         instance
      */
     public ListContactsResult parseListContacts(InputStream input) throws MauticException {
+        MeteredInputStream metered = beginParse(input);
+        try {
+            ListContactsResult result = readListContacts(input);
+            endParse(metered, result.contacts!=null ? result.contacts.size() : 0, null);
+            return result;
+        }
+        catch(MauticException e) {
+            endParse(metered, -1, e);
+            throw e;
+        }
+        catch(RuntimeException e) {
+            endParse(metered, -1, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Same as {@link #parseListContacts(InputStream)}, but reads only the properties and fields
+     * selected by the given projection, skipping everything else while the JSON is read.
+     * @param input      the InputStream to read the endpoint response
+     * @param projection the properties and fields to read, or null to read all of them
+     * @return the ListContactsResult built from the given JSON content in the stream
+     * @throws MauticException if an error occurs reading the input
+     */
+    public ListContactsResult parseListContacts(InputStream input, Projection projection)
+            throws MauticException {
+        if( projection==null ) {
+            return parseListContacts(input);
+        }
+        final ListContactsResult result = new ListContactsResult();
+        result.contacts = new ArrayList<Contact>();
+        int total = parseListContacts(input, new ContactConsumer() {
+            public void accept(Contact contact) {
+                result.contacts.add(contact);
+            }
+        }, projection);
+        result.total = Math.max(total, 0);
+        return result;
+    }
+
+    private ListContactsResult readListContacts(InputStream input) throws MauticException {
         ObjectNode jsonTree;
 
         try {
@@ -76,6 +131,9 @@ public class Parser {
         catch(IOException e) {
             throw new MauticException("Could not read json: "+e.getMessage(), e);
         }
+        finally {
+            HttpResponse.drainAndClose(input);
+        }
 
         try {
             return mapper.treeToValue(jsonTree, ListContactsResult.class);
@@ -85,6 +143,298 @@ public class Parser {
         }
     }
 
+    /**
+     * <p>Parses the JSON returned by the <code>GET /contacts</code> Mautic endpoint, passing each
+     * contact to the given consumer as soon as it is read.
+     *
+     * <p>Unlike {@link #parseListContacts(InputStream)}, this method reads the JSON tokens
+     * directly, and never holds more than one contact in memory. Use it for large pages.
+     *
+     * @param input    the InputStream to read the endpoint response
+     * @param consumer receives each contact, in the order they appear in the response
+     * @return the <code>total</code> value of the response, or -1 if it was not present
+     * @throws MauticException if an error occurs reading the input, or if thrown by the consumer
+     */
+    public int parseListContacts(InputStream input, ContactConsumer consumer) throws MauticException {
+        return parseListContacts(input, consumer, null);
+    }
+
+    /**
+     * <p>Same as {@link #parseListContacts(InputStream, ContactConsumer)}, but reads only the
+     * properties and fields selected by the given projection. Everything else is skipped at
+     * the token level, so no objects are created for it.
+     *
+     * @param input      the InputStream to read the endpoint response
+     * @param consumer   receives each contact, in the order they appear in the response
+     * @param projection the properties and fields to read, or null to read all of them
+     * @return the <code>total</code> value of the response, or -1 if it was not present
+     * @throws MauticException if an error occurs reading the input, or if thrown by the consumer
+     */
+    public int parseListContacts(InputStream input, ContactConsumer consumer, Projection projection)
+            throws MauticException {
+        final MeteredInputStream metered = beginParse(input);
+        if( metered==null ) {
+            return readListContacts(input, consumer, projection);
+        }
+        final ContactConsumer target = consumer;
+        final int[] count = new int[1];
+        try {
+            int total = readListContacts(input, new ContactConsumer() {
+                public void accept(Contact contact) throws MauticException {
+                    count[0]++;
+                    target.accept(contact);
+                }
+            }, projection);
+            endParse(metered, count[0], null);
+            return total;
+        }
+        catch(MauticException e) {
+            endParse(metered, count[0], e);
+            throw e;
+        }
+        catch(RuntimeException e) {
+            endParse(metered, count[0], e);
+            throw e;
+        }
+    }
+
+    private int readListContacts(InputStream input, ContactConsumer consumer, Projection projection)
+            throws MauticException {
+        int total = -1;
+        JsonParser jp = null;
+        try {
+            jp = mapper.getFactory().createParser(input);
+            if( jp.nextToken()!=JsonToken.START_OBJECT ) {
+                throw new MauticException("Expecting a JSON object, but found " + jp.getCurrentToken());
+            }
+            while( jp.nextToken()==JsonToken.FIELD_NAME ) {
+                String name = jp.getCurrentName();
+                jp.nextToken();
+                if( "leads".equals(name) || "contacts".equals(name) ) {
+                    contactReader.readContacts(jp, consumer, projection);
+                }
+                else if( "total".equals(name) ) {
+                    total = jp.getValueAsInt();
+                }
+                else {
+                    jp.skipChildren();
+                }
+            }
+            return total;
+        }
+        catch(IOException e) {
+            throw new MauticException("Could not read json: "+e.getMessage(), e);
+        }
+        finally {
+            closeParser(jp);
+            HttpResponse.drainAndClose(input);
+        }
+    }
+
+    /**
+     * <p>Parses the JSON returned by the batch contact endpoints, such as
+     * <code>POST /contacts/batch/new</code>, and builds one
+     * {@link com.leonardofischer.jmautic.model.BatchContactResult} for each contact sent in the
+     * request, in the same order.
+     *
+     * <p>Mautic returns the contacts and status codes as arrays when all the contacts succeed, or
+     * as objects keyed by the position of each contact in the request when some of them fail, so
+     * both formats are accepted. Contacts with an entry in "errors", or without any result, have
+     * an <code>errorMessage</code>.
+     *
+     * @param input the InputStream to read the endpoint response
+     * @param size  the number of contacts sent in the request
+     * @return a list with <code>size</code> results
+     * @throws MauticException if an error occurs reading the input
+     */
+    public List<BatchContactResult> parseBatchContacts(InputStream input, int size) throws MauticException {
+        MeteredInputStream metered = beginParse(input);
+        try {
+            List<BatchContactResult> results = readBatchContacts(input, size);
+            int created = 0;
+            for( int i=0; i<results.size(); i++ ) {
+                if( results.get(i).contact!=null ) {
+                    created++;
+                }
+            }
+            endParse(metered, created, null);
+            return results;
+        }
+        catch(MauticException e) {
+            endParse(metered, -1, e);
+            throw e;
+        }
+        catch(RuntimeException e) {
+            endParse(metered, -1, e);
+            throw e;
+        }
+    }
+
+    private List<BatchContactResult> readBatchContacts(InputStream input, int size) throws MauticException {
+        List<BatchContactResult> results = new ArrayList<BatchContactResult>(size);
+        for( int i=0; i<size; i++ ) {
+            results.add(new BatchContactResult());
+        }
+
+        JsonParser jp = null;
+        try {
+            jp = mapper.getFactory().createParser(input);
+            if( jp.nextToken()!=JsonToken.START_OBJECT ) {
+                throw new MauticException("Expecting a JSON object, but found " + jp.getCurrentToken());
+            }
+            while( jp.nextToken()==JsonToken.FIELD_NAME ) {
+                String name = jp.getCurrentName();
+                JsonToken token = jp.nextToken();
+                if( "contacts".equals(name) || "leads".equals(name) ) {
+                    int index = 0;
+                    while( (token = nextBatchEntry(jp, token))!=null ) {
+                        BatchContactResult result = getBatchResult(results, jp, token, index++);
+                        if( result!=null && jp.getCurrentToken()==JsonToken.START_OBJECT ) {
+                            result.contact = contactReader.readContact(jp, null);
+                        }
+                        else {
+                            jp.skipChildren();
+                        }
+                    }
+                }
+                else if( "statusCodes".equals(name) ) {
+                    int index = 0;
+                    while( (token = nextBatchEntry(jp, token))!=null ) {
+                        BatchContactResult result = getBatchResult(results, jp, token, index++);
+                        if( result!=null ) {
+                            result.statusCode = jp.getValueAsInt();
+                        }
+                        jp.skipChildren();
+                    }
+                }
+                else if( "errors".equals(name) ) {
+                    int index = 0;
+                    while( (token = nextBatchEntry(jp, token))!=null ) {
+                        BatchContactResult result = getBatchResult(results, jp, token, index++);
+                        if( result!=null ) {
+                            readBatchError(jp, result);
+                        }
+                        else {
+                            jp.skipChildren();
+                        }
+                    }
+                }
+                else {
+                    jp.skipChildren();
+                }
+            }
+        }
+        catch(IOException e) {
+            throw new MauticException("Could not read json: "+e.getMessage(), e);
+        }
+        finally {
+            closeParser(jp);
+            HttpResponse.drainAndClose(input);
+        }
+
+        for( int i=0; i<size; i++ ) {
+            BatchContactResult result = results.get(i);
+            if( result.contact==null && result.errorMessage==null ) {
+                result.errorMessage = "Mautic returned no result for this contact";
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Moves to the next value of a batch entry, that can be an array or an object keyed by
+     * position. Returns null at the end of the entry.
+     */
+    private JsonToken nextBatchEntry(JsonParser jp, JsonToken container) throws IOException {
+        if( container==JsonToken.START_ARRAY ) {
+            JsonToken token = jp.nextToken();
+            return token==JsonToken.END_ARRAY ? null : JsonToken.START_ARRAY;
+        }
+        if( container==JsonToken.START_OBJECT ) {
+            if( jp.nextToken()!=JsonToken.FIELD_NAME ) {
+                return null;
+            }
+            jp.nextToken();
+            return JsonToken.START_OBJECT;
+        }
+        jp.skipChildren();
+        return null;
+    }
+
+    /**
+     * Returns the result for the current batch entry: the entry key for objects, or the given
+     * position for arrays. Returns null for keys that do not match a position in the request.
+     */
+    private BatchContactResult getBatchResult(List<BatchContactResult> results, JsonParser jp,
+            JsonToken container, int position) throws IOException {
+        int index = position;
+        if( container==JsonToken.START_OBJECT ) {
+            try {
+                index = Integer.parseInt(jp.getCurrentName());
+            }
+            catch(NumberFormatException e) {
+                return null;
+            }
+        }
+        if( index<0 || index>=results.size() ) {
+            return null;
+        }
+        return results.get(index);
+    }
+
+    private void readBatchError(JsonParser jp, BatchContactResult result) throws IOException {
+        if( jp.getCurrentToken()!=JsonToken.START_OBJECT ) {
+            result.errorMessage = jp.getCurrentToken().isScalarValue() ? jp.getValueAsString() : "Unknown error";
+            jp.skipChildren();
+            return;
+        }
+        result.errorMessage = "Unknown error";
+        while( jp.nextToken()==JsonToken.FIELD_NAME ) {
+            String name = jp.getCurrentName();
+            jp.nextToken();
+            if( "message".equals(name) && jp.getCurrentToken().isScalarValue() ) {
+                result.errorMessage = jp.getValueAsString();
+            }
+            else if( "code".equals(name) ) {
+                result.statusCode = jp.getValueAsInt();
+            }
+            jp.skipChildren();
+        }
+    }
+
+    /**
+     * Starts measuring the parse time, if the stream comes from a request with metrics.
+     */
+    private MeteredInputStream beginParse(InputStream input) {
+        if( input instanceof MeteredInputStream ) {
+            MeteredInputStream metered = (MeteredInputStream)input;
+            metered.beginParse();
+            return metered;
+        }
+        return null;
+    }
+
+    private void endParse(MeteredInputStream metered, int contactCount, Exception error) {
+        if( metered!=null ) {
+            String errorMessage = null;
+            if( error!=null ) {
+                errorMessage = error.getMessage()!=null ? error.getMessage() : error.toString();
+            }
+            metered.endParse(contactCount, errorMessage);
+        }
+    }
+
+    private void closeParser(JsonParser jp) {
+        if( jp!=null ) {
+            try {
+                jp.close();
+            }
+            catch(IOException e) {
+                // nothing to do: the response was already read or failed
+            }
+        }
+    }
+
     /**
      * Mautic current documentation uses "Contacts" instead of "Leads", but they keept the "leads"
      * field to avoid breaking changes. To make jMautic more uniform and allow it to use the
@@ -206,6 +556,23 @@ public class Parser {
      *         to a GetContactResult instance.
      */
     public GetContactResult parseGetContact(InputStream input) throws MauticException {
+        MeteredInputStream metered = beginParse(input);
+        try {
+            GetContactResult result = readGetContact(input);
+            endParse(metered, result.contact!=null ? 1 : 0, null);
+            return result;
+        }
+        catch(MauticException e) {
+            endParse(metered, -1, e);
+            throw e;
+        }
+        catch(RuntimeException e) {
+            endParse(metered, -1, e);
+            throw e;
+        }
+    }
+
+    private GetContactResult readGetContact(InputStream input) throws MauticException {
         ObjectNode jsonTree;
 
         try {
@@ -222,6 +589,9 @@ public class Parser {
         catch(IOException e) {
             throw new MauticException("Could not read json: "+e.getMessage(), e);
         }
+        finally {
+            HttpResponse.drainAndClose(input);
+        }
 
         try {
             return mapper.treeToValue(jsonTree, GetContactResult.class);
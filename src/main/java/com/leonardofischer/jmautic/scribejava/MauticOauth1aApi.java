@@ -3,7 +3,12 @@ package com.leonardofischer.jmautic.scribejava;
 import com.github.scribejava.core.builder.api.DefaultApi10a;
 import com.github.scribejava.core.model.OAuth1RequestToken;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public class MauticOauth1aApi extends DefaultApi10a {
+    private static final Logger logger = LoggerFactory.getLogger(MauticOauth1aApi.class);
+
     private String apiEndpoint;
 
     public MauticOauth1aApi(String apiEndpoint) {
@@ -18,19 +23,19 @@ public class MauticOauth1aApi extends DefaultApi10a {
 
     @Override
     public String getRequestTokenEndpoint() {
-        System.out.println(">>>> getRequestTokenEndpoint");
+        logger.debug("getRequestTokenEndpoint");
         return apiEndpoint + "/oauth/v1/request_token";
     }
 
     @Override
     public String getAuthorizationUrl(OAuth1RequestToken requestToken) {
-        System.out.println(">>>> getAuthorizationUrl");
+        logger.debug("getAuthorizationUrl");
         return apiEndpoint + String.format("/oauth/v1/authorize?oauth_token=%s", requestToken.getToken());
     }
 
     @Override
     public String getAccessTokenEndpoint(){
-        System.out.println(">>>> getAccessTokenEndpoint");
+        logger.debug("getAccessTokenEndpoint");
         return apiEndpoint + "/oauth/v1/access_token";
     }
 }
@@ -0,0 +1,108 @@
+package com.leonardofischer.jmautic;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.leonardofischer.jmautic.oauth.Request;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkContactFetcherTests {
+
+    /**
+     * Answers like FakeContactsOauthService, but takes some time and records how many requests
+     * were running at the same time.
+     */
+    static class SlowContactsService extends FakeContactsOauthService {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        SlowContactsService(int total) {
+            super(total);
+        }
+
+        @Override
+        public InputStream executeRequest(Request request) throws MauticException {
+            int now = running.incrementAndGet();
+            try {
+                int max;
+                while( now>(max = maxRunning.get()) && !maxRunning.compareAndSet(max, now) ) {
+                    // retry
+                }
+                Thread.sleep(5);
+                return super.executeRequest(request);
+            }
+            catch(InterruptedException e) {
+                throw new MauticException("Interrupted", e);
+            }
+            finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    static List<Integer> ids(int from, int to) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for( int id=from; id<=to; id++ ) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testFetchesAllContacts() throws Exception {
+        MauticApi api = new MauticApi(new FakeContactsOauthService(500));
+        BulkFetchResult result = api.getContacts(ids(1, 500));
+        assertTrue(result.isComplete());
+        assertEquals(500, result.contacts.size());
+        assertEquals("user123@example.com", result.contacts.get(123).contact.allFields.get("email"));
+    }
+
+    @Test
+    public void testReportsFailuresPerId() throws Exception {
+        FakeContactsOauthService service = new FakeContactsOauthService(10);
+        MauticApi api = new MauticApi(service);
+        BulkFetchResult result = api.getContacts(Arrays.asList(3, 11, 4, 12, 3));
+
+        assertFalse(result.isComplete());
+        assertEquals(2, result.contacts.size());
+        assertEquals(3, result.contacts.get(3).contact.id);
+        assertEquals(2, result.failures.size());
+        assertEquals("Invalid request GET /api/contacts/11", result.failures.get(11).getMessage());
+        // the repeated id is read once
+        assertEquals(4, service.getRequestCount());
+    }
+
+    @Test
+    public void testLimitsConcurrency() throws Exception {
+        SlowContactsService service = new SlowContactsService(200);
+        MauticApi api = new MauticApi(service);
+        BulkFetchResult result = new BulkContactFetcher(api).concurrency(8).fetch(ids(1, 200));
+
+        assertEquals(200, result.contacts.size());
+        assertTrue("max running " + service.maxRunning.get(), service.maxRunning.get()<=8);
+        assertTrue("max running " + service.maxRunning.get(), service.maxRunning.get()>1);
+    }
+
+    @Test
+    public void testUsesGivenExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            MauticApi api = new MauticApi(new FakeContactsOauthService(50));
+            BulkContactFetcher fetcher = new BulkContactFetcher(api).executor(executor).concurrency(16);
+            assertEquals(50, fetcher.fetch(ids(1, 50)).contacts.size());
+            // the executor is not shut down, so it can be used again
+            assertEquals(20, fetcher.fetch(ids(1, 20)).contacts.size());
+            assertFalse(executor.isShutdown());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.leonardofischer.jmautic;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.oauth.Request;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class ContactBatchLoaderTests {
+
+    @Test
+    public void testLookupsAreMergedInOneRequest() throws Exception {
+        FakeContactsOauthService service = new FakeContactsOauthService(100);
+        ContactBatchLoader loader = new ContactBatchLoader(new MauticApi(service))
+            .window(200, TimeUnit.MILLISECONDS);
+        try {
+            List<CompletableFuture<GetContactResult>> futures = new ArrayList<CompletableFuture<GetContactResult>>();
+            for( int id=1; id<=10; id++ ) {
+                futures.add(loader.getContactAsync(id*3));
+            }
+            for( int i=0; i<10; i++ ) {
+                assertEquals((i+1)*3, futures.get(i).get().contact.id);
+            }
+            assertEquals(1, service.getRequestCount());
+        }
+        finally {
+            loader.close();
+        }
+    }
+
+    @Test
+    public void testFullBatchIsSentImmediately() throws Exception {
+        FakeContactsOauthService service = new FakeContactsOauthService(100);
+        ContactBatchLoader loader = new ContactBatchLoader(new MauticApi(service))
+            .maxBatchSize(5)
+            .window(1, TimeUnit.HOURS);
+        try {
+            List<CompletableFuture<GetContactResult>> futures = new ArrayList<CompletableFuture<GetContactResult>>();
+            for( int id=1; id<=10; id++ ) {
+                futures.add(loader.getContactAsync(id));
+                if( id==2 ) {
+                    // a repeated id shares the pending lookup
+                    assertSame(futures.get(1), loader.getContactAsync(2));
+                }
+            }
+            for( int i=0; i<10; i++ ) {
+                assertEquals(i+1, futures.get(i).get(5, TimeUnit.SECONDS).contact.id);
+            }
+            assertEquals(2, service.getRequestCount());
+        }
+        finally {
+            loader.close();
+        }
+    }
+
+    @Test
+    public void testMissingIdsAreNotFound() throws Exception {
+        ContactBatchLoader loader = new ContactBatchLoader(new MauticApi(new FakeContactsOauthService(10)));
+        try {
+            CompletableFuture<GetContactResult> missing = loader.getContactAsync(50);
+            assertEquals(7, loader.getContact(7).contact.id);
+            try {
+                missing.get();
+                fail("Expecting an ExecutionException");
+            }
+            catch(ExecutionException e) {
+                assertEquals(404, ((MauticStatusException)e.getCause()).getStatusCode());
+            }
+        }
+        finally {
+            loader.close();
+        }
+    }
+
+    @Test
+    public void testRequestFailuresReachAllCallers() throws Exception {
+        FakeContactsOauthService failing = new FakeContactsOauthService(10) {
+            @Override
+            public InputStream executeRequest(Request request) throws MauticException {
+                throw new MauticException("Invalid status code 500");
+            }
+        };
+        ContactBatchLoader loader = new ContactBatchLoader(new MauticApi(failing));
+        try {
+            CompletableFuture<GetContactResult> first = loader.getContactAsync(1);
+            try {
+                loader.getContact(2);
+                fail("Expecting a MauticException");
+            }
+            catch(MauticException e) {
+                assertEquals("Invalid status code 500", e.getMessage());
+            }
+            assertTrue(first.isCompletedExceptionally());
+        }
+        finally {
+            loader.close();
+        }
+        assertTrue(loader.getContactAsync(3).isCompletedExceptionally());
+    }
+
+    @Test
+    public void testIdsFilter() {
+        assertEquals("ids:4,8,15", ContactBatchLoader.buildIdsFilter(Arrays.asList(4, 8, 15)));
+    }
+}
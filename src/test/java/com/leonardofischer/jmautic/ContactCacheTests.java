@@ -0,0 +1,88 @@
+package com.leonardofischer.jmautic;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import com.leonardofischer.jmautic.model.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class ContactCacheTests {
+
+    FakeContactsOauthService oauthService;
+    ContactCache cache;
+    MauticApi mauticApi;
+
+    @Before
+    public void setup() {
+        oauthService = new FakeContactsOauthService(10);
+        cache = new ContactCache().maximumSize(3);
+        mauticApi = new MauticApi(oauthService).contactCache(cache);
+    }
+
+    @Test
+    public void testReadThrough() throws Exception {
+        GetContactResult first = mauticApi.getContact(1);
+        GetContactResult second = mauticApi.getContact(1);
+        assertSame(first, second);
+        assertEquals(1, oauthService.getRequestCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        mauticApi.getContact(1);
+        mauticApi.getContact(2);
+        mauticApi.getContact(3);
+        mauticApi.getContact(1);
+        mauticApi.getContact(4);  // evicts 2, the least recently used
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        mauticApi.getContact(1);
+        mauticApi.getContact(3);
+        assertEquals(4, oauthService.getRequestCount());
+        mauticApi.getContact(2);
+        assertEquals(5, oauthService.getRequestCount());
+    }
+
+    @Test
+    public void testExpireAfterWrite() throws Exception {
+        cache.expireAfterWrite(20, TimeUnit.MILLISECONDS);
+        mauticApi.getContact(1);
+        Thread.sleep(40);
+        mauticApi.getContact(1);
+        assertEquals(2, oauthService.getRequestCount());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testCreatedContactsAreInvalidated() throws Exception {
+        // the fake service gives id 11 to the next created contact
+        oauthService.total = 11;
+        mauticApi.getContact(11);
+        oauthService.total = 10;
+
+        List<Map<String,String>> contacts = new ArrayList<Map<String,String>>();
+        Map<String,String> fields = new HashMap<String,String>();
+        fields.put("email", "new@example.com");
+        contacts.add(fields);
+        mauticApi.createContacts(contacts);
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLoadStartedBeforeInvalidationIsNotStored() throws Exception {
+        long token = cache.beginLoad();
+        cache.invalidate(5);
+        cache.put(1, new GetContactResult(), token);
+        assertEquals(0, cache.size());
+    }
+}
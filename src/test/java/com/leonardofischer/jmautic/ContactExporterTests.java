@@ -0,0 +1,138 @@
+package com.leonardofischer.jmautic;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.oauth.Request;
+import com.leonardofischer.jmautic.parser.ContactConsumer;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class ContactExporterTests {
+
+    static class CollectingSink implements ContactConsumer {
+        List<Integer> ids = new ArrayList<Integer>();
+
+        public void accept(Contact contact) {
+            ids.add(contact.id);
+        }
+    }
+
+    @Test
+    public void testOrderedExport() throws Exception {
+        FakeContactsOauthService fakeService = new FakeContactsOauthService(95);
+        final List<String> progress = new ArrayList<String>();
+        ContactExporter exporter = new ContactExporter(new MauticApi(fakeService))
+            .pageSize(10)
+            .parallelism(4)
+            .progressListener(new ExportProgressListener() {
+                public void onProgress(int exportedContacts, int totalContacts, int exportedPages, int totalPages) {
+                    progress.add(exportedContacts + "/" + totalContacts + " " + exportedPages + "/" + totalPages);
+                }
+            });
+
+        CollectingSink sink = new CollectingSink();
+        assertEquals(95, exporter.export(null, sink));
+
+        assertEquals(95, sink.ids.size());
+        for( int i=0; i<95; i++ ) {
+            assertEquals(i+1, sink.ids.get(i).intValue());
+        }
+        assertEquals(10, fakeService.getRequestCount());
+        assertEquals(10, progress.size());
+        assertEquals("10/95 1/10", progress.get(0));
+        assertEquals("95/95 10/10", progress.get(9));
+    }
+
+    @Test
+    public void testUnorderedExportFromStart() throws Exception {
+        Search search = new Search();
+        search.start = 20;
+        CollectingSink sink = new CollectingSink();
+        ContactExporter exporter = new ContactExporter(new MauticApi(new FakeContactsOauthService(100)))
+            .pageSize(7)
+            .parallelism(3)
+            .ordered(false);
+        assertEquals(80, exporter.export(search, sink));
+
+        Collections.sort(sink.ids);
+        for( int i=0; i<80; i++ ) {
+            assertEquals(i+21, sink.ids.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testSinglePageExport() throws Exception {
+        FakeContactsOauthService fakeService = new FakeContactsOauthService(5);
+        CollectingSink sink = new CollectingSink();
+        assertEquals(5, new MauticApi(fakeService).exportContacts(null, sink, 4));
+        assertEquals(1, fakeService.getRequestCount());
+    }
+
+    @Test
+    public void testExportWithoutTotal() throws Exception {
+        FakeContactsOauthService fakeService = new FakeContactsOauthService(95) {
+            @Override
+            String listContacts(Map<String,String> parameters) {
+                // some Mautic versions and searches do not return the total
+                return super.listContacts(parameters).replace("{\"total\":95,", "{");
+            }
+        };
+        final List<String> progress = new ArrayList<String>();
+        ContactExporter exporter = new ContactExporter(new MauticApi(fakeService))
+            .pageSize(10)
+            .parallelism(4)
+            .progressListener(new ExportProgressListener() {
+                public void onProgress(int exportedContacts, int totalContacts, int exportedPages, int totalPages) {
+                    progress.add(exportedContacts + "/" + totalContacts + " " + exportedPages + "/" + totalPages);
+                }
+            });
+
+        CollectingSink sink = new CollectingSink();
+        assertEquals(95, exporter.export(null, sink));
+        for( int i=0; i<95; i++ ) {
+            assertEquals(i+1, sink.ids.get(i).intValue());
+        }
+        assertEquals(10, fakeService.getRequestCount());
+        assertEquals("95/-1 10/-1", progress.get(9));
+
+        // a full last page needs an empty page to end
+        fakeService = new FakeContactsOauthService(30) {
+            @Override
+            String listContacts(Map<String,String> parameters) {
+                return super.listContacts(parameters).replace("{\"total\":30,", "{");
+            }
+        };
+        assertEquals(30, new ContactExporter(new MauticApi(fakeService)).pageSize(10)
+            .export(null, new CollectingSink()));
+        assertEquals(4, fakeService.getRequestCount());
+    }
+
+    @Test
+    public void testExportPropagatesErrors() throws Exception {
+        FakeContactsOauthService failingService = new FakeContactsOauthService(100) {
+            @Override
+            public InputStream executeRequest(Request request) throws MauticException {
+                if( "50".equals(request.getParameters().get("start")) ) {
+                    throw new MauticException("Invalid status code 500");
+                }
+                return super.executeRequest(request);
+            }
+        };
+        ContactExporter exporter = new ContactExporter(new MauticApi(failingService))
+            .pageSize(10)
+            .parallelism(2);
+        try {
+            exporter.export(null, new CollectingSink());
+            fail("Expecting a MauticException");
+        }
+        catch(MauticException e) {
+            assertEquals("Invalid status code 500", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.leonardofischer.jmautic;
+
+/**
+ * Generates Mautic JSON responses with the same shape of the <code>listContacts.json</code> and
+ * <code>getContact.json</code> resources, but with any number of contacts and fields. Used by
+ * tests and benchmarks that need larger responses.
+ */
+public class ContactJsonGenerator {
+
+    static final String[] CORE_FIELDS = { "title", "firstname", "lastname", "company", "position",
+        "email", "phone", "mobile", "fax", "address1", "address2", "city", "state", "zipcode",
+        "country", "website" };
+
+    int fieldCount;
+
+    /**
+     * @param fieldCount the number of fields of each contact. The first ones are the Mautic core
+     *                   fields, and the remaining ones are custom fields in the "personal" group.
+     */
+    public ContactJsonGenerator(int fieldCount) {
+        this.fieldCount = fieldCount;
+    }
+
+    /**
+     * Returns a <code>GET /contacts</code> response with the contacts from
+     * <code>firstId</code> to <code>firstId+count-1</code>.
+     */
+    public String listContacts(int firstId, int count, int total) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"total\":").append(total).append(",\"leads\":[");
+        for( int i=0; i<count; i++ ) {
+            if( i>0 ) {
+                json.append(',');
+            }
+            appendContact(json, firstId+i);
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * Returns a <code>GET /contacts/ID</code> response.
+     */
+    public String getContact(int id) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"lead\":");
+        appendContact(json, id);
+        json.append('}');
+        return json.toString();
+    }
+
+    public String contact(int id) {
+        StringBuilder json = new StringBuilder();
+        appendContact(json, id);
+        return json.toString();
+    }
+
+    String fieldAlias(int index) {
+        return index<CORE_FIELDS.length ? CORE_FIELDS[index] : "custom" + (index-CORE_FIELDS.length+1);
+    }
+
+    String fieldValue(int id, int index) {
+        String alias = fieldAlias(index);
+        if( alias.equals("email") ) {
+            return "user" + id + "@example.com";
+        }
+        return index%3==0 ? null : alias + " of " + id;
+    }
+
+    void appendContact(StringBuilder json, int id) {
+        json.append("{\"id\":").append(id)
+            .append(",\"isPublished\":true")
+            .append(",\"dateAdded\":\"2016-05-24T19:23:25+00:00\"")
+            .append(",\"createdBy\":1,\"createdByUser\":\"admin@server.com\"")
+            .append(",\"dateModified\":\"2016-05-24T19:23:33+00:00\"")
+            .append(",\"modifiedBy\":1,\"modifiedByUser\":\"admin@server.com\"")
+            .append(",\"owner\":null,\"points\":").append(id%100)
+            .append(",\"lastActive\":\"2016-05-31T18:37:36+00:00\"")
+            .append(",\"dateIdentified\":\"2016-05-24T19:23:26+00:00\"")
+            .append(",\"color\":\"blue\",\"preferredProfileImage\":\"gravatar\"");
+
+        json.append(",\"fields\":{\"all\":{");
+        for( int i=0; i<fieldCount; i++ ) {
+            if( i>0 ) {
+                json.append(',');
+            }
+            json.append('"').append(fieldAlias(i)).append("\":");
+            appendString(json, fieldValue(id, i));
+        }
+        json.append("},\"core\":{");
+        appendGroup(json, id, "core", 0, Math.min(fieldCount, CORE_FIELDS.length));
+        json.append("},\"social\":[],\"personal\":");
+        if( fieldCount>CORE_FIELDS.length ) {
+            json.append('{');
+            appendGroup(json, id, "personal", CORE_FIELDS.length, fieldCount);
+            json.append('}');
+        }
+        else {
+            json.append("[]");
+        }
+        json.append(",\"professional\":[]}");
+
+        json.append(",\"ipAddresses\":{\"192.168.").append(id/256%256).append('.').append(id%256)
+            .append("\":{\"ipDetails\":{\"city\":\"Sao Paulo\",\"country\":\"Brazil\",\"extra\":\"\"," +
+                "\"isp\":\"\",\"latitude\":-30.0333,\"longitude\":-51.2,\"organization\":\"\"," +
+                "\"region\":\"Sao Paulo\",\"timezone\":\"America/Sao_Paulo\",\"zipcode\":null}}}")
+            .append(",\"tags\":[]}");
+    }
+
+    void appendGroup(StringBuilder json, int id, String group, int from, int to) {
+        for( int i=from; i<to; i++ ) {
+            if( i>from ) {
+                json.append(',');
+            }
+            String alias = fieldAlias(i);
+            json.append('"').append(alias).append("\":{\"id\":\"").append(i+1)
+                .append("\",\"label\":\"").append(alias.toUpperCase())
+                .append("\",\"alias\":\"").append(alias)
+                .append("\",\"type\":\"text\",\"group\":\"").append(group)
+                .append("\",\"field_order\":\"").append(i)
+                .append("\",\"value\":");
+            appendString(json, fieldValue(id, i));
+            json.append('}');
+        }
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        if( value==null ) {
+            json.append("null");
+        }
+        else {
+            json.append('"').append(value).append('"');
+        }
+    }
+}
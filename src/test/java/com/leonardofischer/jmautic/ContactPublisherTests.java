@@ -0,0 +1,186 @@
+package com.leonardofischer.jmautic;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.oauth.OAuthService;
+import com.leonardofischer.jmautic.oauth.Request;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class ContactPublisherTests {
+
+    /**
+     * Runs the tasks in the calling thread, so the tests do not depend on timing.
+     */
+    static final Executor CALLING_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Keeps everything it receives. Requests <code>initialRequest</code> contacts when
+     * subscribed, and stays idle after that until the test requests more.
+     */
+    static class RecordingSubscriber implements Subscriber<Contact> {
+        long initialRequest;
+        Subscription subscription;
+        List<Integer> ids = new ArrayList<Integer>();
+        Throwable error;
+        boolean completed;
+        CountDownLatch finished = new CountDownLatch(1);
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            if( initialRequest>0 ) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        public void onNext(Contact contact) {
+            ids.add(contact.id);
+        }
+
+        public void onError(Throwable error) {
+            this.error = error;
+            finished.countDown();
+        }
+
+        public void onComplete() {
+            completed = true;
+            finished.countDown();
+        }
+    }
+
+    static Search pages(int limit) {
+        Search search = new Search();
+        search.limit = limit;
+        return search;
+    }
+
+    @Test
+    public void testFetchesPagesOnDemand() throws Exception {
+        FakeContactsOauthService service = new FakeContactsOauthService(95);
+        ContactPublisher publisher = new MauticApi(service).publishContacts(pages(10))
+            .executor(CALLING_THREAD);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+        assertEquals(0, service.getRequestCount());
+
+        subscriber.subscription.request(3);
+        assertEquals(1, service.getRequestCount());
+        assertEquals("[1, 2, 3]", subscriber.ids.toString());
+
+        subscriber.subscription.request(7);
+        assertEquals(1, service.getRequestCount());
+        assertEquals(10, subscriber.ids.size());
+
+        subscriber.subscription.request(1);
+        assertEquals(2, service.getRequestCount());
+        assertEquals(11, (int)subscriber.ids.get(10));
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(95, subscriber.ids.size());
+        assertEquals(95, (int)subscriber.ids.get(94));
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+        // the total ends the paging, so the page after the last one is not requested
+        assertEquals(10, service.getRequestCount());
+    }
+
+    @Test
+    public void testCancelStopsPaging() throws Exception {
+        FakeContactsOauthService service = new FakeContactsOauthService(100);
+        ContactPublisher publisher = new MauticApi(service).publishContacts(pages(10))
+            .executor(CALLING_THREAD);
+        RecordingSubscriber subscriber = new RecordingSubscriber(15) {
+            @Override
+            public void onNext(Contact contact) {
+                super.onNext(contact);
+                if( contact.id==12 ) {
+                    subscription.cancel();
+                }
+            }
+        };
+        publisher.subscribe(subscriber);
+
+        assertEquals(12, subscriber.ids.size());
+        subscriber.subscription.request(100);
+        assertEquals(12, subscriber.ids.size());
+        assertEquals(2, service.getRequestCount());
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testSearchStartAndEmptyResults() throws Exception {
+        Search search = pages(20);
+        search.start = 35;
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        new MauticApi(new FakeContactsOauthService(40)).publishContacts(search)
+            .executor(CALLING_THREAD).subscribe(subscriber);
+        assertEquals("[36, 37, 38, 39, 40]", subscriber.ids.toString());
+        assertTrue(subscriber.completed);
+
+        subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        new MauticApi(new FakeContactsOauthService(0)).publishContacts(null)
+            .executor(CALLING_THREAD).subscribe(subscriber);
+        assertEquals(0, subscriber.ids.size());
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void testErrorsEndTheSequence() throws Exception {
+        MauticApi api = new MauticApi(new OAuthService() {
+            int calls = 0;
+            public InputStream executeRequest(Request request) throws MauticException {
+                if( calls++==1 ) {
+                    throw new MauticException("Mautic is down");
+                }
+                return FakeContactsOauthService.toStream(
+                    new FakeContactsOauthService(30).listContacts(request.getParameters()));
+            }
+        });
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        api.publishContacts(pages(10)).executor(CALLING_THREAD).subscribe(subscriber);
+
+        assertEquals(10, subscriber.ids.size());
+        assertFalse(subscriber.completed);
+        assertTrue(subscriber.error instanceof MauticException);
+        assertEquals("Mautic is down", subscriber.error.getMessage());
+    }
+
+    @Test
+    public void testNonPositiveRequestIsAnError() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        new MauticApi(new FakeContactsOauthService(30)).publishContacts(null)
+            .executor(CALLING_THREAD).subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(0, subscriber.ids.size());
+    }
+
+    @Test
+    public void testDefaultExecutor() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        new MauticApi(new FakeContactsOauthService(250)).publishContacts(pages(30)).subscribe(subscriber);
+        assertTrue(subscriber.finished.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.completed);
+        assertEquals(250, subscriber.ids.size());
+    }
+}
@@ -0,0 +1,227 @@
+package com.leonardofischer.jmautic;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.leonardofischer.jmautic.model.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+public class ContactSnapshotStoreTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static Contact contact(int id, String email) {
+        Contact contact = new Contact();
+        contact.id = id;
+        contact.dateAdded = new Date(1464117805000L);
+        contact.dateModified = new Date(1464117813000L + id);
+        contact.points = id*10;
+        contact.isPublished = true;
+        contact.color = "blue";
+        contact.allFields = new LinkedHashMap<String,String>();
+        contact.allFields.put("email", email);
+        contact.allFields.put("firstname", "User " + id);
+        contact.allFields.put("phone", null);
+
+        contact.fields = new ArrayList<ContactField>();
+        ContactField field = new ContactField();
+        field.alias = "email";
+        field.group = "core";
+        field.id = "6";
+        field.label = "Email";
+        field.type = "email";
+        field.value = email;
+        contact.fields.add(field);
+
+        IPAddress ipAddress = new IPAddress();
+        ipAddress.ipAddress = "192.168.1." + id;
+        contact.ipAddresses = new ArrayList<IPAddress>();
+        contact.ipAddresses.add(ipAddress);
+        return contact;
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        ContactSnapshotStore store = ContactSnapshotStore.open(folder.newFile("contacts.snapshot"));
+        try {
+            store.put(contact(1, "a@example.com"));
+            store.put(contact(2, "b@example.com"));
+
+            ContactSnapshot snapshot = store.get(2);
+            assertEquals(2, snapshot.getId());
+            assertEquals(20, snapshot.getPoints());
+            assertTrue(snapshot.isPublished());
+            assertEquals(new Date(1464117813002L), snapshot.getDateModified());
+            assertNull(snapshot.getLastActive());
+            assertEquals("b@example.com", snapshot.getFieldValue("email"));
+            assertEquals("User 2", snapshot.getFieldValue("firstname"));
+            assertTrue(snapshot.hasField("phone"));
+            assertNull(snapshot.getFieldValue("phone"));
+            assertFalse(snapshot.hasField("city"));
+            assertNull(store.get(3));
+            assertEquals(2, store.size());
+
+            Contact contact = snapshot.toContact();
+            assertEquals("blue", contact.color);
+            assertEquals(3, contact.allFields.size());
+            assertEquals("192.168.1.2", contact.ipAddresses.get(0).ipAddress);
+            assertEquals("email", contact.fields.get(0).alias);
+            assertEquals("core", contact.fields.get(0).group);
+            assertEquals("Email", contact.fields.get(0).label);
+            assertEquals("b@example.com", contact.fields.get(0).value);
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testGetFieldBytesReadsTheMappedFile() throws Exception {
+        ContactSnapshotStore store = ContactSnapshotStore.open(folder.newFile("contacts.snapshot"));
+        try {
+            store.put(contact(1, "caf\u00e9@example.com"));
+            ByteBuffer bytes = store.get(1).getFieldBytes("email");
+            assertTrue(bytes.isDirect());
+            assertTrue(bytes.isReadOnly());
+            byte[] value = new byte[bytes.remaining()];
+            bytes.get(value);
+            assertEquals("caf\u00e9@example.com", new String(value, "UTF-8"));
+            assertNull(store.get(1).getFieldBytes("phone"));
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReopenAndReplace() throws Exception {
+        File file = folder.newFile("contacts.snapshot");
+        ContactSnapshotStore store = ContactSnapshotStore.open(file);
+        for( int id=1; id<=3; id++ ) {
+            store.put(contact(id, "user" + id + "@example.com"));
+        }
+        store.put(contact(2, "changed@example.com"));
+        store.close();
+
+        store = ContactSnapshotStore.open(file);
+        try {
+            assertEquals(3, store.size());
+            assertEquals("changed@example.com", store.get(2).getFieldValue("email"));
+            assertEquals("Email", store.get(2).toContact().fields.get(0).label);
+
+            List<Integer> ids = new ArrayList<Integer>();
+            Iterator<ContactSnapshot> it = store.iterator();
+            while( it.hasNext() ) {
+                ids.add(it.next().getId());
+            }
+            // the last version of contact 2 was stored after contact 3
+            assertEquals("[1, 3, 2]", ids.toString());
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testFileGrows() throws Exception {
+        File file = folder.newFile("contacts.snapshot");
+        ContactSnapshotStore store = ContactSnapshotStore.open(file, 256);
+        for( int id=1; id<=500; id++ ) {
+            store.put(contact(id, "user" + id + "@example.com"));
+        }
+        assertTrue(store.getUsedBytes()>256);
+        // snapshots taken before the file grows are still readable
+        ContactSnapshot first = store.get(1);
+        store.put(contact(501, "user501@example.com"));
+        assertEquals("user1@example.com", first.getFieldValue("email"));
+        store.close();
+
+        store = ContactSnapshotStore.open(file);
+        try {
+            assertEquals(501, store.size());
+            assertEquals("user250@example.com", store.get(250).getFieldValue("email"));
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testIgnoresIncompleteContact() throws Exception {
+        File file = folder.newFile("contacts.snapshot");
+        ContactSnapshotStore store = ContactSnapshotStore.open(file);
+        store.put(contact(1, "a@example.com"));
+        int end = store.getUsedBytes();
+        store.close();
+
+        // bytes after the end, as left by a write that did not finish
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            raw.seek(end);
+            raw.write(new byte[]{ ContactSnapshotStore.CONTACT_RECORD, 0, 0, 1, 0, 0, 0, 0, 2 });
+        }
+        finally {
+            raw.close();
+        }
+
+        store = ContactSnapshotStore.open(file);
+        try {
+            assertEquals(1, store.size());
+            store.put(contact(2, "b@example.com"));
+            assertEquals("b@example.com", store.get(2).getFieldValue("email"));
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testRejectsOtherFiles() throws Exception {
+        File file = folder.newFile("other.bin");
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            raw.write("not a snapshot file".getBytes("UTF-8"));
+        }
+        finally {
+            raw.close();
+        }
+        try {
+            ContactSnapshotStore.open(file);
+            fail("Expected a MauticException");
+        }
+        catch(MauticException e) {
+            assertTrue(e.getMessage().contains("not a contact snapshot"));
+        }
+    }
+
+    @Test
+    public void testLoadFromMautic() throws Exception {
+        MauticApi api = new MauticApi(new FakeContactsOauthService(75));
+        ContactSnapshotStore store = ContactSnapshotStore.open(folder.newFile("contacts.snapshot"));
+        try {
+            Search search = new Search();
+            search.limit = 20;
+            assertEquals(75, store.load(api, search));
+            assertEquals(75, store.size());
+            assertEquals("user42@example.com", store.get(42).getFieldValue("email"));
+
+            search.start = 0;
+            api.listContacts(search, store.writer());
+            assertEquals(75, store.size());
+        }
+        finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.leonardofischer.jmautic;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.oauth.OAuthService;
+import com.leonardofischer.jmautic.oauth.Request;
+import com.leonardofischer.jmautic.parser.ContactConsumer;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+
+public class DeltaSyncTests {
+
+    /**
+     * Lists contacts ordered by dateModified or dateAdded, in descending order, with null
+     * dates last (as MySQL does).
+     */
+    static class ChangingContactsService implements OAuthService {
+        List<long[]> contacts = new ArrayList<long[]>();
+        int requestCount;
+
+        void put(int id, long added, long modified) {
+            for( int i=0; i<contacts.size(); i++ ) {
+                if( contacts.get(i)[0]==id ) {
+                    contacts.remove(i);
+                    break;
+                }
+            }
+            contacts.add(new long[]{ id, added, modified });
+        }
+
+        public InputStream executeRequest(Request request) throws MauticException {
+            requestCount++;
+            Map<String,String> parameters = request.getParameters();
+            final int column = "dateAdded".equals(parameters.get("orderBy")) ? 1 : 2;
+            List<long[]> sorted = new ArrayList<long[]>(contacts);
+            Collections.sort(sorted, new Comparator<long[]>() {
+                public int compare(long[] a, long[] b) {
+                    if( a[column]!=b[column] ) {
+                        return a[column]>b[column] ? -1 : 1;
+                    }
+                    return (int)(a[0]-b[0]);
+                }
+            });
+            int start = Integer.parseInt(parameters.get("start"));
+            int limit = Integer.parseInt(parameters.get("limit"));
+            StringBuilder json = new StringBuilder("{\"total\":" + contacts.size() + ",\"leads\":[");
+            for( int i=start; i<Math.min(sorted.size(), start+limit); i++ ) {
+                long[] contact = sorted.get(i);
+                json.append(i>start ? "," : "").append("{\"id\":").append(contact[0])
+                    .append(",\"dateAdded\":").append(date(contact[1]))
+                    .append(",\"dateModified\":").append(date(contact[2]))
+                    .append(",\"points\":").append(contact[0]).append(",\"color\":\"ab0000\"")
+                    .append(",\"fields\":{\"all\":{\"email\":\"user").append(contact[0])
+                    .append("@example.com\",\"city\":\"Porto\"}}}");
+            }
+            return FakeContactsOauthService.toStream(json.append("]}").toString());
+        }
+
+        static String date(long seconds) {
+            if( seconds==0 ) {
+                return "null";
+            }
+            return String.format("\"2016-05-24T19:%02d:%02d+00:00\"", seconds/60, seconds%60);
+        }
+    }
+
+    static class CollectingConsumer implements ContactConsumer {
+        List<Integer> ids = new ArrayList<Integer>();
+
+        public void accept(Contact contact) {
+            ids.add(contact.id);
+        }
+
+        List<Integer> sorted() {
+            Collections.sort(ids);
+            return ids;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    ChangingContactsService service;
+    File markFile;
+    DeltaSync sync;
+
+    @Before
+    public void setup() {
+        service = new ChangingContactsService();
+        markFile = new File(folder.getRoot(), "contacts.mark");
+        sync = new DeltaSync(new MauticApi(service), markFile).pageSize(3);
+    }
+
+    @Test
+    public void testFirstSyncReadsAllContacts() throws Exception {
+        for( int id=1; id<=10; id++ ) {
+            service.put(id, id, id%2==0 ? 100+id : 0);
+        }
+        CollectingConsumer consumer = new CollectingConsumer();
+        assertEquals(10, sync.sync(null, consumer));
+        assertEquals(10, consumer.sorted().size());
+
+        SyncMark mark = sync.loadMark();
+        assertEquals(new DateTime("2016-05-24T19:01:50+00:00").toDate(), mark.getTimestamp());
+        assertEquals(Collections.singleton(10), mark.getIds());
+    }
+
+    @Test
+    public void testNextSyncReadsOnlyChanges() throws Exception {
+        for( int id=1; id<=20; id++ ) {
+            service.put(id, id, 0);
+        }
+        sync.sync(null, new CollectingConsumer());
+
+        service.put(5, 5, 30);
+        service.put(21, 31, 0);
+        service.requestCount = 0;
+        CollectingConsumer consumer = new CollectingConsumer();
+        assertEquals(2, sync.sync(null, consumer));
+        assertEquals(Arrays.asList(5, 21), consumer.sorted());
+        assertTrue(service.requestCount<=4);
+
+        consumer = new CollectingConsumer();
+        assertEquals(0, sync.sync(null, consumer));
+    }
+
+    @Test
+    public void testContactsWithTheMarkTimestamp() throws Exception {
+        service.put(1, 1, 50);
+        service.put(2, 1, 50);
+        sync.sync(null, new CollectingConsumer());
+        assertEquals(2, sync.loadMark().getIds().size());
+
+        // a contact modified in the same second, after the last sync
+        service.put(3, 1, 50);
+        CollectingConsumer consumer = new CollectingConsumer();
+        sync.sync(null, consumer);
+        assertEquals(Collections.singletonList(3), consumer.ids);
+        assertEquals(3, sync.loadMark().getIds().size());
+    }
+
+    @Test
+    public void testFieldsProjectionKeepsAllProperties() throws Exception {
+        service.put(1, 1, 0);
+        service.put(2, 2, 0);
+        Search search = new Search();
+        search.projection = new Projection().fields("email");
+        final List<Contact> contacts = new ArrayList<Contact>();
+        sync.sync(search, new ContactConsumer() {
+            public void accept(Contact contact) {
+                contacts.add(contact);
+            }
+        });
+
+        assertEquals(2, contacts.size());
+        Contact contact = contacts.get(0);
+        assertEquals(contact.id, contact.points);
+        assertEquals("ab0000", contact.color);
+        assertNotNull(contact.dateAdded);
+        assertEquals("user" + contact.id + "@example.com", contact.allFields.get("email"));
+        assertNull(contact.allFields.get("city"));
+
+        // a projection with properties still gets the ones the sync needs
+        service.put(3, 3, 0);
+        search.projection = new Projection().properties("points");
+        contacts.clear();
+        sync.sync(search, new ContactConsumer() {
+            public void accept(Contact contact) {
+                contacts.add(contact);
+            }
+        });
+        assertEquals(1, contacts.size());
+        assertEquals(3, contacts.get(0).points);
+        assertNotNull(contacts.get(0).dateAdded);
+        assertNull(contacts.get(0).color);
+    }
+
+    @Test
+    public void testMarkIsKeptWhenTheConsumerFails() throws Exception {
+        service.put(1, 1, 0);
+        sync.sync(null, new CollectingConsumer());
+        SyncMark mark = sync.loadMark();
+
+        service.put(2, 2, 0);
+        try {
+            sync.sync(null, new ContactConsumer() {
+                public void accept(Contact contact) throws MauticException {
+                    throw new MauticException("Could not save contact");
+                }
+            });
+            fail("Expecting a MauticException");
+        }
+        catch(MauticException e) {
+            assertEquals("Could not save contact", e.getMessage());
+        }
+        assertEquals(mark.getTimestamp(), sync.loadMark().getTimestamp());
+        assertEquals(1, folder.getRoot().list().length);
+    }
+}
@@ -0,0 +1,136 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.MauticException;
+import com.leonardofischer.jmautic.oauth.OAuthService;
+import com.leonardofischer.jmautic.oauth.Request;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An OAuthService that answers <code>GET /api/contacts</code> and <code>GET /api/contacts/ID</code>
+ * with generated contacts, with ids from 1 to <code>total</code>. Honors the <code>start</code>
+ * and <code>limit</code> parameters, so it can be used to test paging, and the
+ * <code>ids:</code> search filter. It also answers
+ * <code>POST /api/contacts/batch/new</code>, failing the contacts without an email.
+ */
+public class FakeContactsOauthService implements OAuthService {
+
+    int total;
+    AtomicInteger requestCount = new AtomicInteger();
+
+    public FakeContactsOauthService(int total) {
+        this.total = total;
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    public InputStream executeRequest(Request request) throws MauticException {
+        requestCount.incrementAndGet();
+        String endpoint = request.getEndpoint();
+        try {
+            if( endpoint.equals("/api/contacts/batch/new") ) {
+                return toStream(createContacts(request.getBody()));
+            }
+            if( endpoint.equals("/api/contacts") ) {
+                return toStream(listContacts(request.getParameters()));
+            }
+            if( endpoint.startsWith("/api/contacts/") ) {
+                int id = Integer.parseInt(endpoint.substring("/api/contacts/".length()));
+                if( id<1 || id>total ) {
+                    throw new MauticException("Invalid request GET " + endpoint);
+                }
+                return toStream("{\"lead\":" + contact(id) + "}");
+            }
+        }
+        catch(NumberFormatException e) {
+            // falls to the invalid request below
+        }
+        throw new MauticException("Invalid request GET " + endpoint);
+    }
+
+    String listContacts(Map<String,String> parameters) {
+        int start = parameters.containsKey("start") ? Integer.parseInt(parameters.get("start")) : 0;
+        int limit = parameters.containsKey("limit") ? Integer.parseInt(parameters.get("limit")) : 30;
+        String search = parameters.get("search");
+        if( search!=null && search.startsWith("ids:") ) {
+            return listContactsByIds(search.substring("ids:".length()).split(","));
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{\"total\":").append(total).append(",\"leads\":[");
+        for( int id=start+1; id<=Math.min(total, start+limit); id++ ) {
+            if( id>start+1 ) {
+                json.append(',');
+            }
+            json.append(contact(id));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    String listContactsByIds(String[] ids) {
+        StringBuilder contacts = new StringBuilder();
+        int found = 0;
+        for( int i=0; i<ids.length; i++ ) {
+            int id = Integer.parseInt(ids[i]);
+            if( id>=1 && id<=total ) {
+                contacts.append(found++>0 ? "," : "").append(contact(id));
+            }
+        }
+        return "{\"total\":" + found + ",\"leads\":[" + contacts + "]}";
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized String createContacts(byte[] body) throws MauticException {
+        List<Map<String,String>> contacts;
+        try {
+            contacts = new ObjectMapper().readValue(body, List.class);
+        }
+        catch(Exception e) {
+            throw new MauticException(e);
+        }
+        StringBuilder created = new StringBuilder();
+        StringBuilder statusCodes = new StringBuilder();
+        StringBuilder errors = new StringBuilder();
+        for( int i=0; i<contacts.size(); i++ ) {
+            String separator = statusCodes.length()==0 ? "" : ",";
+            if( contacts.get(i).get("email")==null ) {
+                statusCodes.append(separator).append("\"").append(i).append("\":400");
+                errors.append(errors.length()==0 ? "" : ",").append("\"").append(i)
+                    .append("\":{\"code\":400,\"message\":\"email: required\"}");
+            }
+            else {
+                total++;
+                statusCodes.append(separator).append("\"").append(i).append("\":201");
+                created.append(created.length()==0 ? "" : ",").append("\"").append(i).append("\":")
+                    .append(contact(total));
+            }
+        }
+        return "{\"contacts\":{" + created + "},\"statusCodes\":{" + statusCodes +
+            "},\"errors\":{" + errors + "}}";
+    }
+
+    static String contact(int id) {
+        return "{\"id\":" + id + ",\"dateModified\":\"2016-05-24T19:23:33+00:00\"," +
+            "\"fields\":{\"all\":{\"email\":\"user" + id + "@example.com\"}," +
+            "\"core\":{\"email\":{\"alias\":\"email\",\"group\":\"core\",\"id\":\"6\"," +
+            "\"label\":\"Email\",\"type\":\"email\",\"value\":\"user" + id + "@example.com\"}}}," +
+            "\"ipAddresses\":[]}";
+    }
+
+    static InputStream toStream(String json) throws MauticException {
+        try {
+            return new ByteArrayInputStream(json.getBytes("UTF-8"));
+        }
+        catch(Exception e) {
+            throw new MauticException(e);
+        }
+    }
+}
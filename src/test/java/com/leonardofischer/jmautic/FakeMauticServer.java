@@ -0,0 +1,555 @@
+package com.leonardofischer.jmautic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * <p>A stand-in for a Mautic instance, running in this JVM, so the whole client stack
+ * (MauticApi, OAuth2Service and the HTTP transports) can be tested and load-tested without a
+ * real Mautic. It answers:
+ * <ul>
+ * <li><code>POST /oauth/v2/token</code>, for the <code>authorization_code</code> and
+ * <code>refresh_token</code> grants;</li>
+ * <li><code>GET /api/contacts</code>, with the <code>start</code> and <code>limit</code>
+ * parameters;</li>
+ * <li><code>GET /api/contacts/{id}</code>;</li>
+ * <li><code>POST /api/contacts/new</code>, with a form or JSON body.</li>
+ * </ul>
+ *
+ * <p>The contacts are generated from the first contact in <code>listContacts.json</code>:
+ * contact <code>id</code> gets the email <code>user{id}@example.com</code>, the first name
+ * <code>User {id}</code>, and dates that grow with the id. Created contacts get the next ids.
+ *
+ * <p>API requests must carry an access token issued by the server, such as
+ * {@link #getAccessToken()}. Before they are answered, each API request waits the configured
+ * latency, and may fail with a 429 (with a <code>Retry-After</code> header) or a 500 status
+ * code, at the configured rates. The server answers up to <code>threads</code> requests at the
+ * same time.
+ *
+ * <pre>
+ *    FakeMauticServer server = new FakeMauticServer()
+ *        .contacts(10000)
+ *        .latency(20, 10)
+ *        .throttleRate(0.01)
+ *        .start();
+ *    MauticApi mauticApi = new OAuth2Service()
+ *        .instanceUrl(server.getUrl())
+ *        .accessToken(server.getAccessToken())
+ *        .build();</pre>
+ */
+public class FakeMauticServer implements Closeable {
+
+    static final long FIRST_DATE_ADDED = 1464117805000L;
+
+    static {
+        // The JDK server sends the headers and the body in separate writes, so without
+        // TCP_NODELAY the body waits for the delayed ACK of the headers, adding about 40ms to
+        // every response. It is read once, so it must be set before the first server starts.
+        if( System.getProperty("sun.net.httpserver.nodelay")==null ) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    int contacts = 1000;
+    int threads = 32;
+    long latencyMillis = 0;
+    long latencyJitterMillis = 0;
+    double errorRate = 0;
+    double throttleRate = 0;
+    int retryAfterSeconds = 1;
+    int tokenExpiresIn = 3600;
+    volatile boolean tokenEndpointDown = false;
+    boolean compression = false;
+    Random random = new Random();
+
+    ObjectMapper objectMapper = new ObjectMapper();
+    ObjectNode template;
+    HttpServer server;
+    ExecutorService executor;
+
+    AtomicInteger total = new AtomicInteger();
+    Map<Integer,ObjectNode> createdContacts = new ConcurrentHashMap<Integer,ObjectNode>();
+    // access token to the time it expires, and the refresh tokens not used yet
+    Map<String,Long> accessTokens = new ConcurrentHashMap<String,Long>();
+    Map<String,Boolean> refreshTokens = new ConcurrentHashMap<String,Boolean>();
+    AtomicInteger tokenCount = new AtomicInteger();
+    String accessToken;
+    String refreshToken;
+
+    AtomicInteger requestCount = new AtomicInteger();
+    AtomicInteger tokenRequestCount = new AtomicInteger();
+    Map<String,AtomicInteger> requestsByAccessToken = new ConcurrentHashMap<String,AtomicInteger>();
+    AtomicInteger throttledCount = new AtomicInteger();
+    AtomicInteger errorCount = new AtomicInteger();
+
+    /**
+     * @param  contacts the number of contacts the server starts with (defaults to 1000)
+     * @return          this FakeMauticServer instance
+     */
+    public FakeMauticServer contacts(int contacts) {
+        this.contacts = contacts;
+        return this;
+    }
+
+    /**
+     * @param  threads how many requests the server answers at the same time (defaults to 32)
+     * @return         this FakeMauticServer instance
+     */
+    public FakeMauticServer threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param  latencyMillis the time each API request waits before it is answered
+     * @param  jitterMillis  a random time, from zero to this value, added to the latency
+     * @return               this FakeMauticServer instance
+     */
+    public FakeMauticServer latency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = jitterMillis;
+        return this;
+    }
+
+    /**
+     * @param  errorRate the fraction of API requests that fail with a 500 status code
+     * @return           this FakeMauticServer instance
+     */
+    public FakeMauticServer errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param  throttleRate the fraction of API requests that fail with a 429 status code
+     * @return              this FakeMauticServer instance
+     */
+    public FakeMauticServer throttleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+        return this;
+    }
+
+    /**
+     * @param  retryAfterSeconds the <code>Retry-After</code> of the 429 responses (defaults to 1)
+     * @return                   this FakeMauticServer instance
+     */
+    public FakeMauticServer retryAfter(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * @param  seconds how long the access tokens issued by the server are valid (defaults to 3600)
+     * @return         this FakeMauticServer instance
+     */
+    public FakeMauticServer tokenExpiresIn(int seconds) {
+        this.tokenExpiresIn = seconds;
+        return this;
+    }
+
+    /**
+     * @param  down true to answer the token requests with a 500 status code
+     * @return      this FakeMauticServer instance
+     */
+    public FakeMauticServer tokenEndpointDown(boolean down) {
+        this.tokenEndpointDown = down;
+        return this;
+    }
+
+    /**
+     * @param  compression true to gzip the responses of clients that accept it
+     * @return             this FakeMauticServer instance
+     */
+    public FakeMauticServer compression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * @param  seed the seed of the latency, error and throttling choices, to repeat a run
+     * @return      this FakeMauticServer instance
+     */
+    public FakeMauticServer seed(long seed) {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    /**
+     * Starts the server on a free port of the loopback interface.
+     * @return this FakeMauticServer instance
+     * @throws IOException if the server could not be started
+     */
+    public FakeMauticServer start() throws IOException {
+        JsonNode listContacts = objectMapper.readTree(getClass().getResourceAsStream("/listContacts.json"));
+        template = (ObjectNode)listContacts.get("leads").get(0);
+        total.set(contacts);
+        ObjectNode tokens = issueTokens();
+        accessToken = tokens.get("access_token").asText();
+        refreshToken = tokens.get("refresh_token").asText();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    FakeMauticServer.this.handle(exchange);
+                }
+                catch(Exception e) {
+                    send(exchange, 500, error(500, String.valueOf(e.getMessage())));
+                }
+                finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("fake-mautic"));
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    /**
+     * @return the URL of the server, to use as the Mautic instance URL
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return an access token accepted by the server, issued when it started
+     */
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    /**
+     * @return the refresh token issued with {@link #getAccessToken()}
+     */
+    public String getRefreshToken() {
+        return refreshToken;
+    }
+
+    /**
+     * @return the number of requests received, including the token requests
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of <code>POST /oauth/v2/token</code> requests
+     */
+    public int getTokenRequestCount() {
+        return tokenRequestCount.get();
+    }
+
+    /**
+     * @param  accessToken an access token issued by the server
+     * @return             the number of API requests that sent it, valid or not
+     */
+    public int getRequestCount(String accessToken) {
+        AtomicInteger count = requestsByAccessToken.get(accessToken);
+        return count!=null ? count.get() : 0;
+    }
+
+    /**
+     * @return the number of requests answered with a 429 status code
+     */
+    public int getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /**
+     * @return the number of requests answered with an injected 500 status code
+     */
+    public int getErrorCount() {
+        return errorCount.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    void handle(HttpExchange exchange) throws Exception {
+        requestCount.incrementAndGet();
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        Map<String,String> parameters = parseForm(exchange.getRequestURI().getRawQuery());
+
+        if( path.equals("/oauth/v2/token") && method.equals("POST") ) {
+            tokenRequestCount.incrementAndGet();
+            if( tokenEndpointDown ) {
+                send(exchange, 500, error(500, "Internal server error"));
+                return;
+            }
+            handleToken(exchange, parseBody(exchange));
+            return;
+        }
+        if( !path.startsWith("/api/") ) {
+            send(exchange, 404, error(404, "Not found"));
+            return;
+        }
+
+        String token = String.valueOf(parameters.get("access_token"));
+        AtomicInteger tokenRequests = requestsByAccessToken.get(token);
+        if( tokenRequests==null ) {
+            requestsByAccessToken.putIfAbsent(token, new AtomicInteger());
+            tokenRequests = requestsByAccessToken.get(token);
+        }
+        tokenRequests.incrementAndGet();
+        Long expiresAt = accessTokens.get(token);
+        if( expiresAt==null || expiresAt<System.currentTimeMillis() ) {
+            send(exchange, 401, error(401, "The access token provided is invalid."));
+            return;
+        }
+
+        long latency = latencyMillis;
+        double chance;
+        synchronized(random) {
+            if( latencyJitterMillis>0 ) {
+                latency += (long)(random.nextDouble() * latencyJitterMillis);
+            }
+            chance = random.nextDouble();
+        }
+        if( latency>0 ) {
+            Thread.sleep(latency);
+        }
+        if( chance<throttleRate ) {
+            throttledCount.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", Integer.toString(retryAfterSeconds));
+            send(exchange, 429, error(429, "API limit exceeded"));
+            return;
+        }
+        if( chance<throttleRate + errorRate ) {
+            errorCount.incrementAndGet();
+            send(exchange, 500, error(500, "Internal server error"));
+            return;
+        }
+
+        if( path.equals("/api/contacts") && method.equals("GET") ) {
+            send(exchange, 200, listContacts(parameters));
+        }
+        else if( path.equals("/api/contacts/new") && method.equals("POST") ) {
+            send(exchange, 201, wrap("lead", createContact(parseBody(exchange))));
+        }
+        else if( path.startsWith("/api/contacts/") && method.equals("GET") ) {
+            ObjectNode contact = null;
+            try {
+                contact = getContact(Integer.parseInt(path.substring("/api/contacts/".length())));
+            }
+            catch(NumberFormatException e) {
+                // not a contact id
+            }
+            if( contact!=null ) {
+                send(exchange, 200, wrap("lead", contact));
+            }
+            else {
+                send(exchange, 404, error(404, "Item was not found."));
+            }
+        }
+        else {
+            send(exchange, 404, error(404, "Not found"));
+        }
+    }
+
+    void handleToken(HttpExchange exchange, Map<String,String> parameters) throws IOException {
+        String grantType = parameters.get("grant_type");
+        if( "authorization_code".equals(grantType) && parameters.get("code")!=null ) {
+            send(exchange, 200, issueTokens());
+        }
+        else if( "refresh_token".equals(grantType) &&
+                refreshTokens.remove(String.valueOf(parameters.get("refresh_token")))!=null ) {
+            send(exchange, 200, issueTokens());
+        }
+        else {
+            ObjectNode error = objectMapper.createObjectNode();
+            error.put("error", "invalid_grant");
+            error.put("error_description", "Invalid grant or refresh token");
+            send(exchange, 400, error);
+        }
+    }
+
+    ObjectNode issueTokens() {
+        int count = tokenCount.incrementAndGet();
+        String access = "fake-access-token-" + count;
+        String refresh = "fake-refresh-token-" + count;
+        accessTokens.put(access, System.currentTimeMillis() + tokenExpiresIn*1000L);
+        refreshTokens.put(refresh, Boolean.TRUE);
+
+        ObjectNode tokens = objectMapper.createObjectNode();
+        tokens.put("access_token", access);
+        tokens.put("expires_in", tokenExpiresIn);
+        tokens.put("token_type", "bearer");
+        tokens.putNull("scope");
+        tokens.put("refresh_token", refresh);
+        return tokens;
+    }
+
+    ObjectNode listContacts(Map<String,String> parameters) {
+        int start = parameters.containsKey("start") ? Integer.parseInt(parameters.get("start")) : 0;
+        int limit = parameters.containsKey("limit") ? Integer.parseInt(parameters.get("limit")) : 30;
+        int end = Math.min(total.get(), start + limit);
+
+        ObjectNode result = objectMapper.createObjectNode();
+        result.put("total", total.get());
+        ArrayNode leads = result.putArray("leads");
+        for( int id=start+1; id<=end; id++ ) {
+            leads.add(getContact(id));
+        }
+        return result;
+    }
+
+    ObjectNode getContact(int id) {
+        ObjectNode created = createdContacts.get(id);
+        if( created!=null ) {
+            return created;
+        }
+        if( id<1 || id>contacts ) {
+            return null;
+        }
+        ObjectNode contact = template.deepCopy();
+        contact.put("id", id);
+        contact.put("dateAdded", formatDate(FIRST_DATE_ADDED + id*1000L));
+        contact.put("dateModified", formatDate(FIRST_DATE_ADDED + id*1000L + 60000L));
+        setField(contact, "email", "user" + id + "@example.com");
+        setField(contact, "firstname", "User " + id);
+        return contact;
+    }
+
+    ObjectNode createContact(Map<String,String> fields) {
+        int id = total.incrementAndGet();
+        ObjectNode contact = template.deepCopy();
+        contact.put("id", id);
+        contact.put("dateAdded", formatDate(System.currentTimeMillis()));
+        contact.put("dateModified", formatDate(System.currentTimeMillis()));
+        ObjectNode allFields = (ObjectNode)contact.get("fields").get("all");
+        Iterator<String> aliases = allFields.fieldNames();
+        while( aliases.hasNext() ) {
+            setField(contact, aliases.next(), null);
+        }
+        Iterator<Map.Entry<String,String>> it = fields.entrySet().iterator();
+        while( it.hasNext() ) {
+            Map.Entry<String,String> field = it.next();
+            setField(contact, field.getKey(), field.getValue());
+        }
+        createdContacts.put(id, contact);
+        return contact;
+    }
+
+    /**
+     * Sets the value of a field in "fields.all" and in the group that has it.
+     */
+    static void setField(ObjectNode contact, String alias, String value) {
+        ObjectNode fields = (ObjectNode)contact.get("fields");
+        Iterator<Map.Entry<String,JsonNode>> groups = fields.fields();
+        while( groups.hasNext() ) {
+            Map.Entry<String,JsonNode> group = groups.next();
+            if( group.getKey().equals("all") ) {
+                ((ObjectNode)group.getValue()).put(alias, value);
+            }
+            else if( group.getValue().get(alias) instanceof ObjectNode ) {
+                ((ObjectNode)group.getValue().get(alias)).put("value", value);
+            }
+        }
+    }
+
+    static String formatDate(long millis) {
+        return new DateTime(millis, DateTimeZone.UTC).toString("yyyy-MM-dd'T'HH:mm:ssZZ");
+    }
+
+    ObjectNode wrap(String name, ObjectNode value) {
+        ObjectNode result = objectMapper.createObjectNode();
+        result.set(name, value);
+        return result;
+    }
+
+    ObjectNode error(int code, String message) {
+        ObjectNode result = objectMapper.createObjectNode();
+        ObjectNode error = result.putArray("errors").addObject();
+        error.put("code", code);
+        error.put("message", message);
+        error.put("type", (String)null);
+        return result;
+    }
+
+    void send(HttpExchange exchange, int code, JsonNode json) throws IOException {
+        byte[] body = objectMapper.writeValueAsBytes(json);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if( compression && acceptEncoding!=null && acceptEncoding.contains("gzip") ) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(code, 0);
+            GZIPOutputStream output = new GZIPOutputStream(exchange.getResponseBody());
+            output.write(body);
+            output.close();
+        }
+        else {
+            exchange.sendResponseHeaders(code, body.length);
+            OutputStream output = exchange.getResponseBody();
+            output.write(body);
+            output.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String,String> parseBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        InputStream input = exchange.getRequestBody();
+        byte[] chunk = new byte[4096];
+        int read;
+        while( (read = input.read(chunk))>=0 ) {
+            buffer.write(chunk, 0, read);
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if( contentType!=null && contentType.startsWith("application/json") ) {
+            return objectMapper.readValue(buffer.toByteArray(), Map.class);
+        }
+        return parseForm(buffer.toString("UTF-8"));
+    }
+
+    static Map<String,String> parseForm(String form) throws IOException {
+        Map<String,String> parameters = new LinkedHashMap<String,String>();
+        if( form==null || form.isEmpty() ) {
+            return parameters;
+        }
+        String[] pairs = form.split("&");
+        for( int i=0; i<pairs.length; i++ ) {
+            int equals = pairs[i].indexOf('=');
+            if( equals<0 ) {
+                parameters.put(URLDecoder.decode(pairs[i], "UTF-8"), "");
+            }
+            else {
+                parameters.put(URLDecoder.decode(pairs[i].substring(0, equals), "UTF-8"),
+                    URLDecoder.decode(pairs[i].substring(equals+1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,280 @@
+package com.leonardofischer.jmautic;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import com.leonardofischer.jmautic.http.PooledHttpTransport;
+import com.leonardofischer.jmautic.metrics.HistogramMetricsListener;
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.oauth.RetryingOAuthService;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FakeMauticServerTests {
+
+    FakeMauticServer server;
+    PooledHttpTransport transport = new PooledHttpTransport();
+
+    @After
+    public void finish() throws Exception {
+        transport.close();
+        if( server!=null ) {
+            server.close();
+        }
+    }
+
+    OAuth2Service service() {
+        return new OAuth2Service()
+            .instanceUrl(server.getUrl())
+            .accessToken(server.getAccessToken())
+            .transport(transport);
+    }
+
+    @Test
+    public void testContactsEndpoints() throws Exception {
+        server = new FakeMauticServer().contacts(45).start();
+        MauticApi mauticApi = service().build();
+
+        Search search = new Search();
+        search.start = 30;
+        search.limit = 30;
+        ListContactsResult page = mauticApi.listContacts(search);
+        assertEquals(45, page.total);
+        assertEquals(15, page.contacts.size());
+        assertEquals(31, page.contacts.get(0).id);
+        assertEquals("user31@example.com", page.contacts.get(0).allFields.get("email"));
+        assertEquals("Sao Paulo", page.contacts.get(0).allFields.get("city"));
+
+        Contact contact = mauticApi.getContact(7).contact;
+        assertEquals(7, contact.id);
+        assertEquals("User 7", contact.allFields.get("firstname"));
+        assertNotNull(contact.dateModified);
+        assertFalse(contact.fields.isEmpty());
+
+        Map<String,String> fields = new HashMap<String,String>();
+        fields.put("email", "new@example.com");
+        fields.put("firstname", "New");
+        Contact created = mauticApi.createContact(fields, null, null, -1).contact;
+        assertEquals(46, created.id);
+        assertEquals("new@example.com", created.allFields.get("email"));
+        assertNull(created.allFields.get("city"));
+        assertEquals("New", mauticApi.getContact(46).contact.allFields.get("firstname"));
+        assertEquals(46, mauticApi.listContacts(search).total);
+
+        try {
+            mauticApi.getContact(100);
+            fail("Expected a MauticStatusException");
+        }
+        catch(MauticStatusException e) {
+            assertEquals(404, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testTokens() throws Exception {
+        server = new FakeMauticServer().start();
+        OAuth2Service service = new OAuth2Service()
+            .instanceUrl(server.getUrl())
+            .apiKey("key")
+            .apiSecret("secret")
+            .transport(transport)
+            .initService();
+        service.setAuthorizationCode("code");
+        assertNotNull(service.getAccessTokenExpiration());
+        assertEquals(1, service.build().getContact(1).contact.id);
+
+        String refreshToken = service.getRefreshToken();
+        assertTrue(service.refreshToken(refreshToken));
+        assertNotEquals(refreshToken, service.getRefreshToken());
+        assertEquals(2, service.build().getContact(2).contact.id);
+        // refresh tokens are used only once
+        assertFalse(service.refreshToken(refreshToken));
+
+        try {
+            service.accessToken("not-issued-by-the-server").build().getContact(1);
+            fail("Expected a MauticStatusException");
+        }
+        catch(MauticStatusException e) {
+            assertEquals(401, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneRefresh() throws Exception {
+        server = new FakeMauticServer().latency(5, 0).start();
+        String oldToken = server.getAccessToken();
+        // expires within the refresh margin
+        final OAuth2Service service = new OAuth2Service()
+            .instanceUrl(server.getUrl())
+            .apiKey("key")
+            .apiSecret("secret")
+            .accessToken(oldToken, server.getRefreshToken(), new Date(System.currentTimeMillis() + 30000))
+            .transport(transport);
+        final MauticApi mauticApi = service.build();
+
+        final int threads = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(threads);
+        final AtomicInteger succeeded = new AtomicInteger();
+        for( int i=0; i<threads; i++ ) {
+            final int id = i + 1;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        if( mauticApi.getContact(id).contact.id==id ) {
+                            succeeded.incrementAndGet();
+                        }
+                    }
+                    catch(Exception e) {
+                        // counted as a failure below
+                    }
+                    finally {
+                        finished.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+
+        assertEquals(threads, succeeded.get());
+        assertEquals(1, server.getTokenRequestCount());
+        assertNotEquals(oldToken, service.getAccessToken());
+        assertEquals(0, server.getRequestCount(oldToken));
+        assertEquals(threads, server.getRequestCount(service.getAccessToken()));
+    }
+
+    @Test
+    public void testFailedRefreshUsesTheValidToken() throws Exception {
+        server = new FakeMauticServer().tokenEndpointDown(true).start();
+        String token = server.getAccessToken();
+        String refreshToken = server.getRefreshToken();
+        OAuth2Service service = new OAuth2Service()
+            .instanceUrl(server.getUrl())
+            .apiKey("key")
+            .apiSecret("secret")
+            .accessToken(token, refreshToken, new Date(System.currentTimeMillis() + 30000))
+            .transport(transport);
+        MauticApi mauticApi = service.build();
+
+        // the refresh fails, but the token is still valid
+        assertEquals(1, mauticApi.getContact(1).contact.id);
+        assertEquals(2, mauticApi.getContact(2).contact.id);
+        assertEquals(2, server.getTokenRequestCount());
+        assertEquals(token, service.getAccessToken());
+
+        // once the endpoint is back, the next request refreshes the token
+        server.tokenEndpointDown(false);
+        assertEquals(3, mauticApi.getContact(3).contact.id);
+        assertNotEquals(token, service.getAccessToken());
+
+        // an expired token fails with the refresh error
+        server.tokenEndpointDown(true);
+        service.accessToken(service.getAccessToken(), service.getRefreshToken(),
+            new Date(System.currentTimeMillis() - 1000));
+        try {
+            mauticApi.getContact(4);
+            fail("Expected a MauticStatusException");
+        }
+        catch(MauticStatusException e) {
+            assertEquals(500, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testRefusedRefreshIsNotRetried() throws Exception {
+        server = new FakeMauticServer().start();
+        // expires within the refresh margin, with a refresh token the server does not know
+        OAuth2Service service = new OAuth2Service()
+            .instanceUrl(server.getUrl())
+            .apiKey("key")
+            .apiSecret("secret")
+            .accessToken(server.getAccessToken(), "unknown", new Date(System.currentTimeMillis() + 30000))
+            .transport(transport);
+        MauticApi mauticApi = service.build();
+        for( int id=1; id<=5; id++ ) {
+            assertEquals(id, mauticApi.getContact(id).contact.id);
+        }
+        // one refused refresh, and the five requests
+        assertEquals(6, server.getRequestCount());
+
+        service.accessToken(server.getAccessToken(), "unknown", new Date(System.currentTimeMillis() - 1000));
+        for( int i=0; i<3; i++ ) {
+            try {
+                mauticApi.getContact(1);
+                fail("Expected a MauticException");
+            }
+            catch(MauticException e) {
+                assertEquals("The access token expired and could not be refreshed", e.getMessage());
+            }
+        }
+        // the new tokens are tried once
+        assertEquals(7, server.getRequestCount());
+    }
+
+    @Test
+    public void testThrottlingAndErrors() throws Exception {
+        server = new FakeMauticServer().throttleRate(1).retryAfter(2).start();
+        try {
+            service().build().getContact(1);
+            fail("Expected a MauticStatusException");
+        }
+        catch(MauticStatusException e) {
+            assertEquals(429, e.getStatusCode());
+            assertEquals(2000, e.getRetryAfterMillis());
+        }
+        assertEquals(1, server.getThrottledCount());
+        server.close();
+
+        server = new FakeMauticServer().errorRate(0.5).seed(42).start();
+        MauticApi mauticApi = new MauticApi(new RetryingOAuthService(service()).maxAttempts(10).backoff(1, 5));
+        for( int id=1; id<=20; id++ ) {
+            assertEquals(id, mauticApi.getContact(id).contact.id);
+        }
+        assertTrue(server.getErrorCount()>0);
+        assertEquals(20 + server.getErrorCount(), server.getRequestCount());
+    }
+
+    @Test
+    public void testLatencyAndCompression() throws Exception {
+        server = new FakeMauticServer().latency(30, 0).compression(true).start();
+        HistogramMetricsListener metrics = new HistogramMetricsListener();
+        MauticApi mauticApi = service().metricsListener(metrics).build();
+
+        long start = System.nanoTime();
+        assertEquals(30, mauticApi.listContacts(new Search()).contacts.size());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+        assertEquals(1, metrics.getEndpoint("GET /api/contacts").getCompressedCount());
+    }
+
+    @Test
+    public void testLoadDriver() throws Exception {
+        server = new FakeMauticServer().contacts(300).start();
+        MauticLoadDriver.Report report = new MauticLoadDriver(service().build())
+            .threads(4)
+            .operations(200)
+            .maxContactId(300)
+            .run();
+
+        assertEquals(200, report.getOperations());
+        long calls = 0;
+        Iterator<String> names = report.latencies.keySet().iterator();
+        while( names.hasNext() ) {
+            String name = names.next();
+            calls += report.latencies.get(name).getCount();
+            assertEquals(0, report.errors.get(name).get());
+        }
+        assertEquals(200, calls);
+        assertTrue(report.all.getValueAtPercentile(50)<=report.all.getValueAtPercentile(99));
+        assertTrue(report.getThroughput()>0);
+        assertTrue(report.toString().contains("p99 (ms)"));
+    }
+}
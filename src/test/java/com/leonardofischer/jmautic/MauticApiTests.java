@@ -5,6 +5,24 @@ import org.junit.Test;
 import org.junit.Before;
 
 import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.oauth.OAuthService;
+import com.leonardofischer.jmautic.oauth.Request;
+import com.leonardofischer.jmautic.parser.Parser;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 public class MauticApiTests {
 
@@ -25,4 +43,341 @@ public class MauticApiTests {
         //ListContactsResult listContactsResult = mauticApi.listContacts();
         //assertNotNull(listContactsResult);
     }
+
+    @Test
+    public void testIterateContacts() throws Exception {
+        FakeContactsOauthService fakeService = new FakeContactsOauthService(95);
+        MauticApi api = new MauticApi(fakeService);
+
+        Search search = new Search();
+        search.limit = 10;
+        int expectedId = 1;
+        Iterator<Contact> it = api.iterateContacts(search, 3).iterator();
+        while( it.hasNext() ) {
+            assertEquals(expectedId++, it.next().id);
+        }
+        assertEquals(96, expectedId);
+        assertFalse(it.hasNext());
+        assertEquals(10, fakeService.getRequestCount());
+    }
+
+    @Test
+    public void testIterateContactsPrefetchesWhileReadingAPage() throws Exception {
+        assertPagesRequestedAhead(1);
+        assertPagesRequestedAhead(3);
+    }
+
+    private void assertPagesRequestedAhead(int prefetchPages) throws Exception {
+        FakeContactsOauthService fakeService = new FakeContactsOauthService(95);
+        Search search = new Search();
+        search.limit = 10;
+        Iterator<Contact> it = new MauticApi(fakeService).iterateContacts(search, prefetchPages).iterator();
+        assertEquals(1, it.next().id);
+
+        // still reading the first page, so the next prefetchPages pages must be requested
+        long deadline = System.currentTimeMillis() + 5000;
+        while( fakeService.getRequestCount()<1+prefetchPages && System.currentTimeMillis()<deadline ) {
+            Thread.sleep(5);
+        }
+        assertEquals(1+prefetchPages, fakeService.getRequestCount());
+        ((PagedContactIterator)it).close();
+    }
+
+    @Test
+    public void testIterateContactsFromStart() throws Exception {
+        MauticApi api = new MauticApi(new FakeContactsOauthService(50));
+
+        Search search = new Search();
+        search.start = 20;
+        search.limit = 15;
+        int count = 0;
+        Iterator<Contact> it = api.iterateContacts(search).iterator();
+        while( it.hasNext() ) {
+            assertEquals(21+count, it.next().id);
+            count++;
+        }
+        assertEquals(30, count);
+    }
+
+    @Test
+    public void testStreamContacts() throws Exception {
+        MauticApi api = new MauticApi(new FakeContactsOauthService(100));
+
+        Search search = new Search();
+        search.limit = 7;
+        Stream<Contact> stream = api.streamContacts(search, 2);
+        try {
+            assertEquals(100, stream.count());
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testIterateContactsWithProjection() throws Exception {
+        MauticApi api = new MauticApi(new FakeContactsOauthService(20));
+
+        Search search = new Search();
+        search.limit = 8;
+        search.projection = new Projection().properties("id");
+        int count = 0;
+        Iterator<Contact> it = api.iterateContacts(search).iterator();
+        while( it.hasNext() ) {
+            Contact contact = it.next();
+            count++;
+            assertEquals(count, contact.id);
+            assertNull(contact.dateModified);
+            assertNull(contact.allFields);
+        }
+        assertEquals(20, count);
+
+        ListContactsResult page = api.listContacts(search);
+        assertEquals(20, page.total);
+        assertEquals(8, page.contacts.size());
+        assertNull(page.contacts.get(0).dateModified);
+    }
+
+    @Test
+    public void testIterateContactsPropagatesErrors() throws Exception {
+        MauticApi api = new MauticApi(new MockedOauthService());
+        try {
+            api.iterateContacts(null).iterator().hasNext();
+            fail();
+        }
+        catch(UncheckedMauticException e) {
+            assertNotNull(e.getCause());
+        }
+    }
+
+    @Test
+    public void testAsyncGetContact() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            AsyncMauticApi api = new AsyncMauticApi(new FakeContactsOauthService(20), executor);
+            CompletableFuture<GetContactResult> first = api.getContact(3);
+            CompletableFuture<GetContactResult> second = api.getContact(17);
+            CompletableFuture<ListContactsResult> list = api.listContacts();
+
+            assertEquals(3, first.get().contact.id);
+            assertEquals(17, second.get().contact.id);
+            assertEquals(20, list.get().contacts.size());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncApiSharesTheParser() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            FakeContactsOauthService fakeService = new FakeContactsOauthService(20);
+            assertSame(new MauticApi(fakeService).parser, new AsyncMauticApi(fakeService, executor).parser);
+
+            Parser parser = new Parser();
+            AsyncMauticApi api = new AsyncMauticApi(fakeService, executor, parser);
+            assertSame(parser, api.parser);
+            assertSame(parser, new MauticApi(fakeService, parser).parser);
+            assertEquals(7, api.getContact(7).get().contact.id);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncGetContactFailure() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            AsyncMauticApi api = new AsyncMauticApi(new FakeContactsOauthService(20), executor);
+            api.getContact(21).get();
+            fail();
+        }
+        catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof MauticException);
+            assertEquals("Invalid request GET /api/contacts/21", e.getCause().getMessage());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCreateContactsInBatches() throws Exception {
+        FakeContactsOauthService fakeService = new FakeContactsOauthService(0);
+        MauticApi api = new MauticApi(fakeService);
+
+        List<Map<String,String>> contacts = new ArrayList<Map<String,String>>();
+        for( int i=0; i<25; i++ ) {
+            Map<String,String> fields = new HashMap<String,String>();
+            fields.put("firstname", "Contact " + i);
+            if( i%10!=3 ) {
+                fields.put("email", "contact" + i + "@example.com");
+            }
+            contacts.add(fields);
+        }
+
+        List<BatchContactResult> results = api.createContacts(contacts, 10, 3);
+        assertEquals(3, fakeService.getRequestCount());
+        assertEquals(25, results.size());
+        int created = 0;
+        for( int i=0; i<results.size(); i++ ) {
+            BatchContactResult result = results.get(i);
+            if( i%10==3 ) {
+                assertFalse(result.isSuccess());
+                assertEquals(400, result.statusCode);
+                assertEquals("email: required", result.errorMessage);
+            }
+            else {
+                assertTrue(result.isSuccess());
+                assertEquals(201, result.statusCode);
+                assertTrue(result.contact.id>0);
+                created++;
+            }
+        }
+        assertEquals(22, created);
+    }
+
+    @Test
+    public void testCreateContactsReportsRequestFailures() throws Exception {
+        MauticApi api = new MauticApi(new MockedOauthService());
+        List<Map<String,String>> contacts = new ArrayList<Map<String,String>>();
+        contacts.add(new HashMap<String,String>());
+        contacts.add(new HashMap<String,String>());
+
+        List<BatchContactResult> results = api.createContacts(contacts);
+        assertEquals(2, results.size());
+        assertFalse(results.get(0).isSuccess());
+        assertNotNull(results.get(1).errorMessage);
+    }
+
+    @Test
+    public void testCreateContactsReportsUnexpectedErrorsPerBatch() throws Exception {
+        final FakeContactsOauthService fakeService = new FakeContactsOauthService(0);
+        MauticApi api = new MauticApi(new OAuthService() {
+            int batches = 0;
+            public synchronized InputStream executeRequest(Request request) throws MauticException {
+                if( batches++==1 ) {
+                    throw new IllegalStateException("Broken connection pool");
+                }
+                return fakeService.executeRequest(request);
+            }
+        });
+        List<Map<String,String>> contacts = new ArrayList<Map<String,String>>();
+        for( int i=0; i<25; i++ ) {
+            Map<String,String> fields = new HashMap<String,String>();
+            fields.put("email", "contact" + i + "@example.com");
+            contacts.add(fields);
+        }
+
+        List<BatchContactResult> results = api.createContacts(contacts, 10, 1);
+        assertEquals(25, results.size());
+        for( int i=0; i<25; i++ ) {
+            assertEquals("contact " + i, i<10 || i>=20, results.get(i).isSuccess());
+        }
+        assertEquals("Broken connection pool", results.get(15).errorMessage);
+
+        // the same with the batches sent in parallel
+        results = new MauticApi(new OAuthService() {
+            public InputStream executeRequest(Request request) throws MauticException {
+                throw new IllegalStateException("Broken connection pool");
+            }
+        }).createContacts(contacts, 10, 3);
+        assertEquals(25, results.size());
+        assertEquals("Broken connection pool", results.get(24).errorMessage);
+    }
+
+    /**
+     * Calls getContact(5) from several threads at the same time, on a service that takes a
+     * while to answer.
+     */
+    private List<GetContactResult> getContactConcurrently(MauticApi api, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<GetContactResult>> futures = new ArrayList<Future<GetContactResult>>();
+            for( int i=0; i<threads; i++ ) {
+                final MauticApi threadApi = api;
+                futures.add(executor.submit(new Callable<GetContactResult>() {
+                    public GetContactResult call() throws Exception {
+                        start.await();
+                        return threadApi.getContact(5);
+                    }
+                }));
+            }
+            start.countDown();
+            List<GetContactResult> results = new ArrayList<GetContactResult>();
+            for( int i=0; i<threads; i++ ) {
+                results.add(futures.get(i).get());
+            }
+            return results;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static FakeContactsOauthService slowService() {
+        return new FakeContactsOauthService(10) {
+            @Override
+            public InputStream executeRequest(Request request) throws MauticException {
+                try {
+                    Thread.sleep(300);
+                }
+                catch(InterruptedException e) {
+                    throw new MauticException(e);
+                }
+                return super.executeRequest(request);
+            }
+        };
+    }
+
+    @Test
+    public void testCoalescedGetContact() throws Exception {
+        FakeContactsOauthService service = slowService();
+        MauticApi api = new MauticApi(service).coalesceRequests(true, false);
+
+        List<GetContactResult> results = getContactConcurrently(api, 8);
+        assertEquals(1, service.getRequestCount());
+        assertEquals(7, api.getCoalescedRequestCount());
+        for( int i=1; i<results.size(); i++ ) {
+            assertSame(results.get(0), results.get(i));
+        }
+
+        // the result is not kept after the request finishes
+        api.getContact(5);
+        assertEquals(2, service.getRequestCount());
+    }
+
+    @Test
+    public void testCoalescedGetContactWithCopies() throws Exception {
+        FakeContactsOauthService service = slowService();
+        MauticApi api = new MauticApi(service).coalesceRequests(true, true);
+
+        List<GetContactResult> results = getContactConcurrently(api, 4);
+        assertEquals(1, service.getRequestCount());
+        Contact first = results.get(0).contact;
+        for( int i=1; i<results.size(); i++ ) {
+            Contact copy = results.get(i).contact;
+            assertNotSame(first, copy);
+            assertEquals(first.id, copy.id);
+            assertEquals(first.dateModified, copy.dateModified);
+            assertEquals(first.allFields, copy.allFields);
+            assertEquals(first.fields.get(0).value, copy.fields.get(0).value);
+        }
+    }
+
+    @Test
+    public void testCoalescingKeys() throws Exception {
+        Search search = new Search();
+        search.search = "a&limit=1";
+        Search other = new Search();
+        other.search = "a";
+        other.limit = 1;
+        assertNotEquals(RequestCoalescer.keyOf(MauticApi.buildListContactsRequest(search)),
+            RequestCoalescer.keyOf(MauticApi.buildListContactsRequest(other)));
+        assertEquals(RequestCoalescer.keyOf(MauticApi.buildGetContactRequest(3)),
+            RequestCoalescer.keyOf(MauticApi.buildGetContactRequest(3)));
+    }
 }
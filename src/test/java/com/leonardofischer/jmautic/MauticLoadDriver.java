@@ -0,0 +1,295 @@
+package com.leonardofischer.jmautic;
+
+import com.leonardofischer.jmautic.http.PooledHttpTransport;
+import com.leonardofischer.jmautic.metrics.LatencyHistogram;
+import com.leonardofischer.jmautic.model.*;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Sends a mix of <code>getContact</code>, <code>listContacts</code> and
+ * <code>createContact</code> calls through a {@link com.leonardofischer.jmautic.MauticApi}
+ * from several threads, and reports the throughput and the latency percentiles of each call.
+ * Each latency covers the whole client stack: building the request, the HTTP transport and
+ * parsing the response.
+ *
+ * <p>Point it to a {@link com.leonardofischer.jmautic.FakeMauticServer} to load-test the client
+ * without a real Mautic. The {@link #main(String[])} method does that, and is run by
+ * <code>gradle loadTest</code>.
+ */
+public class MauticLoadDriver {
+
+    static final String GET_CONTACT = "getContact";
+    static final String LIST_CONTACTS = "listContacts";
+    static final String CREATE_CONTACT = "createContact";
+
+    /**
+     * The results of a run. Latencies are in nanoseconds.
+     */
+    public static class Report {
+        public long elapsedNanos;
+        public Map<String,LatencyHistogram> latencies = new LinkedHashMap<String,LatencyHistogram>();
+        public Map<String,AtomicLong> errors = new LinkedHashMap<String,AtomicLong>();
+        public AtomicLong throttled = new AtomicLong();
+        public LatencyHistogram all = new LatencyHistogram();
+
+        Report() {
+            String[] calls = { GET_CONTACT, LIST_CONTACTS, CREATE_CONTACT };
+            for( int i=0; i<calls.length; i++ ) {
+                latencies.put(calls[i], new LatencyHistogram());
+                errors.put(calls[i], new AtomicLong());
+            }
+        }
+
+        /**
+         * @return the number of calls, including the failed ones
+         */
+        public long getOperations() {
+            return all.getCount();
+        }
+
+        /**
+         * @return the number of calls per second
+         */
+        public double getThroughput() {
+            return elapsedNanos==0 ? 0 : all.getCount() * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("%d calls in %.2fs: %.1f calls/s, %d throttled%n",
+                all.getCount(), elapsedNanos/1e9, getThroughput(), throttled.get()));
+            report.append(String.format("%-14s %8s %8s %10s %10s %10s%n",
+                "call", "count", "errors", "p50 (ms)", "p99 (ms)", "max (ms)"));
+            Iterator<Map.Entry<String,LatencyHistogram>> it = latencies.entrySet().iterator();
+            while( it.hasNext() ) {
+                Map.Entry<String,LatencyHistogram> entry = it.next();
+                appendLine(report, entry.getKey(), entry.getValue(), errors.get(entry.getKey()).get());
+            }
+            long totalErrors = 0;
+            Iterator<AtomicLong> errorCounts = errors.values().iterator();
+            while( errorCounts.hasNext() ) {
+                totalErrors += errorCounts.next().get();
+            }
+            appendLine(report, "all", all, totalErrors);
+            return report.toString();
+        }
+
+        private static void appendLine(StringBuilder report, String name, LatencyHistogram histogram,
+                long errorCount) {
+            report.append(String.format("%-14s %8d %8d %10.2f %10.2f %10.2f%n", name,
+                histogram.getCount(), errorCount, histogram.getValueAtPercentile(50)/1e6,
+                histogram.getValueAtPercentile(99)/1e6, histogram.getMax()/1e6));
+        }
+    }
+
+    MauticApi mauticApi;
+    int threads = 8;
+    long durationMillis = 10000;
+    long warmupMillis = 0;
+    long maxOperations = -1;
+    int maxContactId = 1000;
+    int getWeight = 70;
+    int listWeight = 25;
+    int createWeight = 5;
+    int pageSize = 30;
+
+    public MauticLoadDriver(MauticApi mauticApi) {
+        this.mauticApi = mauticApi;
+    }
+
+    /**
+     * @param  threads the number of threads sending calls (defaults to 8)
+     * @return         this MauticLoadDriver instance
+     */
+    public MauticLoadDriver threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param  duration how long the run takes (defaults to 10 seconds)
+     * @param  unit     the unit of the duration
+     * @return          this MauticLoadDriver instance
+     */
+    public MauticLoadDriver duration(long duration, TimeUnit unit) {
+        this.durationMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * @param  warmup how long to send calls before the run, without recording them, so the
+     *                JIT compiler and the connection pool are warm when the run starts
+     * @param  unit   the unit of the warmup
+     * @return        this MauticLoadDriver instance
+     */
+    public MauticLoadDriver warmup(long warmup, TimeUnit unit) {
+        this.warmupMillis = unit.toMillis(warmup);
+        return this;
+    }
+
+    /**
+     * @param  maxOperations stops the run after this many calls, even before its duration
+     * @return               this MauticLoadDriver instance
+     */
+    public MauticLoadDriver operations(long maxOperations) {
+        this.maxOperations = maxOperations;
+        return this;
+    }
+
+    /**
+     * @param  maxContactId getContact reads random ids from 1 to this value (defaults to 1000)
+     * @return              this MauticLoadDriver instance
+     */
+    public MauticLoadDriver maxContactId(int maxContactId) {
+        this.maxContactId = maxContactId;
+        return this;
+    }
+
+    /**
+     * Sets the relative weight of each call. The defaults are 70 getContact, 25 listContacts
+     * and 5 createContact.
+     *
+     * @param  getWeight    the weight of getContact
+     * @param  listWeight   the weight of listContacts, reading a random page
+     * @param  createWeight the weight of createContact
+     * @return              this MauticLoadDriver instance
+     */
+    public MauticLoadDriver mix(int getWeight, int listWeight, int createWeight) {
+        if( getWeight<0 || listWeight<0 || createWeight<0 || getWeight+listWeight+createWeight==0 ) {
+            throw new IllegalArgumentException("the weights must not be negative, and one must be positive");
+        }
+        this.getWeight = getWeight;
+        this.listWeight = listWeight;
+        this.createWeight = createWeight;
+        return this;
+    }
+
+    /**
+     * Sends calls from all the threads until the duration ends or the maximum number of calls
+     * is reached, after the warmup.
+     *
+     * @return the results of the run
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public Report run() throws InterruptedException {
+        if( warmupMillis>0 ) {
+            run(warmupMillis, -1);
+        }
+        return run(durationMillis, maxOperations);
+    }
+
+    private Report run(long durationMillis, long maxOperations) throws InterruptedException {
+        final Report report = new Report();
+        final AtomicLong remaining = new AtomicLong(maxOperations>=0 ? maxOperations : Long.MAX_VALUE);
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        final CountDownLatch finished = new CountDownLatch(threads);
+
+        for( int i=0; i<threads; i++ ) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while( System.nanoTime()<end && remaining.decrementAndGet()>=0 ) {
+                            call(report);
+                        }
+                    }
+                    finally {
+                        finished.countDown();
+                    }
+                }
+            }, "jmautic-load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        finished.await();
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    void call(Report report) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int choice = random.nextInt(getWeight + listWeight + createWeight);
+        String name = choice<getWeight ? GET_CONTACT :
+            choice<getWeight + listWeight ? LIST_CONTACTS : CREATE_CONTACT;
+        long start = System.nanoTime();
+        try {
+            if( name==GET_CONTACT ) {
+                mauticApi.getContact(1 + random.nextInt(maxContactId));
+            }
+            else if( name==LIST_CONTACTS ) {
+                Search search = new Search();
+                search.start = random.nextInt(Math.max(1, maxContactId/pageSize)) * pageSize;
+                search.limit = pageSize;
+                mauticApi.listContacts(search);
+            }
+            else {
+                Map<String,String> fields = new HashMap<String,String>();
+                fields.put("email", "load" + random.nextInt(1000000) + "@example.com");
+                fields.put("firstname", "Load");
+                mauticApi.createContact(fields, null, null, -1);
+            }
+        }
+        catch(MauticException e) {
+            report.errors.get(name).incrementAndGet();
+            if( e instanceof MauticStatusException && ((MauticStatusException)e).getStatusCode()==429 ) {
+                report.throttled.incrementAndGet();
+            }
+        }
+        long latency = System.nanoTime() - start;
+        report.latencies.get(name).record(latency);
+        report.all.record(latency);
+    }
+
+    /**
+     * Load-tests the client against a {@link com.leonardofischer.jmautic.FakeMauticServer}.
+     * The optional arguments are the number of threads, the duration in seconds, the server
+     * latency in milliseconds and the rate of throttled requests, such as
+     * <code>16 30 20 0.01</code>.
+     *
+     * @param  args      the optional arguments
+     * @throws Exception if the server could not be started
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length>0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length>1 ? Integer.parseInt(args[1]) : 10;
+        int latency = args.length>2 ? Integer.parseInt(args[2]) : 5;
+        double throttleRate = args.length>3 ? Double.parseDouble(args[3]) : 0;
+
+        FakeMauticServer server = new FakeMauticServer()
+            .contacts(10000)
+            .threads(threads * 2)
+            .latency(latency, latency)
+            .throttleRate(throttleRate)
+            .start();
+        PooledHttpTransport transport = new PooledHttpTransport().maxConnectionsPerHost(threads);
+        try {
+            MauticApi mauticApi = new OAuth2Service()
+                .instanceUrl(server.getUrl())
+                .accessToken(server.getAccessToken())
+                .transport(transport)
+                .build();
+            System.out.println("Running " + threads + " threads for " + seconds + "s against " +
+                server.getUrl() + " (latency " + latency + "-" + (latency*2) + "ms)");
+            Report report = new MauticLoadDriver(mauticApi)
+                .threads(threads)
+                .warmup(2, TimeUnit.SECONDS)
+                .duration(seconds, TimeUnit.SECONDS)
+                .maxContactId(10000)
+                .run();
+            System.out.print(report);
+        }
+        finally {
+            transport.close();
+            server.close();
+        }
+    }
+}
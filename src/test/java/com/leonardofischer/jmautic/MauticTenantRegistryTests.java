@@ -0,0 +1,252 @@
+package com.leonardofischer.jmautic;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import com.leonardofischer.jmautic.http.PooledHttpTransport;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MauticTenantRegistryTests {
+
+    /**
+     * A registry whose idle timeout is measured with a clock moved by the test.
+     */
+    static class ManualClockRegistry extends MauticTenantRegistry {
+        volatile long now = 0;
+
+        @Override
+        long nanoTime() {
+            return now;
+        }
+
+        void advance(long seconds) {
+            now += TimeUnit.SECONDS.toNanos(seconds);
+        }
+    }
+
+    FakeMauticServer acmeServer;
+    FakeMauticServer globexServer;
+    MauticTenantRegistry registry;
+
+    @After
+    public void finish() throws Exception {
+        if( registry!=null ) {
+            registry.close();
+        }
+        if( acmeServer!=null ) {
+            acmeServer.close();
+        }
+        if( globexServer!=null ) {
+            globexServer.close();
+        }
+    }
+
+    static MauticTenantRegistry.Tenant tenant(FakeMauticServer server, int expiresInSeconds) {
+        return new MauticTenantRegistry.Tenant(server.getUrl())
+            .credentials("key", "secret")
+            .tokens(server.getAccessToken(), server.getRefreshToken(),
+                new Date(System.currentTimeMillis() + expiresInSeconds*1000L));
+    }
+
+    @Test
+    public void testClientsAreCreatedLazilyAndShareResources() throws Exception {
+        acmeServer = new FakeMauticServer().contacts(10).start();
+        globexServer = new FakeMauticServer().contacts(20).start();
+        registry = new MauticTenantRegistry()
+            .register("acme", tenant(acmeServer, 3600))
+            .register("globex", tenant(globexServer, 3600));
+        assertEquals(2, registry.getTenantCount());
+        assertEquals(0, registry.getActiveCount());
+
+        MauticApi acme = registry.getApi("acme");
+        assertSame(acme, registry.getApi("acme"));
+        assertEquals(0, registry.getActiveCount());
+        assertEquals(10, acme.listContacts(null).total);
+        assertEquals(1, registry.getActiveCount());
+        MauticApi globex = registry.getApi("globex");
+        assertNotSame(acme, globex);
+        assertEquals(20, globex.listContacts(null).total);
+
+        assertSame(acme.parser, globex.parser);
+        assertSame(acme.mapper, globex.mapper);
+        assertSame(registry.tenants.get("acme").service.transport, registry.tenants.get("globex").service.transport);
+        // one refresh for each tenant, and the eviction task, all in the same thread
+        assertEquals(3, registry.refreshScheduler.getScheduledCount());
+    }
+
+    @Test
+    public void testUnknownTenant() throws Exception {
+        registry = new MauticTenantRegistry();
+        try {
+            registry.getApi("nobody");
+            fail("Expected a MauticException");
+        }
+        catch(MauticException e) {
+            assertEquals("Unknown tenant: nobody", e.getMessage());
+        }
+        assertNull(registry.unregister("nobody"));
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws Exception {
+        acmeServer = new FakeMauticServer().start();
+        ManualClockRegistry clockRegistry = new ManualClockRegistry();
+        registry = clockRegistry.idleTimeout(1, TimeUnit.MINUTES)
+            .register("acme", tenant(acmeServer, 3600));
+
+        // the client is kept by the caller, and each request counts as a use
+        MauticApi acme = registry.getApi("acme");
+        assertEquals(1, acme.getContact(1).contact.id);
+        clockRegistry.advance(50);
+        assertEquals(0, registry.evictIdle());
+        assertEquals(2, acme.getContact(2).contact.id);
+        clockRegistry.advance(50);
+        assertEquals(0, registry.evictIdle());
+        assertEquals(1, registry.getActiveCount());
+
+        clockRegistry.advance(10);
+        assertEquals(1, registry.evictIdle());
+        assertEquals(0, registry.getActiveCount());
+        // the eviction task is the only one left
+        assertEquals(1, registry.refreshScheduler.getScheduledCount());
+
+        // the same client connects again
+        assertSame(acme, registry.getApi("acme"));
+        assertEquals(3, acme.getContact(3).contact.id);
+        assertEquals(1, registry.getActiveCount());
+        assertEquals(0, registry.evictIdle());
+    }
+
+    @Test
+    public void testRequestsInFlightAreNotEvicted() throws Exception {
+        acmeServer = new FakeMauticServer().latency(300, 0).start();
+        ManualClockRegistry clockRegistry = new ManualClockRegistry();
+        registry = clockRegistry.idleTimeout(1, TimeUnit.MINUTES)
+            .register("acme", tenant(acmeServer, 3600));
+        final MauticApi acme = registry.getApi("acme");
+        final int[] id = new int[1];
+        Thread request = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    id[0] = acme.getContact(4).contact.id;
+                }
+                catch(MauticException e) {
+                    id[0] = -1;
+                }
+            }
+        });
+        request.start();
+
+        MauticTenantRegistry.Entry entry = registry.tenants.get("acme");
+        long deadline = System.currentTimeMillis() + 5000;
+        while( System.currentTimeMillis()<deadline ) {
+            synchronized(entry) {
+                if( entry.inFlight>0 ) {
+                    break;
+                }
+            }
+            Thread.sleep(1);
+        }
+        clockRegistry.advance(120);
+        assertEquals(0, registry.evictIdle());
+        request.join();
+        assertEquals(4, id[0]);
+
+        clockRegistry.advance(120);
+        assertEquals(1, registry.evictIdle());
+    }
+
+    @Test
+    public void testRefreshedTokensSurviveEviction() throws Exception {
+        acmeServer = new FakeMauticServer().tokenExpiresIn(2).start();
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        final String[] refreshedId = new String[1];
+        ManualClockRegistry clockRegistry = new ManualClockRegistry();
+        registry = clockRegistry.idleTimeout(1, TimeUnit.MINUTES)
+            .refreshMargin(0)
+            .tenantListener(new MauticTenantRegistry.TenantListener() {
+                public void onTokenRefreshed(String tenantId, MauticTenantRegistry.Tenant tenant) {
+                    refreshedId[0] = tenantId;
+                    refreshed.countDown();
+                }
+            });
+        MauticTenantRegistry.Tenant tenant = tenant(acmeServer, 1);
+        registry.register("acme", tenant);
+        String firstRefreshToken = tenant.getRefreshToken();
+
+        MauticApi acme = registry.getApi("acme");
+        assertEquals(1, acme.getContact(1).contact.id);
+        // refreshed in the background, without any other request
+        assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+        assertEquals("acme", refreshedId[0]);
+        assertNotEquals(firstRefreshToken, tenant.getRefreshToken());
+        assertTrue(tenant.getAccessTokenExpiration().after(new Date()));
+
+        // the new connection uses the refreshed tokens, so it can refresh them again
+        clockRegistry.advance(60);
+        assertEquals(1, registry.evictIdle());
+        String secondRefreshToken = tenant.getRefreshToken();
+        assertEquals(2, acme.getContact(2).contact.id);
+        OAuth2Service service = registry.tenants.get("acme").service;
+        assertEquals(secondRefreshToken, service.getRefreshToken());
+        assertTrue(service.refreshToken(secondRefreshToken));
+        assertEquals(service.getRefreshToken(), tenant.getRefreshToken());
+
+        assertSame(tenant, registry.unregister("acme"));
+        try {
+            acme.getContact(3);
+            fail("Expected a MauticException");
+        }
+        catch(MauticException e) {
+            assertEquals("Tenant acme is no longer registered", e.getMessage());
+        }
+        registry.register("acme", tenant);
+        assertEquals(3, registry.getApi("acme").getContact(3).contact.id);
+    }
+
+    @Test
+    public void testSharedTransportIsNotClosed() throws Exception {
+        acmeServer = new FakeMauticServer().start();
+        PooledHttpTransport transport = new PooledHttpTransport();
+        TokenRefreshScheduler scheduler = new TokenRefreshScheduler();
+        try {
+            registry = new MauticTenantRegistry(transport, scheduler)
+                .register("acme", tenant(acmeServer, 3600));
+            MauticApi acme = registry.getApi("acme");
+            assertEquals(1, acme.getContact(1).contact.id);
+            registry.close();
+            try {
+                acme.getContact(1);
+                fail("Expected a MauticException");
+            }
+            catch(MauticException e) {
+                assertEquals("The tenant registry is closed", e.getMessage());
+            }
+            assertEquals(0, registry.getActiveCount());
+            assertEquals(0, scheduler.getScheduledCount());
+            try {
+                registry.getApi("acme");
+                fail("Expected a MauticException");
+            }
+            catch(MauticException e) {
+                assertEquals("The tenant registry is closed", e.getMessage());
+            }
+
+            MauticApi mauticApi = new OAuth2Service()
+                .instanceUrl(acmeServer.getUrl())
+                .accessToken(acmeServer.getAccessToken())
+                .transport(transport)
+                .refreshScheduler(scheduler)
+                .build();
+            assertEquals(2, mauticApi.getContact(2).contact.id);
+        }
+        finally {
+            scheduler.close();
+            transport.close();
+        }
+    }
+}
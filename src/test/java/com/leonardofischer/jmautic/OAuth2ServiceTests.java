@@ -114,8 +114,7 @@ public class OAuth2ServiceTests {
             .accessToken(accessToken)
             .initService();
 
-        Request request = new Request();
-        request.setEndpoint("/api/contacts");
+        Request request = Request.get("/api/contacts");
         Object obj = service.executeRequest(request);
 
         System.out.println("Result: "+obj);
@@ -138,8 +137,7 @@ public class OAuth2ServiceTests {
             fail("Cant refresh token");
         }
 
-        Request request = new Request();
-        request.setEndpoint("/api/contacts");
+        Request request = Request.get("/api/contacts");
         InputStream inputStream = service.executeRequest(request);
 
         StringWriter writer = new StringWriter();
@@ -168,8 +166,7 @@ public class OAuth2ServiceTests {
                 .accessToken(accessToken)
                 .initService();
 
-            Request request = new Request();
-            request.setEndpoint("/invalid/url");
+            Request request = Request.get("/invalid/url");
             service.executeRequest(request);
 
             fail();
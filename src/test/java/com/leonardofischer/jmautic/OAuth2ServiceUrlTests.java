@@ -0,0 +1,95 @@
+package com.leonardofischer.jmautic;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.leonardofischer.jmautic.http.ContentDecoding;
+import com.leonardofischer.jmautic.http.HttpResponse;
+import com.leonardofischer.jmautic.http.HttpTransport;
+import com.leonardofischer.jmautic.oauth.Request;
+
+import java.io.ByteArrayInputStream;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.Map;
+
+public class OAuth2ServiceUrlTests {
+
+    static class CapturingTransport implements HttpTransport {
+        String url;
+        Map<String,String> headers;
+        byte[] body;
+
+        public HttpResponse execute(Request.Method method, String url, Map<String,String> headers,
+                byte[] body) {
+            this.url = url;
+            this.headers = headers;
+            this.body = body;
+            return new HttpResponse(200, Collections.<String,String>emptyMap(),
+                new ByteArrayInputStream(new byte[0]));
+        }
+
+        public void close() {
+        }
+    }
+
+    CapturingTransport transport = new CapturingTransport();
+
+    OAuth2Service service(String accessToken) {
+        return new OAuth2Service()
+            .instanceUrl("https://mautic.example.com")
+            .accessToken(accessToken)
+            .transport(transport);
+    }
+
+    @Test
+    public void testBuildsUrlWithEncodedParameters() throws Exception {
+        OAuth2Service service = service("token");
+        service.executeRequest(Request.builder()
+            .endpoint("/api/contacts")
+            .parameter("search", "email:*@example.com")
+            .parameter("limit", "100")
+            .parameter("orderBy", "date_modified")
+            .build());
+        assertEquals("https://mautic.example.com/api/contacts?access_token=token" +
+            "&search=email%3A*%40example.com&limit=100&orderBy=date_modified", transport.url);
+        assertEquals(ContentDecoding.ACCEPT_ENCODING, transport.headers.get("Accept-Encoding"));
+        assertNull(transport.body);
+    }
+
+    @Test
+    public void testEncodingMatchesUrlEncoder() throws Exception {
+        String[] values = { "", "abc", "a b", "a+b", "caf\u00e9", "x/y?z=1&w", "-_.*~", "\u65e5\u672c" };
+        for( int i=0; i<values.length; i++ ) {
+            StringBuilder builder = new StringBuilder();
+            OAuth2Service.appendEncoded(builder, values[i]);
+            assertEquals(URLEncoder.encode(values[i], "UTF-8"), builder.toString());
+        }
+    }
+
+    @Test
+    public void testUsesNewTokenAfterChange() throws Exception {
+        OAuth2Service service = service("first");
+        service.executeRequest(Request.get("/api/contacts/1"));
+        assertEquals("https://mautic.example.com/api/contacts/1?access_token=first", transport.url);
+
+        service.accessToken("second/token+");
+        service.executeRequest(Request.get("/api/contacts/1"));
+        assertEquals("https://mautic.example.com/api/contacts/1?access_token=second%2Ftoken%2B", transport.url);
+    }
+
+    @Test
+    public void testFormBody() throws Exception {
+        OAuth2Service service = service("token").compression(false);
+        service.executeRequest(Request.builder()
+            .method(Request.Method.POST)
+            .endpoint("/api/contacts/new")
+            .bodyParameter("email", "a+b@example.com")
+            .bodyParameter("firstname", "Jo\u00e3o")
+            .build());
+        assertEquals("https://mautic.example.com/api/contacts/new?access_token=token", transport.url);
+        assertEquals("email=a%2Bb%40example.com&firstname=Jo%C3%A3o", new String(transport.body, "UTF-8"));
+        assertEquals("application/x-www-form-urlencoded", transport.headers.get("Content-Type"));
+        assertNull(transport.headers.get("Accept-Encoding"));
+    }
+}
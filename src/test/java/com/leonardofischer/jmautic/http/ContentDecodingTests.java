@@ -0,0 +1,79 @@
+package com.leonardofischer.jmautic.http;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+public class ContentDecodingTests {
+
+    static final String JSON = "{\"total\":2,\"leads\":[{\"id\":1,\"email\":\"a@example.com\"}," +
+        "{\"id\":2,\"email\":\"b@example.com\"}]}";
+
+    static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(output);
+        gzip.write(content.getBytes("UTF-8"));
+        gzip.close();
+        return output.toByteArray();
+    }
+
+    static byte[] deflate(String content, boolean zlibHeader) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(output,
+            new Deflater(Deflater.DEFAULT_COMPRESSION, !zlibHeader));
+        deflate.write(content.getBytes("UTF-8"));
+        deflate.close();
+        return output.toByteArray();
+    }
+
+    static String read(InputStream input) throws IOException {
+        try {
+            return IOUtils.toString(input, "UTF-8");
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        assertEquals(JSON, read(ContentDecoding.decode(new ByteArrayInputStream(gzip(JSON)), "gzip")));
+        assertEquals(JSON, read(ContentDecoding.decode(new ByteArrayInputStream(gzip(JSON)), " GZIP ")));
+    }
+
+    @Test
+    public void testDeflateWithAndWithoutZlibHeader() throws Exception {
+        assertEquals(JSON, read(ContentDecoding.decode(new ByteArrayInputStream(deflate(JSON, true)), "deflate")));
+        assertEquals(JSON, read(ContentDecoding.decode(new ByteArrayInputStream(deflate(JSON, false)), "deflate")));
+    }
+
+    @Test
+    public void testIdentityAndEmptyBodies() throws Exception {
+        InputStream plain = new ByteArrayInputStream(JSON.getBytes("UTF-8"));
+        assertSame(plain, ContentDecoding.decode(plain, null));
+        assertSame(plain, ContentDecoding.decode(plain, "identity"));
+        assertEquals("", read(ContentDecoding.decode(new ByteArrayInputStream(new byte[0]), "gzip")));
+    }
+
+    @Test(expected=IOException.class)
+    public void testUnsupportedEncoding() throws Exception {
+        ContentDecoding.decode(new ByteArrayInputStream(new byte[0]), "br");
+    }
+
+    @Test
+    public void testErrorBodiesAreDecoded() throws Exception {
+        HttpResponse response = new HttpResponse(500, Collections.singletonMap("content-encoding", "gzip"),
+            new ByteArrayInputStream(gzip("{\"error\":\"oops\"}")));
+        assertEquals("{\"error\":\"oops\"}", response.getBodyAsString());
+    }
+}
@@ -0,0 +1,83 @@
+package com.leonardofischer.jmautic.http;
+
+import com.leonardofischer.jmautic.oauth.Request;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import static org.junit.Assert.*;
+
+public class PooledHttpTransportTests {
+
+    HttpServer server;
+    String baseUrl;
+    final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] body = ("{\"path\":\"" + exchange.getRequestURI().getPath() + "\"}").getBytes("UTF-8");
+                int code = exchange.getRequestURI().getPath().equals("/missing") ? 404 : 200;
+                exchange.sendResponseHeaders(code, body.length);
+                OutputStream output = exchange.getResponseBody();
+                output.write(body);
+                output.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void finish() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        PooledHttpTransport transport = new PooledHttpTransport().maxConnectionsPerHost(1);
+        try {
+            Map<String,String> headers = new HashMap<String,String>();
+            for( int i=0; i<10; i++ ) {
+                HttpResponse response = transport.execute(Request.Method.GET, baseUrl + "/api/contacts/" + i,
+                    headers, null);
+                assertEquals(200, response.getCode());
+                assertEquals("{\"path\":\"/api/contacts/" + i + "\"}", response.getBodyAsString());
+            }
+            assertEquals(1, clientPorts.size());
+        }
+        finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void testErrorResponse() throws Exception {
+        PooledHttpTransport transport = new PooledHttpTransport();
+        try {
+            HttpResponse response = transport.execute(Request.Method.GET, baseUrl + "/missing",
+                new HashMap<String,String>(), null);
+            assertEquals(404, response.getCode());
+            response.close();
+        }
+        finally {
+            transport.close();
+        }
+    }
+}
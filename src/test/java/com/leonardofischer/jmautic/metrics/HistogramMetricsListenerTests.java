@@ -0,0 +1,150 @@
+package com.leonardofischer.jmautic.metrics;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.leonardofischer.jmautic.ContactJsonGenerator;
+import com.leonardofischer.jmautic.MauticApi;
+import com.leonardofischer.jmautic.MauticException;
+import com.leonardofischer.jmautic.OAuth2Service;
+import com.leonardofischer.jmautic.http.HttpResponse;
+import com.leonardofischer.jmautic.http.HttpTransport;
+import com.leonardofischer.jmautic.model.*;
+import com.leonardofischer.jmautic.oauth.Request;
+import com.leonardofischer.jmautic.parser.ContactConsumer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+public class HistogramMetricsListenerTests {
+
+    /**
+     * Answers every request with the given status and body.
+     */
+    static class StubTransport implements HttpTransport {
+        int code = 200;
+        String body;
+        boolean gzip = false;
+        Map<String,String> requestHeaders;
+
+        public HttpResponse execute(Request.Method method, String url, Map<String,String> headers,
+                byte[] requestBody) throws IOException {
+            requestHeaders = headers;
+            if( gzip ) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream output = new GZIPOutputStream(compressed);
+                output.write(body.getBytes("UTF-8"));
+                output.close();
+                return new HttpResponse(code, Collections.singletonMap("Content-Encoding", "gzip"),
+                    new ByteArrayInputStream(compressed.toByteArray()));
+            }
+            return new HttpResponse(code, Collections.<String,String>emptyMap(),
+                new ByteArrayInputStream(body.getBytes("UTF-8")));
+        }
+
+        public void close() {
+        }
+    }
+
+    StubTransport transport = new StubTransport();
+    final List<RequestMetrics> reported = new ArrayList<RequestMetrics>();
+    HistogramMetricsListener histograms = new HistogramMetricsListener();
+
+    MauticApi buildApi() {
+        OAuth2Service service = new OAuth2Service()
+            .instanceUrl("https://mautic.example.com")
+            .accessToken("token")
+            .transport(transport)
+            .metricsListener(new MetricsListener() {
+                public void onRequest(RequestMetrics metrics) {
+                    reported.add(metrics);
+                    histograms.onRequest(metrics);
+                }
+            });
+        return new MauticApi(service);
+    }
+
+    @Test
+    public void testMetricsOfParsedRequests() throws Exception {
+        MauticApi api = buildApi();
+        ContactJsonGenerator generator = new ContactJsonGenerator(16);
+
+        transport.body = generator.getContact(12);
+        api.getContact(12);
+        transport.body = generator.listContacts(1, 30, 100);
+        api.listContacts();
+
+        assertEquals(2, reported.size());
+        RequestMetrics getContact = reported.get(0);
+        assertEquals("/api/contacts/12", getContact.endpoint);
+        assertEquals(Request.Method.GET, getContact.method);
+        assertEquals(200, getContact.statusCode);
+        assertEquals(generator.getContact(12).getBytes("UTF-8").length, getContact.responseBytes);
+        assertEquals(1, getContact.contactCount);
+        assertTrue(getContact.parseNanos>=0);
+        assertTrue(getContact.networkNanos>=getContact.timeToFirstByteNanos);
+        assertTrue(getContact.isSuccess());
+        assertEquals(30, reported.get(1).contactCount);
+
+        EndpointMetrics endpoint = histograms.getEndpoint("GET /api/contacts/{id}");
+        assertEquals(1, endpoint.getRequestCount());
+        assertEquals(1, endpoint.getParse().getCount());
+        assertEquals(30, histograms.getEndpoint("GET /api/contacts").getContactCount());
+    }
+
+    @Test
+    public void testMetricsOfStreamingAndFailedRequests() throws Exception {
+        MauticApi api = buildApi();
+        transport.body = new ContactJsonGenerator(4).listContacts(1, 5, 5);
+        api.listContacts(null, new ContactConsumer() {
+            public void accept(Contact contact) {
+            }
+        });
+        assertEquals(5, reported.get(0).contactCount);
+
+        transport.code = 500;
+        transport.body = "{\"error\":\"oops\"}";
+        try {
+            api.getContact(1);
+            fail("Expecting a MauticException");
+        }
+        catch(MauticException e) {
+            // expected
+        }
+        assertEquals(2, reported.size());
+        assertEquals(500, reported.get(1).statusCode);
+        assertFalse(reported.get(1).isSuccess());
+        assertEquals(-1, reported.get(1).parseNanos);
+        assertEquals(1, histograms.getEndpoint("GET /api/contacts/{id}").getErrorCount());
+    }
+
+    @Test
+    public void testEndpointKeys() {
+        assertEquals("GET /api/contacts/{id}", HistogramMetricsListener.endpointKey(
+            new RequestMetrics(Request.Method.GET, "/api/contacts/123")));
+        assertEquals("POST /api/contacts/batch/new", HistogramMetricsListener.endpointKey(
+            new RequestMetrics(Request.Method.POST, "/api/contacts/batch/new")));
+    }
+
+    @Test
+    public void testCompressedResponses() throws Exception {
+        MauticApi api = buildApi();
+        transport.gzip = true;
+        transport.body = new ContactJsonGenerator(32).listContacts(1, 100, 100);
+        ListContactsResult result = api.listContacts();
+
+        assertEquals(100, result.contacts.size());
+        assertEquals("gzip, deflate", transport.requestHeaders.get("Accept-Encoding"));
+        RequestMetrics metrics = reported.get(0);
+        assertEquals("gzip", metrics.contentEncoding);
+        assertEquals(transport.body.getBytes("UTF-8").length, metrics.responseBytes);
+        assertTrue(metrics.wireBytes*5 < metrics.responseBytes);
+        assertEquals(1, histograms.getEndpoint("GET /api/contacts").getCompressedCount());
+    }
+}
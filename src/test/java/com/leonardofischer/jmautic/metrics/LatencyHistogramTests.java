@@ -0,0 +1,49 @@
+package com.leonardofischer.jmautic.metrics;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LatencyHistogramTests {
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for( long value=1; value<=10000; value++ ) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000000, histogram.getMax());
+        assertEquals(5000500, histogram.getMean(), 0.001);
+        assertWithin(5000000, histogram.getValueAtPercentile(50));
+        assertWithin(9900000, histogram.getValueAtPercentile(99));
+        assertEquals(10000000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testBucketsCoverAllValues() {
+        long[] values = { 0, 1, 63, 64, 65, 127, 128, 1000, 123456789, Long.MAX_VALUE };
+        for( int i=0; i<values.length; i++ ) {
+            int index = LatencyHistogram.indexOf(values[i]);
+            long highest = LatencyHistogram.highestValueAt(index);
+            assertTrue(values[i] + " -> " + highest, highest>=values[i]);
+            assertWithin(values[i], highest);
+        }
+    }
+
+    @Test
+    public void testEmptyAndClear() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        histogram.record(-5);
+        histogram.record(42);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        histogram.clear();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+            Math.abs(actual - expected) <= Math.max(1, expected * 0.016));
+    }
+}
@@ -0,0 +1,78 @@
+package com.leonardofischer.jmautic.model;
+
+import com.leonardofischer.jmautic.ContactJsonGenerator;
+import com.leonardofischer.jmautic.parser.Parser;
+
+import java.io.ByteArrayInputStream;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompactContactTests {
+
+    private Contact parseContact(int id, int fields) throws Exception {
+        String json = new ContactJsonGenerator(fields).getContact(id);
+        return new Parser().parseGetContact(new ByteArrayInputStream(json.getBytes("UTF-8"))).contact;
+    }
+
+    @Test
+    public void compactKeepsAllValues() throws Exception {
+        Contact contact = parseContact(7, 20);
+        FieldSchema schema = new FieldSchema();
+        CompactContact compact = schema.compact(contact);
+
+        assertEquals(contact.id, compact.id);
+        assertEquals(contact.dateModified, compact.dateModified);
+        assertEquals(contact.allFields, compact.getAllFields());
+        assertEquals(contact.allFields.get("email"), compact.getFieldValue("email"));
+        assertNull(compact.getFieldValue("unknown"));
+
+        List<ContactField> fields = compact.getFields();
+        assertEquals(contact.fields.size(), fields.size());
+        for( int i=0; i<fields.size(); i++ ) {
+            ContactField expected = contact.fields.get(i);
+            ContactField actual = fields.get(i);
+            assertEquals(expected.alias, actual.alias);
+            assertEquals(expected.group, actual.group);
+            assertEquals(expected.label, actual.label);
+            assertEquals(expected.type, actual.type);
+            assertEquals(expected.fieldOrder, actual.fieldOrder);
+            assertEquals(expected.value, actual.value);
+        }
+
+        Contact restored = compact.toContact();
+        assertEquals(contact.allFields, restored.allFields);
+        assertEquals(contact.fields.size(), restored.fields.size());
+    }
+
+    @Test
+    public void contactsShareFieldMetadata() throws Exception {
+        FieldSchema schema = new FieldSchema();
+        CompactContact first = schema.compact(parseContact(1, 20));
+        CompactContact second = schema.compact(parseContact(2, 20));
+
+        assertEquals(20, schema.size());
+        assertSame(schema.getDefinition(schema.slotOf("email")),
+            schema.getDefinition(schema.slotOf("email")));
+        assertSame(first.getFields().get(0).label, second.getFields().get(0).label);
+        assertNotEquals(first.getFieldValue("email"), second.getFieldValue("email"));
+    }
+
+    @Test
+    public void missingFieldsAreNotInTheViews() throws Exception {
+        FieldSchema schema = new FieldSchema();
+        schema.compact(parseContact(1, 30));
+        Contact smaller = parseContact(2, 10);
+        CompactContact compact = schema.compact(smaller);
+
+        assertEquals(30, schema.size());
+        assertEquals(smaller.allFields.size(), compact.getAllFields().size());
+        assertEquals(smaller.fields.size(), compact.getFields().size());
+        Iterator<String> it = compact.getAllFields().keySet().iterator();
+        while( it.hasNext() ) {
+            assertTrue(smaller.allFields.containsKey(it.next()));
+        }
+    }
+}
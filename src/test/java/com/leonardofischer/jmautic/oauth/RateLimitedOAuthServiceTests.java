@@ -0,0 +1,150 @@
+package com.leonardofischer.jmautic.oauth;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.leonardofischer.jmautic.MauticException;
+import com.leonardofischer.jmautic.MauticStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+public class RateLimitedOAuthServiceTests {
+
+    static class StatusService implements OAuthService {
+        int statusCode = 200;
+        long retryAfterMillis = -1;
+
+        public InputStream executeRequest(Request request) throws MauticException {
+            if( statusCode!=200 ) {
+                throw new MauticStatusException("Invalid status code " + statusCode, statusCode, retryAfterMillis);
+            }
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+
+    @Test
+    public void testRequestsWaitForTheRate() throws Exception {
+        RateLimitedOAuthService limited = new RateLimitedOAuthService(new StatusService(), 20).burst(1);
+        long start = System.nanoTime();
+        for( int i=0; i<11; i++ ) {
+            limited.executeRequest(Request.get("/api/contacts"));
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis>=450);
+        assertEquals(11, limited.getRequestCount());
+        assertTrue(limited.getTotalWaitMillis()>=400);
+    }
+
+    @Test
+    public void testAdaptiveRateBacksOffOnOverload() throws Exception {
+        StatusService service = new StatusService();
+        RateLimitedOAuthService limited = new RateLimitedOAuthService(service, 100).adaptive(10);
+
+        service.statusCode = 429;
+        for( int i=0; i<3; i++ ) {
+            try {
+                limited.executeRequest(Request.get("/api/contacts"));
+                fail("Expecting a MauticStatusException");
+            }
+            catch(MauticStatusException e) {
+                assertEquals(429, e.getStatusCode());
+            }
+        }
+        // errors close together count as a single signal
+        assertEquals(50, limited.getCurrentRate(), 0.001);
+        assertEquals(3, limited.getThrottledCount());
+        assertEquals(1, limited.getRateDecreaseCount());
+
+        // other errors do not change the rate
+        service.statusCode = 400;
+        try {
+            limited.executeRequest(Request.get("/api/contacts"));
+        }
+        catch(MauticStatusException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+        assertEquals(50, limited.getCurrentRate(), 0.001);
+    }
+
+    @Test
+    public void testMixedEndpointsDoNotCutTheRate() throws Exception {
+        final long[] listLatencyMillis = { 30 };
+        OAuthService service = new OAuthService() {
+            public InputStream executeRequest(Request request) throws MauticException {
+                try {
+                    // single contacts are fast, large pages are slow
+                    Thread.sleep(request.getEndpoint().equals("/api/contacts") ? listLatencyMillis[0] : 2);
+                }
+                catch(InterruptedException e) {
+                    throw new MauticException("Interrupted", e);
+                }
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+        RateLimitedOAuthService limited = new RateLimitedOAuthService(service, 1000).adaptive(10);
+        for( int i=0; i<40; i++ ) {
+            limited.executeRequest(Request.get("/api/contacts/" + (i+1)));
+            limited.executeRequest(Request.get("/api/contacts"));
+        }
+        assertEquals(0, limited.getRateDecreaseCount());
+        assertEquals(1000, limited.getCurrentRate(), 0.001);
+
+        // an endpoint getting much slower than usual is still an overload
+        listLatencyMillis[0] = 200;
+        for( int i=0; i<4; i++ ) {
+            limited.executeRequest(Request.get("/api/contacts"));
+        }
+        assertEquals(1, limited.getRateDecreaseCount());
+        assertEquals(500, limited.getCurrentRate(), 0.001);
+    }
+
+    @Test
+    public void testUsualLatencyFollowsTheServer() throws Exception {
+        RateLimitedOAuthService limited = new RateLimitedOAuthService(new StatusService(), 1000).adaptive(10);
+        String endpoint = "GET /api/contacts/{id}";
+        // one unusually fast response does not stay as the usual response time
+        limited.onSuccess(endpoint, 100000);
+        for( int i=0; i<500; i++ ) {
+            limited.onSuccess(endpoint, 2000000);
+        }
+        RateLimitedOAuthService.EndpointLatency latency = limited.endpointLatencies.get(endpoint);
+        assertEquals(2000000, latency.baselineNanos, 200000);
+        assertEquals(1, limited.getRateDecreaseCount());
+    }
+
+    @Test
+    public void testRetryAfterBlocksAllRequests() throws Exception {
+        StatusService service = new StatusService();
+        RateLimitedOAuthService limited = new RateLimitedOAuthService(service, 1000);
+
+        service.statusCode = 503;
+        service.retryAfterMillis = 300;
+        try {
+            limited.executeRequest(Request.get("/api/contacts"));
+            fail("Expecting a MauticStatusException");
+        }
+        catch(MauticStatusException e) {
+            assertTrue(e.isOverloaded());
+        }
+
+        service.statusCode = 200;
+        long start = System.nanoTime();
+        limited.executeRequest(Request.get("/api/contacts"));
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis>=250);
+        // without adaptive mode the rate never changes
+        assertEquals(1000, limited.getCurrentRate(), 0.001);
+    }
+
+    @Test
+    public void testParseRetryAfter() throws Exception {
+        assertEquals(120000, MauticStatusException.parseRetryAfter("120", 0));
+        assertEquals(-1, MauticStatusException.parseRetryAfter(null, 0));
+        assertEquals(-1, MauticStatusException.parseRetryAfter("soon", 0));
+
+        long date = 784111777000L; // Sun, 06 Nov 1994 08:49:37 GMT
+        assertEquals(5000, MauticStatusException.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", date-5000));
+        assertEquals(0, MauticStatusException.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", date+5000));
+    }
+}
@@ -0,0 +1,78 @@
+package com.leonardofischer.jmautic.oauth;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class RequestTests {
+
+    @Test
+    public void testBuilderKeepsOrderAndReplacesValues() {
+        Request request = Request.builder()
+            .endpoint("/api/contacts")
+            .parameter("search", "a")
+            .parameter("limit", "10")
+            .parameter("search", "b")
+            .build();
+
+        assertEquals(Request.Method.GET, request.getMethod());
+        assertEquals(2, request.getParameterCount());
+        assertEquals("search", request.getParameterName(0));
+        assertEquals("b", request.getParameterValue(0));
+        assertEquals("limit", request.getParameterName(1));
+        assertEquals("{search=b, limit=10}", request.getParameters().toString());
+        assertTrue(request.getBodyParameters().isEmpty());
+        assertNull(request.getBody());
+    }
+
+    @Test
+    public void testBuiltRequestsDoNotChange() {
+        Request.Builder builder = Request.builder()
+            .method(Request.Method.POST)
+            .endpoint("/api/contacts/new")
+            .bodyParameter("email", "a@example.com");
+        Request first = builder.build();
+        builder.bodyParameter("email", "b@example.com").bodyParameter("city", "Sao Paulo");
+        Request second = builder.build();
+
+        assertEquals(1, first.getBodyParameterCount());
+        assertEquals("a@example.com", first.getBodyParameters().get("email"));
+        assertEquals(2, second.getBodyParameterCount());
+        assertEquals("b@example.com", second.getBodyParameterValue(0));
+
+        Map<String,String> parameters = first.getBodyParameters();
+        try {
+            parameters.put("city", "Porto Alegre");
+            fail("Expected an UnsupportedOperationException");
+        }
+        catch(UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testToBuilder() {
+        Request request = Request.builder()
+            .endpoint("/api/contacts")
+            .parameter("start", "0")
+            .parameter("limit", "30")
+            .build();
+        Request nextPage = request.toBuilder().parameter("start", "30").build();
+
+        assertEquals("0", request.getParameters().get("start"));
+        assertEquals("{start=30, limit=30}", nextPage.getParameters().toString());
+        assertEquals("/api/contacts", nextPage.getEndpoint());
+    }
+
+    @Test
+    public void testJsonBody() throws Exception {
+        Request request = Request.builder()
+            .method(Request.Method.POST)
+            .endpoint("/api/contacts/batch/new")
+            .jsonBody("[{\"email\":\"a@example.com\"}]")
+            .build();
+        assertEquals("application/json; charset=UTF-8", request.getBodyContentType());
+        assertEquals("[{\"email\":\"a@example.com\"}]", new String(request.getBody(), "UTF-8"));
+    }
+}
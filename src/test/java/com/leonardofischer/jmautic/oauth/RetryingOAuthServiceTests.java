@@ -0,0 +1,136 @@
+package com.leonardofischer.jmautic.oauth;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.leonardofischer.jmautic.MauticException;
+import com.leonardofischer.jmautic.MauticStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedList;
+
+public class RetryingOAuthServiceTests {
+
+    /**
+     * Fails with the given errors, in order, and then succeeds.
+     */
+    static class FailingService implements OAuthService {
+        LinkedList<MauticException> errors = new LinkedList<MauticException>();
+        int attempts;
+
+        FailingService fail(MauticException error) {
+            errors.add(error);
+            return this;
+        }
+
+        public InputStream executeRequest(Request request) throws MauticException {
+            attempts++;
+            if( !errors.isEmpty() ) {
+                throw errors.removeFirst();
+            }
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+
+    static MauticException status(int code) {
+        return new MauticStatusException("Invalid status code " + code, code, -1);
+    }
+
+    static MauticException readTimeout() {
+        return new MauticException("Read timed out", new SocketTimeoutException("Read timed out"));
+    }
+
+    static MauticException connectFailure() {
+        return new MauticException("Connection refused", new ConnectException("Connection refused"));
+    }
+
+    static Request post() {
+        return Request.builder().method(Request.Method.POST).endpoint("/api/contacts/new").build();
+    }
+
+    @Test
+    public void testGetIsRetriedOnTransientErrors() throws Exception {
+        FailingService service = new FailingService().fail(status(503)).fail(readTimeout());
+        RetryingOAuthService retrying = new RetryingOAuthService(service).backoff(1, 10);
+        assertNotNull(retrying.executeRequest(Request.get("/api/contacts")));
+        assertEquals(3, service.attempts);
+        assertEquals(2, retrying.getRetryCount());
+    }
+
+    @Test
+    public void testGetIsNotRetriedOnClientErrors() throws Exception {
+        FailingService service = new FailingService().fail(status(404));
+        RetryingOAuthService retrying = new RetryingOAuthService(service).backoff(1, 10);
+        try {
+            retrying.executeRequest(Request.get("/api/contacts"));
+            fail("Expecting a MauticStatusException");
+        }
+        catch(MauticStatusException e) {
+            assertEquals(404, e.getStatusCode());
+        }
+        assertEquals(1, service.attempts);
+    }
+
+    @Test
+    public void testPostIsRetriedOnlyOnConnectFailures() throws Exception {
+        FailingService service = new FailingService().fail(connectFailure());
+        RetryingOAuthService retrying = new RetryingOAuthService(service).backoff(1, 10);
+        assertNotNull(retrying.executeRequest(post()));
+        assertEquals(2, service.attempts);
+
+        service = new FailingService().fail(readTimeout());
+        retrying = new RetryingOAuthService(service).backoff(1, 10);
+        try {
+            retrying.executeRequest(post());
+            fail("Expecting a MauticException");
+        }
+        catch(MauticException e) {
+            assertEquals("Read timed out", e.getMessage());
+        }
+        assertEquals(1, service.attempts);
+    }
+
+    @Test
+    public void testMaxAttempts() throws Exception {
+        FailingService service = new FailingService().fail(status(500)).fail(status(502)).fail(status(504));
+        RetryingOAuthService retrying = new RetryingOAuthService(service).maxAttempts(3).backoff(1, 10);
+        try {
+            retrying.executeRequest(Request.get("/api/contacts"));
+            fail("Expecting a MauticStatusException");
+        }
+        catch(MauticStatusException e) {
+            assertEquals(504, e.getStatusCode());
+        }
+        assertEquals(3, service.attempts);
+    }
+
+    @Test
+    public void testDeadlineStopsRetries() throws Exception {
+        FailingService service = new FailingService()
+            .fail(new MauticStatusException("Invalid status code 429", 429, 5000));
+        RetryingOAuthService retrying = new RetryingOAuthService(service).deadline(1000);
+        long start = System.nanoTime();
+        try {
+            retrying.executeRequest(Request.get("/api/contacts"));
+            fail("Expecting a MauticStatusException");
+        }
+        catch(MauticStatusException e) {
+            assertEquals(429, e.getStatusCode());
+        }
+        assertTrue(System.nanoTime()-start < 1000000000L);
+        assertEquals(1, service.attempts);
+    }
+
+    @Test
+    public void testBackoffLimits() throws Exception {
+        RetryingOAuthService retrying = new RetryingOAuthService(new FailingService()).backoff(100, 1000);
+        for( int i=0; i<100; i++ ) {
+            assertTrue(retrying.backoffMillis(1)<=100);
+            assertTrue(retrying.backoffMillis(3)<=400);
+            assertTrue(retrying.backoffMillis(50)<=1000);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.leonardofischer.jmautic.parser;
+
+import java.util.Date;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import org.joda.time.format.ISODateTimeFormat;
+
+import org.junit.Test;
+import org.junit.Before;
+import static org.junit.Assert.*;
+
+public class DateDeserializerTests {
+
+    DateDeserializer deserializer;
+    JsonFactory factory;
+
+    @Before
+    public void setup() {
+        deserializer = new DateDeserializer();
+        factory = new JsonFactory();
+    }
+
+    Date deserialize(String text) throws Exception {
+        JsonParser jp = factory.createParser("[\"" + text + "\"]");
+        jp.nextToken();
+        jp.nextToken();
+        Date date = deserializer.deserialize(jp, null);
+        jp.close();
+        return date;
+    }
+
+    Date joda(String text) {
+        return ISODateTimeFormat.dateTimeParser().parseDateTime(text).toDate();
+    }
+
+    @Test
+    public void testMauticFormat() throws Exception {
+        assertEquals(new Date(1464117805000L), deserialize("2016-05-24T19:23:25+00:00"));
+        assertEquals(new Date(0L), deserialize("1970-01-01T00:00:00+00:00"));
+        assertEquals(new Date(1464117805000L), deserialize("2016-05-24T19:23:25Z"));
+    }
+
+    @Test
+    public void testSameResultAsJoda() throws Exception {
+        String[] dates = { "2016-02-29T23:59:59+00:00", "2000-03-01T00:00:00+00:00",
+            "1969-12-31T23:59:59+00:00", "1900-01-01T12:30:00+00:00", "2038-01-19T03:14:08+00:00",
+            "2016-05-24T19:23:25-03:00", "2016-05-24T01:23:25+05:30", "2016-12-31T23:00:00-11:00" };
+        for( int i=0; i<dates.length; i++ ) {
+            assertEquals(dates[i], joda(dates[i]), deserialize(dates[i]));
+        }
+    }
+
+    @Test
+    public void testFallbackToIsoParser() throws Exception {
+        String[] dates = { "2016-05-24T19:23:25.123+00:00", "2016-05-24", "2016-05-24T19:23+01:00" };
+        for( int i=0; i<dates.length; i++ ) {
+            assertEquals(dates[i], joda(dates[i]), deserialize(dates[i]));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDate() throws Exception {
+        deserialize("2016-02-30T19:23:25+00:00");
+    }
+}
@@ -1,9 +1,14 @@
 package com.leonardofischer.jmautic.parser;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 
+import com.leonardofischer.jmautic.MauticException;
 import com.leonardofischer.jmautic.model.*;
 
 import org.junit.Test;
@@ -135,4 +140,168 @@ public class ParserTests {
         assertEquals(22, getContactResult.contact.fields.size());
         assertEquals(1, getContactResult.contact.ipAddresses.size());
     }
+
+    @Test
+    public void testParseListContactsStreaming() throws Exception {
+        input = ParserTests.class.getClassLoader().getResourceAsStream("listContacts.json");
+        final List<Contact> contacts = new ArrayList<Contact>();
+        int total = parser.parseListContacts(input, new ContactConsumer() {
+            public void accept(Contact contact) {
+                contacts.add(contact);
+            }
+        });
+        input.close();
+
+        input = ParserTests.class.getClassLoader().getResourceAsStream("listContacts.json");
+        ListContactsResult expected = parser.parseListContacts(input);
+
+        assertEquals( expected.total, total );
+        assertEquals( expected.contacts.size(), contacts.size() );
+        for( int i=0; i<contacts.size(); i++ ) {
+            Contact expectedContact = expected.contacts.get(i);
+            Contact contact = contacts.get(i);
+            assertEquals( expectedContact.id, contact.id );
+            assertEquals( expectedContact.dateAdded, contact.dateAdded );
+            assertEquals( expectedContact.dateModified, contact.dateModified );
+            assertEquals( expectedContact.lastActive, contact.lastActive );
+            assertEquals( expectedContact.createdByUser, contact.createdByUser );
+            assertEquals( expectedContact.modifiedBy, contact.modifiedBy );
+            assertEquals( expectedContact.points, contact.points );
+            assertEquals( expectedContact.isPublished, contact.isPublished );
+            assertEquals( expectedContact.allFields, contact.allFields );
+            assertEquals( expectedContact.fields.size(), contact.fields.size() );
+            assertEquals( expectedContact.ipAddresses.size(), contact.ipAddresses.size() );
+        }
+
+        ContactField email = null;
+        Iterator<ContactField> fieldsIterator = contacts.get(0).fields.iterator();
+        while( fieldsIterator.hasNext() ) {
+            ContactField field = fieldsIterator.next();
+            if( field.alias.equals("email") ) {
+                email = field;
+            }
+        }
+        assertNotNull(email);
+        assertEquals("core", email.group);
+        assertEquals("6", email.id);
+        assertEquals("user123@example.com", email.value);
+
+        IPAddress ipAddress = contacts.get(0).ipAddresses.get(0);
+        assertEquals("192.168.1.198", ipAddress.ipAddress);
+        assertEquals("America/Sao_Paulo", ipAddress.timezone);
+    }
+
+    @Test
+    public void testParseListContactsWithProjection() throws Exception {
+        input = ParserTests.class.getClassLoader().getResourceAsStream("listContacts.json");
+        Projection projection = new Projection()
+            .properties("id", "dateModified")
+            .fields("email", "city");
+        ListContactsResult result = parser.parseListContacts(input, projection);
+        input.close();
+
+        input = ParserTests.class.getClassLoader().getResourceAsStream("listContacts.json");
+        ListContactsResult expected = parser.parseListContacts(input);
+
+        assertEquals( expected.total, result.total );
+        assertEquals( expected.contacts.size(), result.contacts.size() );
+        Contact contact = result.contacts.get(0);
+        assertEquals( expected.contacts.get(0).id, contact.id );
+        assertEquals( expected.contacts.get(0).dateModified, contact.dateModified );
+        assertNull( contact.dateAdded );
+        assertNull( contact.createdByUser );
+        assertNull( contact.color );
+        assertTrue( contact.ipAddresses.isEmpty() );
+
+        assertEquals( 2, contact.allFields.size() );
+        assertEquals( "user123@example.com", contact.allFields.get("email") );
+        assertEquals( "Sao Paulo", contact.allFields.get("city") );
+        assertEquals( 2, contact.fields.size() );
+        Iterator<ContactField> fieldsIterator = contact.fields.iterator();
+        while( fieldsIterator.hasNext() ) {
+            String alias = fieldsIterator.next().alias;
+            assertTrue( alias.equals("email") || alias.equals("city") );
+        }
+    }
+
+    @Test
+    public void testParseListContactsWithPropertiesOnlyProjection() throws Exception {
+        input = ParserTests.class.getClassLoader().getResourceAsStream("listContacts.json");
+        final List<Contact> contacts = new ArrayList<Contact>();
+        parser.parseListContacts(input, new ContactConsumer() {
+            public void accept(Contact contact) {
+                contacts.add(contact);
+            }
+        }, new Projection().properties("id", "ipAddresses"));
+
+        Contact contact = contacts.get(0);
+        assertTrue( contact.id>0 );
+        assertNull( contact.allFields );
+        assertTrue( contact.fields.isEmpty() );
+        assertEquals( "192.168.1.198", contact.ipAddresses.get(0).ipAddress );
+    }
+
+    @Test
+    public void testParseListContactsStreamingStopsOnConsumerException() throws Exception {
+        input = ParserTests.class.getClassLoader().getResourceAsStream("listContacts.json");
+        final List<Contact> contacts = new ArrayList<Contact>();
+        try {
+            parser.parseListContacts(input, new ContactConsumer() {
+                public void accept(Contact contact) throws MauticException {
+                    contacts.add(contact);
+                    throw new MauticException("stop");
+                }
+            });
+            fail();
+        }
+        catch(MauticException e) {
+            assertEquals("stop", e.getMessage());
+        }
+        assertEquals(1, contacts.size());
+    }
+
+    @Test
+    public void testParseDrainsAndClosesStreamOnError() throws Exception {
+        final boolean[] closed = new boolean[1];
+        ByteArrayInputStream brokenJson = new ByteArrayInputStream(
+                "{\"lead\":{\"id\":1,,}} trailing content".getBytes("UTF-8")) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        try {
+            parser.parseGetContact(brokenJson);
+            fail();
+        }
+        catch(MauticException e) {
+            // expected
+        }
+        assertTrue(closed[0]);
+        assertEquals(0, brokenJson.available());
+    }
+
+    @Test
+    public void testParseBatchContacts() throws Exception {
+        String json = "{\"contacts\":[{\"id\":10},{\"id\":11}],\"statusCodes\":[201,200],\"errors\":[]}";
+        List<BatchContactResult> results = parser.parseBatchContacts(
+            new ByteArrayInputStream(json.getBytes("UTF-8")), 2);
+        assertEquals(2, results.size());
+        assertEquals(10, results.get(0).contact.id);
+        assertEquals(201, results.get(0).statusCode);
+        assertEquals(11, results.get(1).contact.id);
+        assertEquals(200, results.get(1).statusCode);
+
+        json = "{\"contacts\":{\"1\":{\"id\":12}},\"statusCodes\":{\"0\":400,\"1\":201}," +
+            "\"errors\":{\"0\":{\"code\":400,\"message\":\"email: invalid\"}}}";
+        results = parser.parseBatchContacts(new ByteArrayInputStream(json.getBytes("UTF-8")), 3);
+        assertEquals(3, results.size());
+        assertFalse(results.get(0).isSuccess());
+        assertEquals("email: invalid", results.get(0).errorMessage);
+        assertEquals(400, results.get(0).statusCode);
+        assertEquals(12, results.get(1).contact.id);
+        assertTrue(results.get(1).isSuccess());
+        assertFalse(results.get(2).isSuccess());
+    }
 }